@@ -0,0 +1,293 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * OsmNetworkWithLanesAndSignalsReaderBenchmark.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.geometry.CoordinateTransformation;
+import org.matsim.core.utils.geometry.transformations.TransformationFactory;
+import org.matsim.example.OsmNetworkWithLanesAndSignalsReader.LinkVector;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks {@link OsmNetworkWithLanesAndSignalsReader} on
+ * <code>input/map_erp.osm</code>, end to end and stage by stage, and end to
+ * end on cities of {@link SyntheticOsmCityGenerator}. Every stage
+ * benchmark starts from the parsed osm data and runs the stages before the
+ * measured one in its setup, so only the measured stage is timed.
+ *
+ * Stages run single threaded, to make the numbers comparable between
+ * machines. The end to end benchmarks use all available processors, so they
+ * show the speed up of the parallel stages. Has to be started from the
+ * project directory, see
+ * {@link RunBenchmarks}.
+ *
+ * @author nschirrmacher
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OsmNetworkWithLanesAndSignalsReaderBenchmark {
+
+	private static final String OSM = "./input/map_erp.osm";
+
+	private static final CoordinateTransformation CT =
+			TransformationFactory.getCoordinateTransformation(TransformationFactory.WGS84, TransformationFactory.WGS84_UTM33N);
+
+	/*
+	 * The osm file parsed once into an intermediate file, to start the stages from.
+	 */
+	@State(Scope.Benchmark)
+	public static class ParsedOsm {
+		File intermediate;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			this.intermediate = File.createTempFile("map_erp", ".bin");
+			createReader(1).parseToIntermediate(OSM, this.intermediate.getPath());
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			this.intermediate.delete();
+		}
+	}
+
+	/*
+	 * Synthetic cities of growing size, to see how the conversion scales.
+	 */
+	@State(Scope.Benchmark)
+	public static class SyntheticCity {
+		@Param({ "10000", "100000", "1000000" })
+		int numberOfNodes;
+		File osm;
+
+		@Setup(Level.Trial)
+		public void setUp() throws IOException {
+			this.osm = File.createTempFile("synthetic_city", ".osm");
+			SyntheticOsmCityGenerator generator = new SyntheticOsmCityGenerator();
+			generator.setNumberOfNodes(this.numberOfNodes);
+			generator.write(this.osm.getPath());
+		}
+
+		@TearDown(Level.Trial)
+		public void tearDown() {
+			this.osm.delete();
+		}
+	}
+
+	/*
+	 * A reader with the parsed osm data, after the given number of stages.
+	 */
+	public abstract static class Stage {
+		OsmNetworkWithLanesAndSignalsReader reader;
+
+		abstract int stagesBefore();
+
+		@Setup(Level.Invocation)
+		public void setUp(ParsedOsm parsedOsm) {
+			this.reader = createReader(1);
+			this.reader.readIntermediate(parsedOsm.intermediate.getPath());
+			int stages = stagesBefore();
+			if (stages > 0)
+				this.reader.markUsedNodesAndPushSignals();
+			if (stages > 1)
+				this.reader.simplifyJunctions();
+			if (stages > 2)
+				this.reader.createNodesAndLinks();
+			if (stages > 3)
+				this.reader.fillLanes();
+			if (stages > 4)
+				this.reader.createSignals();
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class Parsed extends Stage {
+		@Override
+		int stagesBefore() {
+			return 0;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class NodesMarked extends Stage {
+		@Override
+		int stagesBefore() {
+			return 1;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class JunctionsSimplified extends Stage {
+		@Override
+		int stagesBefore() {
+			return 2;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class LinksCreated extends Stage {
+		@Override
+		int stagesBefore() {
+			return 3;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class LanesFilled extends Stage {
+		@Override
+		int stagesBefore() {
+			return 4;
+		}
+	}
+
+	@State(Scope.Thread)
+	public static class SignalsCreated extends Stage {
+		@Override
+		int stagesBefore() {
+			return 5;
+		}
+	}
+
+	/*
+	 * A four arm junction like in testVector, with one in link and four out links.
+	 */
+	@State(Scope.Thread)
+	public static class Junction {
+		OsmNetworkWithLanesAndSignalsReader reader;
+		Link fromLink;
+		List<Link> toLinks = new ArrayList<>();
+
+		@Setup(Level.Trial)
+		public void setUp() {
+			Scenario scenario = ScenarioUtils.createScenario(ConfigUtils.createConfig());
+			Network network = scenario.getNetwork();
+			this.reader = createReader(1);
+			Node center = network.getFactory().createNode(Id.createNodeId("center"), new Coord(0, 0));
+			Node south = network.getFactory().createNode(Id.createNodeId("south"), new Coord(0, -1));
+			this.fromLink = network.getFactory().createLink(Id.createLinkId("in"), south, center);
+			double[][] arms = { { 1, 0 }, { 0, 1 }, { -1, 0 }, { 0, -1 } };
+			for (int i = 0; i < arms.length; i++) {
+				Node node = network.getFactory().createNode(Id.createNodeId("arm" + i), new Coord(arms[i][0], arms[i][1]));
+				this.toLinks.add(network.getFactory().createLink(Id.createLinkId("out" + i), center, node));
+			}
+		}
+	}
+
+	@Benchmark
+	public Object endToEnd() {
+		OsmNetworkWithLanesAndSignalsReader reader = createReader(Runtime.getRuntime().availableProcessors());
+		reader.parse(OSM);
+		return reader;
+	}
+
+	@Benchmark
+	public Object endToEndSynthetic(SyntheticCity city) {
+		OsmNetworkWithLanesAndSignalsReader reader = createReader(Runtime.getRuntime().availableProcessors());
+		reader.parse(city.osm.getPath());
+		return reader;
+	}
+
+	@Benchmark
+	public Object parsing() {
+		OsmNetworkWithLanesAndSignalsReader reader = createReader(1);
+		reader.readOsm(OSM);
+		return reader;
+	}
+
+	@Benchmark
+	public Object markingUsedNodes(Parsed state) {
+		state.reader.markUsedNodesAndPushSignals();
+		return state.reader;
+	}
+
+	@Benchmark
+	public Object junctionClustering(NodesMarked state) {
+		state.reader.simplifyJunctions();
+		return state.reader;
+	}
+
+	@Benchmark
+	public Object linkCreation(JunctionsSimplified state) {
+		state.reader.createNodesAndLinks();
+		return state.reader;
+	}
+
+	@Benchmark
+	public Object laneFilling(LinksCreated state) {
+		state.reader.fillLanes();
+		return state.reader;
+	}
+
+	@Benchmark
+	public Object signalCreation(LanesFilled state) {
+		state.reader.createSignals();
+		return state.reader;
+	}
+
+	@Benchmark
+	public Object signalPlanGeneration(SignalsCreated state) {
+		state.reader.createSignalPlans();
+		return state.reader;
+	}
+
+	@Benchmark
+	public List<LinkVector> linkVectorOrdering(Junction junction) {
+		return junction.reader.orderToLinks(junction.fromLink, junction.toLinks);
+	}
+
+	private static OsmNetworkWithLanesAndSignalsReader createReader(int numberOfThreads) {
+		Scenario scenario = RunPNetworkGenerator.createScenario(RunPNetworkGenerator.createConfig());
+		OsmNetworkWithLanesAndSignalsReader reader = new OsmNetworkWithLanesAndSignalsReader(scenario.getNetwork(), CT,
+				(SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME), scenario.getLanes());
+		reader.setAssumptions(false, false, false, true, true, false, "realistic_very_restricted");
+		reader.setNumberOfThreads(numberOfThreads);
+		return reader;
+	}
+
+}
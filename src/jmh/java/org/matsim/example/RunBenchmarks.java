@@ -0,0 +1,58 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * RunBenchmarks.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Main class of <code>target/benchmarks.jar</code>, built with
+ * <code>mvn -P benchmarks package</code>. Runs the benchmarks with the gc
+ * profiler, which adds the allocation rate to the throughput, and writes
+ * the results to <code>benchmarks.csv</code> to compare them between
+ * versions. The command line is passed to JMH, so single benchmarks can be
+ * selected by a name pattern. Without a pattern, all benchmarks of
+ * {@link OsmNetworkWithLanesAndSignalsReaderBenchmark} run.
+ *
+ * @author nschirrmacher
+ */
+public class RunBenchmarks {
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		ChainedOptionsBuilder options = new OptionsBuilder()
+				.parent(commandLine)
+				.addProfiler(GCProfiler.class)
+				.result("benchmarks.csv")
+				.resultFormat(ResultFormatType.CSV);
+		// includes are added to the ones of the command line, so a pattern
+		// given there would not narrow the selection
+		if (commandLine.getIncludes().isEmpty())
+			options.include(OsmNetworkWithLanesAndSignalsReaderBenchmark.class.getSimpleName());
+		new Runner(options.build()).run();
+	}
+
+}
@@ -19,170 +19,411 @@
  * *********************************************************************** */
 package org.matsim.dgretherCopies;
 
-import java.util.LinkedList;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.signals.data.SignalsData;
-import org.matsim.contrib.signals.data.signalgroups.v20.SignalControlData;
 import org.matsim.contrib.signals.data.signalgroups.v20.SignalData;
 import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupData;
-import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupSettingsData;
-import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupsData;
 import org.matsim.contrib.signals.data.signalgroups.v20.SignalPlanData;
 import org.matsim.contrib.signals.data.signalgroups.v20.SignalSystemControllerData;
 import org.matsim.contrib.signals.data.signalsystems.v20.SignalSystemData;
-import org.matsim.contrib.signals.data.signalsystems.v20.SignalSystemsData;
 import org.matsim.contrib.signals.model.Signal;
 import org.matsim.contrib.signals.model.SignalGroup;
 import org.matsim.contrib.signals.model.SignalSystem;
-import org.matsim.core.utils.collections.Tuple;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
 import org.matsim.lanes.data.Lane;
 import org.matsim.lanes.data.Lanes;
 import org.matsim.lanes.data.LanesToLinkAssignment;
 
 
 /**
+ * Removes signals that are located at links or lanes which do not exist,
+ * afterwards removes groups without signals and systems without signals.
+ *
+ * The signals are validated concurrently, as this only reads network and
+ * lanes. All removals are then applied in one pass, using indices from
+ * signals to their groups and from groups to the plans containing them.
+ * Every problem found is kept as {@link Finding}, see
+ * {@link #writeReport(String)}.
+ *
  * @author dgrether
  *
  */
 public class SignalSystemsDataConsistencyChecker {
 
-	
+
 	private static final Logger log = Logger.getLogger(SignalSystemsDataConsistencyChecker.class);
-	
+
+	public enum FindingType {
+		/** the link of the signal does not exist, the signal is removed */
+		MISSING_LINK,
+		/** the signal is located at lanes, but its link has no lanes, the signal is removed */
+		MISSING_LANES_TO_LINK_ASSIGNMENT,
+		/** one lane of the signal does not exist, the lane is removed from the signal */
+		MISSING_LANE,
+		/** the group contains no signals, it is removed from groups and plans */
+		EMPTY_GROUP,
+		/** the system contains no signals, it is removed with its controller and groups */
+		EMPTY_SYSTEM
+	}
+
+	/**
+	 * One problem in the signals data and the action taken.
+	 */
+	public static final class Finding {
+
+		private final FindingType type;
+		private final Id<SignalSystem> signalSystemId;
+		private final Id<?> elementId;
+		private final Id<Link> linkId;
+		private final Id<Lane> laneId;
+
+		Finding(FindingType type, Id<SignalSystem> signalSystemId, Id<?> elementId, Id<Link> linkId, Id<Lane> laneId) {
+			this.type = type;
+			this.signalSystemId = signalSystemId;
+			this.elementId = elementId;
+			this.linkId = linkId;
+			this.laneId = laneId;
+		}
+
+		public FindingType getType() {
+			return type;
+		}
+
+		public Id<SignalSystem> getSignalSystemId() {
+			return signalSystemId;
+		}
+
+		/**
+		 * @return the id of the signal or of the signal group,
+		 * <code>null</code> for {@link FindingType#EMPTY_SYSTEM}
+		 */
+		public Id<?> getElementId() {
+			return elementId;
+		}
+
+		public Id<Link> getLinkId() {
+			return linkId;
+		}
+
+		public Id<Lane> getLaneId() {
+			return laneId;
+		}
+	}
+
+	private static final String REPORT_HEADER = "type\tsignalSystemId\telementId\tlinkId\tlaneId";
+
 	private SignalsData signalsData;
 
 	private Lanes lanes;
 
 	private Network network;
-	
-	private List<Tuple<Id<Signal>, Id<SignalSystem>>> malformedSignals = new LinkedList<>();
-	
-	private List<Tuple<Id<SignalGroup>, Id<SignalSystem>>> emptyGroups = new LinkedList<>();
-	
-	private List<Id<SignalSystem>> emptySystems = new LinkedList<>();
+
+	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+
+	private final List<Finding> findings = new ArrayList<>();
 
 	public SignalSystemsDataConsistencyChecker(Network network, Lanes lanes, SignalsData signalsData) {
 		this.network = network;
 		this.signalsData = signalsData;
 		this.lanes = lanes;
 	}
-	
+
+	/**
+	 * @param numberOfThreads number of threads used to validate the signals, 1 validates them sequentially
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		this.numberOfThreads = numberOfThreads;
+	}
+
 	public void checkConsistency() {
 		if (this.signalsData == null) {
 			log.error("No SignalsData instance found as ScenarioElement of Scenario instance!");
 			log.error("Nothing to check, aborting!");
 			return;
 		}
-		this.checkSignalToLinkMatching();
-		this.checkSignalToLaneMatching();
-		this.removeMalformedSignalSystems();
-	}
-
-	private void removeMalformedSignalSystems() {
-		
-		for (Tuple<Id<Signal>, Id<SignalSystem>> tuple : malformedSignals){
-			signalsData.getSignalSystemsData().getSignalSystemData().get(tuple.getSecond()).getSignalData().remove(tuple.getFirst());
-			for(SignalGroupData sigGroup : this.signalsData.getSignalGroupsData().getSignalGroupDataBySignalSystemId().get(tuple.getSecond()).values()){
-				if(sigGroup.getSignalIds().contains(tuple.getFirst())){
-					sigGroup.getSignalIds().remove(tuple.getFirst());					
-				}				
-			}
-		}
-		
-//		SignalControlData control = this.signalsData.getSignalControlData();
-//		for (SignalSystemControllerData  controller : control.getSignalSystemControllerDataBySystemId().values()) {
-//			Map<Id<SignalGroup>, SignalGroupData> signalGroups = this.signalsData.getSignalGroupsData().getSignalGroupDataBySystemId(controller.getSignalSystemId());
-//			for (SignalPlanData plan : controller.getSignalPlanData().values()) {
-//				for (SignalGroupSettingsData settings : plan.getSignalGroupSettingsDataByGroupId().values()) {
-//					if (! signalGroups.containsKey(settings.getSignalGroupId())){
-//						
-//					}
-//				}
-//			}
-//		}
-		
-		
-		for (Map<Id<SignalGroup>, SignalGroupData> sigGroups : this.signalsData.getSignalGroupsData().getSignalGroupDataBySignalSystemId().values()) {
-			for(SignalGroupData sigGroup : sigGroups.values()){
-				if(sigGroup.getSignalIds().isEmpty()){
-					emptyGroups.add(new Tuple<> (sigGroup.getId(), sigGroup.getSignalSystemId()));
-				}
+		this.findings.clear();
+		List<SystemCheck> checks = this.checkSignalToLinkAndLaneMatching();
+		this.removeMalformedSignals(checks);
+		this.removeEmptyGroupsAndSystems();
+		log.info("Signal systems consistency check: " + this.findings.size() + " findings.");
+	}
+
+	/**
+	 * @return the findings of the last call of {@link #checkConsistency()}
+	 */
+	public List<Finding> getFindings() {
+		return Collections.unmodifiableList(this.findings);
+	}
+
+	/**
+	 * Writes the findings as tab separated file with header
+	 * <code>type signalSystemId elementId linkId laneId</code>. Missing ids are
+	 * left empty.
+	 */
+	public void writeReport(String filename) {
+		try (BufferedWriter writer = IOUtils.getBufferedWriter(filename)) {
+			writer.write(REPORT_HEADER);
+			writer.newLine();
+			for (Finding finding : this.findings) {
+				writer.write(finding.getType().name());
+				writer.write('\t');
+				writer.write(toString(finding.getSignalSystemId()));
+				writer.write('\t');
+				writer.write(toString(finding.getElementId()));
+				writer.write('\t');
+				writer.write(toString(finding.getLinkId()));
+				writer.write('\t');
+				writer.write(toString(finding.getLaneId()));
+				writer.newLine();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static String toString(Id<?> id) {
+		return id == null ? "" : id.toString();
+	}
+
+	/*
+	 * Read only, so the systems are checked concurrently. The results are
+	 * returned in the iteration order of the systems.
+	 */
+	private List<SystemCheck> checkSignalToLinkAndLaneMatching() {
+		final List<SignalSystemData> systems = new ArrayList<>(this.signalsData.getSignalSystemsData().getSignalSystemData().values());
+		List<SystemCheck> checks = new ArrayList<>(systems.size());
+		int threads = Math.min(this.numberOfThreads, systems.size());
+		if (threads <= 1) {
+			for (SignalSystemData system : systems) {
+				checks.add(checkSystem(system));
 			}
+			return checks;
 		}
-		
-		for (Tuple<Id<SignalGroup>, Id<SignalSystem>> tuple : emptyGroups){
-			signalsData.getSignalGroupsData().getSignalGroupDataBySignalSystemId().get(tuple.getSecond()).remove(tuple.getFirst());
-			for(SignalPlanData sigPlanData : signalsData.getSignalControlData().getSignalSystemControllerDataBySystemId().get(tuple.getSecond()).getSignalPlanData().values()){
-				sigPlanData.getSignalGroupSettingsDataByGroupId().remove(tuple.getFirst());
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<List<SystemCheck>>> futures = new ArrayList<>(threads);
+			int chunkSize = (systems.size() + threads - 1) / threads;
+			for (int start = 0; start < systems.size(); start += chunkSize) {
+				final List<SignalSystemData> chunk = systems.subList(start, Math.min(start + chunkSize, systems.size()));
+				futures.add(executor.submit(new Callable<List<SystemCheck>>() {
+					@Override
+					public List<SystemCheck> call() {
+						List<SystemCheck> chunkChecks = new ArrayList<>(chunk.size());
+						for (SignalSystemData system : chunk) {
+							chunkChecks.add(checkSystem(system));
+						}
+						return chunkChecks;
+					}
+				}));
 			}
+			for (Future<List<SystemCheck>> future : futures) {
+				checks.addAll(future.get());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while checking signal systems.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
 		}
-		
-		for(SignalSystemData system : signalsData.getSignalSystemsData().getSignalSystemData().values()){
-			if (system.getSignalData().isEmpty()) {
-				emptySystems.add(system.getId());
-				if (!signalsData.getSignalGroupsData().getSignalGroupDataBySystemId(system.getId()).isEmpty()){
-					log.warn("a system contains no signals but groups");
+		return checks;
+	}
+
+	private SystemCheck checkSystem(SignalSystemData system) {
+		SystemCheck check = new SystemCheck(system);
+		for (SignalData signal : system.getSignalData().values()) {
+			if (! this.network.getLinks().containsKey(signal.getLinkId())){
+				check.findings.add(new Finding(FindingType.MISSING_LINK, system.getId(), signal.getId(), signal.getLinkId(), null));
+				check.malformedSignals.add(signal.getId());
+			}
+			if (signal.getLaneIds() != null && ! signal.getLaneIds().isEmpty()){
+				LanesToLinkAssignment l2l = this.lanes.getLanesToLinkAssignments().get(signal.getLinkId());
+				if (l2l == null){
+					check.findings.add(new Finding(FindingType.MISSING_LANES_TO_LINK_ASSIGNMENT, system.getId(), signal.getId(), signal.getLinkId(), null));
+					check.malformedSignals.add(signal.getId());
+				}
+				else {
+					for (Id<Lane> laneId : signal.getLaneIds()) {
+						if (! l2l.getLanes().containsKey(laneId)) {
+							check.findings.add(new Finding(FindingType.MISSING_LANE, system.getId(), signal.getId(), signal.getLinkId(), laneId));
+							List<Id<Lane>> lanesToRemove = check.lanesToRemove.get(signal);
+							if (lanesToRemove == null) {
+								lanesToRemove = new ArrayList<>(1);
+								check.lanesToRemove.put(signal, lanesToRemove);
+							}
+							lanesToRemove.add(laneId);
+						}
+					}
 				}
 			}
 		}
-		
-		for(Id<SignalSystem> systemId : emptySystems){
-			signalsData.getSignalSystemsData().getSignalSystemData().remove(systemId);
-			signalsData.getSignalControlData().getSignalSystemControllerDataBySystemId().remove(systemId);
-			signalsData.getSignalGroupsData().getSignalGroupDataBySignalSystemId().remove(systemId);
+		return check;
+	}
+
+	private void removeMalformedSignals(List<SystemCheck> checks) {
+		for (SystemCheck check : checks) {
+			for (Finding finding : check.findings) {
+				logFinding(finding);
+			}
+			this.findings.addAll(check.findings);
+			for (Map.Entry<SignalData, List<Id<Lane>>> entry : check.lanesToRemove.entrySet()) {
+				entry.getKey().getLaneIds().removeAll(entry.getValue());
+			}
+			if (check.malformedSignals.isEmpty()) {
+				continue;
+			}
+			Map<Id<Signal>, List<SignalGroupData>> groupsBySignal = createGroupsBySignalIndex(check.system.getId());
+			for (Id<Signal> signalId : check.malformedSignals) {
+				check.system.getSignalData().remove(signalId);
+				List<SignalGroupData> sigGroups = groupsBySignal.get(signalId);
+				if (sigGroups != null) {
+					for (SignalGroupData sigGroup : sigGroups) {
+						sigGroup.getSignalIds().remove(signalId);
+					}
+				}
+			}
+		}
+	}
+
+	private void logFinding(Finding finding) {
+		switch (finding.getType()) {
+		case MISSING_LINK:
+			log.error("Error: No Link for Signal: ");
+			log.error("\t\tSignalData Id: "  + finding.getElementId() + " of SignalSystemData Id: " + finding.getSignalSystemId()
+					+ " is located at Link Id: " + finding.getLinkId() + " but this link is not existing in the network!");
+			break;
+		case MISSING_LANES_TO_LINK_ASSIGNMENT:
+			log.error("Error: No LanesToLinkAssignment for Signals:");
+			log.error("\t\tSignalData Id: "  + finding.getElementId() + " of SignalSystemData Id: " + finding.getSignalSystemId()
+				+ " is located at some lanes of Link Id: " + finding.getLinkId() + " but there is no LanesToLinkAssignemt existing in the LaneDefinitions.");
+			break;
+		case MISSING_LANE:
+			log.error("Error: No Lane for Signal: ");
+			log.error("\t\tSignalData Id: "  + finding.getElementId() + " of SignalSystemData Id: " + finding.getSignalSystemId()
+					+ " is located at Link Id: " + finding.getLinkId() + " at Lane Id: " + finding.getLaneId() + " but this lane is not existing in the lanes!");
+			break;
+		default:
+			break;
 		}
 	}
 
-	private void checkSignalToLinkMatching() {
-		SignalSystemsData signalSystems = this.signalsData.getSignalSystemsData();
-		for (SignalSystemData system : signalSystems.getSignalSystemData().values()) {
-			for (SignalData signal : system.getSignalData().values()) {
-				if (! this.network.getLinks().containsKey(signal.getLinkId())){
-					log.error("Error: No Link for Signal: "); 
-					log.error("\t\tSignalData Id: "  + signal.getId() + " of SignalSystemData Id: " + system.getId() 
-							+ " is located at Link Id: " + signal.getLinkId() + " but this link is not existing in the network!");
-					this.malformedSignals.add(new Tuple<>(signal.getId(), system.getId()));
+	private Map<Id<Signal>, List<SignalGroupData>> createGroupsBySignalIndex(Id<SignalSystem> systemId) {
+		Map<Id<Signal>, List<SignalGroupData>> groupsBySignal = new HashMap<>();
+		Map<Id<SignalGroup>, SignalGroupData> sigGroups = this.signalsData.getSignalGroupsData().getSignalGroupDataBySignalSystemId().get(systemId);
+		if (sigGroups == null) {
+			return groupsBySignal;
+		}
+		for (SignalGroupData sigGroup : sigGroups.values()) {
+			for (Id<Signal> signalId : sigGroup.getSignalIds()) {
+				List<SignalGroupData> groups = groupsBySignal.get(signalId);
+				if (groups == null) {
+					groups = new ArrayList<>(1);
+					groupsBySignal.put(signalId, groups);
 				}
+				groups.add(sigGroup);
 			}
 		}
-		
+		return groupsBySignal;
 	}
 
-	private void checkSignalToLaneMatching() {
-		SignalSystemsData signalSystems = this.signalsData.getSignalSystemsData();
-		
-		for (SignalSystemData system : signalSystems.getSignalSystemData().values()) {
-			for (SignalData signal : system.getSignalData().values()) {
-				if (signal.getLaneIds() != null && ! signal.getLaneIds().isEmpty()){
-					if (! this.lanes.getLanesToLinkAssignments().containsKey(signal.getLinkId())){
-						log.error("Error: No LanesToLinkAssignment for Signals:");
-						log.error("\t\tSignalData Id: "  + signal.getId() + " of SignalSystemData Id: " + system.getId() 
-							+ " is located at some lanes of Link Id: " + signal.getLinkId() + " but there is no LanesToLinkAssignemt existing in the LaneDefinitions.");
-						malformedSignals.add(new Tuple<>(signal.getId(), system.getId()));
-					}
-					else {
-						List<Id<Lane>> lanesToRemove = new LinkedList<>();
-						LanesToLinkAssignment l2l = this.lanes.getLanesToLinkAssignments().get(signal.getLinkId());
-						for (Id<Lane> laneId : signal.getLaneIds()) {
-							if (! l2l.getLanes().containsKey(laneId)) {
-								log.error("Error: No Lane for Signal: "); 
-								log.error("\t\tSignalData Id: "  + signal.getId() + " of SignalSystemData Id: " + system.getId() 
-										+ " is located at Link Id: " + signal.getLinkId() + " at Lane Id: " + laneId + " but this link is not existing in the network!");
-								lanesToRemove.add(laneId);
-							}
-						}
-						for (Id<Lane> laneId : lanesToRemove){
-							signal.getLaneIds().remove(laneId);
-						}
+	private Map<Id<SignalGroup>, List<SignalPlanData>> createPlansByGroupIndex(Id<SignalSystem> systemId) {
+		Map<Id<SignalGroup>, List<SignalPlanData>> plansByGroup = new HashMap<>();
+		SignalSystemControllerData controller = this.signalsData.getSignalControlData().getSignalSystemControllerDataBySystemId().get(systemId);
+		if (controller == null) {
+			return plansByGroup;
+		}
+		for (SignalPlanData plan : controller.getSignalPlanData().values()) {
+			for (Id<SignalGroup> groupId : plan.getSignalGroupSettingsDataByGroupId().keySet()) {
+				List<SignalPlanData> plans = plansByGroup.get(groupId);
+				if (plans == null) {
+					plans = new ArrayList<>(1);
+					plansByGroup.put(groupId, plans);
+				}
+				plans.add(plan);
+			}
+		}
+		return plansByGroup;
+	}
+
+	private void removeEmptyGroupsAndSystems() {
+		for (Map.Entry<Id<SignalSystem>, Map<Id<SignalGroup>, SignalGroupData>> entry : this.signalsData.getSignalGroupsData().getSignalGroupDataBySignalSystemId().entrySet()) {
+			List<Id<SignalGroup>> emptyGroups = new ArrayList<>();
+			for (SignalGroupData sigGroup : entry.getValue().values()) {
+				if (sigGroup.getSignalIds().isEmpty()) {
+					emptyGroups.add(sigGroup.getId());
+				}
+			}
+			if (emptyGroups.isEmpty()) {
+				continue;
+			}
+			Map<Id<SignalGroup>, List<SignalPlanData>> plansByGroup = createPlansByGroupIndex(entry.getKey());
+			for (Id<SignalGroup> groupId : emptyGroups) {
+				this.findings.add(new Finding(FindingType.EMPTY_GROUP, entry.getKey(), groupId, null, null));
+				entry.getValue().remove(groupId);
+				List<SignalPlanData> plans = plansByGroup.get(groupId);
+				if (plans != null) {
+					for (SignalPlanData plan : plans) {
+						plan.getSignalGroupSettingsDataByGroupId().remove(groupId);
 					}
 				}
 			}
 		}
+
+		List<Id<SignalSystem>> emptySystems = new ArrayList<>();
+		for (SignalSystemData system : this.signalsData.getSignalSystemsData().getSignalSystemData().values()) {
+			if (system.getSignalData().isEmpty()) {
+				emptySystems.add(system.getId());
+				Map<Id<SignalGroup>, SignalGroupData> sigGroups = this.signalsData.getSignalGroupsData().getSignalGroupDataBySignalSystemId().get(system.getId());
+				if (sigGroups != null && !sigGroups.isEmpty()){
+					log.warn("a system contains no signals but groups");
+				}
+			}
+		}
+
+		for (Id<SignalSystem> systemId : emptySystems) {
+			this.findings.add(new Finding(FindingType.EMPTY_SYSTEM, systemId, null, null, null));
+			this.signalsData.getSignalSystemsData().getSignalSystemData().remove(systemId);
+			this.signalsData.getSignalControlData().getSignalSystemControllerDataBySystemId().remove(systemId);
+			this.signalsData.getSignalGroupsData().getSignalGroupDataBySignalSystemId().remove(systemId);
+		}
+	}
+
+	/*
+	 * Result of checking one signal system, nothing is changed before all
+	 * systems are checked.
+	 */
+	private static final class SystemCheck {
+		private final SignalSystemData system;
+		private final Set<Id<Signal>> malformedSignals = new LinkedHashSet<>();
+		private final Map<SignalData, List<Id<Lane>>> lanesToRemove = new HashMap<>();
+		private final List<Finding> findings = new ArrayList<>();
+
+		SystemCheck(SignalSystemData system) {
+			this.system = system;
+		}
 	}
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,285 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * AsyncEventsWriter.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.listener.BeforeMobsimListener;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.utils.io.UncheckedIOException;
+
+/**
+ * Writes the events of every n-th iteration in the format of the
+ * EventWriterXML, but on a thread of its own. The event handler only puts the
+ * event into a ring buffer of preallocated slots, the writer thread takes all
+ * events published so far as one batch, converts them to xml and frees their
+ * slots. The handler only waits if the buffer is full.
+ *
+ * The buffer has a single producer, which holds as events are handled by one
+ * thread per handler. The file is closed at the end of the iteration, when
+ * all events of the mobsim have been handled. Use
+ * {@link AsyncEventsWriterModule} to add it to a controler, instead of the
+ * events writing of the controler.
+ *
+ * @author nschirrmacher
+ */
+public final class AsyncEventsWriter implements BasicEventHandler, BeforeMobsimListener, IterationEndsListener {
+
+	private static final Logger log = Logger.getLogger(AsyncEventsWriter.class);
+
+	public enum Compression {
+		NONE(".xml"), FAST_GZIP(".xml.gz");
+
+		private final String extension;
+
+		private Compression(String extension) {
+			this.extension = extension;
+		}
+	}
+
+	// a power of 2, so sequences are mapped to slots by a mask
+	static final int BUFFER_SIZE = 1 << 16;
+	private static final int MASK = BUFFER_SIZE - 1;
+	// while waiting for the other thread
+	private static final long PARK_NANOS = 20000;
+
+	private final int writeEventsInterval;
+	private final Compression compression;
+
+	@Inject
+	/* package */ OutputDirectoryHierarchy controlerIO;
+
+	private final Event[] slots = new Event[BUFFER_SIZE];
+	// sequence of the next event to publish, only used by the producer
+	private long next = 0;
+	// all events before these sequences are published or written
+	private final AtomicLong published = new AtomicLong();
+	private final AtomicLong written = new AtomicLong();
+
+	// null if the events of the current iteration are not written
+	private Thread writerThread = null;
+	private Writer writer = null;
+	private volatile boolean closing = false;
+	// whatever stopped the writer thread, e.g. an IOException or a RuntimeException of an event
+	private volatile Throwable failure = null;
+
+	/**
+	 * @param writeEventsInterval
+	 *            events are written in iterations that are multiples of it,
+	 *            never if it is 0
+	 */
+	public AsyncEventsWriter(int writeEventsInterval, Compression compression) {
+		this.writeEventsInterval = writeEventsInterval;
+		this.compression = compression;
+	}
+
+	@Override
+	public void notifyBeforeMobsim(BeforeMobsimEvent event) {
+		if (this.writeEventsInterval <= 0 || event.getIteration() % this.writeEventsInterval != 0)
+			return;
+		String filename = this.controlerIO.getIterationFilename(event.getIteration(),
+				"events" + this.compression.extension);
+		try {
+			this.writer = open(filename);
+			this.writer.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<events version=\"1.0\">\n");
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not open " + filename, e);
+		}
+		this.closing = false;
+		this.failure = null;
+		this.writerThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				write();
+			}
+		}, "AsyncEventsWriter");
+		this.writerThread.setDaemon(true);
+		this.writerThread.start();
+		log.info("writing events to " + filename);
+	}
+
+	@Override
+	public void handleEvent(Event event) {
+		if (this.writerThread == null)
+			return;
+		checkFailure();
+		long sequence = this.next;
+		while (sequence - this.written.get() >= BUFFER_SIZE) {
+			// the writer thread frees no more slots after a failure
+			checkFailure();
+			LockSupport.parkNanos(PARK_NANOS);
+		}
+		this.slots[(int) (sequence & MASK)] = event;
+		this.next = sequence + 1;
+		this.published.lazySet(this.next);
+	}
+
+	@Override
+	public void notifyIterationEnds(IterationEndsEvent event) {
+		if (this.writerThread == null)
+			return;
+		this.closing = true;
+		try {
+			this.writerThread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while writing the events.", e);
+		} finally {
+			this.writerThread = null;
+		}
+		try {
+			checkFailure();
+			this.writer.write("</events>");
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not write the events", e);
+		} finally {
+			close();
+		}
+	}
+
+	@Override
+	public void reset(int iteration) {
+		// the buffer is empty after every iteration
+	}
+
+	/*
+	 * Runs on the writer thread until the iteration ends and all events are
+	 * written. Stops at the first failure of any kind, which is thrown on the
+	 * other threads; otherwise the handler would wait forever for free slots.
+	 */
+	private void write() {
+		StringBuilder xml = new StringBuilder();
+		long sequence = this.written.get();
+		try {
+			while (true) {
+				// all events are published before closing is set
+				boolean last = this.closing;
+				long end = this.published.get();
+				if (sequence == end) {
+					if (last)
+						return;
+					LockSupport.parkNanos(PARK_NANOS);
+					continue;
+				}
+				for (; sequence < end; sequence++) {
+					int slot = (int) (sequence & MASK);
+					append(xml, this.slots[slot]);
+					this.slots[slot] = null;
+				}
+				this.written.lazySet(end);
+				this.writer.append(xml);
+				xml.setLength(0);
+			}
+		} catch (Throwable e) {
+			this.failure = e;
+		}
+	}
+
+	private void checkFailure() {
+		Throwable failure = this.failure;
+		if (failure == null)
+			return;
+		if (failure instanceof IOException)
+			throw new UncheckedIOException("Could not write the events", (IOException) failure);
+		throw new RuntimeException("Could not write the events", failure);
+	}
+
+	private void close() {
+		try {
+			this.writer.close();
+		} catch (IOException e) {
+			if (this.failure == null)
+				throw new UncheckedIOException("Could not close the events file", e);
+			// the failure is thrown already
+		} finally {
+			this.writer = null;
+		}
+	}
+
+	private static void append(StringBuilder xml, Event event) {
+		xml.append("\t<event ");
+		for (Map.Entry<String, String> entry : event.getAttributes().entrySet()) {
+			xml.append(entry.getKey()).append("=\"");
+			appendEncoded(xml, entry.getValue());
+			xml.append("\" ");
+		}
+		xml.append(" />\n");
+	}
+
+	private static void appendEncoded(StringBuilder xml, String value) {
+		if (value == null)
+			return;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '&':
+				xml.append("&amp;");
+				break;
+			case '<':
+				xml.append("&lt;");
+				break;
+			case '>':
+				xml.append("&gt;");
+				break;
+			case '"':
+				xml.append("&quot;");
+				break;
+			case '\'':
+				xml.append("&apos;");
+				break;
+			default:
+				xml.append(c);
+			}
+		}
+	}
+
+	private Writer open(String filename) throws IOException {
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(filename), 1 << 16);
+		if (this.compression == Compression.FAST_GZIP) {
+			out = new GZIPOutputStream(out, 1 << 16) {
+				{
+					this.def.setLevel(Deflater.BEST_SPEED);
+				}
+			};
+		}
+		return new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), 1 << 16);
+	}
+
+}
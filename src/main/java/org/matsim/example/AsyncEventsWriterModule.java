@@ -0,0 +1,48 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * AsyncEventsWriterModule.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import org.matsim.core.controler.AbstractModule;
+
+/**
+ * Adds the {@link AsyncEventsWriter} to a controler, as listener and as event
+ * handler. The writeEventsInterval of the controler config should be set to 0,
+ * otherwise the events are written twice.
+ *
+ * @author nschirrmacher
+ */
+public class AsyncEventsWriterModule extends AbstractModule {
+
+	private final int writeEventsInterval;
+	private final AsyncEventsWriter.Compression compression;
+
+	public AsyncEventsWriterModule(int writeEventsInterval, AsyncEventsWriter.Compression compression) {
+		this.writeEventsInterval = writeEventsInterval;
+		this.compression = compression;
+	}
+
+	@Override
+	public void install() {
+		AsyncEventsWriter writer = new AsyncEventsWriter(this.writeEventsInterval, this.compression);
+		addControlerListenerBinding().toInstance(writer);
+		addEventHandlerBinding().toInstance(writer);
+	}
+
+}
@@ -0,0 +1,64 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * CompactSnapshotModule.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.replanning.ReplanningContext;
+import org.matsim.vis.snapshotwriters.SnapshotWriter;
+
+/**
+ * Writes the snapshots of the iterations given by the writeSnapshotsInterval
+ * of the controler config with the {@link CompactSnapshotWriter}, to
+ * {@link CompactSnapshotWriter#FILENAME} in the iteration directory. The
+ * snapshot formats of the config should be empty, if no other snapshot files
+ * are needed.
+ *
+ * @author nschirrmacher
+ */
+public class CompactSnapshotModule extends AbstractModule {
+
+	@Override
+	public void install() {
+		addSnapshotWriterBinding().toProvider(CompactSnapshotWriterProvider.class);
+	}
+
+	/* package */ static final class CompactSnapshotWriterProvider implements Provider<SnapshotWriter> {
+
+		private final OutputDirectoryHierarchy controlerIO;
+		private final ReplanningContext context;
+
+		@Inject
+		CompactSnapshotWriterProvider(OutputDirectoryHierarchy controlerIO, ReplanningContext context) {
+			this.controlerIO = controlerIO;
+			this.context = context;
+		}
+
+		@Override
+		public SnapshotWriter get() {
+			return new CompactSnapshotWriter(
+					this.controlerIO.getIterationFilename(this.context.getIteration(), CompactSnapshotWriter.FILENAME));
+		}
+	}
+
+}
@@ -0,0 +1,233 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * CompactSnapshotReader.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.vis.snapshotwriters.AgentSnapshotInfo;
+
+/**
+ * Reads the snapshots written by {@link CompactSnapshotWriter}. The index is
+ * read when the reader is created; snapshots are then read for a time range,
+ * only the chunks containing it are read from the file.
+ *
+ * @author nschirrmacher
+ */
+public final class CompactSnapshotReader {
+
+	public interface SnapshotHandler {
+		void beginSnapshot(double time);
+
+		/**
+		 * @param state
+		 *            <code>null</code> if the agent had none
+		 */
+		void addAgent(Id<Person> agentId, double easting, double northing, AgentSnapshotInfo.AgentState state,
+				double colorValue);
+	}
+
+	private static final AgentSnapshotInfo.AgentState[] STATES = AgentSnapshotInfo.AgentState.values();
+
+	private final String filename;
+	private final double resolution;
+	private final double originX;
+	private final double originY;
+	private final Id<Person>[] agentIds;
+
+	// per chunk
+	private final double[] firstTimes;
+	private final double[] lastTimes;
+	private final long[] offsets;
+	private final int[] lengths;
+	private final int[] uncompressedLengths;
+	private final int[] snapshots;
+
+	@SuppressWarnings("unchecked")
+	public CompactSnapshotReader(String filename) {
+		this.filename = filename;
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r")) {
+			if (file.length() < 28 || file.readInt() != CompactSnapshotWriter.MAGIC)
+				throw new RuntimeException(filename + " is not a compact snapshot file.");
+			int version = file.readInt();
+			if (version != CompactSnapshotWriter.VERSION)
+				throw new RuntimeException("Snapshot file " + filename + " has version " + version + ", but version "
+						+ CompactSnapshotWriter.VERSION + " is expected.");
+			this.resolution = file.readDouble();
+			file.seek(file.length() - 12);
+			long indexOffset = file.readLong();
+			if (file.readInt() != CompactSnapshotWriter.MAGIC)
+				throw new RuntimeException("Snapshot file " + filename + " is incomplete, the run did not finish it.");
+
+			file.seek(indexOffset);
+			int chunks = file.readInt();
+			this.firstTimes = new double[chunks];
+			this.lastTimes = new double[chunks];
+			this.offsets = new long[chunks];
+			this.lengths = new int[chunks];
+			this.uncompressedLengths = new int[chunks];
+			this.snapshots = new int[chunks];
+			for (int c = 0; c < chunks; c++) {
+				this.firstTimes[c] = file.readDouble();
+				this.lastTimes[c] = file.readDouble();
+				this.offsets[c] = file.readLong();
+				this.lengths[c] = file.readInt();
+				this.uncompressedLengths[c] = file.readInt();
+				this.snapshots[c] = file.readInt();
+			}
+			this.originX = file.readDouble();
+			this.originY = file.readDouble();
+			this.agentIds = new Id[file.readInt()];
+			for (int a = 0; a < this.agentIds.length; a++) {
+				byte[] bytes = new byte[file.readInt()];
+				file.readFully(bytes);
+				this.agentIds[a] = Id.createPersonId(new String(bytes, CompactSnapshotWriter.UTF8));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public int getNumberOfSnapshots() {
+		int number = 0;
+		for (int s : this.snapshots) {
+			number += s;
+		}
+		return number;
+	}
+
+	/**
+	 * @return the time of the first snapshot, NaN if there is none
+	 */
+	public double getFirstTime() {
+		return this.firstTimes.length == 0 ? Double.NaN : this.firstTimes[0];
+	}
+
+	/**
+	 * @return the time of the last snapshot, NaN if there is none
+	 */
+	public double getLastTime() {
+		return this.lastTimes.length == 0 ? Double.NaN : this.lastTimes[this.lastTimes.length - 1];
+	}
+
+	/**
+	 * Passes all snapshots from <code>fromTime</code> to <code>toTime</code>,
+	 * both included, to the handler.
+	 */
+	public void read(double fromTime, double toTime, SnapshotHandler handler) {
+		// the first chunk that ends at or after fromTime
+		int low = 0;
+		int high = this.lastTimes.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (this.lastTimes[middle] < fromTime) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+		int[] lastChunk = new int[this.agentIds.length];
+		int[] lastX = new int[this.agentIds.length];
+		int[] lastY = new int[this.agentIds.length];
+		Inflater inflater = new Inflater();
+		try (RandomAccessFile file = new RandomAccessFile(this.filename, "r")) {
+			for (int c = low; c < this.firstTimes.length && this.firstTimes[c] <= toTime; c++) {
+				byte[] compressed = new byte[this.lengths[c]];
+				file.seek(this.offsets[c]);
+				file.readFully(compressed);
+				byte[] bytes = new byte[this.uncompressedLengths[c]];
+				inflater.reset();
+				inflater.setInput(compressed);
+				int length = 0;
+				while (length < bytes.length) {
+					int inflated = inflater.inflate(bytes, length, bytes.length - length);
+					if (inflated == 0 && (inflater.finished() || inflater.needsInput()))
+						throw new RuntimeException("Chunk " + c + " of snapshot file " + this.filename + " is corrupt.");
+					length += inflated;
+				}
+				readChunk(new DataInputStream(new ByteArrayInputStream(bytes)), c, fromTime, toTime, handler,
+						lastChunk, lastX, lastY);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (DataFormatException e) {
+			throw new RuntimeException("Snapshot file " + this.filename + " is corrupt.", e);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	/*
+	 * All snapshots of the chunk are decoded, as positions are relative to the
+	 * previous snapshot, but only the ones in the time range are passed on.
+	 */
+	private void readChunk(DataInputStream in, int c, double fromTime, double toTime, SnapshotHandler handler,
+			int[] lastChunk, int[] lastX, int[] lastY) throws IOException {
+		// chunk numbers start at 1, so no agent is known at the start
+		int chunkNumber = c + 1;
+		for (int s = 0; s < this.snapshots[c]; s++) {
+			double time = in.readDouble();
+			boolean inRange = time >= fromTime && time <= toTime;
+			if (inRange) {
+				handler.beginSnapshot(time);
+			}
+			int agents = readVarInt(in);
+			int ordinal = 0;
+			for (int a = 0; a < agents; a++) {
+				ordinal += unzigzag(readVarInt(in));
+				int state = in.readUnsignedByte();
+				int color = in.readUnsignedByte();
+				boolean known = lastChunk[ordinal] == chunkNumber;
+				int x = unzigzag(readVarInt(in)) + (known ? lastX[ordinal] : 0);
+				int y = unzigzag(readVarInt(in)) + (known ? lastY[ordinal] : 0);
+				lastChunk[ordinal] = chunkNumber;
+				lastX[ordinal] = x;
+				lastY[ordinal] = y;
+				if (inRange) {
+					handler.addAgent(this.agentIds[ordinal], this.originX + x * this.resolution,
+							this.originY + y * this.resolution,
+							state == CompactSnapshotWriter.NO_STATE ? null : STATES[state], color / 255.);
+				}
+			}
+		}
+	}
+
+	private static int readVarInt(DataInputStream in) throws IOException {
+		int value = 0;
+		for (int shift = 0;; shift += 7) {
+			int b = in.readUnsignedByte();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+	}
+
+	private static int unzigzag(int value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+}
@@ -0,0 +1,281 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * CompactSnapshotWriter.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.vis.snapshotwriters.AgentSnapshotInfo;
+import org.matsim.vis.snapshotwriters.SnapshotWriter;
+
+/**
+ * Writes the positions of the agents of every snapshot into a binary file,
+ * which is much smaller than the xml or transims snapshots and can be read
+ * from any time on by {@link CompactSnapshotReader}.
+ *
+ * Positions are quantized to {@link #RESOLUTION} meters, relative to the
+ * first position of the file. The snapshots are grouped into chunks of at
+ * most {@link #CHUNK_SNAPSHOTS} snapshots, and each chunk is deflated on its
+ * own. Within a chunk, an agent's position is the difference to its position
+ * in the previous snapshot of the chunk, and its number the difference to
+ * the number of the agent before it, all as variable length integers. So
+ * agents standing still at activities or in a queue only need a few bytes.
+ *
+ * The file starts with a header and ends with the index of the chunks, with
+ * their times and offsets, and the ids of all agents:
+ * <pre>
+ * header:  MAGIC, VERSION, RESOLUTION
+ * chunks:  deflated snapshots
+ * index:   number of chunks, per chunk first and last time, offset, lengths and number of snapshots;
+ *          origin x, y; number of agents, their ids
+ * trailer: offset of the index, MAGIC
+ * </pre>
+ * All numbers are big endian.
+ *
+ * @author nschirrmacher
+ */
+public final class CompactSnapshotWriter implements SnapshotWriter {
+
+	private static final Logger log = Logger.getLogger(CompactSnapshotWriter.class);
+
+	static final String FILENAME = "snapshots.bin";
+
+	static final int MAGIC = 0x4353504e; // "CSPN"
+	static final int VERSION = 1;
+	static final double RESOLUTION = 0.1;
+	static final int CHUNK_SNAPSHOTS = 60;
+	// a chunk is also finished when its uncompressed snapshots get larger
+	static final int MAX_CHUNK_BYTES = 8 << 20;
+	static final int NO_STATE = 255;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final String filename;
+	private final DataOutputStream out;
+	private long offset = 0;
+
+	private final Map<Id<Person>, Integer> ordinals = new HashMap<>();
+	private final List<Id<Person>> agentIds = new ArrayList<>();
+	private boolean hasOrigin = false;
+	private double originX;
+	private double originY;
+
+	// the agents of the current snapshot
+	private double time;
+	private int agents = 0;
+	private int[] agentOrdinals = new int[1024];
+	private int[] xs = new int[1024];
+	private int[] ys = new int[1024];
+	private byte[] states = new byte[1024];
+	private byte[] colors = new byte[1024];
+
+	// the current chunk, positions of agents are only valid if their chunk stamp is the current one
+	private final ByteArrayOutputStream chunkBytes = new ByteArrayOutputStream(1 << 20);
+	private final DataOutputStream chunk = new DataOutputStream(this.chunkBytes);
+	private int chunkSnapshots = 0;
+	private double chunkFirstTime;
+	private int chunkNumber = 1;
+	private int[] lastChunk = new int[1024];
+	private int[] lastX = new int[1024];
+	private int[] lastY = new int[1024];
+	private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+	private byte[] deflated = new byte[1 << 16];
+
+	// index of the written chunks
+	private final List<double[]> chunkTimes = new ArrayList<>();
+	private final List<long[]> chunkOffsets = new ArrayList<>();
+
+	public CompactSnapshotWriter(String filename) {
+		this.filename = filename;
+		try {
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16));
+			this.out.writeInt(MAGIC);
+			this.out.writeInt(VERSION);
+			this.out.writeDouble(RESOLUTION);
+			this.offset = 16;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Could not open " + filename, e);
+		}
+	}
+
+	@Override
+	public void beginSnapshot(double time) {
+		this.time = time;
+		this.agents = 0;
+	}
+
+	@Override
+	public void addAgent(AgentSnapshotInfo position) {
+		addAgent(position.getId(), position.getEasting(), position.getNorthing(), position.getAgentState(),
+				position.getColorValueBetweenZeroAndOne());
+	}
+
+	/* package */ void addAgent(Id<Person> agentId, double easting, double northing, AgentSnapshotInfo.AgentState state,
+			double colorValue) {
+		if (!this.hasOrigin) {
+			this.originX = easting;
+			this.originY = northing;
+			this.hasOrigin = true;
+		}
+		Integer ordinal = this.ordinals.get(agentId);
+		if (ordinal == null) {
+			ordinal = this.agentIds.size();
+			this.ordinals.put(agentId, ordinal);
+			this.agentIds.add(agentId);
+			if (ordinal == this.lastChunk.length) {
+				this.lastChunk = Arrays.copyOf(this.lastChunk, 2 * ordinal);
+				this.lastX = Arrays.copyOf(this.lastX, 2 * ordinal);
+				this.lastY = Arrays.copyOf(this.lastY, 2 * ordinal);
+			}
+		}
+		if (this.agents == this.agentOrdinals.length) {
+			int length = 2 * this.agents;
+			this.agentOrdinals = Arrays.copyOf(this.agentOrdinals, length);
+			this.xs = Arrays.copyOf(this.xs, length);
+			this.ys = Arrays.copyOf(this.ys, length);
+			this.states = Arrays.copyOf(this.states, length);
+			this.colors = Arrays.copyOf(this.colors, length);
+		}
+		this.agentOrdinals[this.agents] = ordinal;
+		this.xs[this.agents] = (int) Math.round((easting - this.originX) / RESOLUTION);
+		this.ys[this.agents] = (int) Math.round((northing - this.originY) / RESOLUTION);
+		this.states[this.agents] = (byte) (state == null ? NO_STATE : state.ordinal());
+		this.colors[this.agents] = (byte) Math.round(Math.max(0, Math.min(1, colorValue)) * 255);
+		this.agents++;
+	}
+
+	@Override
+	public void endSnapshot() {
+		try {
+			if (this.chunkSnapshots == 0) {
+				this.chunkFirstTime = this.time;
+			}
+			this.chunk.writeDouble(this.time);
+			writeVarInt(this.chunk, this.agents);
+			int previous = 0;
+			for (int i = 0; i < this.agents; i++) {
+				int ordinal = this.agentOrdinals[i];
+				writeVarInt(this.chunk, zigzag(ordinal - previous));
+				previous = ordinal;
+				this.chunk.writeByte(this.states[i]);
+				this.chunk.writeByte(this.colors[i]);
+				// the first position of an agent in the chunk is relative to the origin
+				boolean known = this.lastChunk[ordinal] == this.chunkNumber;
+				writeVarInt(this.chunk, zigzag(this.xs[i] - (known ? this.lastX[ordinal] : 0)));
+				writeVarInt(this.chunk, zigzag(this.ys[i] - (known ? this.lastY[ordinal] : 0)));
+				this.lastChunk[ordinal] = this.chunkNumber;
+				this.lastX[ordinal] = this.xs[i];
+				this.lastY[ordinal] = this.ys[i];
+			}
+			this.chunkSnapshots++;
+			if (this.chunkSnapshots == CHUNK_SNAPSHOTS || this.chunkBytes.size() >= MAX_CHUNK_BYTES) {
+				writeChunk();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void finish() {
+		try {
+			if (this.chunkSnapshots > 0) {
+				writeChunk();
+			}
+			long indexOffset = this.offset;
+			this.out.writeInt(this.chunkTimes.size());
+			for (int c = 0; c < this.chunkTimes.size(); c++) {
+				this.out.writeDouble(this.chunkTimes.get(c)[0]);
+				this.out.writeDouble(this.chunkTimes.get(c)[1]);
+				long[] chunk = this.chunkOffsets.get(c);
+				this.out.writeLong(chunk[0]);
+				this.out.writeInt((int) chunk[1]);
+				this.out.writeInt((int) chunk[2]);
+				this.out.writeInt((int) chunk[3]);
+			}
+			this.out.writeDouble(this.originX);
+			this.out.writeDouble(this.originY);
+			this.out.writeInt(this.agentIds.size());
+			for (Id<Person> agentId : this.agentIds) {
+				byte[] bytes = agentId.toString().getBytes(UTF8);
+				this.out.writeInt(bytes.length);
+				this.out.write(bytes);
+			}
+			this.out.writeLong(indexOffset);
+			this.out.writeInt(MAGIC);
+			this.out.close();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			this.deflater.end();
+		}
+		log.info("wrote " + this.chunkTimes.size() + " chunks of snapshots of " + this.agentIds.size()
+				+ " agents to " + this.filename);
+	}
+
+	private void writeChunk() throws IOException {
+		this.chunk.flush();
+		byte[] bytes = this.chunkBytes.toByteArray();
+		this.deflater.reset();
+		this.deflater.setInput(bytes);
+		this.deflater.finish();
+		int length = 0;
+		while (!this.deflater.finished()) {
+			if (length == this.deflated.length) {
+				this.deflated = Arrays.copyOf(this.deflated, 2 * length);
+			}
+			length += this.deflater.deflate(this.deflated, length, this.deflated.length - length);
+		}
+		this.out.write(this.deflated, 0, length);
+		this.chunkTimes.add(new double[] { this.chunkFirstTime, this.time });
+		this.chunkOffsets.add(new long[] { this.offset, length, bytes.length, this.chunkSnapshots });
+		this.offset += length;
+		this.chunkBytes.reset();
+		this.chunkSnapshots = 0;
+		this.chunkNumber++;
+	}
+
+	static int zigzag(int value) {
+		return (value << 1) ^ (value >> 31);
+	}
+
+	static void writeVarInt(DataOutputStream out, int value) throws IOException {
+		while ((value & ~0x7f) != 0) {
+			out.writeByte((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte(value);
+	}
+
+}
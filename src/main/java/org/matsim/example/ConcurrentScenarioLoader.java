@@ -0,0 +1,232 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * ConcurrentScenarioLoader.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.contrib.signals.SignalSystemsConfigGroup;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.contrib.signals.data.SignalsDataImpl;
+import org.matsim.contrib.signals.data.SignalsDataLoader;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.network.io.MatsimNetworkReader;
+import org.matsim.core.population.io.PopulationReader;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.lanes.data.LanesReader;
+
+/**
+ * Loads a scenario like {@link ScenarioUtils#loadScenario(Config)} and adds
+ * the signals data, but reads the lanes and the signals while the network is
+ * read, as they do not depend on it. The population and all other input
+ * files may refer to links, so they are only loaded when the network is
+ * complete: the population in its own thread, the rest by the usual scenario
+ * loader in the calling thread. Lanes and signals may still be read then.
+ *
+ * Network, lanes and signals can also be read from a snapshot of
+ * {@link ScenarioSnapshotWriter} instead of the xml files.
+ *
+ * @author nschirrmacher
+ */
+public class ConcurrentScenarioLoader {
+
+	private static final Logger log = Logger.getLogger(ConcurrentScenarioLoader.class);
+
+	private final Config config;
+	private String snapshotFile = null;
+	private int numberOfThreads = Math.min(6, Runtime.getRuntime().availableProcessors());
+
+	public ConcurrentScenarioLoader(Config config) {
+		this.config = config;
+	}
+
+	/**
+	 * Network, lanes and signals are read from this snapshot instead of the
+	 * files given in the config.
+	 */
+	public void setSnapshotFile(String snapshotFile) {
+		this.snapshotFile = snapshotFile;
+	}
+
+	public void setNumberOfThreads(int numberOfThreads) {
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	public Scenario loadScenario() {
+		long start = System.currentTimeMillis();
+		final SignalSystemsConfigGroup signalsConfigGroup = ConfigUtils.addOrGetModule(this.config,
+				SignalSystemsConfigGroup.GROUPNAME, SignalSystemsConfigGroup.class);
+		final String networkFile = this.config.network().getInputFile();
+		// restored as configured, even if the lanes are not loaded
+		final String configuredLanesFile = this.config.network().getLaneDefinitionsFile();
+		final String lanesFile = this.config.qsim().isUseLanes() ? configuredLanesFile : null;
+		final String populationFile = this.config.plans().getInputFile();
+
+		final Scenario scenario = ScenarioUtils.createScenario(this.config);
+
+		// read before or at the same time as the network
+		LoadTask networkTask = null;
+		List<LoadTask> tasks = new ArrayList<>();
+		SignalsLoadTask signalsTask = null;
+		if (this.snapshotFile != null) {
+			final String snapshot = this.snapshotFile;
+			final SignalsData signalsData = signalsConfigGroup.isUseSignalSystems() ? new SignalsDataImpl(signalsConfigGroup) : null;
+			if (signalsData != null) {
+				scenario.addScenarioElement(SignalsData.ELEMENT_NAME, signalsData);
+			}
+			networkTask = new LoadTask("snapshot " + snapshot) {
+				@Override
+				void load() {
+					new ScenarioSnapshotReader(scenario.getNetwork(), scenario.getLanes(), signalsData).read(snapshot);
+				}
+			};
+		} else {
+			if (networkFile != null) {
+				networkTask = new LoadTask("network " + networkFile) {
+					@Override
+					void load() {
+						new MatsimNetworkReader(scenario.getNetwork()).parse(getUrl(networkFile));
+					}
+				};
+			}
+			if (lanesFile != null) {
+				tasks.add(new LoadTask("lanes " + lanesFile) {
+					@Override
+					void load() {
+						new LanesReader(scenario).readURL(getUrl(lanesFile));
+					}
+				});
+			}
+			if (signalsConfigGroup.isUseSignalSystems()) {
+				signalsTask = new SignalsLoadTask(this.config);
+				tasks.add(signalsTask);
+			}
+		}
+		// read when the network is complete
+		LoadTask populationTask = null;
+		if (populationFile != null) {
+			populationTask = new LoadTask("population " + populationFile) {
+				@Override
+				void load() {
+					new PopulationReader(scenario).parse(getUrl(populationFile));
+				}
+			};
+		}
+
+		int numberOfTasks = tasks.size() + (networkTask == null ? 0 : 1) + (populationTask == null ? 0 : 1);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(this.numberOfThreads, numberOfTasks)));
+		try {
+			List<Future<Void>> futures = new ArrayList<>(numberOfTasks);
+			Future<Void> networkFuture = networkTask == null ? null : executor.submit(networkTask);
+			for (LoadTask task : tasks) {
+				futures.add(executor.submit(task));
+			}
+			if (networkFuture != null) {
+				networkFuture.get();
+			}
+			if (populationTask != null) {
+				futures.add(executor.submit(populationTask));
+			}
+			// everything else, e.g. facilities or vehicles, is loaded as usual
+			this.config.network().setInputFile(null);
+			this.config.network().setLaneDefinitionsFile(null);
+			this.config.plans().setInputFile(null);
+			try {
+				ScenarioUtils.loadScenario(scenario);
+			} finally {
+				this.config.network().setInputFile(networkFile);
+				this.config.network().setLaneDefinitionsFile(configuredLanesFile);
+				this.config.plans().setInputFile(populationFile);
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+			if (signalsTask != null) {
+				scenario.addScenarioElement(SignalsData.ELEMENT_NAME, signalsTask.signalsData);
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while loading the scenario.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		log.info("loaded scenario with " + numberOfTasks + " concurrent readers in " + (System.currentTimeMillis() - start) + " ms");
+		return scenario;
+	}
+
+	private URL getUrl(String filename) {
+		return ConfigGroup.getInputFileURL(this.config.getContext(), filename);
+	}
+
+	/*
+	 * Loads one input file and logs how long it took.
+	 */
+	private static abstract class LoadTask implements Callable<Void> {
+		private final String description;
+
+		LoadTask(String description) {
+			this.description = description;
+		}
+
+		abstract void load();
+
+		@Override
+		public Void call() {
+			long start = System.currentTimeMillis();
+			load();
+			log.info("loaded " + this.description + " in " + (System.currentTimeMillis() - start) + " ms");
+			return null;
+		}
+	}
+
+	/*
+	 * Reads the signals files given in the config, including amber times and
+	 * intergreens, with the url handling of the signals contrib.
+	 */
+	private static final class SignalsLoadTask extends LoadTask {
+		private final Config config;
+		private SignalsData signalsData = null;
+
+		SignalsLoadTask(Config config) {
+			super("signals");
+			this.config = config;
+		}
+
+		@Override
+		void load() {
+			this.signalsData = new SignalsDataLoader(this.config).loadSignalsData();
+		}
+	}
+
+}
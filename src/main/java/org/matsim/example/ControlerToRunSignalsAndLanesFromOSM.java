@@ -21,55 +21,139 @@
  */
 package org.matsim.example;
 
+import java.io.File;
+import java.util.Collections;
+
+import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Scenario;
 import org.matsim.contrib.signals.SignalSystemsConfigGroup;
 import org.matsim.contrib.signals.controler.SignalsModule;
 import org.matsim.contrib.signals.data.SignalsData;
-import org.matsim.contrib.signals.data.SignalsDataLoader;
 import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigGroup;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.controler.Controler;
-import org.matsim.core.scenario.ScenarioUtils;
 
 /**
  * @author tthunig
  *
  */
 public class ControlerToRunSignalsAndLanesFromOSM {
-	private final static String configInputFile = "./input/runCottbusWithSignalsAndLanes/config.xml";
-	private final static String planInputFile_spreeNeisse = "commuter_population_wgs84_utm33n_car_only_woLinks.xml.gz";
+	private static final Logger log = Logger.getLogger(ControlerToRunSignalsAndLanesFromOSM.class);
+	
+	final static String configInputFile = "./input/runCottbusWithSignalsAndLanes/config.xml";
+	final static String planInputFile_spreeNeisse = "commuter_population_wgs84_utm33n_car_only_woLinks.xml.gz";
+	// written by RunPopulationPreparation next to the network, with links and routes. If it is up to date, it is used instead
+	final static String preparedPlanInputFile = "commuter_population_wgs84_utm33n_car_only_prepared.xml.gz";
 	private final static String outputDir = "./output/runCottbusWithSignalsAndLanes/output/realistic_very_restricted_alt_settings/";
 	
 	private final static double flowCapFactor = 0.7;
-	private final static int timeBinSize = 60; // in seconds. use 60 or 900 if your machine does not make it (i.e. run is to slow)
+	final static int timeBinSize = 60; // in seconds. for the travel times of the turns, which are used for routing
+	private final static int analysisTimeBinSize = 900; // in seconds. for the link travel times of MATSim, which are only used for the analysis
 	
 	public static void main(String[] args) {
 		Config config = ConfigUtils.loadConfig(configInputFile);
 		config.controler().setOutputDirectory(outputDir);
-		config.plans().setInputFile(planInputFile_spreeNeisse);
+		File preparedPlans = new File(getInputDirectory(config), preparedPlanInputFile);
+		if (isUpToDate(preparedPlans, config, planInputFile_spreeNeisse, config.network().getInputFile(),
+				config.network().getLaneDefinitionsFile())) {
+			config.plans().setInputFile(preparedPlans.getPath());
+		} else {
+			config.plans().setInputFile(planInputFile_spreeNeisse);
+		}
 		
 		config.qsim().setFlowCapFactor(flowCapFactor);
 		// standard, how to scale down the storage capacity in MATSim (based on NicolaiNagel2014). It scales the storage cap less than the flow cap
 		config.qsim().setStorageCapFactor(flowCapFactor / Math.pow(flowCapFactor,1/4.));
 		
-		config.travelTimeCalculator().setTraveltimeBinSize(timeBinSize);
-		
-		Scenario scenario = ScenarioUtils.loadScenario(config);
+		config.travelTimeCalculator().setTraveltimeBinSize(analysisTimeBinSize);
+		// turns are respected by the TurnAwareRoutingModule, which is much faster than the link to link routing
+		config.controler().setLinkToLinkRoutingEnabled(false);
+		config.travelTimeCalculator().setCalculateLinkToLinkTravelTimes(false);
+		// events are written by the AsyncEventsWriterModule instead, on a thread of its own
+		int writeEventsInterval = config.controler().getWriteEventsInterval();
+		config.controler().setWriteEventsInterval(0);
+		// snapshots are only written in the compact binary format, see CompactSnapshotModule
+		config.controler().setSnapshotFormat(Collections.<String> emptyList());
 		
 		SignalSystemsConfigGroup signalsConfigGroup = ConfigUtils.addOrGetModule(config,
 				SignalSystemsConfigGroup.GROUPNAME, SignalSystemsConfigGroup.class);
-		if (signalsConfigGroup.isUseSignalSystems()) {
-			scenario.addScenarioElement(SignalsData.ELEMENT_NAME, new SignalsDataLoader(config).loadSignalsData());
+		// lanes and signals are read at the same time as the network
+		ConcurrentScenarioLoader loader = new ConcurrentScenarioLoader(config);
+		// written by RunPNetworkGenerator next to the network. If it is up to date, network, lanes and signals are read from it instead
+		File snapshot = new File(getInputDirectory(config), ScenarioSnapshotWriter.FILENAME);
+		if (isUpToDate(snapshot, config, config.network().getInputFile(), config.network().getLaneDefinitionsFile(),
+				signalsConfigGroup.getSignalSystemFile(), signalsConfigGroup.getSignalGroupsFile(),
+				signalsConfigGroup.getSignalControlFile())) {
+			loader.setSnapshotFile(snapshot.getPath());
 		}
+		Scenario scenario = loader.loadScenario();
 		
 		Controler controler = new Controler(scenario);
 		
 		// add the signals module (to simulate signals) if signal systems are used
 		if (signalsConfigGroup.isUseSignalSystems()) {
-			controler.addOverridingModule(new SignalsModule());
+			// the fixed-time plans of the converter are compiled into the changes per second of their cycle
+			PrecompiledFixedTimeSignalController.useForFixedTimePlans(
+					(SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME));
+			SignalsModule signalsModule = new SignalsModule();
+			signalsModule.addSignalControllerFactory(PrecompiledFixedTimeSignalController.IDENTIFIER,
+					PrecompiledFixedTimeSignalController.PrecompiledFactory.class);
+			controler.addOverridingModule(signalsModule);
+			// green utilization, queues and lane delays per iteration, without reading the events file
+			controler.addOverridingModule(new SignalPerformanceModule());
 		}
+		controler.addOverridingModule(createTurnAwareRoutingModule(config));
+		// car travel times per turn and bin of timeBinSize, stored sparsely
+		controler.addOverridingModule(new TurnTravelTimeModule(timeBinSize));
+		controler.addOverridingModule(new AsyncEventsWriterModule(writeEventsInterval, AsyncEventsWriter.Compression.FAST_GZIP));
+		controler.addOverridingModule(new CompactSnapshotModule());
+		// time per iteration and phase, heap and number of events, see performance_telemetry.csv
+		controler.addOverridingModule(new PerformanceTelemetryModule());
 		
 		controler.run();
 	}
 	
+	/**
+	 * Routes car legs only with the turns the lanes allow, with the contraction
+	 * hierarchy next to the network if it exists. The hierarchy is created again
+	 * if it does not fit the network.
+	 */
+	static TurnAwareRoutingModule createTurnAwareRoutingModule(Config config) {
+		File contractionHierarchy = new File(getInputDirectory(config), TurnContractionHierarchy.FILENAME);
+		if (contractionHierarchy.exists()) {
+			return new TurnAwareRoutingModule(contractionHierarchy.getPath());
+		}
+		return new TurnAwareRoutingModule();
+	}
+	
+	/**
+	 * @return the directory of the network file, where the files derived from it are stored
+	 */
+	static File getInputDirectory(Config config) {
+		return new File(ConfigGroup.getInputFileURL(config.getContext(), config.network().getInputFile()).getFile()).getParentFile();
+	}
+	
+	/**
+	 * @param inputs
+	 *            file names relative to the config, <code>null</code> ones are ignored
+	 * @return whether the file exists and is newer than all inputs it was derived from
+	 */
+	static boolean isUpToDate(File file, Config config, String... inputs) {
+		if (!file.exists()) {
+			return false;
+		}
+		for (String input : inputs) {
+			if (input == null) {
+				continue;
+			}
+			File inputFile = new File(ConfigGroup.getInputFileURL(config.getContext(), input).getFile());
+			if (inputFile.lastModified() > file.lastModified()) {
+				log.warn(file + " is older than " + inputFile + " and is not used. Write it again.");
+				return false;
+			}
+		}
+		return true;
+	}
+	
 }
@@ -0,0 +1,131 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * IndexedMinHeap.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.Arrays;
+
+/**
+ * A binary min heap of the integers 0 to n - 1 with a double key each, which
+ * can be decreased. Made for graph searches, so it does not create objects
+ * per element and can be reused by {@link #clear()}.
+ *
+ * @author nschirrmacher
+ */
+/* package */ final class IndexedMinHeap {
+
+	private final int[] heap;
+	// position of an element in the heap, -1 if it is not in it
+	private final int[] positions;
+	private final double[] keys;
+	private int size = 0;
+
+	IndexedMinHeap(int n) {
+		this.heap = new int[n];
+		this.positions = new int[n];
+		this.keys = new double[n];
+		Arrays.fill(this.positions, -1);
+	}
+
+	boolean isEmpty() {
+		return this.size == 0;
+	}
+
+	boolean contains(int element) {
+		return this.positions[element] >= 0;
+	}
+
+	/**
+	 * Adds the element or, if it is already in the heap, decreases its key.
+	 * Larger keys are ignored.
+	 */
+	void insertOrDecrease(int element, double key) {
+		int position = this.positions[element];
+		if (position < 0) {
+			position = this.size++;
+			this.heap[position] = element;
+			this.positions[element] = position;
+		} else if (key >= this.keys[element]) {
+			return;
+		}
+		this.keys[element] = key;
+		siftUp(position);
+	}
+
+	int poll() {
+		int min = this.heap[0];
+		this.positions[min] = -1;
+		this.size--;
+		if (this.size > 0) {
+			int last = this.heap[this.size];
+			this.heap[0] = last;
+			this.positions[last] = 0;
+			siftDown(0);
+		}
+		return min;
+	}
+
+	double peekKey() {
+		return this.keys[this.heap[0]];
+	}
+
+	void clear() {
+		for (int i = 0; i < this.size; i++) {
+			this.positions[this.heap[i]] = -1;
+		}
+		this.size = 0;
+	}
+
+	private void siftUp(int position) {
+		int element = this.heap[position];
+		double key = this.keys[element];
+		while (position > 0) {
+			int parent = (position - 1) >>> 1;
+			int parentElement = this.heap[parent];
+			if (this.keys[parentElement] <= key)
+				break;
+			this.heap[position] = parentElement;
+			this.positions[parentElement] = position;
+			position = parent;
+		}
+		this.heap[position] = element;
+		this.positions[element] = position;
+	}
+
+	private void siftDown(int position) {
+		int element = this.heap[position];
+		double key = this.keys[element];
+		while (true) {
+			int child = 2 * position + 1;
+			if (child >= this.size)
+				break;
+			if (child + 1 < this.size && this.keys[this.heap[child + 1]] < this.keys[this.heap[child]])
+				child++;
+			int childElement = this.heap[child];
+			if (this.keys[childElement] >= key)
+				break;
+			this.heap[position] = childElement;
+			this.positions[childElement] = position;
+			position = child;
+		}
+		this.heap[position] = element;
+		this.positions[element] = position;
+	}
+
+}
@@ -0,0 +1,245 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * LaneConflictMatrix.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.example;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.lanes.data.Lane;
+
+/**
+ * Conflict model of the signalized lanes of one signal system. Every lane gets
+ * a dense ordinal, the relations between two lanes are kept in two bit
+ * matrices over these ordinals:
+ * <ul>
+ * <li><em>critical</em>: the other lane is served in the same phase, but its
+ * movement crosses the movement of this lane (e.g. an opposing left turn)</li>
+ * <li><em>non critical</em>: the other lane is served in the same phase and
+ * does not conflict with this lane</li>
+ * </ul>
+ * Lanes that are in neither relation are served in different phases. Rows are
+ * directed, i.e. <code>isCritical(a, b)</code> says how lane <code>b</code> is
+ * seen from lane <code>a</code>.
+ *
+ * The matrix can be written into a single string (see {@link #serialize()}),
+ * which is stored once per signal system instead of one attribute per lane
+ * pair.
+ *
+ * @author nschirrmacher
+ */
+public final class LaneConflictMatrix {
+
+	private final static String PART_SEPARATOR = ";";
+	private final static String ID_SEPARATOR = ",";
+	private final static String WORD_SEPARATOR = ".";
+
+	private final List<Id<Lane>> laneIds;
+	private final Map<Id<Lane>, Integer> ordinals;
+	private final BitSet critical;
+	private final BitSet nonCritical;
+
+	/**
+	 * @param laneIds
+	 *            the lanes of the signal system. The position in the list is
+	 *            used as ordinal of the lane.
+	 */
+	public LaneConflictMatrix(final List<Id<Lane>> laneIds) {
+		this(laneIds, new BitSet(laneIds.size() * laneIds.size()), new BitSet(laneIds.size() * laneIds.size()));
+	}
+
+	private LaneConflictMatrix(final List<Id<Lane>> laneIds, final BitSet critical, final BitSet nonCritical) {
+		this.laneIds = new ArrayList<Id<Lane>>(laneIds);
+		this.ordinals = new HashMap<Id<Lane>, Integer>();
+		for (int i = 0; i < this.laneIds.size(); i++) {
+			if (this.ordinals.put(this.laneIds.get(i), i) != null) {
+				throw new IllegalArgumentException("Lane " + this.laneIds.get(i) + " is contained twice.");
+			}
+		}
+		this.critical = critical;
+		this.nonCritical = nonCritical;
+	}
+
+	public int size() {
+		return this.laneIds.size();
+	}
+
+	/**
+	 * @return the ordinal of the lane or -1, if the lane is not part of this
+	 *         matrix
+	 */
+	public int getOrdinal(final Id<Lane> laneId) {
+		Integer ordinal = this.ordinals.get(laneId);
+		return ordinal == null ? -1 : ordinal;
+	}
+
+	public Id<Lane> getLaneId(final int ordinal) {
+		return this.laneIds.get(ordinal);
+	}
+
+	public boolean containsLane(final Id<Lane> laneId) {
+		return this.ordinals.containsKey(laneId);
+	}
+
+	/**
+	 * Removes all relations of the given lane to other lanes.
+	 */
+	public void clearRow(final Id<Lane> laneId) {
+		int from = index(ordinalOf(laneId), 0);
+		this.critical.clear(from, from + size());
+		this.nonCritical.clear(from, from + size());
+	}
+
+	public void setCritical(final Id<Lane> laneId, final Id<Lane> otherLaneId) {
+		int index = index(ordinalOf(laneId), ordinalOf(otherLaneId));
+		this.critical.set(index);
+		this.nonCritical.clear(index);
+	}
+
+	public void setNonCritical(final Id<Lane> laneId, final Id<Lane> otherLaneId) {
+		int index = index(ordinalOf(laneId), ordinalOf(otherLaneId));
+		this.nonCritical.set(index);
+		this.critical.clear(index);
+	}
+
+	public boolean isCritical(final Id<Lane> laneId, final Id<Lane> otherLaneId) {
+		return isCritical(getOrdinal(laneId), getOrdinal(otherLaneId));
+	}
+
+	public boolean isCritical(final int ordinal, final int otherOrdinal) {
+		if (ordinal < 0 || otherOrdinal < 0) {
+			return false;
+		}
+		return this.critical.get(index(ordinal, otherOrdinal));
+	}
+
+	public boolean isNonCritical(final Id<Lane> laneId, final Id<Lane> otherLaneId) {
+		return isNonCritical(getOrdinal(laneId), getOrdinal(otherLaneId));
+	}
+
+	public boolean isNonCritical(final int ordinal, final int otherOrdinal) {
+		if (ordinal < 0 || otherOrdinal < 0) {
+			return false;
+		}
+		return this.nonCritical.get(index(ordinal, otherOrdinal));
+	}
+
+	/**
+	 * @return <code>true</code> if at least one relation of the given lane to
+	 *         another lane is known
+	 */
+	public boolean hasRelations(final Id<Lane> laneId) {
+		int ordinal = getOrdinal(laneId);
+		if (ordinal < 0) {
+			return false;
+		}
+		int from = index(ordinal, 0);
+		int nextCritical = this.critical.nextSetBit(from);
+		int nextNonCritical = this.nonCritical.nextSetBit(from);
+		return (nextCritical >= 0 && nextCritical < from + size())
+				|| (nextNonCritical >= 0 && nextNonCritical < from + size());
+	}
+
+	/**
+	 * Writes the matrix as
+	 * <code>laneId,laneId,...;criticalWords;nonCriticalWords</code>, where the
+	 * bit rows are given as dot-separated hexadecimal longs.
+	 */
+	public String serialize() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < this.laneIds.size(); i++) {
+			if (i > 0) {
+				sb.append(ID_SEPARATOR);
+			}
+			sb.append(this.laneIds.get(i).toString());
+		}
+		sb.append(PART_SEPARATOR);
+		appendWords(sb, this.critical);
+		sb.append(PART_SEPARATOR);
+		appendWords(sb, this.nonCritical);
+		return sb.toString();
+	}
+
+	/**
+	 * Reads a matrix written by {@link #serialize()}.
+	 */
+	public static LaneConflictMatrix parse(final String serialized) {
+		String[] parts = serialized.split(PART_SEPARATOR, -1);
+		if (parts.length != 3) {
+			throw new IllegalArgumentException("Could not read lane conflicts: " + serialized);
+		}
+		List<Id<Lane>> laneIds = new ArrayList<Id<Lane>>();
+		if (!parts[0].isEmpty()) {
+			for (String laneId : parts[0].split(ID_SEPARATOR)) {
+				laneIds.add(Id.create(laneId, Lane.class));
+			}
+		}
+		return new LaneConflictMatrix(laneIds, readWords(parts[1]), readWords(parts[2]));
+	}
+
+	private static void appendWords(StringBuilder sb, BitSet bits) {
+		long[] words = bits.toLongArray();
+		for (int i = 0; i < words.length; i++) {
+			if (i > 0) {
+				sb.append(WORD_SEPARATOR);
+			}
+			sb.append(Long.toHexString(words[i]));
+		}
+	}
+
+	private static BitSet readWords(String part) {
+		if (part.isEmpty()) {
+			return new BitSet();
+		}
+		String[] hexWords = part.split("\\" + WORD_SEPARATOR);
+		long[] words = new long[hexWords.length];
+		for (int i = 0; i < hexWords.length; i++) {
+			words[i] = parseUnsignedHex(hexWords[i]);
+		}
+		return BitSet.valueOf(words);
+	}
+
+	/* Long.parseUnsignedLong is not available in Java 7 */
+	private static long parseUnsignedHex(String hex) {
+		if (hex.length() < 16) {
+			return Long.parseLong(hex, 16);
+		}
+		long high = Long.parseLong(hex.substring(0, hex.length() - 8), 16);
+		long low = Long.parseLong(hex.substring(hex.length() - 8), 16);
+		return (high << 32) | low;
+	}
+
+	private int ordinalOf(final Id<Lane> laneId) {
+		Integer ordinal = this.ordinals.get(laneId);
+		if (ordinal == null) {
+			throw new IllegalArgumentException("Lane " + laneId + " is not part of this conflict matrix.");
+		}
+		return ordinal;
+	}
+
+	private int index(final int ordinal, final int otherOrdinal) {
+		return ordinal * size() + otherOrdinal;
+	}
+
+}
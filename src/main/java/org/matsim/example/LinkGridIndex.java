@@ -0,0 +1,192 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * LinkGridIndex.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.network.Link;
+
+/**
+ * Finds the link nearest to a coordinate, measured to the straight line
+ * between its nodes. The links are sorted into a regular grid of cells, every
+ * link into all cells its bounding box touches, and a query only checks the
+ * cells around the coordinate, ring by ring, until no closer link is possible.
+ *
+ * The index does not change after construction, so it can be queried from
+ * several threads at once.
+ *
+ * @author nschirrmacher
+ */
+public final class LinkGridIndex {
+
+	// on average, so a query usually checks only a few links
+	private static final double LINKS_PER_CELL = 4;
+
+	private final Link[] links;
+	private final double[] fromX;
+	private final double[] fromY;
+	private final double[] toX;
+	private final double[] toY;
+
+	private final double minX;
+	private final double minY;
+	private final double cellSize;
+	private final int columns;
+	private final int rows;
+	// links of cell c are cellLinks[cellStart[c]] to cellLinks[cellStart[c + 1] - 1]
+	private final int[] cellStart;
+	private final int[] cellLinks;
+
+	public LinkGridIndex(Collection<? extends Link> links) {
+		if (links.isEmpty())
+			throw new IllegalArgumentException("Cannot create an index without links.");
+		this.links = links.toArray(new Link[links.size()]);
+		int n = this.links.length;
+		this.fromX = new double[n];
+		this.fromY = new double[n];
+		this.toX = new double[n];
+		this.toY = new double[n];
+		double minX = Double.POSITIVE_INFINITY;
+		double minY = Double.POSITIVE_INFINITY;
+		double maxX = Double.NEGATIVE_INFINITY;
+		double maxY = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			Coord from = this.links[i].getFromNode().getCoord();
+			Coord to = this.links[i].getToNode().getCoord();
+			this.fromX[i] = from.getX();
+			this.fromY[i] = from.getY();
+			this.toX[i] = to.getX();
+			this.toY[i] = to.getY();
+			minX = Math.min(minX, Math.min(this.fromX[i], this.toX[i]));
+			minY = Math.min(minY, Math.min(this.fromY[i], this.toY[i]));
+			maxX = Math.max(maxX, Math.max(this.fromX[i], this.toX[i]));
+			maxY = Math.max(maxY, Math.max(this.fromY[i], this.toY[i]));
+		}
+		this.minX = minX;
+		this.minY = minY;
+		double width = Math.max(maxX - minX, 1);
+		double height = Math.max(maxY - minY, 1);
+		this.cellSize = Math.max(Math.sqrt(width * height * LINKS_PER_CELL / n), 1);
+		this.columns = (int) (width / this.cellSize) + 1;
+		this.rows = (int) (height / this.cellSize) + 1;
+
+		// count the links per cell first, then fill them in
+		this.cellStart = new int[this.columns * this.rows + 1];
+		for (int i = 0; i < n; i++) {
+			for (int row = row(Math.min(this.fromY[i], this.toY[i])); row <= row(Math.max(this.fromY[i], this.toY[i])); row++) {
+				for (int column = column(Math.min(this.fromX[i], this.toX[i])); column <= column(Math.max(this.fromX[i], this.toX[i])); column++) {
+					this.cellStart[row * this.columns + column + 1]++;
+				}
+			}
+		}
+		for (int c = 0; c < this.columns * this.rows; c++) {
+			this.cellStart[c + 1] += this.cellStart[c];
+		}
+		this.cellLinks = new int[this.cellStart[this.columns * this.rows]];
+		int[] next = new int[this.columns * this.rows];
+		System.arraycopy(this.cellStart, 0, next, 0, next.length);
+		for (int i = 0; i < n; i++) {
+			for (int row = row(Math.min(this.fromY[i], this.toY[i])); row <= row(Math.max(this.fromY[i], this.toY[i])); row++) {
+				for (int column = column(Math.min(this.fromX[i], this.toX[i])); column <= column(Math.max(this.fromX[i], this.toX[i])); column++) {
+					this.cellLinks[next[row * this.columns + column]++] = i;
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return all links that allow the given mode, e.g. to create an index
+	 *         only for them
+	 */
+	public static List<Link> linksAllowing(Collection<? extends Link> links, String mode) {
+		List<Link> allowing = new ArrayList<>();
+		for (Link link : links) {
+			if (link.getAllowedModes().contains(mode))
+				allowing.add(link);
+		}
+		return allowing;
+	}
+
+	/**
+	 * @return the link nearest to the coordinate. If several links have the
+	 *         same distance, the one first given to the index is returned.
+	 */
+	public Link getNearestLink(Coord coord) {
+		double x = coord.getX();
+		double y = coord.getY();
+		int column = column(x);
+		int row = row(y);
+		int best = -1;
+		double bestDistanceSquared = Double.POSITIVE_INFINITY;
+		int maxRing = Math.max(this.columns, this.rows);
+		for (int ring = 0; ring <= maxRing; ring++) {
+			for (int r = row - ring; r <= row + ring; r++) {
+				if (r < 0 || r >= this.rows)
+					continue;
+				// the inner rows of the ring only have their first and last column
+				int step = (r == row - ring || r == row + ring) ? 1 : Math.max(1, 2 * ring);
+				for (int c = column - ring; c <= column + ring; c += step) {
+					if (c < 0 || c >= this.columns)
+						continue;
+					int cell = r * this.columns + c;
+					for (int k = this.cellStart[cell]; k < this.cellStart[cell + 1]; k++) {
+						int i = this.cellLinks[k];
+						double distanceSquared = distanceSquared(i, x, y);
+						if (distanceSquared < bestDistanceSquared || (distanceSquared == bestDistanceSquared && i < best)) {
+							best = i;
+							bestDistanceSquared = distanceSquared;
+						}
+					}
+				}
+			}
+			// all cells of the next ring are at least this far away
+			double ringDistance = ring * this.cellSize;
+			if (best >= 0 && bestDistanceSquared <= ringDistance * ringDistance)
+				break;
+		}
+		return this.links[best];
+	}
+
+	private double distanceSquared(int i, double x, double y) {
+		double dx = this.toX[i] - this.fromX[i];
+		double dy = this.toY[i] - this.fromY[i];
+		double lengthSquared = dx * dx + dy * dy;
+		double t = 0;
+		if (lengthSquared > 0) {
+			t = ((x - this.fromX[i]) * dx + (y - this.fromY[i]) * dy) / lengthSquared;
+			t = Math.max(0, Math.min(1, t));
+		}
+		double px = this.fromX[i] + t * dx - x;
+		double py = this.fromY[i] + t * dy - y;
+		return px * px + py * py;
+	}
+
+	private int column(double x) {
+		return Math.max(0, Math.min(this.columns - 1, (int) ((x - this.minX) / this.cellSize)));
+	}
+
+	private int row(double y) {
+		return Math.max(0, Math.min(this.rows - 1, (int) ((y - this.minY) / this.cellSize)));
+	}
+
+}
@@ -0,0 +1,354 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * NetworkLanesAndSignalsCleaner.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupSettingsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalPlanData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalSystemControllerData;
+import org.matsim.contrib.signals.data.signalsystems.v20.SignalSystemData;
+import org.matsim.contrib.signals.model.Signal;
+import org.matsim.contrib.signals.model.SignalGroup;
+import org.matsim.contrib.signals.model.SignalSystem;
+import org.matsim.dgretherCopies.SignalSystemsDataConsistencyChecker;
+import org.matsim.lanes.data.Lane;
+import org.matsim.lanes.data.Lanes;
+import org.matsim.lanes.data.LanesToLinkAssignment;
+
+/**
+ * Cleans network, lanes and signals of a scenario in one stage. The biggest
+ * strongly connected component of the network is computed once, everything
+ * outside of it is removed and the removals are passed on: lanes of removed
+ * links, signals at removed links or lanes, groups without signals and their
+ * settings in the plans. Afterwards signal groups and signal control are
+ * validated concurrently.
+ *
+ * Replaces running NetworkCleaner, LanesConsistencyChecker and the signals
+ * consistency checkers one after another.
+ *
+ * @author nschirrmacher
+ */
+public class NetworkLanesAndSignalsCleaner {
+
+	private static final Logger log = Logger.getLogger(NetworkLanesAndSignalsCleaner.class);
+
+	private final Network network;
+	private final Lanes lanes;
+	private final SignalsData signalsData;
+
+	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+	private String signalsReportFile = null;
+
+	public NetworkLanesAndSignalsCleaner(Scenario scenario) {
+		this.network = scenario.getNetwork();
+		this.lanes = scenario.getLanes();
+		this.signalsData = (SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME);
+	}
+
+	/**
+	 * @param numberOfThreads
+	 *            number of threads used for the signals checks, 1 runs all
+	 *            checks sequentially
+	 */
+	public void setNumberOfThreads(int numberOfThreads) {
+		this.numberOfThreads = numberOfThreads;
+	}
+
+	/**
+	 * @param signalsReportFile
+	 *            if set, the findings of the signal systems check are written
+	 *            to this file
+	 */
+	public void setSignalsReportFile(String signalsReportFile) {
+		this.signalsReportFile = signalsReportFile;
+	}
+
+	public void run() {
+		long start = System.currentTimeMillis();
+		Set<Id<Link>> removedLinks = removeDisconnectedParts();
+		log.info("removed " + removedLinks.size() + " links not belonging to the biggest strongly connected component");
+		int removedLanes = removeMalformedLanes(removedLinks);
+		log.info("removed lanes of " + removedLanes + " links");
+
+		if (this.signalsData != null) {
+			SignalSystemsDataConsistencyChecker signalsConsistency = new SignalSystemsDataConsistencyChecker(this.network, this.lanes, this.signalsData);
+			signalsConsistency.setNumberOfThreads(this.numberOfThreads);
+			signalsConsistency.checkConsistency();
+			if (this.signalsReportFile != null)
+				signalsConsistency.writeReport(this.signalsReportFile);
+			validateSignalGroupsAndControl();
+		}
+		log.info("cleaned network, lanes and signals in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/*
+	 * Same result as NetworkCleaner: only the biggest strongly connected
+	 * component (by number of nodes) is kept. The components are found with an
+	 * iterative version of Tarjan's algorithm, so every link is visited once.
+	 */
+	private Set<Id<Link>> removeDisconnectedParts() {
+		List<Node> nodes = new ArrayList<Node>(this.network.getNodes().values());
+		Map<Id<Node>, Integer> ordinals = new HashMap<Id<Node>, Integer>(nodes.size() * 2);
+		for (int i = 0; i < nodes.size(); i++)
+			ordinals.put(nodes.get(i).getId(), i);
+		int[][] successors = new int[nodes.size()][];
+		for (int i = 0; i < nodes.size(); i++) {
+			successors[i] = new int[nodes.get(i).getOutLinks().size()];
+			int j = 0;
+			for (Link link : nodes.get(i).getOutLinks().values())
+				successors[i][j++] = ordinals.get(link.getToNode().getId());
+		}
+
+		boolean[] inBiggestComponent = findBiggestStronglyConnectedComponent(successors);
+		Set<Id<Link>> removedLinks = new HashSet<Id<Link>>();
+		for (int i = 0; i < nodes.size(); i++) {
+			if (!inBiggestComponent[i]) {
+				Node node = nodes.get(i);
+				removedLinks.addAll(node.getInLinks().keySet());
+				removedLinks.addAll(node.getOutLinks().keySet());
+				this.network.removeNode(node.getId());
+			}
+		}
+		return removedLinks;
+	}
+
+	/**
+	 * @param successors
+	 *            for every node the ordinals of the nodes reachable by one link
+	 * @return for every node, whether it belongs to the biggest component
+	 */
+	static boolean[] findBiggestStronglyConnectedComponent(int[][] successors) {
+		int n = successors.length;
+		int[] index = new int[n];
+		int[] lowLink = new int[n];
+		int[] componentOf = new int[n];
+		boolean[] onStack = new boolean[n];
+		int[] stack = new int[n];
+		int stackSize = 0;
+		int[] callNode = new int[n];
+		int[] callEdge = new int[n];
+		Arrays.fill(index, -1);
+		int nextIndex = 0;
+		int components = 0;
+		List<Integer> componentSizes = new ArrayList<Integer>();
+
+		for (int root = 0; root < n; root++) {
+			if (index[root] >= 0)
+				continue;
+			int depth = 0;
+			callNode[0] = root;
+			callEdge[0] = 0;
+			index[root] = lowLink[root] = nextIndex++;
+			stack[stackSize++] = root;
+			onStack[root] = true;
+			while (depth >= 0) {
+				int v = callNode[depth];
+				if (callEdge[depth] < successors[v].length) {
+					int w = successors[v][callEdge[depth]++];
+					if (index[w] < 0) {
+						index[w] = lowLink[w] = nextIndex++;
+						stack[stackSize++] = w;
+						onStack[w] = true;
+						depth++;
+						callNode[depth] = w;
+						callEdge[depth] = 0;
+					} else if (onStack[w]) {
+						lowLink[v] = Math.min(lowLink[v], index[w]);
+					}
+				} else {
+					if (lowLink[v] == index[v]) {
+						int size = 0;
+						int w;
+						do {
+							w = stack[--stackSize];
+							onStack[w] = false;
+							componentOf[w] = components;
+							size++;
+						} while (w != v);
+						componentSizes.add(size);
+						components++;
+					}
+					depth--;
+					if (depth >= 0) {
+						int parent = callNode[depth];
+						lowLink[parent] = Math.min(lowLink[parent], lowLink[v]);
+					}
+				}
+			}
+		}
+
+		int biggest = -1;
+		int biggestSize = 0;
+		for (int c = 0; c < components; c++) {
+			if (componentSizes.get(c) > biggestSize) {
+				biggest = c;
+				biggestSize = componentSizes.get(c);
+			}
+		}
+		boolean[] inBiggest = new boolean[n];
+		for (int i = 0; i < n; i++)
+			inBiggest[i] = componentOf[i] == biggest;
+		return inBiggest;
+	}
+
+	/*
+	 * Lanes of removed links are dropped, as well as the lanes of links where
+	 * one lane leads to a link that does not exist anymore. This is what
+	 * LanesConsistencyChecker does with removeMalformed set.
+	 */
+	private int removeMalformedLanes(Set<Id<Link>> removedLinks) {
+		List<Id<Link>> malformed = new ArrayList<Id<Link>>();
+		for (LanesToLinkAssignment l2l : this.lanes.getLanesToLinkAssignments().values()) {
+			if (removedLinks.contains(l2l.getLinkId()) || !this.network.getLinks().containsKey(l2l.getLinkId())) {
+				malformed.add(l2l.getLinkId());
+				continue;
+			}
+			lanes:
+			for (Lane lane : l2l.getLanes().values()) {
+				if (lane.getToLinkIds() == null)
+					continue;
+				for (Id<Link> toLinkId : lane.getToLinkIds()) {
+					if (!this.network.getLinks().containsKey(toLinkId)) {
+						log.warn("Lane " + lane.getId() + " of link " + l2l.getLinkId() + " leads to link " + toLinkId
+								+ ", which is not existing in the network. Removing the lanes of the link.");
+						malformed.add(l2l.getLinkId());
+						break lanes;
+					}
+				}
+			}
+		}
+		for (Id<Link> linkId : malformed)
+			this.lanes.getLanesToLinkAssignments().remove(linkId);
+		return malformed.size();
+	}
+
+	/*
+	 * The checks of groups and control only read the signals data, so they
+	 * run at the same time.
+	 */
+	private void validateSignalGroupsAndControl() {
+		Callable<Integer> groupsCheck = new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return validateSignalGroups();
+			}
+		};
+		Callable<Integer> controlCheck = new Callable<Integer>() {
+			@Override
+			public Integer call() {
+				return validateSignalControl();
+			}
+		};
+		int errors;
+		if (this.numberOfThreads <= 1) {
+			try {
+				errors = groupsCheck.call() + controlCheck.call();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(2);
+			try {
+				Future<Integer> groupsErrors = executor.submit(groupsCheck);
+				Future<Integer> controlErrors = executor.submit(controlCheck);
+				errors = groupsErrors.get() + controlErrors.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while checking signal groups and control.", e);
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof RuntimeException)
+					throw (RuntimeException) e.getCause();
+				throw new RuntimeException(e.getCause());
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		log.info("checked signal groups and control: " + errors + " errors");
+	}
+
+	private int validateSignalGroups() {
+		int errors = 0;
+		Map<Id<SignalSystem>, SignalSystemData> systems = this.signalsData.getSignalSystemsData().getSignalSystemData();
+		for (Map.Entry<Id<SignalSystem>, Map<Id<SignalGroup>, SignalGroupData>> entry : this.signalsData.getSignalGroupsData().getSignalGroupDataBySignalSystemId().entrySet()) {
+			SignalSystemData system = systems.get(entry.getKey());
+			if (system == null) {
+				log.error("Signal groups exist for signal system " + entry.getKey() + ", but the system does not exist.");
+				errors++;
+				continue;
+			}
+			for (SignalGroupData group : entry.getValue().values()) {
+				for (Id<Signal> signalId : group.getSignalIds()) {
+					if (!system.getSignalData().containsKey(signalId)) {
+						log.error("Signal group " + group.getId() + " contains signal " + signalId
+								+ ", which does not exist in signal system " + system.getId());
+						errors++;
+					}
+				}
+			}
+		}
+		return errors;
+	}
+
+	private int validateSignalControl() {
+		int errors = 0;
+		Map<Id<SignalSystem>, SignalSystemData> systems = this.signalsData.getSignalSystemsData().getSignalSystemData();
+		Map<Id<SignalSystem>, Map<Id<SignalGroup>, SignalGroupData>> groups = this.signalsData.getSignalGroupsData().getSignalGroupDataBySignalSystemId();
+		for (SignalSystemControllerData controller : this.signalsData.getSignalControlData().getSignalSystemControllerDataBySystemId().values()) {
+			if (!systems.containsKey(controller.getSignalSystemId())) {
+				log.error("Controller exists for signal system " + controller.getSignalSystemId() + ", but the system does not exist.");
+				errors++;
+				continue;
+			}
+			Map<Id<SignalGroup>, SignalGroupData> systemGroups = groups.get(controller.getSignalSystemId());
+			for (SignalPlanData plan : controller.getSignalPlanData().values()) {
+				for (SignalGroupSettingsData settings : plan.getSignalGroupSettingsDataByGroupId().values()) {
+					if (systemGroups == null || !systemGroups.containsKey(settings.getSignalGroupId())) {
+						log.error("Signal plan " + plan.getId() + " of signal system " + controller.getSignalSystemId()
+								+ " has settings for group " + settings.getSignalGroupId() + ", which does not exist.");
+						errors++;
+					}
+				}
+			}
+		}
+		return errors;
+	}
+
+}
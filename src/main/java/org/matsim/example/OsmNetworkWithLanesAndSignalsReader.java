@@ -21,18 +21,38 @@
 package org.matsim.example;
 //package org.matsim.core.utils.io;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.Stack;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Coord;
@@ -59,6 +79,7 @@ import org.matsim.core.api.internal.MatsimSomeReader;
 import org.matsim.core.utils.collections.Tuple;
 import org.matsim.core.utils.geometry.CoordUtils;
 import org.matsim.core.utils.geometry.CoordinateTransformation;
+import org.matsim.core.utils.io.IOUtils;
 import org.matsim.core.utils.io.MatsimXmlParser;
 import org.matsim.core.utils.io.UncheckedIOException;
 import org.matsim.core.utils.misc.Counter;
@@ -140,14 +161,16 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 	private final static double THROUGHLINK_ANGLE_TOLERANCE = 0.1666667;
 	private final static int PEDESTRIAN_CROSSING_TIME = 20;
 	private final static int CYCLE_TIME = 90;
+	private final static int CACHE_VERSION = 1;
+	private final static int INTERMEDIATE_MAGIC = 0x4d4f534d; // "MOSM"
+	private final static int INTERMEDIATE_VERSION = 1;
 	
 	private final static String ORIG_ID = "origId";
 	private final static String TYPE = "type";
 	private final static String TO_LINKS_ANGLES = "toLinksAngles";
 	private final static String IS_ORIG_LANE = "isOrigLane";
 	private final static String TO_LINK_REFERENCE = "toLinkReference";
-	private final static String NON_CRIT_LANES = "non_critical_lane";
-	private final static String CRIT_LANES = "critical_lane";
+	private final static String LANE_CONFLICTS = "lane_conflicts";
 	
 	private final static String LANES_ESTIMATION = "StVO_free";
 //	private final static String LANES_ESTIMATION = "StVO_restricted";
@@ -161,8 +184,10 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 	private final Map<Id<Link>, LaneStack> laneStacks = new HashMap<Id<Link>, LaneStack>();
 	private final Map<Long, OsmNode> roundaboutNodes = new HashMap<Long, OsmNode>();
 	private final Map<Id<Link>, Map<Id<Link>,Double>> allToLinksAngles = new HashMap<Id<Link>, Map<Id<Link>,Double>>();
-	private final Map<Id<Lane>, List<Id<Lane>>> nonCritLanes = new HashMap<Id<Lane>, List<Id<Lane>>>();
-	private final Map<Id<Lane>, List<Id<Lane>>> critLanes = new HashMap<Id<Lane>, List<Id<Lane>>>();
+	private final Map<Id<SignalSystem>, LaneConflictMatrix> laneConflicts = new HashMap<Id<SignalSystem>, LaneConflictMatrix>();
+	private final Map<Id<SignalSystem>, SignalLookup> signalLookups = new HashMap<Id<SignalSystem>, SignalLookup>();
+	private final static SignalLookup EMPTY_SIGNAL_LOOKUP = new SignalLookup();
+	private final ConcurrentHashMap<String, JunctionTemplate> junctionTemplates = new ConcurrentHashMap<String, JunctionTemplate>();
 	private final Map<Long, Double> turnRadii = new HashMap<Long, Double>();
 	
 	private final Set<String> unknownHighways = new HashSet<String>();
@@ -179,6 +204,9 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 
 	private boolean slowButLowMemory = false;
 	
+	private int numberOfThreads = Runtime.getRuntime().availableProcessors();
+	private boolean useJunctionTemplates = true;
+	
 	private boolean minimizeSmallRoundabouts = true;
 	private boolean mergeOnewaySignalSystems = true;
 	private boolean useRadiusReduction = true;
@@ -199,6 +227,12 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 	
 	private BoundingBox bbox = null;
 	
+	private final SignalsData signalsData;
+	private String cacheDirectory = null;
+	private String intermediateFile = null;
+	// whether the last parse read its result from the cache
+	/* package */ boolean readFromCache = false;
+	
 	
 
 	/* package */ final List<OsmFilter> hierarchyLayers = new ArrayList<OsmFilter>();
@@ -232,6 +266,7 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 			final boolean useHighwayDefaults, final SignalsData signalsData, final Lanes lanes) {
 		this.network = network;
 		this.transform = transformation;
+		this.signalsData = signalsData;
 		this.systems = signalsData.getSignalSystemsData();
 		this.groups = signalsData.getSignalGroupsData();
 		this.control = signalsData.getSignalControlData();
@@ -274,6 +309,31 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 		parse(null, stream);
 	}
 
+	/**
+	 * Converts osm data that was written by an earlier call of
+	 * {@link #parse(String)} with {@link #setIntermediateFile(String)} set,
+	 * without reading the xml again. Assumptions, lanes estimation, default
+	 * lanes modes and bounding box of this reader are applied as usual, so the
+	 * same intermediate can be converted with different settings by different
+	 * readers.
+	 * 
+	 * @param intermediateFilename
+	 * @throws UncheckedIOException
+	 */
+	public void parseIntermediate(final String intermediateFilename) throws UncheckedIOException {
+		log.info("reading parsed osm data from " + intermediateFilename);
+		readIntermediate(intermediateFilename);
+		int signals = 0;
+		for (OsmNode node : this.nodes.values()) {
+			if (node.signalized)
+				signals++;
+		}
+		int nodesRead = this.nodes.size();
+		int waysRead = this.ways.size();
+		convert();
+		logConversionStatistics(nodesRead, waysRead, signals);
+	}
+
 	/**
 	 * Either osmFilename or stream must be <code>null</code>, but not both.
 	 *
@@ -286,6 +346,57 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 			log.warn("No hierarchy layer specified. Will convert every highway specified by setHighwayDefaults.");
 		}
 
+		this.readFromCache = false;
+		File cacheFile = null;
+		if (this.cacheDirectory != null && osmFilename != null) {
+			cacheFile = new File(this.cacheDirectory, createCacheKey(osmFilename) + ".snapshot");
+			// the intermediate needs the parsed data, so the cache is not read then
+			if (cacheFile.exists() && this.intermediateFile == null) {
+				log.info("reading conversion result of " + osmFilename + " from cache " + cacheFile);
+				new ScenarioSnapshotReader(this.network, this.lanes, this.signalsData).read(cacheFile.getPath());
+				readLaneConflictsFromNodes();
+				this.readFromCache = true;
+				return;
+			}
+		}
+
+		OsmXmlParser parser = readOsm(osmFilename, stream);
+		if (this.intermediateFile != null) {
+			writeIntermediate(this.intermediateFile);
+		}
+		convert();
+		logConversionStatistics(parser.nodeCounter.getCounter(), parser.wayCounter.getCounter(), parser.signalsCounter.getCounter());
+		if (cacheFile != null) {
+			writeToCache(cacheFile);
+		}
+	}
+
+	/**
+	 * Parses the given osm file and only writes the parsed data into the given
+	 * intermediate file, see {@link #setIntermediateFile(String)}. Nothing is
+	 * converted, so this reader's network, lanes and signals stay empty. The
+	 * intermediate can then be converted with different settings by
+	 * {@link #parseIntermediate(String)}.
+	 * 
+	 * @param osmFilename
+	 * @param intermediateFilename
+	 * @throws UncheckedIOException
+	 */
+	public void parseToIntermediate(final String osmFilename, final String intermediateFilename) throws UncheckedIOException {
+		if (this.hierarchyLayers.isEmpty()) {
+			log.warn("No hierarchy layer specified. Will convert every highway specified by setHighwayDefaults.");
+		}
+		readOsm(osmFilename, null);
+		writeIntermediate(intermediateFilename);
+		this.nodes.clear();
+		this.ways.clear();
+	}
+
+	/* package */ void readOsm(final String osmFilename) {
+		readOsm(osmFilename, null);
+	}
+
+	private OsmXmlParser readOsm(final String osmFilename, final InputStream stream) {
 		OsmXmlParser parser = null;
 		if (this.slowButLowMemory) {
 			log.info("parsing osm file first time: identifying nodes used by ways");
@@ -312,11 +423,14 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 				parser.readFile(osmFilename);
 			}
 		}
-		convert();
+		return parser;
+	}
+
+	private void logConversionStatistics(long nodesRead, long waysRead, long signalsRead) {
 		log.info("= conversion statistics: ==========================");
-		log.info("osm: # nodes read:         " + parser.nodeCounter.getCounter());
-		log.info("osm: # ways read:          " + parser.wayCounter.getCounter());
-		log.info("osm: # signals read:       " + parser.signalsCounter.getCounter());
+		log.info("osm: # nodes read:         " + nodesRead);
+		log.info("osm: # ways read:          " + waysRead);
+		log.info("osm: # signals read:       " + signalsRead);
 		log.info("MATSim: # nodes created:   " + this.network.getNodes().size());
 		log.info("MATSim: # links created:   " + this.network.getLinks().size());
 		log.info("MATSim: # signals created: " + this.systems.getSignalSystemData().size());
@@ -329,6 +443,231 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 		log.info("= end of conversion statistics ====================");
 	}
 
+	/*
+	 * The intermediate holds the osm data as it is after parsing: nodes with
+	 * transformed coordinates and their signal and crossing flags, the ways
+	 * that passed the highway and hierarchy layer filters with their node ids
+	 * and tags, and the turn restrictions. Tag strings go into a string table,
+	 * node ids of ways are delta encoded as variable length numbers.
+	 */
+	private void writeIntermediate(final String filename) {
+		long start = System.currentTimeMillis();
+		Map<String, Integer> strings = new LinkedHashMap<String, Integer>();
+		for (OsmWay way : this.ways.values()) {
+			for (Entry<String, String> tag : way.tags.entrySet()) {
+				if (!strings.containsKey(tag.getKey()))
+					strings.put(tag.getKey(), strings.size());
+				if (!strings.containsKey(tag.getValue()))
+					strings.put(tag.getValue(), strings.size());
+			}
+		}
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16))) {
+			out.writeInt(INTERMEDIATE_MAGIC);
+			out.writeInt(INTERMEDIATE_VERSION);
+			writeVarLong(out, strings.size());
+			for (String string : strings.keySet())
+				out.writeUTF(string);
+
+			writeVarLong(out, this.nodes.size());
+			int restrictions = 0;
+			for (OsmNode node : this.nodes.values()) {
+				out.writeLong(node.id);
+				out.writeDouble(node.coord.getX());
+				out.writeDouble(node.coord.getY());
+				out.writeByte((node.signalized ? 1 : 0) | (node.crossing ? 2 : 0));
+				restrictions += node.restrictions.size();
+			}
+
+			writeVarLong(out, this.ways.size());
+			for (OsmWay way : this.ways.values()) {
+				out.writeLong(way.id);
+				writeVarLong(out, way.hierarchy + 1);
+				writeVarLong(out, way.nodes.size());
+				long previous = 0;
+				for (Long nodeId : way.nodes) {
+					writeVarLong(out, zigZag(nodeId - previous));
+					previous = nodeId;
+				}
+				writeVarLong(out, way.tags.size());
+				for (Entry<String, String> tag : way.tags.entrySet()) {
+					writeVarLong(out, strings.get(tag.getKey()));
+					writeVarLong(out, strings.get(tag.getValue()));
+				}
+			}
+
+			writeVarLong(out, restrictions);
+			for (OsmNode node : this.nodes.values()) {
+				for (OsmRelation restriction : node.restrictions) {
+					out.writeLong(restriction.id);
+					out.writeLong(node.id);
+					out.writeLong(restriction.fromRestricted.id);
+					out.writeLong(restriction.toRestricted.id);
+					out.writeBoolean(restriction.restrictionValue);
+				}
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		log.info("wrote parsed osm data to " + filename + " in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/* package */ void readIntermediate(final String filename) {
+		long start = System.currentTimeMillis();
+		this.nodes.clear();
+		this.ways.clear();
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16))) {
+			if (in.readInt() != INTERMEDIATE_MAGIC)
+				throw new RuntimeException(filename + " is no file with parsed osm data.");
+			int version = in.readInt();
+			if (version != INTERMEDIATE_VERSION)
+				throw new RuntimeException("Unsupported version " + version + " of parsed osm data in " + filename
+						+ ", expected " + INTERMEDIATE_VERSION + ". Parse the osm file again.");
+			String[] strings = new String[(int) readVarLong(in)];
+			for (int i = 0; i < strings.length; i++)
+				strings[i] = StringCache.get(in.readUTF());
+
+			long nodeCount = readVarLong(in);
+			for (long i = 0; i < nodeCount; i++) {
+				OsmNode node = new OsmNode(in.readLong(), new Coord(in.readDouble(), in.readDouble()));
+				byte flags = in.readByte();
+				node.signalized = (flags & 1) != 0;
+				node.crossing = (flags & 2) != 0;
+				this.nodes.put(node.id, node);
+			}
+
+			long wayCount = readVarLong(in);
+			for (long i = 0; i < wayCount; i++) {
+				OsmWay way = new OsmWay(in.readLong());
+				way.hierarchy = (int) readVarLong(in) - 1;
+				long wayNodes = readVarLong(in);
+				long nodeId = 0;
+				for (long j = 0; j < wayNodes; j++) {
+					nodeId += unZigZag(readVarLong(in));
+					way.nodes.add(nodeId);
+				}
+				long tags = readVarLong(in);
+				for (long j = 0; j < tags; j++)
+					way.tags.put(strings[(int) readVarLong(in)], strings[(int) readVarLong(in)]);
+				this.ways.put(way.id, way);
+			}
+
+			long restrictions = readVarLong(in);
+			for (long i = 0; i < restrictions; i++) {
+				OsmRelation restriction = new OsmRelation(in.readLong());
+				restriction.resNode = this.nodes.get(in.readLong());
+				restriction.fromRestricted = this.ways.get(in.readLong());
+				restriction.toRestricted = this.ways.get(in.readLong());
+				restriction.restrictionValue = in.readBoolean();
+				restriction.putRestrictionToNodeIfComplete();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		log.info("read " + this.nodes.size() + " nodes and " + this.ways.size() + " ways of parsed osm data in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = in.readByte();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed variable length number.");
+	}
+
+	/*
+	 * Everything that changes the result of the conversion goes into the key.
+	 * The coordinate transformation is identified by its class and the
+	 * transformation of one fixed coordinate. Increase CACHE_VERSION whenever
+	 * the conversion itself changes.
+	 */
+	private String createCacheKey(final String osmFilename) {
+		StringBuilder settings = new StringBuilder();
+		settings.append(CACHE_VERSION).append('|').append(ScenarioSnapshotWriter.VERSION);
+		Coord probe = this.transform.transform(new Coord(13.0, 52.0));
+		settings.append('|').append(this.transform.getClass().getName()).append(':').append(probe.getX()).append(',').append(probe.getY());
+		for (Entry<String, OsmHighwayDefaults> entry : new TreeMap<String, OsmHighwayDefaults>(this.highwayDefaults).entrySet()) {
+			OsmHighwayDefaults defaults = entry.getValue();
+			settings.append('|').append(entry.getKey()).append(':').append(defaults.hierarchy).append(',')
+					.append(defaults.lanesPerDirection).append(',').append(defaults.freespeed).append(',')
+					.append(defaults.freespeedFactor).append(',').append(defaults.laneCapacity).append(',').append(defaults.oneway);
+		}
+		for (OsmFilter filter : this.hierarchyLayers) {
+			settings.append("|layer:").append(filter.coordNW.getX()).append(',').append(filter.coordNW.getY()).append(',')
+					.append(filter.coordSE.getX()).append(',').append(filter.coordSE.getY()).append(',').append(filter.hierarchy);
+		}
+		if (this.bbox != null) {
+			settings.append("|bbox:").append(this.bbox.south).append(',').append(this.bbox.west).append(',')
+					.append(this.bbox.north).append(',').append(this.bbox.east);
+		}
+		settings.append('|').append(this.keepPaths).append(',').append(this.scaleMaxSpeed).append(',')
+				.append(this.minimizeSmallRoundabouts).append(',').append(this.mergeOnewaySignalSystems).append(',')
+				.append(this.useRadiusReduction).append(',').append(this.allowUTurnAtLeftLaneOnly).append(',')
+				.append(this.makePedestrianSignals).append(',').append(this.acceptFourPlusCrossings).append(',')
+				.append(this.usedLanesEstimation).append(',').append(this.modeOutLanes).append(',').append(this.modeMidLanes);
+
+		try (InputStream in = IOUtils.getInputStream(osmFilename)) {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] buffer = new byte[1 << 16];
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				digest.update(buffer, 0, read);
+			}
+			digest.update(settings.toString().getBytes("UTF-8"));
+			StringBuilder key = new StringBuilder();
+			for (byte b : digest.digest()) {
+				key.append(String.format("%02x", b));
+			}
+			return key.toString();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	private void writeToCache(final File cacheFile) {
+		File directory = cacheFile.getParentFile();
+		if (!directory.exists() && !directory.mkdirs()) {
+			log.warn("Could not create cache directory " + directory + ", conversion result is not cached.");
+			return;
+		}
+		// written under another name first, so no other run reads an incomplete file
+		File tmpFile = new File(directory, cacheFile.getName() + ".tmp" + System.nanoTime());
+		new ScenarioSnapshotWriter(this.network, this.lanes, this.signalsData).write(tmpFile.getPath());
+		if (!tmpFile.renameTo(cacheFile)) {
+			tmpFile.delete();
+			log.warn("Could not move conversion result to cache file " + cacheFile);
+		}
+	}
+
+	private void readLaneConflictsFromNodes() {
+		for (Node node : this.network.getNodes().values()) {
+			Object conflicts = node.getAttributes().getAttribute(LANE_CONFLICTS);
+			if (conflicts != null)
+				this.laneConflicts.put(Id.create("System" + node.getId(), SignalSystem.class), LaneConflictMatrix.parse(conflicts.toString()));
+		}
+	}
+
 	/**
 	 * Sets defaults for converting OSM highway paths into MATSim links,
 	 * assuming it is no oneway road.
@@ -473,6 +812,27 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 		this.modeMidLanes = modeMidLanes;
 	}
 	
+	/**
+	 * Sets the number of threads used to create the signal plans of the
+	 * signalized junctions. Defaults to the number of available processors.
+	 * 
+	 * @param numberOfThreads
+	 *            <code>1</code> creates all plans in the calling thread
+	 */
+	public void setNumberOfThreads(final int numberOfThreads) {
+		this.numberOfThreads = numberOfThreads;
+	}
+	
+	/**
+	 * Sets whether junctions with the same arm pairing, numbers of lanes and
+	 * lane alignments share one signal plan layout. The result is the same
+	 * either way, switching it off only computes the layout for every
+	 * junction again. Defaults to <code>true</code>.
+	 */
+	public void setUseJunctionTemplates(final boolean useJunctionTemplates) {
+		this.useJunctionTemplates = useJunctionTemplates;
+	}
+	
 	public void setModesForDefaultLanes(String lanesEstimation){
 		this.usedLanesEstimation = lanesEstimation;
 		if(lanesEstimation.equals("StVO_free")) {
@@ -495,6 +855,36 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 		}
 	}
 	
+	/**
+	 * Enables caching of conversion results. The result of every conversion of
+	 * an osm file is stored in the given directory, keyed by a hash of the
+	 * file content and all settings of this reader. Parsing the same file with
+	 * the same settings again reads the stored network, lanes and signals
+	 * instead of converting the file. Streams are never cached.
+	 * 
+	 * @param cacheDirectory
+	 *            <code>null</code> disables the cache
+	 */
+	public void setCacheDirectory(final String cacheDirectory) {
+		this.cacheDirectory = cacheDirectory;
+	}
+	
+	/**
+	 * Makes {@link #parse(String)} write the parsed osm data into the given
+	 * file before converting it. The file can later be converted with
+	 * different settings by {@link #parseIntermediate(String)}. Coordinates
+	 * are stored transformed and only ways passing the highway defaults and
+	 * hierarchy layers of this reader are kept, so these settings cannot be
+	 * changed afterwards. As the intermediate needs the parsed data, the cache
+	 * of {@link #setCacheDirectory(String)} is not read then.
+	 * 
+	 * @param intermediateFile
+	 *            <code>null</code> writes no intermediate
+	 */
+	public void setIntermediateFile(final String intermediateFile) {
+		this.intermediateFile = intermediateFile;
+	}
+	
 	public void setBoundingBox(double south, double west, double north, double east){
 		Coord nw = this.transform.transform(new Coord(west, north));
 		Coord se = this.transform.transform(new Coord(east, south));
@@ -513,6 +903,19 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 	}
 
 	private void convert() {
+		markUsedNodesAndPushSignals();
+		simplifyJunctions();
+		createNodesAndLinks();
+		fillLanes();
+		createSignals();
+		createSignalPlans();
+	}
+
+	/*
+	 * The stages of the conversion are package-private, so that they can be
+	 * benchmarked one by one. They have to be run in the order of convert().
+	 */
+	/* package */ void markUsedNodesAndPushSignals() {
 		if (this.network instanceof Network) {
 			((Network) this.network).setCapacityPeriod(3600);
 		}
@@ -621,8 +1024,9 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 			}
 
 		}
+	}
 
-		
+	/* package */ void simplifyJunctions() {
 		// Trying to simplify four-node- and two-node-junctions to one-node-junctions
 		List<OsmNode> addingNodes = new ArrayList<>();
 		List<OsmNode> checkedNodes = new ArrayList<>();
@@ -645,9 +1049,10 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 		}
 		addingNodes.clear();
 		checkedNodes.clear();
-		
-		
+		logMemoryUsage("simplifying junctions");
+	}
 
+	/* package */ void createNodesAndLinks() {
 		// create the required nodes
 		for (OsmNode node : this.nodes.values()) {
 			if (node.used && node.repJunNode == null) {
@@ -696,6 +1101,11 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 			}
 		}
 
+		releaseWaysAndUnusedNodes();
+		logMemoryUsage("creating links");
+	}
+
+	/* package */ void fillLanes() {
 		this.id = 1;
 		
 		// already created Lanes are given ToLinks
@@ -724,7 +1134,14 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 				lanes.getLanesToLinkAssignments().remove(link.getId());
 			}
 		}
+		// restrictions and turn lanes are now represented by the lanes
+		this.nodes.clear();
+		this.laneStacks.clear();
+		this.allToLinksAngles.clear();
+		logMemoryUsage("filling lanes");
+	}
 
+	/* package */ void createSignals() {
 		for (Link link : this.network.getLinks().values()) {
 			if (lanes.getLanesToLinkAssignments().get(link.getId()) != null) {				
 				simplifyLanesAndAddOrigLane(link);
@@ -738,7 +1155,8 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 							.createSignalData(Id.create("Signal" + link.getId() + "." + end, Signal.class));
 						signal.setLinkId(link.getId());
 						signal.addLaneId(lane.getId());
-						this.systems.getSignalSystemData().get(systemId).addSignalData(signal);					
+						this.systems.getSignalSystemData().get(systemId).addSignalData(signal);
+						getOrCreateSignalLookup(systemId).add(signal);
 					}
 				}
 			}
@@ -747,82 +1165,203 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 						.createSignalData(Id.create("Signal" + link.getId() + ".single", Signal.class));
 				signal.setLinkId(link.getId());
 				this.systems.getSignalSystemData().get(systemId).addSignalData(signal);
+				getOrCreateSignalLookup(systemId).add(signal);
 			}
 		}
-		int badCounter = 0;
+		logMemoryUsage("creating signals");
+	}
+
+	/* package */ void createSignalPlans() {
+		long planStart = System.currentTimeMillis();
+		List<Node> signalizedNodes = new ArrayList<Node>();
 		for(Node node : this.network.getNodes().values()){
-			
 			Id<SignalSystem> systemId = Id.create("System" + Long.valueOf(node.getId().toString()), SignalSystem.class);
-			if(this.systems.getSignalSystemData().containsKey(systemId)){
-				SignalSystemData signalSystem = this.systems.getSignalSystemData().get(systemId);
-				if(node.getInLinks().size() == 1){
-					if(this.makePedestrianSignals){
-						createPlansForOneWayJunction(signalSystem, node);
-						log.info("single signal found @ " + node.getId());
-						badCounter++;
-					}else{
-						this.systems.getSignalSystemData().remove(systemId);
-						
+			if(this.systems.getSignalSystemData().containsKey(systemId))
+				signalizedNodes.add(node);
+		}
+		// plans of different junctions are independent. They are created into
+		// buffers and merged afterwards in the order of the network's nodes
+		List<SignalPlanBuffer> signalPlans = createSignalPlans(signalizedNodes);
+		int badCounter = 0;
+		for(SignalPlanBuffer buffer : signalPlans){
+			mergeSignalPlans(buffer);
+			badCounter += buffer.singleSignals;
+		}
+		log.info(badCounter);	
+		log.info("created signal plans for " + this.systems.getSignalSystemData().size() + " signal systems in "
+				+ (System.currentTimeMillis() - planStart) + " ms, using " + this.junctionTemplates.size() + " junction templates");
+		this.junctionTemplates.clear();
+		this.signalLookups.clear();
+		writeLaneConflictsToNodes();
+		logMemoryUsage("creating signal plans");
+	}
+	
+	/*
+	 * After the links are created, the ways are only needed by the
+	 * restrictions, which compare their ids. Tags and node lists are dropped,
+	 * as well as all nodes which did not become a network node.
+	 */
+	private void releaseWaysAndUnusedNodes() {
+		for (OsmWay way : this.ways.values()) {
+			way.tags.clear();
+			way.nodes.clear();
+		}
+		this.ways.clear();
+		this.roundaboutNodes.clear();
+		Iterator<OsmNode> it = this.nodes.values().iterator();
+		while (it.hasNext()) {
+			OsmNode node = it.next();
+			node.ways.clear();
+			if (!node.used || node.repJunNode != null)
+				it.remove();
+		}
+	}
+	
+	/*
+	 * Logs the sum of the peak usages of all heap memory pools since the last
+	 * call, i.e. during the stage that just finished.
+	 */
+	private static void logMemoryUsage(String stage) {
+		long peak = 0;
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				peak += pool.getPeakUsage().getUsed();
+				used += pool.getUsage().getUsed();
+				pool.resetPeakUsage();
+			}
+		}
+		log.info("memory after " + stage + ": peak heap " + (peak >> 20) + " MB, used heap " + (used >> 20) + " MB");
+	}
+	
+	private List<SignalPlanBuffer> createSignalPlans(List<Node> signalizedNodes) {
+		List<SignalPlanBuffer> signalPlans = new ArrayList<SignalPlanBuffer>(signalizedNodes.size());
+		if(this.numberOfThreads <= 1 || signalizedNodes.size() < 2){
+			for(Node node : signalizedNodes)
+				signalPlans.add(createPlansForNode(node));
+			return signalPlans;
+		}
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(this.numberOfThreads, signalizedNodes.size()));
+		try {
+			List<Future<SignalPlanBuffer>> futures = new ArrayList<Future<SignalPlanBuffer>>(signalizedNodes.size());
+			for(final Node node : signalizedNodes){
+				futures.add(executor.submit(new Callable<SignalPlanBuffer>() {
+					@Override
+					public SignalPlanBuffer call() {
+						return createPlansForNode(node);
 					}
-				}
-								
-				if(node.getInLinks().size() == 2){
-					//check for pedestrian Signal in method
-					createPlansforTwoWayJunction(node, signalSystem);
-					if(this.systems.getSignalSystemData().containsKey(systemId))
-						setInLinksCapacities(node);
-				}
-				
-				if(node.getInLinks().size() == 3){
-					LinkVector thirdArm = null;
-					List<LinkVector> inLinks = constructInLinkVectors(node);
-					Tuple<LinkVector, LinkVector> pair = getInLinkPair(inLinks);
-					for(int i = 0; i < inLinks.size(); i++){
-						if(!inLinks.get(i).equals(pair.getFirst()) && !inLinks.get(i).equals(pair.getSecond())){
-							thirdArm = inLinks.get(i);
-							break;
-						}	
-					}					
-					createPlansforThreeWayJunction(node, signalSystem, pair, thirdArm);
-					setInLinksCapacities(node);
-				}
-				
-				if(node.getInLinks().size() == 4){
-					List<LinkVector> inLinks = constructInLinkVectors(node);
-					Tuple<LinkVector, LinkVector> firstPair = getInLinkPair(inLinks);
-					LinkVector first = null;
-					LinkVector second = null;
-					for(int i = 0; i < inLinks.size(); i++){
-						if(first == null){
-							if(!inLinks.get(i).equals(firstPair.getFirst()) && !inLinks.get(i).equals(firstPair.getSecond())){
-								first = inLinks.get(i);
-							}
-						}else{
-							if(!inLinks.get(i).equals(firstPair.getFirst()) && !inLinks.get(i).equals(firstPair.getSecond())){
-								second = inLinks.get(i);
-							}
-						}
+				}));
+			}
+			for(Future<SignalPlanBuffer> future : futures)
+				signalPlans.add(future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while creating signal plans.", e);
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		return signalPlans;
+	}
+	
+	/*
+	 * Creates controller, plan and groups of the signal system at the given
+	 * node. Only the node's own in-links and lanes are modified, everything
+	 * that goes into the shared signals containers is collected in the buffer.
+	 */
+	private SignalPlanBuffer createPlansForNode(Node node) {
+		Id<SignalSystem> systemId = Id.create("System" + Long.valueOf(node.getId().toString()), SignalSystem.class);
+		SignalSystemData signalSystem = this.systems.getSignalSystemData().get(systemId);
+		SignalPlanBuffer buffer = new SignalPlanBuffer(systemId);
+		if(node.getInLinks().size() == 1){
+			if(this.makePedestrianSignals){
+				createPlansForOneWayJunction(signalSystem, node, buffer);
+				log.info("single signal found @ " + node.getId());
+				buffer.singleSignals++;
+			}else{
+				buffer.removeSystem = true;
+			}
+		}
 						
+		if(node.getInLinks().size() == 2){
+			//check for pedestrian Signal in method
+			createPlansforTwoWayJunction(node, signalSystem, buffer);
+			if(!buffer.removeSystem)
+				setInLinksCapacities(node);
+		}
+		
+		if(node.getInLinks().size() == 3){
+			LinkVector thirdArm = null;
+			List<LinkVector> inLinks = constructInLinkVectors(node);
+			Tuple<LinkVector, LinkVector> pair = getInLinkPair(inLinks);
+			for(int i = 0; i < inLinks.size(); i++){
+				if(!inLinks.get(i).equals(pair.getFirst()) && !inLinks.get(i).equals(pair.getSecond())){
+					thirdArm = inLinks.get(i);
+					break;
+				}	
+			}					
+			createPlansforThreeWayJunction(node, signalSystem, pair, thirdArm, buffer);
+			setInLinksCapacities(node);
+		}
+		
+		if(node.getInLinks().size() == 4){
+			List<LinkVector> inLinks = constructInLinkVectors(node);
+			Tuple<LinkVector, LinkVector> firstPair = getInLinkPair(inLinks);
+			LinkVector first = null;
+			LinkVector second = null;
+			for(int i = 0; i < inLinks.size(); i++){
+				if(first == null){
+					if(!inLinks.get(i).equals(firstPair.getFirst()) && !inLinks.get(i).equals(firstPair.getSecond())){
+						first = inLinks.get(i);
 					}
-					Tuple<LinkVector, LinkVector> secondPair = new Tuple<LinkVector, LinkVector>(first, second);
-					createPlansForFourWayJunction(node, signalSystem, firstPair, secondPair);
-					setInLinksCapacities(node);
-				}
-				
-				if(node.getInLinks().size() > 4){
-					if(this.acceptFourPlusCrossings){
-						createPlansForOneWayJunction(signalSystem, node);
-						log.warn("Signal system with more than four in-links detected @ Node " + node.getId().toString());
-					}else{
-						throw new RuntimeException("Signal system with more than four in-links detected @ Node " + node.getId().toString());
+				}else{
+					if(!inLinks.get(i).equals(firstPair.getFirst()) && !inLinks.get(i).equals(firstPair.getSecond())){
+						second = inLinks.get(i);
 					}
 				}
+				
 			}
-			
+			Tuple<LinkVector, LinkVector> secondPair = new Tuple<LinkVector, LinkVector>(first, second);
+			createPlansForFourWayJunction(node, signalSystem, firstPair, secondPair, buffer);
+			setInLinksCapacities(node);
+		}
+		
+		if(node.getInLinks().size() > 4){
+			if(this.acceptFourPlusCrossings){
+				createPlansForOneWayJunction(signalSystem, node, buffer);
+				log.warn("Signal system with more than four in-links detected @ Node " + node.getId().toString());
+			}else{
+				throw new RuntimeException("Signal system with more than four in-links detected @ Node " + node.getId().toString());
+			}
+		}
+		return buffer;
+	}
+	
+	private void mergeSignalPlans(SignalPlanBuffer buffer) {
+		if(buffer.removeSystem){
+			this.systems.getSignalSystemData().remove(buffer.systemId);
+			return;
+		}
+		for(SignalSystemControllerData controller : buffer.controllers)
+			this.control.addSignalSystemControllerData(controller);
+		for(SignalGroupData group : buffer.groups)
+			this.groups.addSignalGroupData(group);
+		if(buffer.laneConflicts != null)
+			this.laneConflicts.put(buffer.systemId, buffer.laneConflicts);
+	}
+	
+	private void writeLaneConflictsToNodes() {
+		for(Entry<Id<SignalSystem>, LaneConflictMatrix> entry : this.laneConflicts.entrySet()){
+			if(!this.systems.getSignalSystemData().containsKey(entry.getKey()))
+				continue;
+			Id<Node> nodeId = Id.create(entry.getKey().toString().substring("System".length()), Node.class);
+			Node node = this.network.getNodes().get(nodeId);
+			if(node != null && entry.getValue().size() > 0)
+				node.getAttributes().putAttribute(LANE_CONFLICTS, entry.getValue().serialize());
 		}
-		log.info(badCounter);	
-		this.nodes.clear();
-		this.ways.clear();
 	}
 	
 	private void mergeOnewaySignalSystems(List<OsmNode> addingNodes, List<OsmNode> checkedNodes) {
@@ -1335,180 +1874,256 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 		return null;
 	}
 
-	private void createPlansForFourWayJunction(Node node, SignalSystemData signalSystem, Tuple<LinkVector, LinkVector> firstPair, Tuple<LinkVector, LinkVector> secondPair) {
-		int groupNumber = 1;
+	private void createPlansForFourWayJunction(Node node, SignalSystemData signalSystem, Tuple<LinkVector, LinkVector> firstPair, Tuple<LinkVector, LinkVector> secondPair, SignalPlanBuffer buffer) {
+		LinkVector[] arms = new LinkVector[] {firstPair.getFirst(), firstPair.getSecond(), secondPair.getFirst(), secondPair.getSecond()};
+		String signature = createJunctionSignature(arms, null);
+		JunctionTemplate template = this.useJunctionTemplates ? this.junctionTemplates.get(signature) : null;
+		if(template == null){
+			template = createFourWayTemplate(arms);
+			JunctionTemplate existing = this.useJunctionTemplates ? this.junctionTemplates.putIfAbsent(signature, template) : null;
+			if(existing != null)
+				template = existing;
+		}
+		instantiateJunctionTemplate(template, arms, node, signalSystem, buffer);
+	}
+	
+	private void createPlansforThreeWayJunction(Node node, SignalSystemData signalSystem, Tuple<LinkVector, LinkVector> pair, LinkVector thirdArm, SignalPlanBuffer buffer) {
+		LinkVector[] arms = new LinkVector[] {pair.getFirst(), pair.getSecond(), thirdArm};
+		boolean firstIsCritical = pair.getFirst().getRotationToOtherInLink(thirdArm) > Math.PI;
+		String signature = createJunctionSignature(arms, firstIsCritical);
+		JunctionTemplate template = this.useJunctionTemplates ? this.junctionTemplates.get(signature) : null;
+		if(template == null){
+			template = createThreeWayTemplate(arms, firstIsCritical);
+			JunctionTemplate existing = this.useJunctionTemplates ? this.junctionTemplates.putIfAbsent(signature, template) : null;
+			if(existing != null)
+				template = existing;
+		}
+		instantiateJunctionTemplate(template, arms, node, signalSystem, buffer);
+	}
+
+	/*
+	 * Two junctions get the same signal plan layout, if the arms are paired the
+	 * same way and every arm has the same number of lanes and the same
+	 * alignments of its lanes. The arms have to be given in pairing order.
+	 */
+	private String createJunctionSignature(LinkVector[] arms, Boolean firstIsCritical) {
+		StringBuilder signature = new StringBuilder();
+		signature.append(arms.length);
+		if(firstIsCritical != null)
+			signature.append(firstIsCritical ? "c" : "n");
+		for(LinkVector arm : arms){
+			signature.append('|').append(arm.getLink().getNumberOfLanes()).append(':');
+			LanesToLinkAssignment l2l = this.lanes.getLanesToLinkAssignments().get(arm.getLink().getId());
+			if(l2l == null){
+				signature.append('-');
+			}else{
+				for(Lane lane : l2l.getLanes().values())
+					signature.append(lane.getAlignment()).append(',');
+			}
+		}
+		return signature.toString();
+	}
+	
+	private JunctionTemplate createFourWayTemplate(LinkVector[] arms) {
 		int cycle = CYCLE_TIME;
-		double lanesFirst = (firstPair.getFirst().getLink().getNumberOfLanes() + firstPair.getSecond().getLink().getNumberOfLanes())/2;
-		double lanesSecond = (secondPair.getFirst().getLink().getNumberOfLanes() + secondPair.getSecond().getLink().getNumberOfLanes())/2;
-		int changeTime = (int) ((lanesFirst)/(lanesFirst+lanesSecond)*cycle);
-		if(changeTime < this.minimalTimeForPair)
-			changeTime = this.minimalTimeForPair;
-		if(changeTime > cycle - this.minimalTimeForPair)
-			changeTime = cycle - this.minimalTimeForPair;
+		double lanesFirst = (arms[0].getLink().getNumberOfLanes() + arms[1].getLink().getNumberOfLanes())/2;
+		double lanesSecond = (arms[2].getLink().getNumberOfLanes() + arms[3].getLink().getNumberOfLanes())/2;
+		int changeTime = limitChangeTime((int) ((lanesFirst)/(lanesFirst+lanesSecond)*cycle), cycle);
 		
-		List<Lane> criticalSignalLanesFirst = new ArrayList<Lane>();
-		findTwoPhaseSignalLanes(firstPair, criticalSignalLanesFirst);
-					
-		List<Lane> criticalSignalLanesSecond = new ArrayList<Lane>();
-		findTwoPhaseSignalLanes(secondPair, criticalSignalLanesSecond);
-				
-		SignalSystemControllerData controller = createController(signalSystem);
-		SignalPlanData plan = createPlan(node, cycle);
-		controller.addSignalPlanData(plan);
-		
-		if(!criticalSignalLanesFirst.isEmpty()){			
-			createTwoPhase(groupNumber, signalSystem, criticalSignalLanesFirst, firstPair, plan, changeTime, cycle, node, true);
+		JunctionTemplate template = new JunctionTemplate(cycle);
+		int groupNumber = 1;
+		int[] firstPair = new int[] {0, 1};
+		if(hasCriticalSignalLanes(arms[0]) || hasCriticalSignalLanes(arms[1])){
+			addTwoPhase(template, groupNumber, firstPair, firstPair, changeTime, cycle, true);
 			groupNumber += 2;
 		}else{
-			createOnePhase(groupNumber, signalSystem, firstPair, plan, changeTime, cycle, node, true);
+			addOnePhase(template, groupNumber, firstPair, changeTime, cycle, true);
 			groupNumber++;
 		}
 		
-		if(!criticalSignalLanesSecond.isEmpty()){
-			createTwoPhase(groupNumber, signalSystem, criticalSignalLanesSecond, secondPair, plan, changeTime, cycle, node, false);
+		int[] secondPair = new int[] {2, 3};
+		if(hasCriticalSignalLanes(arms[2]) || hasCriticalSignalLanes(arms[3])){
+			addTwoPhase(template, groupNumber, secondPair, secondPair, changeTime, cycle, false);
 		}else{
-			createOnePhase(groupNumber, signalSystem, secondPair, plan, changeTime, cycle, node, false);
-		}		
+			addOnePhase(template, groupNumber, secondPair, changeTime, cycle, false);
+		}
+		return template;
 	}
 	
-	private void createPlansforThreeWayJunction(Node node, SignalSystemData signalSystem, Tuple<LinkVector, LinkVector> pair, LinkVector thirdArm) {
-		int groupNumber = 1;
+	private JunctionTemplate createThreeWayTemplate(LinkVector[] arms, boolean firstIsCritical) {
 		int cycle = CYCLE_TIME;
-		double lanesPair = (pair.getFirst().getLink().getNumberOfLanes() + pair.getSecond().getLink().getNumberOfLanes())/2;
-		int changeTime = (int) ((lanesPair)/(lanesPair + thirdArm.getLink().getNumberOfLanes())*cycle);
+		double lanesPair = (arms[0].getLink().getNumberOfLanes() + arms[1].getLink().getNumberOfLanes())/2;
+		int changeTime = limitChangeTime((int) ((lanesPair)/(lanesPair + arms[2].getLink().getNumberOfLanes())*cycle), cycle);
+		int criticalArm = -1;
+		if(firstIsCritical && lanes.getLanesToLinkAssignments().containsKey(arms[0].getLink().getId())){
+			criticalArm = 0;
+		}else if(lanes.getLanesToLinkAssignments().containsKey(arms[1].getLink().getId())){
+			criticalArm = 1;
+		}
+		
+		JunctionTemplate template = new JunctionTemplate(cycle);
+		int groupNumber = 1;
+		int[] pair = new int[] {0, 1};
+		if(criticalArm >= 0 && hasCriticalSignalLanes(arms[criticalArm])){
+			addTwoPhase(template, groupNumber, pair, new int[] {criticalArm}, changeTime, cycle, true);
+			groupNumber += 2;
+		}else{
+			addOnePhase(template, groupNumber, pair, changeTime, cycle, true);
+			groupNumber++;
+		}
+		addOnePhase(template, groupNumber, new int[] {2}, changeTime, cycle, false);
+		return template;
+	}
+	
+	private int limitChangeTime(int changeTime, int cycle) {
 		if(changeTime < this.minimalTimeForPair)
 			changeTime = this.minimalTimeForPair;
 		if(changeTime > cycle - this.minimalTimeForPair)
 			changeTime = cycle - this.minimalTimeForPair;
-		boolean firstIsCritical = false;		
-		List<Lane> criticalSignalLanes = new ArrayList<Lane>();
-		if(pair.getFirst().getRotationToOtherInLink(thirdArm) > Math.PI)
-			firstIsCritical = true;
-		if(firstIsCritical && lanes.getLanesToLinkAssignments().containsKey(pair.getFirst().getLink().getId())){
-			for(Lane lane : lanes.getLanesToLinkAssignments().get(pair.getFirst().getLink().getId()).getLanes().values()){
-				if(lane.getAlignment() == 2)
-					criticalSignalLanes.add(lane);
+		return changeTime;
+	}
+	
+	private void addTwoPhase(JunctionTemplate template, int groupNumber, int[] pair, int[] criticalArms, int changeTime, int cycle, boolean first) {
+		template.conflicts.add(new ConflictTemplate(pair, criticalArms));
+		if(first)
+			template.groups.add(new GroupTemplate(groupNumber, pair, criticalArms, GroupTemplate.NON_CRITICAL, 
+					0, changeTime - (2 * INTERGREENTIME + MIN_GREENTIME)));
+		else
+			template.groups.add(new GroupTemplate(groupNumber, pair, criticalArms, GroupTemplate.NON_CRITICAL, 
+					changeTime, cycle - (2 * INTERGREENTIME + MIN_GREENTIME)));
+		groupNumber++;
+		if(first)
+			template.groups.add(new GroupTemplate(groupNumber, pair, criticalArms, GroupTemplate.CRITICAL, 
+					changeTime - (INTERGREENTIME + MIN_GREENTIME), changeTime - INTERGREENTIME));
+		else
+			template.groups.add(new GroupTemplate(groupNumber, pair, criticalArms, GroupTemplate.CRITICAL, 
+					cycle - (INTERGREENTIME + MIN_GREENTIME), cycle - INTERGREENTIME));
+	}
+	
+	private void addOnePhase(JunctionTemplate template, int groupNumber, int[] arms, int changeTime, int cycle, boolean first) {
+		template.conflicts.add(new ConflictTemplate(arms, null));
+		if(first)
+			template.groups.add(new GroupTemplate(groupNumber, arms, null, GroupTemplate.ALL, 0, changeTime - INTERGREENTIME));
+		else
+			template.groups.add(new GroupTemplate(groupNumber, arms, null, GroupTemplate.ALL, changeTime, cycle - INTERGREENTIME));
+	}
+	
+	private void instantiateJunctionTemplate(JunctionTemplate template, LinkVector[] arms, Node node, SignalSystemData signalSystem, SignalPlanBuffer buffer) {
+		SignalSystemControllerData controller = createController(signalSystem, buffer);
+		SignalPlanData plan = createPlan(node, template.cycle);
+		controller.addSignalPlanData(plan);
+		SignalLookup signalLookup = getSignalLookup(signalSystem.getId());
+		
+		int nextConflict = 0;
+		for(GroupTemplate groupTemplate : template.groups){
+			// conflicts are filled in the order the phases were created
+			if(groupTemplate.selection != GroupTemplate.CRITICAL && nextConflict < template.conflicts.size()){
+				ConflictTemplate conflict = template.conflicts.get(nextConflict++);
+				LinkVector second = conflict.arms.length > 1 ? arms[conflict.arms[1]] : null;
+				List<Lane> criticalSignalLanes = conflict.criticalArms == null ? null : getCriticalSignalLanes(arms, conflict.criticalArms);
+				fillConflictingLanesData(signalSystem, new Tuple<LinkVector, LinkVector>(arms[conflict.arms[0]], second), criticalSignalLanes, buffer);
 			}
-		}else if(lanes.getLanesToLinkAssignments().containsKey(pair.getSecond().getLink().getId())){
-			for(Lane lane : lanes.getLanesToLinkAssignments().get(pair.getSecond().getLink().getId()).getLanes().values()){
-				if(lane.getAlignment() == 2)
-					criticalSignalLanes.add(lane);
+			
+			SignalGroupData group = createSignalGroup(groupTemplate.groupNumber, signalSystem, node);
+			Set<Id<Signal>> criticalSignals = Collections.emptySet();
+			if(groupTemplate.selection != GroupTemplate.ALL){
+				criticalSignals = new HashSet<Id<Signal>>();
+				for(Lane criticalLane : getCriticalSignalLanes(arms, groupTemplate.criticalArms)){
+					SignalData signal = signalLookup.getSignalOfLane(criticalLane.getId());
+					if(signal != null)
+						criticalSignals.add(signal.getId());
+				}
 			}
+			for(int arm : groupTemplate.arms){
+				for(SignalData signal : signalLookup.getSignalsOfLink(arms[arm].getLink().getId())){
+					boolean critical = criticalSignals.contains(signal.getId());
+					if(groupTemplate.selection == GroupTemplate.ALL
+							|| (groupTemplate.selection == GroupTemplate.CRITICAL && critical)
+							|| (groupTemplate.selection == GroupTemplate.NON_CRITICAL && !critical))
+						group.addSignalId(signal.getId());
+				}
+			}
+			plan.addSignalGroupSettings(createSetting(groupTemplate.onset, groupTemplate.dropping, node, group.getId()));
+			buffer.groups.add(group);
 		}
-		
-		SignalSystemControllerData controller = createController(signalSystem);
-		SignalPlanData plan = createPlan(node, cycle);
-		controller.addSignalPlanData(plan);		
-		if(!criticalSignalLanes.isEmpty()){						
-			createTwoPhase(groupNumber, signalSystem, criticalSignalLanes, pair, plan, changeTime, cycle, node, true);
-			groupNumber += 2;
-		}else{
-			createOnePhase(groupNumber, signalSystem, pair, plan, changeTime, cycle, node, true);
-			groupNumber++;
-		}
-		Tuple<LinkVector, LinkVector> phantomPair= new Tuple<LinkVector, LinkVector>(thirdArm, null);
-		createOnePhase(groupNumber, signalSystem, phantomPair, plan, changeTime, cycle, node, false);
 	}
 
-	private void createPlansforTwoWayJunction(Node node, SignalSystemData signalSystem){
+	private void createPlansforTwoWayJunction(Node node, SignalSystemData signalSystem, SignalPlanBuffer buffer){
 		List<LinkVector> inLinks = constructInLinkVectors(node);
 		double inLinksAngle = inLinks.get(0).getRotationToOtherInLink(inLinks.get(1));
 		int cycle = CYCLE_TIME;
 		if(inLinksAngle > 3/4 * Math.PI && inLinksAngle < 5/4 * Math.PI ){
 			if(!this.makePedestrianSignals){
-				this.systems.getSignalSystemData().remove(signalSystem.getId());
+				buffer.removeSystem = true;
 				return;
 			}else{
 			SignalGroupData group = this.groups.getFactory().createSignalGroupData(signalSystem.getId(), Id.create("PedestrianSignal."+node.getId(), SignalGroup.class));
 			for(SignalData signal : signalSystem.getSignalData().values()){
 				group.addSignalId(signal.getId());
 			}
-			SignalSystemControllerData controller = createController(signalSystem);
+			SignalSystemControllerData controller = createController(signalSystem, buffer);
 			SignalPlanData plan = createPlan(node, cycle);
 			controller.addSignalPlanData(plan);		
 			SignalGroupSettingsData settings = createSetting(0, cycle - PEDESTRIAN_CROSSING_TIME + INTERGREENTIME, node, group.getId());
 			plan.addSignalGroupSettings(settings);		
-			groups.addSignalGroupData(group);
+			buffer.groups.add(group);
 			}
 		}else{		
 			SignalGroupData groupOne = createSignalGroup(1, signalSystem, node);
-			SignalSystemControllerData controller = createController(signalSystem);
+			SignalSystemControllerData controller = createController(signalSystem, buffer);
 			SignalPlanData plan = createPlan(node, cycle);
 			controller.addSignalPlanData(plan);	
-			for(SignalData signal : signalSystem.getSignalData().values()){
-				if(signal.getLinkId().equals(inLinks.get(0).getLink().getId()))
-					groupOne.addSignalId(signal.getId());
-			}				
+			for(SignalData signal : getSignalLookup(signalSystem.getId()).getSignalsOfLink(inLinks.get(0).getLink().getId()))
+				groupOne.addSignalId(signal.getId());
 			SignalGroupSettingsData settingsFirst = createSetting(0, 45 - INTERGREENTIME, node, groupOne.getId());
 			plan.addSignalGroupSettings(settingsFirst);		
-			groups.addSignalGroupData(groupOne);
+			buffer.groups.add(groupOne);
 			
 			SignalGroupData groupTwo = createSignalGroup(2, signalSystem, node);
-			for(SignalData signal : signalSystem.getSignalData().values()){
-				if(signal.getLinkId().equals(inLinks.get(1).getLink().getId()))
-					groupTwo.addSignalId(signal.getId());
-			}
+			for(SignalData signal : getSignalLookup(signalSystem.getId()).getSignalsOfLink(inLinks.get(1).getLink().getId()))
+				groupTwo.addSignalId(signal.getId());
 			
 			controller.addSignalPlanData(plan);		
 			SignalGroupSettingsData settingsSecond = createSetting(45, 90 - INTERGREENTIME, node, groupTwo.getId());
 			plan.addSignalGroupSettings(settingsSecond);		
-			groups.addSignalGroupData(groupTwo);
+			buffer.groups.add(groupTwo);
 		}
 	}
 
-	private void createTwoPhase(int groupNumber, SignalSystemData signalSystem, List<Lane> criticalSignalLanes, Tuple<LinkVector, LinkVector> pair, SignalPlanData plan, int changeTime, int cycle, Node node, boolean first) {
-		SignalGroupData groupOne = createSignalGroup(groupNumber, signalSystem, node);
-		for(SignalData signal : signalSystem.getSignalData().values()){
-			if(signal.getLinkId().equals(pair.getFirst().getLink().getId()) || signal.getLinkId().equals(pair.getSecond().getLink().getId())){
-				boolean firstPhase = true;
-				for(int i = 0; i < criticalSignalLanes.size(); i++){					
-					if(signal.getLaneIds() != null && signal.getLaneIds().contains(criticalSignalLanes.get(i).getId()))
-						firstPhase = false;						
-				}
-				if(firstPhase)
-					groupOne.addSignalId(signal.getId());					
-			}					
-		}
-		fillConflictingLanesData(pair, criticalSignalLanes);
-		SignalGroupSettingsData settingsFirst = null;
-		if(first)
-			settingsFirst = createSetting(0, changeTime - (2 * INTERGREENTIME + MIN_GREENTIME), node, groupOne.getId());
-		else
-			settingsFirst = createSetting(changeTime, cycle - (2 * INTERGREENTIME + MIN_GREENTIME), node, groupOne.getId());
-		plan.addSignalGroupSettings(settingsFirst);
-		groups.addSignalGroupData(groupOne);
-		groupNumber++;
-				
-		SignalGroupData groupTwo = createSignalGroup(groupNumber, signalSystem, node);
-		for(SignalData signal : signalSystem.getSignalData().values()){
-			if(signal.getLinkId().equals(pair.getFirst().getLink().getId()) || signal.getLinkId().equals(pair.getSecond().getLink().getId())){
-				for(int i = 0; i < criticalSignalLanes.size(); i++){
-					if(signal.getLaneIds() != null && signal.getLaneIds().contains(criticalSignalLanes.get(i).getId()))
-						groupTwo.addSignalId(signal.getId());
-				}
-			}					
-		}
-		SignalGroupSettingsData settingsSecond = null;
-		if(first)
-			settingsSecond = createSetting(changeTime - (INTERGREENTIME + MIN_GREENTIME), changeTime - INTERGREENTIME, node, groupTwo.getId());
-		else
-			settingsSecond = createSetting(cycle - (INTERGREENTIME + MIN_GREENTIME), cycle - INTERGREENTIME, node, groupTwo.getId());
-		plan.addSignalGroupSettings(settingsSecond);
-		groups.addSignalGroupData(groupTwo);
-		groupNumber++;
-		
-	}
-		
-	private void fillConflictingLanesData(Tuple<LinkVector, LinkVector> pair, List<Lane> criticalSignalLanes) {
+	private void fillConflictingLanesData(SignalSystemData signalSystem, Tuple<LinkVector, LinkVector> pair, List<Lane> criticalSignalLanes, SignalPlanBuffer buffer) {
 		Link firstLink = pair.getFirst().getLink();
 		Link secondLink = null;
 		if(pair.getSecond() != null)
 			secondLink = pair.getSecond().getLink();
-		setConflictingAndNonConflictingLanesToLanes(firstLink, secondLink, criticalSignalLanes);
-		setConflictingAndNonConflictingLanesToLanes(secondLink, firstLink, criticalSignalLanes);
+		LaneConflictMatrix conflicts = getOrCreateLaneConflictMatrix(firstLink.getToNode(), buffer);
+		setConflictingAndNonConflictingLanesToLanes(conflicts, firstLink, secondLink, criticalSignalLanes);
+		setConflictingAndNonConflictingLanesToLanes(conflicts, secondLink, firstLink, criticalSignalLanes);
 	}
 	
-	private void setConflictingAndNonConflictingLanesToLanes(Link firstLink, Link secondLink, List<Lane> criticalSignalLanes) {
+	/*
+	 * Every signalized lane at the node gets an ordinal in the conflict matrix of
+	 * the signal system. Orig lanes are not signalized and therefore left out.
+	 */
+	private LaneConflictMatrix getOrCreateLaneConflictMatrix(Node node, SignalPlanBuffer buffer) {
+		LaneConflictMatrix conflicts = buffer.laneConflicts;
+		if(conflicts == null){
+			List<Id<Lane>> signalizedLanes = new ArrayList<Id<Lane>>();
+			for(LinkVector lvec : constructInLinkVectors(node)){
+				LanesToLinkAssignment l2l = lanes.getLanesToLinkAssignments().get(lvec.getLink().getId());
+				if(l2l != null){
+					for(Lane lane : l2l.getLanes().values()){
+						if(!((boolean) lane.getAttributes().getAttribute(IS_ORIG_LANE)))
+							signalizedLanes.add(lane.getId());
+					}
+				}
+			}
+			conflicts = new LaneConflictMatrix(signalizedLanes);
+			buffer.laneConflicts = conflicts;
+		}
+		return conflicts;
+	}
+	
+	private void setConflictingAndNonConflictingLanesToLanes(LaneConflictMatrix conflicts, Link firstLink, Link secondLink, List<Lane> criticalSignalLanes) {
 		if(firstLink == null)
 			return;
 		LanesToLinkAssignment l2l = lanes.getLanesToLinkAssignments().get(firstLink.getId());
@@ -1531,65 +2146,29 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 			}	
 		}
 		
-		if(l2l != null){
-			for(Lane lane : l2l.getLanes().values()){				
-				if(!((boolean) lane.getAttributes().getAttribute(IS_ORIG_LANE))){
-					List<Id<Lane>> nonCritLanes = new ArrayList<Id<Lane>>();
-					List<Id<Lane>> critLanes = new ArrayList<Id<Lane>>();
-					for(Lane otherLane : firstLanes){
-						if(!otherLane.equals(lane))
-							nonCritLanes.add(otherLane.getId());
-					}
-					if(otherl2l != null){
-						for(Lane otherLane : secondLanes){
-							if(criticalSignalLanes != null && criticalSignalLanes.contains(otherLane))
-								critLanes.add(otherLane.getId());
-							else
-								nonCritLanes.add(otherLane.getId());
-						}						
-					}
-					this.nonCritLanes.put(lane.getId(), nonCritLanes);
-					int i = 1;
-					for(Id<Lane> laneId : nonCritLanes) {
-						lane.getAttributes().putAttribute(NON_CRIT_LANES + "_" + i, laneId.toString());
-						i++;
-					}	
-					if(!critLanes.isEmpty()) {
-						i = 1;
-						this.critLanes.put(lane.getId(), critLanes);
-						for(Id<Lane> laneId : critLanes) {
-							lane.getAttributes().putAttribute(CRIT_LANES + "_" + i, laneId.toString());
-							i++;
-						}	
-					}	
-				}
-			}	
+		for(Lane lane : firstLanes){
+			// the relations of a lane are always replaced completely
+			conflicts.clearRow(lane.getId());
+			for(Lane otherLane : firstLanes){
+				if(!otherLane.equals(lane))
+					conflicts.setNonCritical(lane.getId(), otherLane.getId());
+			}
+			for(Lane otherLane : secondLanes){
+				if(criticalSignalLanes != null && criticalSignalLanes.contains(otherLane))
+					conflicts.setCritical(lane.getId(), otherLane.getId());
+				else
+					conflicts.setNonCritical(lane.getId(), otherLane.getId());
+			}
 		}
-		
-					
 	}
 
-	private void createOnePhase(int groupNumber, SignalSystemData signalSystem, Tuple<LinkVector, LinkVector> pair, SignalPlanData plan, int changeTime, int cycle, Node node, boolean first) {
-		SignalGroupData group = createSignalGroup(groupNumber, signalSystem, node);
-		Id<Link> firstLinkId = pair.getFirst().getLink().getId();
-		Id<Link> secondLinkId = null;
-		if(pair.getSecond() != null)
-			secondLinkId = pair.getSecond().getLink().getId();
-		for(SignalData signal : signalSystem.getSignalData().values()){
-			if(signal.getLinkId().equals(firstLinkId) || signal.getLinkId().equals(secondLinkId)){
-				group.addSignalId(signal.getId());					
-			}					
-		}
-		fillConflictingLanesData(pair, null);
-		SignalGroupSettingsData settings = null;
-		if(first)
-			settings = createSetting(0, changeTime - INTERGREENTIME, node, group.getId());
-		else
-			settings = createSetting(changeTime, cycle - INTERGREENTIME, node, group.getId());
-		plan.addSignalGroupSettings(settings);
-		groups.addSignalGroupData(group);
-		groupNumber++;
-		
+	/**
+	 * @return the conflict matrices of the signalized lanes, one per signal
+	 *         system. They are also stored as attribute
+	 *         <code>lane_conflicts</code> of the junction node.
+	 */
+	public Map<Id<SignalSystem>, LaneConflictMatrix> getLaneConflicts() {
+		return Collections.unmodifiableMap(this.laneConflicts);
 	}
 
 	private Tuple<LinkVector, LinkVector> getInLinkPair(List<LinkVector> inLinks) {
@@ -1628,20 +2207,37 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 		return plan;
 	}
 
-	private SignalSystemControllerData createController(SignalSystemData signalSystem){
+	private SignalSystemControllerData createController(SignalSystemData signalSystem, SignalPlanBuffer buffer){
 		SignalSystemControllerData controller = this.control.getFactory()
 				.createSignalSystemControllerData(signalSystem.getId());
-		this.control.addSignalSystemControllerData(controller);
+		buffer.controllers.add(controller);
 		controller.setControllerIdentifier(DefaultPlanbasedSignalSystemController.IDENTIFIER);
 		return controller;
 	}
 
+	private SignalLookup getOrCreateSignalLookup(Id<SignalSystem> systemId){
+		SignalLookup signalLookup = this.signalLookups.get(systemId);
+		if(signalLookup == null){
+			signalLookup = new SignalLookup();
+			this.signalLookups.put(systemId, signalLookup);
+		}
+		return signalLookup;
+	}
+
+	// read only, as it is used while signal plans are created concurrently
+	private SignalLookup getSignalLookup(Id<SignalSystem> systemId){
+		SignalLookup signalLookup = this.signalLookups.get(systemId);
+		if(signalLookup == null)
+			return EMPTY_SIGNAL_LOOKUP;
+		return signalLookup;
+	}
+
 	private SignalGroupData createSignalGroup(int groupNumber, SignalSystemData signalSystem, Node node){
 		SignalGroupData group = this.groups.getFactory().createSignalGroupData(signalSystem.getId(), Id.create("SignalGroup"+node.getId() + "." + groupNumber, SignalGroup.class));
 		return group;
 	}
 
-	private void createPlansForOneWayJunction(SignalSystemData signalSystem, Node node) {
+	private void createPlansForOneWayJunction(SignalSystemData signalSystem, Node node, SignalPlanBuffer buffer) {
 		int cycle = CYCLE_TIME;
 		int changeTime = CYCLE_TIME - PEDESTRIAN_CROSSING_TIME;
 		SignalGroupData group = createSignalGroup(1, signalSystem, node);
@@ -1649,30 +2245,40 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 		for(SignalData signal : signalSystem.getSignalData().values())
 			group.addSignalId(signal.getId());	
 		
-		SignalSystemControllerData controller = createController(signalSystem);
+		SignalSystemControllerData controller = createController(signalSystem, buffer);
 		SignalPlanData plan = createPlan(node, cycle);
 		controller.addSignalPlanData(plan);
 		SignalGroupSettingsData settings = null;
 		settings = createSetting(0, changeTime - 2*INTERGREENTIME, node, group.getId());
 		
 		plan.addSignalGroupSettings(settings);
-		groups.addSignalGroupData(group);	
+		buffer.groups.add(group);	
 				
 	}
 
-	private void findTwoPhaseSignalLanes(Tuple<LinkVector, LinkVector> pair, List<Lane> criticalSignalLanes){
-		if(lanes.getLanesToLinkAssignments().containsKey(pair.getFirst().getLink().getId())){
-			for(Lane lane : lanes.getLanesToLinkAssignments().get(pair.getFirst().getLink().getId()).getLanes().values()){
+	private boolean hasCriticalSignalLanes(LinkVector arm){
+		LanesToLinkAssignment l2l = lanes.getLanesToLinkAssignments().get(arm.getLink().getId());
+		if(l2l != null){
+			for(Lane lane : l2l.getLanes().values()){
 				if(lane.getAlignment() == 2)
-					criticalSignalLanes.add(lane);
+					return true;
 			}
 		}
-		if(lanes.getLanesToLinkAssignments().containsKey(pair.getSecond().getLink().getId())){
-			for(Lane lane : lanes.getLanesToLinkAssignments().get(pair.getSecond().getLink().getId()).getLanes().values()){
-				if(lane.getAlignment() == 2)
-					criticalSignalLanes.add(lane);
+		return false;
+	}
+
+	private List<Lane> getCriticalSignalLanes(LinkVector[] arms, int[] criticalArms){
+		List<Lane> criticalSignalLanes = new ArrayList<Lane>();
+		for(int arm : criticalArms){
+			LanesToLinkAssignment l2l = lanes.getLanesToLinkAssignments().get(arms[arm].getLink().getId());
+			if(l2l != null){
+				for(Lane lane : l2l.getLanes().values()){
+					if(lane.getAlignment() == 2)
+						criticalSignalLanes.add(lane);
+				}
 			}
 		}
+		return criticalSignalLanes;
 	}
 
 	//	private List<OsmNode> findCloseJunctionNodesWithout(OsmNode node, List<OsmNode> junctionNodes) {
@@ -2421,7 +3027,7 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 	 * left. This is useful to check against the turnlane-informations later.
 	 * nschirrmacher on 170613
 	 */
-	private List<LinkVector> orderToLinks(Link link, List<Link> toLinks) {
+	/* package */ List<LinkVector> orderToLinks(Link link, List<Link> toLinks) {
 		List<LinkVector> toLinkList = new ArrayList<LinkVector>();
 		LinkVector fromLink = new LinkVector(link);
 		for (int i = 0; i < toLinks.size(); i++) {
@@ -2553,6 +3159,105 @@ public class OsmNetworkWithLanesAndSignalsReader implements MatsimSomeReader {
 
 	}
 
+	/*
+	 * Signals of one signal system indexed by in-link and by lane, so that the
+	 * signal groups can be filled without scanning all signals of the system.
+	 */
+	private static class SignalLookup {
+		private final Map<Id<Link>, List<SignalData>> signalsByLink = new HashMap<Id<Link>, List<SignalData>>();
+		private final Map<Id<Lane>, SignalData> signalsByLane = new HashMap<Id<Lane>, SignalData>();
+
+		public void add(SignalData signal) {
+			List<SignalData> signalsOfLink = this.signalsByLink.get(signal.getLinkId());
+			if (signalsOfLink == null) {
+				signalsOfLink = new ArrayList<SignalData>(4);
+				this.signalsByLink.put(signal.getLinkId(), signalsOfLink);
+			}
+			signalsOfLink.add(signal);
+			if (signal.getLaneIds() != null) {
+				for (Id<Lane> laneId : signal.getLaneIds()) {
+					this.signalsByLane.put(laneId, signal);
+				}
+			}
+		}
+
+		public List<SignalData> getSignalsOfLink(Id<Link> linkId) {
+			List<SignalData> signalsOfLink = this.signalsByLink.get(linkId);
+			if (signalsOfLink == null) {
+				return Collections.emptyList();
+			}
+			return signalsOfLink;
+		}
+
+		public SignalData getSignalOfLane(Id<Lane> laneId) {
+			return this.signalsByLane.get(laneId);
+		}
+	}
+
+	/*
+	 * Signal plan layout shared by all junctions with the same signature. Arms
+	 * are referred to by their index in pairing order, the ids of groups and
+	 * signals are only set when the template is instantiated for a node.
+	 */
+	private static class JunctionTemplate {
+		private final int cycle;
+		private final List<GroupTemplate> groups = new ArrayList<GroupTemplate>(4);
+		private final List<ConflictTemplate> conflicts = new ArrayList<ConflictTemplate>(2);
+
+		public JunctionTemplate(int cycle) {
+			this.cycle = cycle;
+		}
+	}
+
+	private static class GroupTemplate {
+		private final static int ALL = 0;
+		private final static int NON_CRITICAL = 1;
+		private final static int CRITICAL = 2;
+
+		private final int groupNumber;
+		private final int[] arms;
+		// arms whose left turn lanes are served in a separate phase
+		private final int[] criticalArms;
+		private final int selection;
+		private final int onset;
+		private final int dropping;
+
+		public GroupTemplate(int groupNumber, int[] arms, int[] criticalArms, int selection, int onset, int dropping) {
+			this.groupNumber = groupNumber;
+			this.arms = arms;
+			this.criticalArms = criticalArms;
+			this.selection = selection;
+			this.onset = onset;
+			this.dropping = dropping;
+		}
+	}
+
+	private static class ConflictTemplate {
+		private final int[] arms;
+		private final int[] criticalArms;
+
+		public ConflictTemplate(int[] arms, int[] criticalArms) {
+			this.arms = arms;
+			this.criticalArms = criticalArms;
+		}
+	}
+
+	/*
+	 * Everything one signalized node contributes to the signals containers.
+	 */
+	private static class SignalPlanBuffer {
+		private final Id<SignalSystem> systemId;
+		private final List<SignalSystemControllerData> controllers = new ArrayList<SignalSystemControllerData>(1);
+		private final List<SignalGroupData> groups = new ArrayList<SignalGroupData>(4);
+		private LaneConflictMatrix laneConflicts = null;
+		private boolean removeSystem = false;
+		private int singleSignals = 0;
+
+		public SignalPlanBuffer(Id<SignalSystem> systemId) {
+			this.systemId = systemId;
+		}
+	}
+
 	private static class LaneStack {
 		public final Stack<Stack<Integer>> turnLanes;
 
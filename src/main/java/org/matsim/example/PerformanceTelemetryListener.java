@@ -0,0 +1,248 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * PerformanceTelemetryListener.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.AfterMobsimEvent;
+import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.events.ScoringEvent;
+import org.matsim.core.controler.events.ShutdownEvent;
+import org.matsim.core.controler.listener.AfterMobsimListener;
+import org.matsim.core.controler.listener.BeforeMobsimListener;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.controler.listener.IterationStartsListener;
+import org.matsim.core.controler.listener.ScoringListener;
+import org.matsim.core.controler.listener.ShutdownListener;
+import org.matsim.core.events.handler.BasicEventHandler;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
+
+/**
+ * Records per iteration how long the phases of the controler took, the heap
+ * left after the last garbage collection and the number of agents and events.
+ * Every iteration is appended to <code>performance_telemetry.csv</code> in the
+ * output directory, all of them are written to
+ * <code>performance_telemetry.json</code> at shutdown.
+ *
+ * The phases are measured between the callbacks of this listener, not by the
+ * controler. The controler calls the listeners of one event one after the
+ * other, in an order that is not defined, so a phase boundary lies somewhere
+ * among the listeners of its event. Listeners called before this one count to
+ * the phase that ends at the event, the others to the phase that starts there:
+ * <ul>
+ * <li>replanning: the rest of the iteration start listeners, replanning and
+ * the first before mobsim listeners (e.g. opening the events file)
+ * <li>mobsim: the rest of the before mobsim listeners, the mobsim including
+ * event handling and scoring during it, and the first after mobsim listeners
+ * <li>after mobsim: the rest of the after mobsim listeners (e.g. aggregating
+ * the travel times) and the first scoring listeners
+ * <li>scoring: the rest of the scoring listeners and the first iteration end
+ * listeners
+ * <li>output: the rest of the iteration end listeners (e.g. writing plans,
+ * events and analysis) and the first iteration start listeners of the next
+ * iteration, or the shutdown listeners before this one after the last
+ * iteration
+ * </ul>
+ * The phases add up to the iteration. The times of all listeners of one
+ * event together are in the <code>stopwatch.txt</code> of the controler.
+ * Use {@link PerformanceTelemetryModule} to add it to a controler.
+ *
+ * @author nschirrmacher
+ */
+public class PerformanceTelemetryListener implements IterationStartsListener, BeforeMobsimListener,
+		AfterMobsimListener, ScoringListener, IterationEndsListener, ShutdownListener, BasicEventHandler {
+
+	private static final Logger log = Logger.getLogger(PerformanceTelemetryListener.class);
+
+	static final String CSV_FILE = "performance_telemetry.csv";
+	static final String JSON_FILE = "performance_telemetry.json";
+
+	private static final String[] COLUMNS = { "iteration", "iteration_ms", "replanning_ms", "mobsim_ms",
+			"after_mobsim_ms", "scoring_ms", "output_ms", "heap_after_gc_mb", "heap_used_mb", "agents", "events" };
+
+	private static final int ITERATION_STARTS = 0;
+	private static final int BEFORE_MOBSIM = 1;
+	private static final int AFTER_MOBSIM = 2;
+	private static final int SCORING = 3;
+	private static final int ITERATION_ENDS = 4;
+
+	private final Scenario scenario;
+	private final OutputDirectoryHierarchy controlerIO;
+
+	private final List<long[]> rows = new ArrayList<>();
+	private BufferedWriter csvWriter = null;
+
+	// of the current iteration, -1 if there is none
+	private int iteration = -1;
+	private final long[] times = new long[5];
+	private long events = 0;
+	private long iterationEvents = 0;
+
+	@Inject
+	PerformanceTelemetryListener(Scenario scenario, OutputDirectoryHierarchy controlerIO) {
+		this.scenario = scenario;
+		this.controlerIO = controlerIO;
+	}
+
+	@Override
+	public void notifyIterationStarts(IterationStartsEvent event) {
+		long now = System.nanoTime();
+		finishIteration(now);
+		this.iteration = event.getIteration();
+		this.times[ITERATION_STARTS] = now;
+	}
+
+	@Override
+	public void notifyBeforeMobsim(BeforeMobsimEvent event) {
+		this.times[BEFORE_MOBSIM] = System.nanoTime();
+	}
+
+	@Override
+	public void notifyAfterMobsim(AfterMobsimEvent event) {
+		this.times[AFTER_MOBSIM] = System.nanoTime();
+		this.iterationEvents = this.events;
+	}
+
+	@Override
+	public void notifyScoring(ScoringEvent event) {
+		this.times[SCORING] = System.nanoTime();
+	}
+
+	@Override
+	public void notifyIterationEnds(IterationEndsEvent event) {
+		this.times[ITERATION_ENDS] = System.nanoTime();
+	}
+
+	@Override
+	public void notifyShutdown(ShutdownEvent event) {
+		finishIteration(System.nanoTime());
+		try {
+			if (this.csvWriter != null) {
+				this.csvWriter.close();
+				this.csvWriter = null;
+			}
+			writeJson(this.controlerIO.getOutputFilename(JSON_FILE));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void handleEvent(Event event) {
+		this.events++;
+	}
+
+	@Override
+	public void reset(int iteration) {
+		this.events = 0;
+	}
+
+	/*
+	 * The output of an iteration is only done when the next one starts, so
+	 * every iteration is recorded then.
+	 */
+	private void finishIteration(long now) {
+		if (this.iteration < 0)
+			return;
+		long[] row = new long[COLUMNS.length];
+		row[0] = this.iteration;
+		row[1] = millis(now - this.times[ITERATION_STARTS]);
+		row[2] = millis(this.times[BEFORE_MOBSIM] - this.times[ITERATION_STARTS]);
+		row[3] = millis(this.times[AFTER_MOBSIM] - this.times[BEFORE_MOBSIM]);
+		row[4] = millis(this.times[SCORING] - this.times[AFTER_MOBSIM]);
+		row[5] = millis(this.times[ITERATION_ENDS] - this.times[SCORING]);
+		row[6] = millis(now - this.times[ITERATION_ENDS]);
+		long afterGc = 0;
+		long used = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP) {
+				MemoryUsage collectionUsage = pool.getCollectionUsage();
+				afterGc += collectionUsage == null ? pool.getUsage().getUsed() : collectionUsage.getUsed();
+				used += pool.getUsage().getUsed();
+			}
+		}
+		row[7] = afterGc >> 20;
+		row[8] = used >> 20;
+		row[9] = this.scenario.getPopulation().getPersons().size();
+		row[10] = this.iterationEvents;
+		this.rows.add(row);
+		this.iteration = -1;
+		Arrays.fill(this.times, 0);
+		log.info("iteration " + row[0] + " took " + row[1] + " ms, mobsim " + row[3] + " ms, " + row[10] + " events");
+		try {
+			appendCsv(row);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void appendCsv(long[] row) throws IOException {
+		if (this.csvWriter == null) {
+			this.csvWriter = IOUtils.getBufferedWriter(this.controlerIO.getOutputFilename(CSV_FILE));
+			for (int i = 0; i < COLUMNS.length; i++) {
+				this.csvWriter.write(i == 0 ? COLUMNS[i] : "," + COLUMNS[i]);
+			}
+			this.csvWriter.newLine();
+		}
+		for (int i = 0; i < row.length; i++) {
+			this.csvWriter.write(i == 0 ? Long.toString(row[i]) : "," + row[i]);
+		}
+		this.csvWriter.newLine();
+		// keep the file complete, also if the run crashes later
+		this.csvWriter.flush();
+	}
+
+	private void writeJson(String filename) throws IOException {
+		try (BufferedWriter writer = IOUtils.getBufferedWriter(filename)) {
+			writer.write("[");
+			for (int r = 0; r < this.rows.size(); r++) {
+				long[] row = this.rows.get(r);
+				writer.write(r == 0 ? "\n  {" : ",\n  {");
+				for (int i = 0; i < COLUMNS.length; i++) {
+					writer.write((i == 0 ? "\"" : ", \"") + COLUMNS[i] + "\": " + row[i]);
+				}
+				writer.write("}");
+			}
+			writer.write("\n]\n");
+		}
+	}
+
+	private static long millis(long nanos) {
+		return nanos / 1000000;
+	}
+
+}
@@ -0,0 +1,39 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * PerformanceTelemetryModule.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import org.matsim.core.controler.AbstractModule;
+
+/**
+ * Adds the {@link PerformanceTelemetryListener} to a controler, as listener
+ * and as event handler counting the events.
+ *
+ * @author nschirrmacher
+ */
+public class PerformanceTelemetryModule extends AbstractModule {
+
+	@Override
+	public void install() {
+		bind(PerformanceTelemetryListener.class).asEagerSingleton();
+		addControlerListenerBinding().to(PerformanceTelemetryListener.class);
+		addEventHandlerBinding().to(PerformanceTelemetryListener.class);
+	}
+
+}
@@ -0,0 +1,223 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * PrecompiledFixedTimeSignalController.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.contrib.signals.builder.SignalControllerFactory;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalPlanData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalSystemControllerData;
+import org.matsim.contrib.signals.model.DefaultPlanbasedSignalSystemController;
+import org.matsim.contrib.signals.model.SignalController;
+import org.matsim.contrib.signals.model.SignalGroup;
+import org.matsim.contrib.signals.model.SignalPlan;
+import org.matsim.contrib.signals.model.SignalSystem;
+
+/**
+ * Controls a signal system with a single fixed-time plan for the whole day,
+ * as the {@link OsmNetworkWithLanesAndSignalsReader} creates them. The plan is
+ * compiled once into the changes of every second of its cycle, droppings
+ * before onsets as in the {@link DefaultPlanbasedSignalSystemController}, and
+ * into a table of the green groups per second. A time step then only looks
+ * up the changes of its second of the cycle, which are none for most steps,
+ * instead of asking the plan for onsets and droppings.
+ *
+ * At the start of the simulation, the groups that are green according to the
+ * plan are switched on, so the first cycle is the same as all others.
+ *
+ * @author nschirrmacher
+ */
+public final class PrecompiledFixedTimeSignalController implements SignalController {
+
+	private static final Logger log = Logger.getLogger(PrecompiledFixedTimeSignalController.class);
+
+	public static final String IDENTIFIER = "PrecompiledFixedTimeSignalController";
+
+	/**
+	 * For the {@link org.matsim.contrib.signals.controler.SignalsModule}.
+	 */
+	public static final class PrecompiledFactory implements SignalControllerFactory {
+		@Override
+		public SignalController createSignalSystemController(SignalSystem signalSystem) {
+			SignalController controller = new PrecompiledFixedTimeSignalController();
+			controller.setSignalSystem(signalSystem);
+			return controller;
+		}
+	}
+
+	private SignalSystem system;
+	private SignalPlan plan;
+
+	// compiled when the simulation is initialized
+	private int cycle;
+	private List<Id<SignalGroup>> groupIds;
+	// changes of second s of the cycle are change[changeStart[s]] to change[changeStart[s + 1] - 1]
+	private int[] changeStart;
+	private int[] changeGroup;
+	private boolean[] changeOnset;
+	// group g is green after second s if bit g of green[s * words + g / 64] is set
+	private long[] green;
+	private int words;
+
+	/**
+	 * Lets this controller control all systems that have a single plan for the
+	 * whole day and the default controller.
+	 *
+	 * @return the number of systems
+	 */
+	public static int useForFixedTimePlans(SignalsData signalsData) {
+		int systems = 0;
+		for (SignalSystemControllerData controller : signalsData.getSignalControlData()
+				.getSignalSystemControllerDataBySystemId().values()) {
+			if (!DefaultPlanbasedSignalSystemController.IDENTIFIER.equals(controller.getControllerIdentifier())
+					|| controller.getSignalPlanData().size() != 1)
+				continue;
+			SignalPlanData plan = controller.getSignalPlanData().values().iterator().next();
+			if (isWholeDay(plan.getStartTime(), plan.getEndTime())) {
+				controller.setControllerIdentifier(IDENTIFIER);
+				systems++;
+			}
+		}
+		log.info(IDENTIFIER + " controls " + systems + " of "
+				+ signalsData.getSignalControlData().getSignalSystemControllerDataBySystemId().size() + " signal systems");
+		return systems;
+	}
+
+	/*
+	 * A plan is valid the whole day if start and end are the same, or both
+	 * are not set. The times are boxed, so they must not be compared by
+	 * reference.
+	 */
+	private static boolean isWholeDay(Double startTime, Double endTime) {
+		if (startTime == null || endTime == null)
+			return startTime == null && endTime == null;
+		return startTime.doubleValue() == endTime.doubleValue();
+	}
+
+	@Override
+	public void setSignalSystem(SignalSystem signalSystem) {
+		this.system = signalSystem;
+	}
+
+	@Override
+	public void addPlan(SignalPlan plan) {
+		if (this.plan != null) {
+			throw new RuntimeException("Signal system " + this.system.getId() + " has more than one plan, which "
+					+ IDENTIFIER + " does not support.");
+		}
+		this.plan = plan;
+	}
+
+	@Override
+	public void simulationInitialized(double simStartTimeSeconds) {
+		if (this.changeStart == null) {
+			compile();
+		}
+		// the state after the second before the start; the changes of the start itself follow with its update
+		int second = second(simStartTimeSeconds - 1);
+		for (int g = 0; g < this.groupIds.size(); g++) {
+			if (isGreen(g, second)) {
+				this.system.scheduleOnset(simStartTimeSeconds, this.groupIds.get(g));
+			}
+		}
+	}
+
+	@Override
+	public void updateState(double timeSeconds) {
+		int second = second(timeSeconds);
+		for (int c = this.changeStart[second]; c < this.changeStart[second + 1]; c++) {
+			if (this.changeOnset[c]) {
+				this.system.scheduleOnset(timeSeconds, this.groupIds.get(this.changeGroup[c]));
+			} else {
+				this.system.scheduleDropping(timeSeconds, this.groupIds.get(this.changeGroup[c]));
+			}
+		}
+	}
+
+	@Override
+	public void reset(Integer iterationNumber) {
+		// the compiled plan does not change between iterations
+	}
+
+	private void compile() {
+		if (this.plan == null)
+			throw new RuntimeException("Signal system " + this.system.getId() + " has no plan.");
+		this.cycle = this.plan.getCycleTime();
+		this.groupIds = new ArrayList<>(this.system.getSignalGroups().keySet());
+		List<Integer> groups = new ArrayList<>();
+		List<Boolean> onsets = new ArrayList<>();
+		this.changeStart = new int[this.cycle + 1];
+		for (int second = 0; second < this.cycle; second++) {
+			add(this.plan.getDroppings(second), false, groups, onsets);
+			add(this.plan.getOnsets(second), true, groups, onsets);
+			this.changeStart[second + 1] = groups.size();
+		}
+		this.changeGroup = new int[groups.size()];
+		this.changeOnset = new boolean[groups.size()];
+		for (int c = 0; c < groups.size(); c++) {
+			this.changeGroup[c] = groups.get(c);
+			this.changeOnset[c] = onsets.get(c);
+		}
+
+		// two cycles, the states of the first one are not known before its changes
+		this.words = (this.groupIds.size() + 63) / 64;
+		this.green = new long[this.cycle * this.words];
+		boolean[] state = new boolean[this.groupIds.size()];
+		for (int second = 0; second < 2 * this.cycle; second++) {
+			int s = second % this.cycle;
+			for (int c = this.changeStart[s]; c < this.changeStart[s + 1]; c++) {
+				state[this.changeGroup[c]] = this.changeOnset[c];
+			}
+			if (second >= this.cycle) {
+				for (int g = 0; g < state.length; g++) {
+					if (state[g])
+						this.green[s * this.words + g / 64] |= 1L << (g % 64);
+				}
+			}
+		}
+	}
+
+	private void add(List<Id<SignalGroup>> changes, boolean onset, List<Integer> groups, List<Boolean> onsets) {
+		if (changes == null)
+			return;
+		for (Id<SignalGroup> groupId : changes) {
+			int group = this.groupIds.indexOf(groupId);
+			if (group < 0)
+				throw new RuntimeException("Signal group " + groupId + " of the plan of signal system "
+						+ this.system.getId() + " does not exist.");
+			groups.add(group);
+			onsets.add(onset);
+		}
+	}
+
+	private boolean isGreen(int group, int second) {
+		return (this.green[second * this.words + group / 64] & (1L << (group % 64))) != 0;
+	}
+
+	private int second(double timeSeconds) {
+		int second = ((int) Math.floor(timeSeconds)) % this.cycle;
+		return second < 0 ? second + this.cycle : second;
+	}
+
+}
@@ -1,35 +1,43 @@
 package org.matsim.example;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
 import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
 import org.matsim.api.core.v01.network.Network;
 import org.matsim.contrib.signals.SignalSystemsConfigGroup;
 import org.matsim.contrib.signals.data.SignalsData;
 import org.matsim.contrib.signals.data.SignalsDataLoader;
-import org.matsim.contrib.signals.data.SignalsScenarioWriter;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalControlWriter20;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupsWriter20;
+import org.matsim.contrib.signals.data.signalsystems.v20.SignalSystemsWriter20;
 import org.matsim.core.config.Config;
 import org.matsim.core.config.ConfigUtils;
 import org.matsim.core.config.ConfigWriter;
-import org.matsim.core.network.algorithms.NetworkCleaner;
 import org.matsim.core.network.io.NetworkWriter;
 import org.matsim.core.scenario.ScenarioUtils;
 import org.matsim.core.utils.geometry.CoordinateTransformation;
 import org.matsim.core.utils.geometry.transformations.TransformationFactory;
-import org.matsim.dgretherCopies.SignalSystemsDataConsistencyChecker;
 import org.matsim.lanes.data.Lanes;
 import org.matsim.lanes.data.LanesWriter;
 
-import playground.dgrether.lanes.LanesConsistencyChecker;
-import playground.dgrether.signalsystems.data.consistency.SignalControlDataConsistencyChecker;
-import playground.dgrether.signalsystems.data.consistency.SignalGroupsDataConsistencyChecker;
-
 
 /**
  * "P" has to do with "Potsdam" and "Z" with "Zurich", but P and Z are mostly used to show which classes belong together.
  */
 public class RunPNetworkGenerator {
 	
+	private static final Logger log = Logger.getLogger(RunPNetworkGenerator.class);
+	
 	/* The input file name. */
-	private static final String OSM = "./input/interpreter.osm";
+	/* package */ static final String OSM = "./input/interpreter.osm";
 	/*
 	 * The coordinate system to use. OpenStreetMap uses WGS84, but for MATSim, we need a projection where distances
 	 * are (roughly) euclidean distances in meters.
@@ -40,6 +48,15 @@ public class RunPNetworkGenerator {
 		 TransformationFactory.getCoordinateTransformation(TransformationFactory.WGS84, TransformationFactory.WGS84_UTM33N);
 	
 	private static final String OUTPUT_DIR = "./output/";
+	// conversion results of earlier runs with the same osm file and settings are reused from here
+	private static final String CACHE_DIR = "./output/cache/";
+	
+	// use true to write compressed xml files
+	private static boolean gzipOutput = false;
+	// use true to write the contraction hierarchy for routing with TurnAwareRoutingModule next to the network
+	private static boolean writeContractionHierarchy = true;
+	// the output files are written concurrently by this number of threads
+	private static final int OUTPUT_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
 	
 	// use false, if input data already exists and should only be cleaned
 	private static boolean parseOSM = true;
@@ -53,35 +70,18 @@ public class RunPNetworkGenerator {
 		 */
 		
 		// create a config
-		Config config = ConfigUtils.createConfig();
-		SignalSystemsConfigGroup signalSystemsConfigGroup = 
-				ConfigUtils.addOrGetModule(config, SignalSystemsConfigGroup.GROUPNAME, SignalSystemsConfigGroup.class);
-		signalSystemsConfigGroup.setUseSignalSystems(true);
-		config.qsim().setUseLanes(true);
+		Config config = createConfig();
 		
 		if (!parseOSM){ 
 			setInputData(config);
 		}
 		
 		// create a scenario
-		Scenario scenario = ScenarioUtils.createScenario(config);
-		scenario.addScenarioElement(SignalsData.ELEMENT_NAME, new SignalsDataLoader(config).loadSignalsData());
-		// pick network, lanes and signals data from the scenario
-		SignalsData signalsData = (SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME);
-		Lanes lanes = scenario.getLanes();
-		Network network = scenario.getNetwork();
+		Scenario scenario = createScenario(config);
 				
 		if (parseOSM) {
-			OsmNetworkWithLanesAndSignalsReader reader = new OsmNetworkWithLanesAndSignalsReader(network, CT, signalsData, lanes);
-			reader.setAssumptions(
-					false, //minimize small roundabouts
-					false, //merge oneway Signal Systems
-					false, //use radius reduction
-					true, //allow U-turn at left lane only
-					true, //make pedestrian signals
-					false,//accept 4+ crossings
-					"realistic_very_restricted");//set lanes estimation modes
-			reader.setBoundingBox(51.7464, 14.3087, 51.7761, 14.3639); //setting Bounding Box for signals and lanes (south,west,north,east)
+			OsmNetworkWithLanesAndSignalsReader reader = createReader(scenario, "realistic_very_restricted");
+			reader.setCacheDirectory(CACHE_DIR);
 			reader.parse(OSM);
 		}
 		
@@ -90,63 +90,183 @@ public class RunPNetworkGenerator {
 		 * to every other link. This may not be the case in the initial network converted from OpenStreetMap.
 		 */		
 			
-		cleanNetworkLanesAndSignals(scenario, config);						
-		writeOutput(scenario);
+		cleanNetworkLanesAndSignals(scenario, OUTPUT_DIR);						
+		writeOutput(scenario, OUTPUT_DIR);
 	}
 
 
-	private static void cleanNetworkLanesAndSignals(Scenario scenario, Config config) {
-		Network network = scenario.getNetwork();
-		new NetworkCleaner().run(network);
-		
-
-		config.network().setLaneDefinitionsFile(OUTPUT_DIR + "lanes.xml");
-
-		Lanes lanes = scenario.getLanes();
-		LanesConsistencyChecker lanesConsistency = new LanesConsistencyChecker(network, lanes);
-		lanesConsistency.setRemoveMalformed(true);
-		lanesConsistency.checkConsistency();
-
-		
+	/* package */ static Config createConfig() {
+		Config config = ConfigUtils.createConfig();
+		SignalSystemsConfigGroup signalSystemsConfigGroup = 
+				ConfigUtils.addOrGetModule(config, SignalSystemsConfigGroup.GROUPNAME, SignalSystemsConfigGroup.class);
+		signalSystemsConfigGroup.setUseSignalSystems(true);
+		config.qsim().setUseLanes(true);
+		return config;
+	}
+
+
+	/* package */ static Scenario createScenario(Config config) {
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		scenario.addScenarioElement(SignalsData.ELEMENT_NAME, new SignalsDataLoader(config).loadSignalsData());
+		return scenario;
+	}
+
+
+	/*
+	 * Creates a reader for network, lanes and signals of the given scenario with the settings used for Cottbus.
+	 */
+	/* package */ static OsmNetworkWithLanesAndSignalsReader createReader(Scenario scenario, String lanesEstimation) {
+		// pick network, lanes and signals data from the scenario
 		SignalsData signalsData = (SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME);
-		SignalSystemsDataConsistencyChecker signalsConsistency = new SignalSystemsDataConsistencyChecker(network, lanes, signalsData);
-		signalsConsistency.checkConsistency();
-		SignalGroupsDataConsistencyChecker signalGroupsConsistency = new SignalGroupsDataConsistencyChecker(scenario);
-		signalGroupsConsistency.checkConsistency();
-		SignalControlDataConsistencyChecker signalControlConsistency = new SignalControlDataConsistencyChecker(scenario);
-		signalControlConsistency.checkConsistency();
+		Lanes lanes = scenario.getLanes();
+		Network network = scenario.getNetwork();
+		OsmNetworkWithLanesAndSignalsReader reader = new OsmNetworkWithLanesAndSignalsReader(network, CT, signalsData, lanes);
+		reader.setAssumptions(
+				false, //minimize small roundabouts
+				false, //merge oneway Signal Systems
+				false, //use radius reduction
+				true, //allow U-turn at left lane only
+				true, //make pedestrian signals
+				false,//accept 4+ crossings
+				lanesEstimation);//set lanes estimation modes
+		reader.setBoundingBox(51.7464, 14.3087, 51.7761, 14.3639); //setting Bounding Box for signals and lanes (south,west,north,east)
+		return reader;
+	}
+
+
+	/* package */ static void cleanNetworkLanesAndSignals(Scenario scenario, String outputDir) {
+		scenario.getConfig().network().setLaneDefinitionsFile(outputDir + "lanes.xml");
+
+		NetworkLanesAndSignalsCleaner cleaner = new NetworkLanesAndSignalsCleaner(scenario);
+		cleaner.setSignalsReportFile(outputDir + "signals_consistency.txt");
+		cleaner.run();
 	}
 
 
-	private static void writeOutput(Scenario scenario) {
+	/* package */ static void writeOutput(final Scenario scenario, final String outputDir) {
+		long start = System.currentTimeMillis();
 		Config config = scenario.getConfig();
-		config.network().setInputFile(OUTPUT_DIR + "network.xml");
-		new NetworkWriter(scenario.getNetwork()).write(config.network().getInputFile());
-		
-		config.network().setLaneDefinitionsFile(OUTPUT_DIR + "lanes.xml");
+		// MATSim writers compress all files ending with .gz
+		String xmlSuffix = gzipOutput ? ".xml.gz" : ".xml";
+		config.network().setInputFile(outputDir + "network" + xmlSuffix);
+		config.network().setLaneDefinitionsFile(outputDir + "lanes" + xmlSuffix);
 		
 		SignalSystemsConfigGroup signalSystemsConfigGroup = 
 				ConfigUtils.addOrGetModule(config, SignalSystemsConfigGroup.GROUPNAME, SignalSystemsConfigGroup.class);
-		signalSystemsConfigGroup.setSignalSystemFile(OUTPUT_DIR + "signal_systems.xml");
-		signalSystemsConfigGroup.setSignalGroupsFile(OUTPUT_DIR + "signal_groups.xml");
-		signalSystemsConfigGroup.setSignalControlFile(OUTPUT_DIR + "signal_control.xml");
-		
-		String configFile = OUTPUT_DIR  + "config.xml";
-		ConfigWriter configWriter = new ConfigWriter(config);
-		configWriter.write(configFile);
+		signalSystemsConfigGroup.setSignalSystemFile(outputDir + "signal_systems" + xmlSuffix);
+		signalSystemsConfigGroup.setSignalGroupsFile(outputDir + "signal_groups" + xmlSuffix);
+		signalSystemsConfigGroup.setSignalControlFile(outputDir + "signal_control" + xmlSuffix);
 		
-		SignalsScenarioWriter signalsWriter = new SignalsScenarioWriter();
-		signalsWriter.setSignalSystemsOutputFilename(signalSystemsConfigGroup.getSignalSystemFile());
-		signalsWriter.setSignalGroupsOutputFilename(signalSystemsConfigGroup.getSignalGroupsFile());
-		signalsWriter.setSignalControlOutputFilename(signalSystemsConfigGroup.getSignalControlFile());
-		signalsWriter.writeSignalsData(scenario);
-		
-		LanesWriter writerDelegate = new LanesWriter(scenario.getLanes());
-		writerDelegate.write(config.network().getLaneDefinitionsFile());
+		/*
+		 * The scenario is not changed anymore, so all files are written at the same time.
+		 * The config has to be complete before its writer is started.
+		 */
+		final ConfigWriter configWriter = new ConfigWriter(config);
+		final SignalsData signalsData = (SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME);
+		List<OutputTask> tasks = new ArrayList<>();
+		tasks.add(new OutputTask(config.network().getInputFile()) {
+			@Override
+			void write(String filename) {
+				new NetworkWriter(scenario.getNetwork()).write(filename);
+			}
+		});
+		tasks.add(new OutputTask(outputDir + "config.xml") {
+			@Override
+			void write(String filename) {
+				configWriter.write(filename);
+			}
+		});
+		tasks.add(new OutputTask(signalSystemsConfigGroup.getSignalSystemFile()) {
+			@Override
+			void write(String filename) {
+				new SignalSystemsWriter20(signalsData.getSignalSystemsData()).write(filename);
+			}
+		});
+		tasks.add(new OutputTask(signalSystemsConfigGroup.getSignalGroupsFile()) {
+			@Override
+			void write(String filename) {
+				new SignalGroupsWriter20(signalsData.getSignalGroupsData()).write(filename);
+			}
+		});
+		tasks.add(new OutputTask(signalSystemsConfigGroup.getSignalControlFile()) {
+			@Override
+			void write(String filename) {
+				new SignalControlWriter20(signalsData.getSignalControlData()).write(filename);
+			}
+		});
+		tasks.add(new OutputTask(config.network().getLaneDefinitionsFile()) {
+			@Override
+			void write(String filename) {
+				new LanesWriter(scenario.getLanes()).write(filename);
+			}
+		});
+		// binary copy of network, lanes and signals for faster loading, see ControlerToRunSignalsAndLanesFromOSM
+		tasks.add(new OutputTask(outputDir + ScenarioSnapshotWriter.FILENAME) {
+			@Override
+			void write(String filename) {
+				new ScenarioSnapshotWriter(scenario).write(filename);
+			}
+		});
+		if (writeContractionHierarchy) {
+			tasks.add(new OutputTask(outputDir + TurnContractionHierarchy.FILENAME) {
+				@Override
+				void write(String filename) {
+					TurnContractionHierarchy.create(new TurnRoutingGraph(scenario.getNetwork(), scenario.getLanes(),
+							TransportMode.car)).write(filename);
+				}
+			});
+		}
+		runOutputTasks(tasks);
+		log.info("wrote all output files to " + outputDir + " in " + (System.currentTimeMillis() - start) + " ms");
 		System.out.println("**************** Network-Reading completed -  with Lanes and Signals ****************");
 	}
 
 
+	private static void runOutputTasks(List<OutputTask> tasks) {
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(tasks.size(), OUTPUT_THREADS));
+		try {
+			List<Future<Void>> futures = new ArrayList<>(tasks.size());
+			for (OutputTask task : tasks) {
+				futures.add(executor.submit(task));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while writing output.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+
+	/*
+	 * Writes one output file and logs how long it took.
+	 */
+	private static abstract class OutputTask implements Callable<Void> {
+		private final String filename;
+
+		OutputTask(String filename) {
+			this.filename = filename;
+		}
+
+		abstract void write(String filename);
+
+		@Override
+		public Void call() {
+			long start = System.currentTimeMillis();
+			write(this.filename);
+			log.info("wrote " + this.filename + " in " + (System.currentTimeMillis() - start) + " ms");
+			return null;
+		}
+	}
+
+
 	private static void setInputData(Config config) {
 		config.network().setInputFile(OUTPUT_DIR + "network.xml");
 		config.network().setLaneDefinitionsFile(OUTPUT_DIR + "lane_definitions_v2.0.xml");
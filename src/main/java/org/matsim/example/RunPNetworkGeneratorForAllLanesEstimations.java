@@ -0,0 +1,108 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * RunPNetworkGeneratorForAllLanesEstimations.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+
+/**
+ * Creates network, lanes and signals of {@link RunPNetworkGenerator} for all
+ * lanes estimation modes of {@link OsmNetworkWithLanesAndSignalsReader} to
+ * compare them. The osm file is parsed only once into an intermediate file,
+ * the variants are then converted concurrently from it, each into its own
+ * scenario. The output of every variant goes into its own directory, named
+ * after the lanes estimation mode.
+ *
+ * @author nschirrmacher
+ */
+public class RunPNetworkGeneratorForAllLanesEstimations {
+
+	private static final Logger log = Logger.getLogger(RunPNetworkGeneratorForAllLanesEstimations.class);
+
+	private static final String OUTPUT_DIR = "./output/lanesEstimations/";
+	private static final String INTERMEDIATE = "parsed_osm.bin";
+
+	private static final String[] LANES_ESTIMATIONS = new String[] { "StVO_free", "StVO_restricted",
+			"StVO_very_restricted", "realistic_free", "realistic_restricted", "realistic_very_restricted" };
+
+	// every variant holds its own copy of the osm data, so this also bounds the memory used
+	private static final int VARIANT_THREADS = Math.min(LANES_ESTIMATIONS.length, Runtime.getRuntime().availableProcessors());
+
+	public static void main(String[] args) {
+		long start = System.currentTimeMillis();
+		new File(OUTPUT_DIR).mkdirs();
+		final String intermediate = OUTPUT_DIR + INTERMEDIATE;
+		// only highway defaults, hierarchy layers and the transformation matter for the intermediate
+		Scenario parseScenario = RunPNetworkGenerator.createScenario(RunPNetworkGenerator.createConfig());
+		RunPNetworkGenerator.createReader(parseScenario, LANES_ESTIMATIONS[0]).parseToIntermediate(RunPNetworkGenerator.OSM, intermediate);
+
+		// the variants share the processors, so the readers do not start their own threads for each of them
+		final int readerThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / VARIANT_THREADS);
+		ExecutorService executor = Executors.newFixedThreadPool(VARIANT_THREADS);
+		try {
+			List<Future<Void>> futures = new ArrayList<>(LANES_ESTIMATIONS.length);
+			for (final String lanesEstimation : LANES_ESTIMATIONS) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						convertVariant(intermediate, lanesEstimation, readerThreads);
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while converting lanes estimation variants.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		log.info("created " + LANES_ESTIMATIONS.length + " variants in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private static void convertVariant(String intermediate, String lanesEstimation, int readerThreads) {
+		long start = System.currentTimeMillis();
+		String outputDir = OUTPUT_DIR + lanesEstimation + "/";
+		new File(outputDir).mkdirs();
+		Scenario scenario = RunPNetworkGenerator.createScenario(RunPNetworkGenerator.createConfig());
+		OsmNetworkWithLanesAndSignalsReader reader = RunPNetworkGenerator.createReader(scenario, lanesEstimation);
+		reader.setNumberOfThreads(readerThreads);
+		reader.parseIntermediate(intermediate);
+		RunPNetworkGenerator.cleanNetworkLanesAndSignals(scenario, outputDir);
+		RunPNetworkGenerator.writeOutput(scenario, outputDir);
+		log.info("converted variant " + lanesEstimation + " in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+}
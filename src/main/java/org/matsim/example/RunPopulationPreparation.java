@@ -0,0 +1,183 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * RunPopulationPreparation.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.inject.Provider;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.population.Activity;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.Plan;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.controler.Injector;
+import org.matsim.core.events.EventsManagerModule;
+import org.matsim.core.population.io.PopulationWriter;
+import org.matsim.core.router.PlanRouter;
+import org.matsim.core.router.TripRouter;
+import org.matsim.core.router.TripRouterModule;
+import org.matsim.core.router.costcalculators.TravelDisutilityModule;
+import org.matsim.core.scenario.ScenarioByInstanceModule;
+import org.matsim.core.trafficmonitoring.TravelTimeCalculatorModule;
+
+/**
+ * Prepares a population that only has coordinates, like the commuters of
+ * {@link ControlerToRunSignalsAndLanesFromOSM}, for the simulation: every
+ * activity without a link gets the nearest car link, and all plans are
+ * routed. The result is written next to the network, so later runs can use
+ * it and skip this step before iteration 0.
+ *
+ * The network is the one of the run, i.e. with lanes and signals, so the
+ * activities are placed on links that exist in the lanes and signals data.
+ * Car legs are routed like in the run, by the {@link TurnAwareRoutingModule}
+ * with the {@link TurnTravelTimeModule}, i.e. with free speed travel times
+ * and only the turns the lanes allow. Links are looked up in a
+ * {@link LinkGridIndex}, persons are mapped and routed in parallel, each
+ * thread with its own router.
+ *
+ * @author nschirrmacher
+ */
+public class RunPopulationPreparation {
+
+	private static final Logger log = Logger.getLogger(RunPopulationPreparation.class);
+
+	// persons taken by a thread at once. small enough to balance the threads
+	private static final int PERSONS_PER_CHUNK = 1000;
+
+	public static void main(String[] args) {
+		Config config = ConfigUtils.loadConfig(ControlerToRunSignalsAndLanesFromOSM.configInputFile);
+		config.plans().setInputFile(ControlerToRunSignalsAndLanesFromOSM.planInputFile_spreeNeisse);
+		// the same routing as in the run, see ControlerToRunSignalsAndLanesFromOSM
+		config.controler().setLinkToLinkRoutingEnabled(false);
+		config.travelTimeCalculator().setCalculateLinkToLinkTravelTimes(false);
+		Scenario scenario = new ConcurrentScenarioLoader(config).loadScenario();
+
+		prepare(scenario, createTripRouterProvider(scenario), Runtime.getRuntime().availableProcessors());
+
+		String outputFile = new File(ControlerToRunSignalsAndLanesFromOSM.getInputDirectory(config),
+				ControlerToRunSignalsAndLanesFromOSM.preparedPlanInputFile).getPath();
+		new PopulationWriter(scenario.getPopulation(), scenario.getNetwork()).write(outputFile);
+		log.info("wrote prepared population to " + outputFile);
+	}
+
+	/*
+	 * The routing modules of MATSim, with the turn aware routing and the turn
+	 * travel times of the run for car.
+	 */
+	private static Provider<TripRouter> createTripRouterProvider(final Scenario scenario) {
+		final Config config = scenario.getConfig();
+		com.google.inject.Injector injector = Injector.createInjector(config, new AbstractModule() {
+			@Override
+			public void install() {
+				install(AbstractModule.override(Arrays.<AbstractModule> asList(new TripRouterModule(),
+						new TravelTimeCalculatorModule(), new TravelDisutilityModule(), new EventsManagerModule()),
+						new AbstractModule() {
+							@Override
+							public void install() {
+								install(ControlerToRunSignalsAndLanesFromOSM.createTurnAwareRoutingModule(config));
+								install(new TurnTravelTimeModule(ControlerToRunSignalsAndLanesFromOSM.timeBinSize));
+							}
+						}));
+				install(new ScenarioByInstanceModule(scenario));
+			}
+		});
+		return injector.getProvider(TripRouter.class);
+	}
+
+	/**
+	 * Assigns links to all activities that do not have one and routes all
+	 * plans of the scenario's population.
+	 *
+	 * @param tripRouterProvider
+	 *            called once per thread
+	 */
+	public static void prepare(final Scenario scenario, final Provider<TripRouter> tripRouterProvider, int numberOfThreads) {
+		long start = System.currentTimeMillis();
+		final LinkGridIndex index = new LinkGridIndex(
+				LinkGridIndex.linksAllowing(scenario.getNetwork().getLinks().values(), TransportMode.car));
+		log.info("indexed car links in " + (System.currentTimeMillis() - start) + " ms");
+
+		final List<Person> persons = new ArrayList<>(scenario.getPopulation().getPersons().values());
+		final AtomicInteger nextChunk = new AtomicInteger(0);
+		ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+		try {
+			List<Future<Void>> futures = new ArrayList<>();
+			for (int i = 0; i < numberOfThreads; i++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						// the router caches data of its searches and must not be shared between threads
+						PlanRouter planRouter = new PlanRouter(tripRouterProvider.get());
+						int from;
+						while ((from = nextChunk.getAndAdd(PERSONS_PER_CHUNK)) < persons.size()) {
+							for (Person person : persons.subList(from, Math.min(from + PERSONS_PER_CHUNK, persons.size()))) {
+								for (Plan plan : person.getPlans()) {
+									assignLinks(plan, index);
+									planRouter.run(plan);
+								}
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while preparing the population.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		log.info("prepared " + persons.size() + " persons in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private static void assignLinks(Plan plan, LinkGridIndex index) {
+		for (PlanElement element : plan.getPlanElements()) {
+			if (element instanceof Activity) {
+				Activity activity = (Activity) element;
+				if (activity.getLinkId() == null && activity.getCoord() != null) {
+					activity.setLinkId(index.getNearestLink(activity.getCoord()).getId());
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,370 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * ScenarioSnapshotReader.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.example;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.NetworkFactory;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalControlDataFactory;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupSettingsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalPlanData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalSystemControllerData;
+import org.matsim.contrib.signals.data.signalsystems.v20.SignalSystemData;
+import org.matsim.contrib.signals.data.signalsystems.v20.SignalSystemsData;
+import org.matsim.contrib.signals.model.Signal;
+import org.matsim.contrib.signals.model.SignalGroup;
+import org.matsim.contrib.signals.model.SignalPlan;
+import org.matsim.contrib.signals.model.SignalSystem;
+import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.lanes.data.Lane;
+import org.matsim.lanes.data.Lanes;
+import org.matsim.lanes.data.LanesToLinkAssignment;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+
+/**
+ * Reads a file written by {@link ScenarioSnapshotWriter} into the network,
+ * lanes and signals data of a scenario. The containers are expected to be
+ * empty. The signals data is only filled, if the scenario contains one.
+ *
+ * @author nschirrmacher
+ */
+public class ScenarioSnapshotReader {
+
+	private static final Logger log = Logger.getLogger(ScenarioSnapshotReader.class);
+
+	private final Network network;
+	private final Lanes lanes;
+	private final SignalsData signalsData;
+
+	private ByteBuffer buffer;
+	private String[] strings;
+
+	public ScenarioSnapshotReader(Scenario scenario) {
+		this(scenario.getNetwork(), scenario.getLanes(), (SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME));
+	}
+
+	/**
+	 * @param signalsData
+	 *            may be <code>null</code>, signals in the snapshot are skipped
+	 *            then
+	 */
+	public ScenarioSnapshotReader(Network network, Lanes lanes, SignalsData signalsData) {
+		this.network = network;
+		this.lanes = lanes;
+		this.signalsData = signalsData;
+	}
+
+	public void read(String filename) {
+		long start = System.currentTimeMillis();
+		try (RandomAccessFile file = new RandomAccessFile(filename, "r"); FileChannel channel = file.getChannel()) {
+			this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (this.buffer.getInt() != ScenarioSnapshotWriter.MAGIC)
+				throw new RuntimeException(filename + " is not a scenario snapshot.");
+			int version = this.buffer.getInt();
+			if (version != ScenarioSnapshotWriter.VERSION)
+				throw new RuntimeException("Snapshot " + filename + " has version " + version + ", but version "
+						+ ScenarioSnapshotWriter.VERSION + " is expected. Write it again.");
+			readStrings();
+			List<Link> links = readNetwork(this.network);
+			readLanes(this.lanes);
+			if (this.buffer.get() != 0 && this.signalsData != null) {
+				readSignalSystems(this.signalsData.getSignalSystemsData());
+				readSignalGroups(this.signalsData);
+				readSignalControl(this.signalsData);
+			}
+			log.info("read snapshot of " + links.size() + " links from " + filename + " in "
+					+ (System.currentTimeMillis() - start) + " ms");
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		} finally {
+			this.buffer = null;
+			this.strings = null;
+		}
+	}
+
+	private void readStrings() {
+		this.strings = new String[this.buffer.getInt()];
+		for (int i = 0; i < this.strings.length; i++) {
+			byte[] bytes = new byte[this.buffer.getInt()];
+			this.buffer.get(bytes);
+			this.strings[i] = new String(bytes, ScenarioSnapshotWriter.UTF8);
+		}
+	}
+
+	private List<Link> readNetwork(Network network) {
+		network.setCapacityPeriod(this.buffer.getDouble());
+		NetworkFactory factory = network.getFactory();
+
+		int[] nodeIds = readInts(this.buffer.getInt());
+		double[] x = readDoubles(nodeIds.length);
+		double[] y = readDoubles(nodeIds.length);
+		List<Node> nodes = new ArrayList<>(nodeIds.length);
+		for (int i = 0; i < nodeIds.length; i++) {
+			Node node = factory.createNode(Id.create(this.strings[nodeIds[i]], Node.class), new Coord(x[i], y[i]));
+			network.addNode(node);
+			nodes.add(node);
+		}
+		List<Attributes> nodeAttributes = new ArrayList<>(nodes.size());
+		for (Node node : nodes)
+			nodeAttributes.add(node.getAttributes());
+		readAttributes(nodeAttributes);
+
+		int[] linkIds = readInts(this.buffer.getInt());
+		int[] fromNodes = readInts(linkIds.length);
+		int[] toNodes = readInts(linkIds.length);
+		double[] length = readDoubles(linkIds.length);
+		double[] freespeed = readDoubles(linkIds.length);
+		double[] capacity = readDoubles(linkIds.length);
+		double[] numberOfLanes = readDoubles(linkIds.length);
+		int[] modes = readInts(linkIds.length);
+		List<Link> links = new ArrayList<>(linkIds.length);
+		for (int i = 0; i < linkIds.length; i++) {
+			Link link = factory.createLink(Id.create(this.strings[linkIds[i]], Link.class), nodes.get(fromNodes[i]), nodes.get(toNodes[i]));
+			link.setLength(length[i]);
+			link.setFreespeed(freespeed[i]);
+			link.setCapacity(capacity[i]);
+			link.setNumberOfLanes(numberOfLanes[i]);
+			Set<String> allowedModes = new HashSet<>();
+			if (!this.strings[modes[i]].isEmpty()) {
+				for (String mode : this.strings[modes[i]].split(","))
+					allowedModes.add(mode);
+			}
+			link.setAllowedModes(allowedModes);
+			network.addLink(link);
+			links.add(link);
+		}
+		List<Attributes> linkAttributes = new ArrayList<>(links.size());
+		for (Link link : links)
+			linkAttributes.add(link.getAttributes());
+		readAttributes(linkAttributes);
+		return links;
+	}
+
+	private void readLanes(Lanes lanes) {
+		int[] linkIds = readInts(this.buffer.getInt());
+		int[] laneCounts = readInts(linkIds.length);
+
+		int[] laneIds = readInts(this.buffer.getInt());
+		double[] representedLanes = readDoubles(laneIds.length);
+		double[] startsAt = readDoubles(laneIds.length);
+		double[] capacity = readDoubles(laneIds.length);
+		int[] alignment = readInts(laneIds.length);
+		List<List<String>> toLinks = readIdLists(laneIds.length);
+		List<List<String>> toLanes = readIdLists(laneIds.length);
+
+		List<Lane> allLanes = new ArrayList<>(laneIds.length);
+		int laneIndex = 0;
+		for (int i = 0; i < linkIds.length; i++) {
+			LanesToLinkAssignment l2l = lanes.getFactory().createLanesToLinkAssignment(Id.create(this.strings[linkIds[i]], Link.class));
+			for (int j = 0; j < laneCounts[i]; j++, laneIndex++) {
+				Lane lane = lanes.getFactory().createLane(Id.create(this.strings[laneIds[laneIndex]], Lane.class));
+				lane.setNumberOfRepresentedLanes(representedLanes[laneIndex]);
+				lane.setStartsAtMeterFromLinkEnd(startsAt[laneIndex]);
+				lane.setCapacityVehiclesPerHour(capacity[laneIndex]);
+				lane.setAlignment(alignment[laneIndex]);
+				if (toLinks.get(laneIndex) != null) {
+					for (String toLink : toLinks.get(laneIndex))
+						lane.addToLinkId(Id.create(toLink, Link.class));
+				}
+				if (toLanes.get(laneIndex) != null) {
+					for (String toLane : toLanes.get(laneIndex))
+						lane.addToLaneId(Id.create(toLane, Lane.class));
+				}
+				l2l.addLane(lane);
+				allLanes.add(lane);
+			}
+			lanes.addLanesToLinkAssignment(l2l);
+		}
+		List<Attributes> laneAttributes = new ArrayList<>(allLanes.size());
+		for (Lane lane : allLanes)
+			laneAttributes.add(lane.getAttributes());
+		readAttributes(laneAttributes);
+	}
+
+	private void readSignalSystems(SignalSystemsData systems) {
+		int numberOfSystems = this.buffer.getInt();
+		List<SignalSystemData> systemList = new ArrayList<>(numberOfSystems);
+		int[] signalCounts = new int[numberOfSystems];
+		for (int i = 0; i < numberOfSystems; i++) {
+			SignalSystemData system = systems.getFactory().createSignalSystemData(Id.create(this.strings[this.buffer.getInt()], SignalSystem.class));
+			signalCounts[i] = this.buffer.getInt();
+			systems.addSignalSystemData(system);
+			systemList.add(system);
+		}
+		int[] signalIds = readInts(this.buffer.getInt());
+		int[] linkIds = readInts(signalIds.length);
+		List<List<String>> laneIds = readIdLists(signalIds.length);
+		List<List<String>> turningMoveRestrictions = readIdLists(signalIds.length);
+		int signalIndex = 0;
+		for (int i = 0; i < numberOfSystems; i++) {
+			for (int j = 0; j < signalCounts[i]; j++, signalIndex++) {
+				SignalData signal = systems.getFactory().createSignalData(Id.create(this.strings[signalIds[signalIndex]], Signal.class));
+				signal.setLinkId(Id.create(this.strings[linkIds[signalIndex]], Link.class));
+				if (laneIds.get(signalIndex) != null) {
+					for (String laneId : laneIds.get(signalIndex))
+						signal.addLaneId(Id.create(laneId, Lane.class));
+				}
+				if (turningMoveRestrictions.get(signalIndex) != null) {
+					for (String linkId : turningMoveRestrictions.get(signalIndex))
+						signal.addTurningMoveRestriction(Id.create(linkId, Link.class));
+				}
+				systemList.get(i).addSignalData(signal);
+			}
+		}
+	}
+
+	private void readSignalGroups(SignalsData signalsData) {
+		int[] systemIds = readInts(this.buffer.getInt());
+		int[] groupIds = readInts(systemIds.length);
+		List<List<String>> signalIds = readIdLists(systemIds.length);
+		for (int i = 0; i < systemIds.length; i++) {
+			SignalGroupData group = signalsData.getSignalGroupsData().getFactory().createSignalGroupData(
+					Id.create(this.strings[systemIds[i]], SignalSystem.class), Id.create(this.strings[groupIds[i]], SignalGroup.class));
+			for (String signalId : signalIds.get(i))
+				group.addSignalId(Id.create(signalId, Signal.class));
+			signalsData.getSignalGroupsData().addSignalGroupData(group);
+		}
+	}
+
+	private void readSignalControl(SignalsData signalsData) {
+		SignalControlDataFactory factory = signalsData.getSignalControlData().getFactory();
+		int numberOfControllers = this.buffer.getInt();
+		for (int i = 0; i < numberOfControllers; i++) {
+			SignalSystemControllerData controller = factory.createSignalSystemControllerData(Id.create(this.strings[this.buffer.getInt()], SignalSystem.class));
+			controller.setControllerIdentifier(this.strings[this.buffer.getInt()]);
+			int numberOfPlans = this.buffer.getInt();
+			for (int j = 0; j < numberOfPlans; j++) {
+				SignalPlanData plan = factory.createSignalPlanData(Id.create(this.strings[this.buffer.getInt()], SignalPlan.class));
+				int cycle = this.buffer.getInt();
+				if (cycle >= 0)
+					plan.setCycleTime(cycle);
+				if (this.buffer.get() != 0)
+					plan.setStartTime(this.buffer.getDouble());
+				if (this.buffer.get() != 0)
+					plan.setEndTime(this.buffer.getDouble());
+				if (this.buffer.get() != 0)
+					plan.setOffset(this.buffer.getInt());
+				int numberOfSettings = this.buffer.getInt();
+				for (int k = 0; k < numberOfSettings; k++) {
+					SignalGroupSettingsData settings = factory.createSignalGroupSettingsData(Id.create(this.strings[this.buffer.getInt()], SignalGroup.class));
+					settings.setOnset(this.buffer.getInt());
+					settings.setDropping(this.buffer.getInt());
+					plan.addSignalGroupSettings(settings);
+				}
+				controller.addSignalPlanData(plan);
+			}
+			signalsData.getSignalControlData().addSignalSystemControllerData(controller);
+		}
+	}
+
+	private List<List<String>> readIdLists(int size) {
+		int[] counts = readInts(size);
+		int[] ids = readInts(this.buffer.getInt());
+		List<List<String>> idLists = new ArrayList<>(size);
+		int index = 0;
+		for (int count : counts) {
+			if (count < 0) {
+				idLists.add(null);
+				continue;
+			}
+			List<String> list = new ArrayList<>(count);
+			for (int i = 0; i < count; i++)
+				list.add(this.strings[ids[index++]]);
+			idLists.add(list);
+		}
+		return idLists;
+	}
+
+	private void readAttributes(List<Attributes> attributes) {
+		int numberOfKeys = this.buffer.getInt();
+		for (int k = 0; k < numberOfKeys; k++) {
+			String key = this.strings[this.buffer.getInt()];
+			int entries = this.buffer.getInt();
+			for (int e = 0; e < entries; e++) {
+				Attributes target = attributes.get(this.buffer.getInt());
+				byte type = this.buffer.get();
+				switch (type) {
+				case ScenarioSnapshotWriter.TYPE_STRING:
+					target.putAttribute(key, this.strings[this.buffer.getInt()]);
+					break;
+				case ScenarioSnapshotWriter.TYPE_BOOLEAN:
+					target.putAttribute(key, this.buffer.get() != 0);
+					break;
+				case ScenarioSnapshotWriter.TYPE_INTEGER:
+					target.putAttribute(key, this.buffer.getInt());
+					break;
+				case ScenarioSnapshotWriter.TYPE_DOUBLE:
+					target.putAttribute(key, this.buffer.getDouble());
+					break;
+				case ScenarioSnapshotWriter.TYPE_LONG:
+					target.putAttribute(key, this.buffer.getLong());
+					break;
+				case ScenarioSnapshotWriter.TYPE_FLOAT:
+					target.putAttribute(key, this.buffer.getFloat());
+					break;
+				case ScenarioSnapshotWriter.TYPE_LINK_DOUBLE_MAP:
+					int size = this.buffer.getInt();
+					Map<Id<Link>, Double> map = new LinkedHashMap<>(size * 2);
+					for (int i = 0; i < size; i++)
+						map.put(Id.create(this.strings[this.buffer.getInt()], Link.class), this.buffer.getDouble());
+					target.putAttribute(key, map);
+					break;
+				default:
+					throw new RuntimeException("Unknown attribute type " + type + " of attribute " + key);
+				}
+			}
+		}
+	}
+
+	private int[] readInts(int size) {
+		int[] values = new int[size];
+		this.buffer.asIntBuffer().get(values);
+		this.buffer.position(this.buffer.position() + 4 * size);
+		return values;
+	}
+
+	private double[] readDoubles(int size) {
+		double[] values = new double[size];
+		this.buffer.asDoubleBuffer().get(values);
+		this.buffer.position(this.buffer.position() + 8 * size);
+		return values;
+	}
+
+}
@@ -0,0 +1,408 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * ScenarioSnapshotWriter.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+
+package org.matsim.example;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupSettingsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalPlanData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalSystemControllerData;
+import org.matsim.contrib.signals.data.signalsystems.v20.SignalSystemData;
+import org.matsim.contrib.signals.model.Signal;
+import org.matsim.contrib.signals.model.SignalGroup;
+import org.matsim.contrib.signals.model.SignalSystem;
+import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.lanes.data.Lane;
+import org.matsim.lanes.data.Lanes;
+import org.matsim.lanes.data.LanesToLinkAssignment;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+
+/**
+ * Writes network, lanes and signals of a scenario into one binary file, which
+ * is read much faster than the xml files by {@link ScenarioSnapshotReader}.
+ *
+ * All ids, modes and string attributes go into a string table at the start of
+ * the file, everything else refers to it by index. Nodes, links and lanes are
+ * written as columns (all ids, then all x coordinates, ...), so the reader can
+ * copy them in bulk from the memory mapped file. All numbers are big endian.
+ *
+ * All attributes of nodes, links and lanes are kept. Their values may be
+ * strings, booleans, numbers or maps from link ids to doubles, like the
+ * toLinksAngles of {@link OsmNetworkWithLanesAndSignalsReader}. Other values
+ * make the writer fail instead of losing them silently.
+ *
+ * @author nschirrmacher
+ */
+public class ScenarioSnapshotWriter {
+
+	private static final Logger log = Logger.getLogger(ScenarioSnapshotWriter.class);
+
+	/** Name of the file next to the network, which holds the snapshot of network, lanes and signals. */
+	public static final String FILENAME = "network_lanes_signals.snapshot";
+
+	static final int MAGIC = 0x4d534e50; // "MSNP"
+	static final int VERSION = 2;
+
+	static final byte TYPE_STRING = 1;
+	static final byte TYPE_BOOLEAN = 2;
+	static final byte TYPE_INTEGER = 3;
+	static final byte TYPE_DOUBLE = 4;
+	static final byte TYPE_LONG = 5;
+	static final byte TYPE_FLOAT = 6;
+	static final byte TYPE_LINK_DOUBLE_MAP = 7;
+
+	static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Network network;
+	private final Lanes lanes;
+	private final SignalsData signalsData;
+
+	private final Map<String, Integer> strings = new LinkedHashMap<>();
+
+	public ScenarioSnapshotWriter(Scenario scenario) {
+		this(scenario.getNetwork(), scenario.getLanes(), (SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME));
+	}
+
+	/**
+	 * @param signalsData
+	 *            may be <code>null</code>, if there are no signals
+	 */
+	public ScenarioSnapshotWriter(Network network, Lanes lanes, SignalsData signalsData) {
+		this.network = network;
+		this.lanes = lanes;
+		this.signalsData = signalsData;
+	}
+
+	public void write(String filename) {
+		long start = System.currentTimeMillis();
+		this.strings.clear();
+		List<Node> nodes = new ArrayList<>(this.network.getNodes().values());
+		List<Link> links = new ArrayList<>(this.network.getLinks().values());
+		List<LanesToLinkAssignment> l2ls = new ArrayList<>(this.lanes.getLanesToLinkAssignments().values());
+		List<Lane> allLanes = new ArrayList<>();
+		for (LanesToLinkAssignment l2l : l2ls)
+			allLanes.addAll(l2l.getLanes().values());
+
+		// the string table has to be complete before it is written, so all
+		// sections are first written into memory
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(1 << 20);
+		DataOutputStream body = new DataOutputStream(bytes);
+		try {
+			writeNetwork(body, this.network, nodes, links);
+			writeLanes(body, l2ls, allLanes);
+			body.writeBoolean(this.signalsData != null);
+			if (this.signalsData != null) {
+				writeSignalSystems(body, this.signalsData);
+				writeSignalGroups(body, this.signalsData);
+				writeSignalControl(body, this.signalsData);
+			}
+			body.flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.strings.size());
+			for (String s : this.strings.keySet()) {
+				byte[] encoded = s.getBytes(UTF8);
+				out.writeInt(encoded.length);
+				out.write(encoded);
+			}
+			bytes.writeTo(out);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		log.info("wrote snapshot of " + nodes.size() + " nodes, " + links.size() + " links and " + allLanes.size()
+				+ " lanes to " + filename + " in " + (System.currentTimeMillis() - start) + " ms");
+	}
+
+	private void writeNetwork(DataOutputStream out, Network network, List<Node> nodes, List<Link> links) throws IOException {
+		out.writeDouble(network.getCapacityPeriod());
+
+		Map<Id<Node>, Integer> nodeOrdinals = new HashMap<>(nodes.size() * 2);
+		out.writeInt(nodes.size());
+		for (int i = 0; i < nodes.size(); i++) {
+			nodeOrdinals.put(nodes.get(i).getId(), i);
+			out.writeInt(string(nodes.get(i).getId().toString()));
+		}
+		for (Node node : nodes)
+			out.writeDouble(node.getCoord().getX());
+		for (Node node : nodes)
+			out.writeDouble(node.getCoord().getY());
+		List<Attributes> nodeAttributes = new ArrayList<>(nodes.size());
+		for (Node node : nodes)
+			nodeAttributes.add(node.getAttributes());
+		writeAttributes(out, nodeAttributes);
+
+		out.writeInt(links.size());
+		for (Link link : links)
+			out.writeInt(string(link.getId().toString()));
+		for (Link link : links)
+			out.writeInt(nodeOrdinals.get(link.getFromNode().getId()));
+		for (Link link : links)
+			out.writeInt(nodeOrdinals.get(link.getToNode().getId()));
+		for (Link link : links)
+			out.writeDouble(link.getLength());
+		for (Link link : links)
+			out.writeDouble(link.getFreespeed());
+		for (Link link : links)
+			out.writeDouble(link.getCapacity());
+		for (Link link : links)
+			out.writeDouble(link.getNumberOfLanes());
+		for (Link link : links) {
+			StringBuilder modes = new StringBuilder();
+			for (String mode : new TreeSet<>(link.getAllowedModes())) {
+				if (modes.length() > 0)
+					modes.append(',');
+				modes.append(mode);
+			}
+			out.writeInt(string(modes.toString()));
+		}
+		List<Attributes> linkAttributes = new ArrayList<>(links.size());
+		for (Link link : links)
+			linkAttributes.add(link.getAttributes());
+		writeAttributes(out, linkAttributes);
+	}
+
+	private void writeLanes(DataOutputStream out, List<LanesToLinkAssignment> l2ls, List<Lane> lanes) throws IOException {
+		out.writeInt(l2ls.size());
+		for (LanesToLinkAssignment l2l : l2ls)
+			out.writeInt(string(l2l.getLinkId().toString()));
+		for (LanesToLinkAssignment l2l : l2ls)
+			out.writeInt(l2l.getLanes().size());
+
+		out.writeInt(lanes.size());
+		for (Lane lane : lanes)
+			out.writeInt(string(lane.getId().toString()));
+		for (Lane lane : lanes)
+			out.writeDouble(lane.getNumberOfRepresentedLanes());
+		for (Lane lane : lanes)
+			out.writeDouble(lane.getStartsAtMeterFromLinkEnd());
+		for (Lane lane : lanes)
+			out.writeDouble(lane.getCapacityVehiclesPerHour());
+		for (Lane lane : lanes)
+			out.writeInt(lane.getAlignment());
+		List<List<? extends Id<?>>> toLinks = new ArrayList<>(lanes.size());
+		List<List<? extends Id<?>>> toLanes = new ArrayList<>(lanes.size());
+		for (Lane lane : lanes) {
+			toLinks.add(lane.getToLinkIds());
+			toLanes.add(lane.getToLaneIds());
+		}
+		writeIdLists(out, toLinks);
+		writeIdLists(out, toLanes);
+		List<Attributes> laneAttributes = new ArrayList<>(lanes.size());
+		for (Lane lane : lanes)
+			laneAttributes.add(lane.getAttributes());
+		writeAttributes(out, laneAttributes);
+	}
+
+	private void writeSignalSystems(DataOutputStream out, SignalsData signalsData) throws IOException {
+		List<SignalData> signals = new ArrayList<>();
+		out.writeInt(signalsData.getSignalSystemsData().getSignalSystemData().size());
+		for (SignalSystemData system : signalsData.getSignalSystemsData().getSignalSystemData().values()) {
+			out.writeInt(string(system.getId().toString()));
+			out.writeInt(system.getSignalData().size());
+			signals.addAll(system.getSignalData().values());
+		}
+		out.writeInt(signals.size());
+		for (SignalData signal : signals)
+			out.writeInt(string(signal.getId().toString()));
+		for (SignalData signal : signals)
+			out.writeInt(string(signal.getLinkId().toString()));
+		List<List<? extends Id<?>>> laneIds = new ArrayList<>(signals.size());
+		List<List<? extends Id<?>>> turningMoveRestrictions = new ArrayList<>(signals.size());
+		for (SignalData signal : signals) {
+			laneIds.add(signal.getLaneIds() == null ? null : new ArrayList<Id<Lane>>(signal.getLaneIds()));
+			turningMoveRestrictions.add(signal.getTurningMoveRestrictions() == null ? null
+					: new ArrayList<Id<Link>>(signal.getTurningMoveRestrictions()));
+		}
+		writeIdLists(out, laneIds);
+		writeIdLists(out, turningMoveRestrictions);
+	}
+
+	private void writeSignalGroups(DataOutputStream out, SignalsData signalsData) throws IOException {
+		List<SignalGroupData> groups = new ArrayList<>();
+		for (Map<Id<SignalGroup>, SignalGroupData> systemGroups : signalsData.getSignalGroupsData().getSignalGroupDataBySignalSystemId().values())
+			groups.addAll(systemGroups.values());
+		out.writeInt(groups.size());
+		for (SignalGroupData group : groups)
+			out.writeInt(string(group.getSignalSystemId().toString()));
+		for (SignalGroupData group : groups)
+			out.writeInt(string(group.getId().toString()));
+		List<List<? extends Id<?>>> signalIds = new ArrayList<>(groups.size());
+		for (SignalGroupData group : groups)
+			signalIds.add(new ArrayList<Id<Signal>>(group.getSignalIds()));
+		writeIdLists(out, signalIds);
+	}
+
+	private void writeSignalControl(DataOutputStream out, SignalsData signalsData) throws IOException {
+		Map<Id<SignalSystem>, SignalSystemControllerData> controllers = signalsData.getSignalControlData().getSignalSystemControllerDataBySystemId();
+		out.writeInt(controllers.size());
+		for (SignalSystemControllerData controller : controllers.values()) {
+			out.writeInt(string(controller.getSignalSystemId().toString()));
+			out.writeInt(string(controller.getControllerIdentifier()));
+			out.writeInt(controller.getSignalPlanData().size());
+			for (SignalPlanData plan : controller.getSignalPlanData().values()) {
+				out.writeInt(string(plan.getId().toString()));
+				out.writeInt(plan.getCycleTime() == null ? -1 : plan.getCycleTime());
+				Double startTime = plan.getStartTime();
+				out.writeBoolean(startTime != null);
+				if (startTime != null)
+					out.writeDouble(startTime);
+				Double endTime = plan.getEndTime();
+				out.writeBoolean(endTime != null);
+				if (endTime != null)
+					out.writeDouble(endTime);
+				Integer offset = plan.getOffset();
+				out.writeBoolean(offset != null);
+				if (offset != null)
+					out.writeInt(offset);
+				out.writeInt(plan.getSignalGroupSettingsDataByGroupId().size());
+				for (SignalGroupSettingsData settings : plan.getSignalGroupSettingsDataByGroupId().values()) {
+					out.writeInt(string(settings.getSignalGroupId().toString()));
+					out.writeInt(settings.getOnset());
+					out.writeInt(settings.getDropping());
+				}
+			}
+		}
+	}
+
+	/*
+	 * Lists of ids are written as offsets into one concatenated column, a
+	 * missing list (null) is written as -1 count.
+	 */
+	private void writeIdLists(DataOutputStream out, List<List<? extends Id<?>>> idLists) throws IOException {
+		int total = 0;
+		for (List<? extends Id<?>> ids : idLists) {
+			out.writeInt(ids == null ? -1 : ids.size());
+			if (ids != null)
+				total += ids.size();
+		}
+		out.writeInt(total);
+		for (List<? extends Id<?>> ids : idLists) {
+			if (ids == null)
+				continue;
+			for (Id<?> id : ids)
+				out.writeInt(string(id.toString()));
+		}
+	}
+
+	/*
+	 * Attributes are sparse: per key the number of entries, then ordinal, type
+	 * and value of every entry. The keys are collected from all elements.
+	 */
+	private void writeAttributes(DataOutputStream out, List<Attributes> attributes) throws IOException {
+		Set<String> keys = new LinkedHashSet<>();
+		for (Attributes a : attributes)
+			keys.addAll(a.getAsMap().keySet());
+		out.writeInt(keys.size());
+		for (String key : keys) {
+			out.writeInt(string(key));
+			List<Integer> ordinals = new ArrayList<>();
+			for (int i = 0; i < attributes.size(); i++) {
+				if (attributes.get(i).getAttribute(key) != null)
+					ordinals.add(i);
+			}
+			out.writeInt(ordinals.size());
+			for (int ordinal : ordinals) {
+				out.writeInt(ordinal);
+				writeAttribute(out, key, attributes.get(ordinal).getAttribute(key));
+			}
+		}
+	}
+
+	private void writeAttribute(DataOutputStream out, String key, Object value) throws IOException {
+		if (value instanceof String) {
+			out.writeByte(TYPE_STRING);
+			out.writeInt(string((String) value));
+		} else if (value instanceof Boolean) {
+			out.writeByte(TYPE_BOOLEAN);
+			out.writeBoolean((Boolean) value);
+		} else if (value instanceof Integer) {
+			out.writeByte(TYPE_INTEGER);
+			out.writeInt((Integer) value);
+		} else if (value instanceof Double) {
+			out.writeByte(TYPE_DOUBLE);
+			out.writeDouble((Double) value);
+		} else if (value instanceof Long) {
+			out.writeByte(TYPE_LONG);
+			out.writeLong((Long) value);
+		} else if (value instanceof Float) {
+			out.writeByte(TYPE_FLOAT);
+			out.writeFloat((Float) value);
+		} else if (isLinkDoubleMap(value)) {
+			Map<?, ?> map = (Map<?, ?>) value;
+			out.writeByte(TYPE_LINK_DOUBLE_MAP);
+			out.writeInt(map.size());
+			for (Map.Entry<?, ?> entry : map.entrySet()) {
+				out.writeInt(string(entry.getKey().toString()));
+				out.writeDouble((Double) entry.getValue());
+			}
+		} else {
+			throw new RuntimeException("Attribute " + key + " of type " + value.getClass().getName()
+					+ " cannot be written to a snapshot.");
+		}
+	}
+
+	private static boolean isLinkDoubleMap(Object value) {
+		if (!(value instanceof Map))
+			return false;
+		for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+			if (!(entry.getKey() instanceof Id) || !(entry.getValue() instanceof Double))
+				return false;
+		}
+		return true;
+	}
+
+	private int string(String s) {
+		Integer index = this.strings.get(s);
+		if (index == null) {
+			index = this.strings.size();
+			this.strings.put(s, index);
+		}
+		return index;
+	}
+
+}
@@ -0,0 +1,486 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * SignalPerformanceAnalyzer.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.inject.Inject;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupData;
+import org.matsim.contrib.signals.events.SignalGroupStateChangedEvent;
+import org.matsim.contrib.signals.events.SignalGroupStateChangedEventHandler;
+import org.matsim.contrib.signals.model.Signal;
+import org.matsim.contrib.signals.model.SignalGroup;
+import org.matsim.contrib.signals.model.SignalGroupState;
+import org.matsim.contrib.signals.model.SignalSystem;
+import org.matsim.core.api.experimental.events.LaneEnterEvent;
+import org.matsim.core.api.experimental.events.LaneLeaveEvent;
+import org.matsim.core.api.experimental.events.handler.LaneEnterEventHandler;
+import org.matsim.core.api.experimental.events.handler.LaneLeaveEventHandler;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.controler.listener.IterationEndsListener;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
+import org.matsim.lanes.data.Lane;
+import org.matsim.lanes.data.LanesToLinkAssignment;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Analyzes signal groups and lanes while the mobsim runs, so the events file
+ * is not needed for it. Per iteration, two files are written to the iteration
+ * directory:
+ * <ul>
+ * <li><code>signal_group_performance.csv</code>: green time of every group,
+ * the seconds of it in which a vehicle passed one of the group's signals, and
+ * the number of vehicles on the group's lanes when red ends
+ * <li><code>lane_performance.csv</code>: vehicles that left every lane, their
+ * mean time on it and their mean delay compared to the free speed
+ * </ul>
+ * Lanes and signal groups get dense ordinals from the lanes and signals of the
+ * scenario, all values are accumulated in primitive arrays indexed by them.
+ * Lanes are identified by their link and their id, as lane ids only need to
+ * be unique per link. Signals without lanes are observed on their link. The
+ * free speed time of a lane is the one of its own length, i.e. without the
+ * lanes downstream of it.
+ *
+ * Use {@link SignalPerformanceModule} to add it to a controler.
+ *
+ * @author nschirrmacher
+ */
+public class SignalPerformanceAnalyzer implements SignalGroupStateChangedEventHandler, LaneEnterEventHandler,
+		LaneLeaveEventHandler, LinkEnterEventHandler, LinkLeaveEventHandler, VehicleEntersTrafficEventHandler,
+		VehicleLeavesTrafficEventHandler, IterationEndsListener {
+
+	private static final Logger log = Logger.getLogger(SignalPerformanceAnalyzer.class);
+
+	static final String GROUP_FILE = "signal_group_performance.csv";
+	static final String LANE_FILE = "lane_performance.csv";
+
+	private static final byte UNKNOWN = -1;
+	private static final byte NOT_GREEN = 0;
+	private static final byte GREEN = 1;
+
+	private final OutputDirectoryHierarchy controlerIO;
+
+	// lanes
+	private final Map<Id<Link>, Map<Id<Lane>, Integer>> laneOrdinals = new HashMap<>();
+	private final Id<Link>[] laneLinkIds;
+	private final Id<Lane>[] laneIds;
+	private final double[] laneFreeSpeedTimes;
+	// the group of the signal at the end of a lane, -1 if there is none
+	private final int[] laneGroups;
+
+	// signalized links without lanes
+	private final Map<Id<Link>, Integer> linkOrdinals = new HashMap<>();
+	private final int[] linkGroups;
+
+	// signal groups, with the lanes and links of group g from groupLanes[groupLaneStart[g]] and groupLinks[groupLinkStart[g]]
+	private final Map<Id<SignalSystem>, Map<Id<SignalGroup>, Integer>> groupOrdinals = new HashMap<>();
+	private final Id<SignalSystem>[] groupSystemIds;
+	private final Id<SignalGroup>[] groupIds;
+	private final int[] groupLaneStart;
+	private final int[] groupLanes;
+	private final int[] groupLinkStart;
+	private final int[] groupLinks;
+
+	// vehicles, only the time they entered their current lane
+	private final Map<Id<Vehicle>, Integer> vehicleOrdinals = new HashMap<>();
+	private double[] laneEnterTimes = new double[1024];
+
+	// per iteration
+	private final int[] laneOccupancy;
+	private final long[] laneVehicles;
+	private final double[] laneTravelTimes;
+	private final double[] laneDelays;
+	private final int[] linkOccupancy;
+	private final byte[] groupStates;
+	private final double[] greenSince;
+	private final double[] greenTimes;
+	private final int[] usedGreenSeconds;
+	private final int[] lastUsedSecond;
+	private final int[] redPhases;
+	private final long[] queueSums;
+	private final int[] queueMaxima;
+	private double firstTime = Double.NaN;
+	private double lastTime = Double.NaN;
+
+	@SuppressWarnings("unchecked")
+	@Inject
+	SignalPerformanceAnalyzer(Scenario scenario, OutputDirectoryHierarchy controlerIO) {
+		this.controlerIO = controlerIO;
+
+		List<Lane> lanes = new ArrayList<>();
+		List<Link> laneLinks = new ArrayList<>();
+		if (scenario.getLanes() != null) {
+			for (LanesToLinkAssignment l2l : scenario.getLanes().getLanesToLinkAssignments().values()) {
+				Link link = scenario.getNetwork().getLinks().get(l2l.getLinkId());
+				Map<Id<Lane>, Integer> ordinals = new HashMap<>();
+				this.laneOrdinals.put(l2l.getLinkId(), ordinals);
+				for (Lane lane : l2l.getLanes().values()) {
+					ordinals.put(lane.getId(), lanes.size());
+					lanes.add(lane);
+					laneLinks.add(link);
+				}
+			}
+		}
+		this.laneLinkIds = new Id[lanes.size()];
+		this.laneIds = new Id[lanes.size()];
+		this.laneFreeSpeedTimes = new double[lanes.size()];
+		this.laneGroups = new int[lanes.size()];
+		Arrays.fill(this.laneGroups, -1);
+		for (int l = 0; l < lanes.size(); l++) {
+			this.laneLinkIds[l] = laneLinks.get(l).getId();
+			this.laneIds[l] = lanes.get(l).getId();
+			this.laneFreeSpeedTimes[l] = length(lanes.get(l), scenario.getLanes().getLanesToLinkAssignments()
+					.get(this.laneLinkIds[l])) / laneLinks.get(l).getFreespeed();
+		}
+
+		List<Id<SignalSystem>> systemIds = new ArrayList<>();
+		List<Id<SignalGroup>> groupIds = new ArrayList<>();
+		List<List<Integer>> lanesOfGroups = new ArrayList<>();
+		List<List<Integer>> linksOfGroups = new ArrayList<>();
+		List<Integer> linkGroups = new ArrayList<>();
+		SignalsData signalsData = (SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME);
+		if (signalsData != null) {
+			for (Map<Id<SignalGroup>, SignalGroupData> groups : signalsData.getSignalGroupsData()
+					.getSignalGroupDataBySignalSystemId().values()) {
+				for (SignalGroupData group : groups.values()) {
+					int g = groupIds.size();
+					Map<Id<SignalGroup>, Integer> ordinals = this.groupOrdinals.get(group.getSignalSystemId());
+					if (ordinals == null) {
+						ordinals = new HashMap<>();
+						this.groupOrdinals.put(group.getSignalSystemId(), ordinals);
+					}
+					ordinals.put(group.getId(), g);
+					systemIds.add(group.getSignalSystemId());
+					groupIds.add(group.getId());
+					List<Integer> lanesOfGroup = new ArrayList<>();
+					List<Integer> linksOfGroup = new ArrayList<>();
+					Map<Id<Signal>, SignalData> signals = signalsData.getSignalSystemsData().getSignalSystemData()
+							.get(group.getSignalSystemId()).getSignalData();
+					for (Id<Signal> signalId : group.getSignalIds()) {
+						SignalData signal = signals.get(signalId);
+						if (signal.getLaneIds() != null && !signal.getLaneIds().isEmpty()) {
+							for (Id<Lane> laneId : signal.getLaneIds()) {
+								Integer l = laneOrdinal(signal.getLinkId(), laneId);
+								if (l != null) {
+									this.laneGroups[l] = g;
+									lanesOfGroup.add(l);
+								}
+							}
+						} else {
+							Integer l = this.linkOrdinals.get(signal.getLinkId());
+							if (l == null) {
+								l = linkGroups.size();
+								this.linkOrdinals.put(signal.getLinkId(), l);
+								linkGroups.add(g);
+							}
+							linksOfGroup.add(l);
+						}
+					}
+					lanesOfGroups.add(lanesOfGroup);
+					linksOfGroups.add(linksOfGroup);
+				}
+			}
+		}
+		this.groupSystemIds = systemIds.toArray(new Id[systemIds.size()]);
+		this.groupIds = groupIds.toArray(new Id[groupIds.size()]);
+		this.groupLaneStart = new int[groupIds.size() + 1];
+		this.groupLanes = flatten(lanesOfGroups, this.groupLaneStart);
+		this.groupLinkStart = new int[groupIds.size() + 1];
+		this.groupLinks = flatten(linksOfGroups, this.groupLinkStart);
+		this.linkGroups = new int[linkGroups.size()];
+		for (int l = 0; l < this.linkGroups.length; l++) {
+			this.linkGroups[l] = linkGroups.get(l);
+		}
+
+		this.laneOccupancy = new int[lanes.size()];
+		this.laneVehicles = new long[lanes.size()];
+		this.laneTravelTimes = new double[lanes.size()];
+		this.laneDelays = new double[lanes.size()];
+		this.linkOccupancy = new int[this.linkGroups.length];
+		int groups = this.groupIds.length;
+		this.groupStates = new byte[groups];
+		this.greenSince = new double[groups];
+		this.greenTimes = new double[groups];
+		this.usedGreenSeconds = new int[groups];
+		this.lastUsedSecond = new int[groups];
+		this.redPhases = new int[groups];
+		this.queueSums = new long[groups];
+		this.queueMaxima = new int[groups];
+		reset(0);
+		log.info("analyzing " + groups + " signal groups and " + lanes.size() + " lanes");
+	}
+
+	@Override
+	public void handleEvent(SignalGroupStateChangedEvent event) {
+		time(event.getTime());
+		Map<Id<SignalGroup>, Integer> ordinals = this.groupOrdinals.get(event.getSignalSystemId());
+		Integer ordinal = ordinals == null ? null : ordinals.get(event.getSignalGroupId());
+		if (ordinal == null)
+			return;
+		int g = ordinal;
+		boolean green = event.getNewState() == SignalGroupState.GREEN;
+		if (green && this.groupStates[g] != GREEN) {
+			if (this.groupStates[g] == NOT_GREEN) {
+				int queue = queue(g);
+				this.redPhases[g]++;
+				this.queueSums[g] += queue;
+				this.queueMaxima[g] = Math.max(this.queueMaxima[g], queue);
+			}
+			this.greenSince[g] = event.getTime();
+		} else if (!green && this.groupStates[g] == GREEN) {
+			this.greenTimes[g] += event.getTime() - this.greenSince[g];
+		}
+		this.groupStates[g] = green ? GREEN : NOT_GREEN;
+	}
+
+	@Override
+	public void handleEvent(LaneEnterEvent event) {
+		time(event.getTime());
+		Integer lane = laneOrdinal(event.getLinkId(), event.getLaneId());
+		if (lane == null)
+			return;
+		this.laneOccupancy[lane]++;
+		this.laneEnterTimes[vehicle(event.getVehicleId())] = event.getTime();
+	}
+
+	@Override
+	public void handleEvent(LaneLeaveEvent event) {
+		time(event.getTime());
+		Integer ordinal = laneOrdinal(event.getLinkId(), event.getLaneId());
+		if (ordinal == null)
+			return;
+		int lane = ordinal;
+		this.laneOccupancy[lane] = Math.max(0, this.laneOccupancy[lane] - 1);
+		double travelTime = event.getTime() - this.laneEnterTimes[vehicle(event.getVehicleId())];
+		this.laneVehicles[lane]++;
+		this.laneTravelTimes[lane] += travelTime;
+		this.laneDelays[lane] += Math.max(0, travelTime - this.laneFreeSpeedTimes[lane]);
+		if (this.laneGroups[lane] >= 0) {
+			passed(this.laneGroups[lane], event.getTime());
+		}
+	}
+
+	@Override
+	public void handleEvent(LinkEnterEvent event) {
+		time(event.getTime());
+		Integer link = this.linkOrdinals.get(event.getLinkId());
+		if (link != null) {
+			this.linkOccupancy[link]++;
+		}
+	}
+
+	@Override
+	public void handleEvent(LinkLeaveEvent event) {
+		time(event.getTime());
+		Integer link = this.linkOrdinals.get(event.getLinkId());
+		if (link != null) {
+			this.linkOccupancy[link] = Math.max(0, this.linkOccupancy[link] - 1);
+			passed(this.linkGroups[link], event.getTime());
+		}
+	}
+
+	@Override
+	public void handleEvent(VehicleEntersTrafficEvent event) {
+		time(event.getTime());
+		// departures on signalized links wait at their end, too
+		Integer link = this.linkOrdinals.get(event.getLinkId());
+		if (link != null) {
+			this.linkOccupancy[link]++;
+		}
+	}
+
+	@Override
+	public void handleEvent(VehicleLeavesTrafficEvent event) {
+		time(event.getTime());
+		// arrivals leave the link without passing the signal
+		Integer link = this.linkOrdinals.get(event.getLinkId());
+		if (link != null) {
+			this.linkOccupancy[link] = Math.max(0, this.linkOccupancy[link] - 1);
+		}
+	}
+
+	@Override
+	public void notifyIterationEnds(IterationEndsEvent event) {
+		// groups still green at the end of the mobsim
+		for (int g = 0; g < this.groupIds.length; g++) {
+			if (this.groupStates[g] == GREEN) {
+				this.greenTimes[g] += this.lastTime - this.greenSince[g];
+				this.greenSince[g] = this.lastTime;
+			}
+		}
+		try {
+			writeGroups(this.controlerIO.getIterationFilename(event.getIteration(), GROUP_FILE));
+			writeLanes(this.controlerIO.getIterationFilename(event.getIteration(), LANE_FILE));
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	public void reset(int iteration) {
+		Arrays.fill(this.laneOccupancy, 0);
+		Arrays.fill(this.laneVehicles, 0);
+		Arrays.fill(this.laneTravelTimes, 0);
+		Arrays.fill(this.laneDelays, 0);
+		Arrays.fill(this.linkOccupancy, 0);
+		Arrays.fill(this.groupStates, UNKNOWN);
+		Arrays.fill(this.greenTimes, 0);
+		Arrays.fill(this.usedGreenSeconds, 0);
+		Arrays.fill(this.lastUsedSecond, Integer.MIN_VALUE);
+		Arrays.fill(this.redPhases, 0);
+		Arrays.fill(this.queueSums, 0);
+		Arrays.fill(this.queueMaxima, 0);
+		this.firstTime = Double.NaN;
+		this.lastTime = Double.NaN;
+	}
+
+	private void writeGroups(String filename) throws IOException {
+		double duration = Double.isNaN(this.firstTime) ? 0 : this.lastTime - this.firstTime;
+		try (BufferedWriter writer = IOUtils.getBufferedWriter(filename)) {
+			writer.write("signal_system,signal_group,green_s,green_share,used_green_s,green_utilization,"
+					+ "red_phases,mean_queue_at_end_of_red,max_queue_at_end_of_red");
+			writer.newLine();
+			for (int g = 0; g < this.groupIds.length; g++) {
+				writer.write(this.groupSystemIds[g] + "," + this.groupIds[g] + "," + this.greenTimes[g] + ","
+						+ ratio(this.greenTimes[g], duration) + "," + this.usedGreenSeconds[g] + ","
+						+ ratio(this.usedGreenSeconds[g], this.greenTimes[g]) + "," + this.redPhases[g] + ","
+						+ ratio(this.queueSums[g], this.redPhases[g]) + "," + this.queueMaxima[g]);
+				writer.newLine();
+			}
+		}
+	}
+
+	private void writeLanes(String filename) throws IOException {
+		try (BufferedWriter writer = IOUtils.getBufferedWriter(filename)) {
+			writer.write("link,lane,vehicles,mean_travel_time_s,mean_delay_s");
+			writer.newLine();
+			for (int l = 0; l < this.laneIds.length; l++) {
+				writer.write(this.laneLinkIds[l] + "," + this.laneIds[l] + "," + this.laneVehicles[l] + ","
+						+ ratio(this.laneTravelTimes[l], this.laneVehicles[l]) + ","
+						+ ratio(this.laneDelays[l], this.laneVehicles[l]));
+				writer.newLine();
+			}
+		}
+	}
+
+	/*
+	 * Counts the seconds of green in which a vehicle passed a signal of the
+	 * group.
+	 */
+	private void passed(int group, double time) {
+		int second = (int) time;
+		if (this.groupStates[group] == GREEN && second != this.lastUsedSecond[group]) {
+			this.usedGreenSeconds[group]++;
+			this.lastUsedSecond[group] = second;
+		}
+	}
+
+	private int queue(int group) {
+		int queue = 0;
+		for (int i = this.groupLaneStart[group]; i < this.groupLaneStart[group + 1]; i++) {
+			queue += this.laneOccupancy[this.groupLanes[i]];
+		}
+		for (int i = this.groupLinkStart[group]; i < this.groupLinkStart[group + 1]; i++) {
+			queue += this.linkOccupancy[this.groupLinks[i]];
+		}
+		return queue;
+	}
+
+	private Integer laneOrdinal(Id<Link> linkId, Id<Lane> laneId) {
+		Map<Id<Lane>, Integer> ordinals = this.laneOrdinals.get(linkId);
+		return ordinals == null ? null : ordinals.get(laneId);
+	}
+
+	/*
+	 * A lane ends where the lanes it leads to start; the original lane of a
+	 * link starts at its beginning, but ends where the turn lanes start.
+	 */
+	private static double length(Lane lane, LanesToLinkAssignment l2l) {
+		double downstream = 0;
+		if (lane.getToLaneIds() != null) {
+			for (Id<Lane> toLaneId : lane.getToLaneIds()) {
+				Lane toLane = l2l.getLanes().get(toLaneId);
+				if (toLane != null)
+					downstream = Math.max(downstream, toLane.getStartsAtMeterFromLinkEnd());
+			}
+		}
+		return lane.getStartsAtMeterFromLinkEnd() - downstream;
+	}
+
+	private int vehicle(Id<Vehicle> vehicleId) {
+		Integer ordinal = this.vehicleOrdinals.get(vehicleId);
+		if (ordinal == null) {
+			ordinal = this.vehicleOrdinals.size();
+			this.vehicleOrdinals.put(vehicleId, ordinal);
+			if (ordinal == this.laneEnterTimes.length) {
+				this.laneEnterTimes = Arrays.copyOf(this.laneEnterTimes, 2 * ordinal);
+			}
+		}
+		return ordinal;
+	}
+
+	private void time(double time) {
+		if (Double.isNaN(this.firstTime)) {
+			this.firstTime = time;
+		}
+		this.lastTime = time;
+	}
+
+	private static double ratio(double value, double total) {
+		return total == 0 ? 0 : value / total;
+	}
+
+	private static int[] flatten(List<List<Integer>> lists, int[] start) {
+		for (int i = 0; i < lists.size(); i++) {
+			start[i + 1] = start[i] + lists.get(i).size();
+		}
+		int[] flat = new int[start[lists.size()]];
+		for (int i = 0; i < lists.size(); i++) {
+			for (int j = 0; j < lists.get(i).size(); j++) {
+				flat[start[i] + j] = lists.get(i).get(j);
+			}
+		}
+		return flat;
+	}
+
+}
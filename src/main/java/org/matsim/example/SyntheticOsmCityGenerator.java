@@ -0,0 +1,476 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * SyntheticOsmCityGenerator.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.log4j.Logger;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
+
+/**
+ * Generates osm files of synthetic cities of about the given number of nodes,
+ * to test {@link OsmNetworkWithLanesAndSignalsReader} on networks much bigger
+ * than the ones in <code>input</code>. The streets form a grid or rings and
+ * spokes around a center. Every street between two junctions is a single
+ * osm way with some shape nodes, open in both directions. Junctions get
+ * traffic signals, roundabouts and turn restrictions, and primary streets
+ * get turn lanes. Every few rows of the grid are dual carriageways made of
+ * two oneway streets, which are the only oneway streets.
+ *
+ * The same settings and seed always give the same file. Files ending with
+ * <code>.gz</code> are compressed.
+ *
+ * @author nschirrmacher
+ */
+public class SyntheticOsmCityGenerator {
+
+	private static final Logger log = Logger.getLogger(SyntheticOsmCityGenerator.class);
+
+	public enum Layout { GRID, RADIAL }
+
+	private static final double METERS_PER_DEGREE = 111320.;
+	private static final double ROUNDABOUT_RADIUS = 15.;
+	private static final double CARRIAGEWAY_DISTANCE = 8.;
+
+	/*
+	 * Arms of a junction in counterclockwise order. In the grid 0 is east, in
+	 * the radial layout outwards. Coming from arm a, arm (a + 3) % 4 is left.
+	 */
+	private static final int[] ARMS = { 0, 1, 2, 3 };
+	private static final int EAST = 0;
+	private static final int NORTH = 1;
+	private static final int WEST = 2;
+	private static final int SOUTH = 3;
+
+	private static final byte PLAIN = 0;
+	private static final byte SIGNAL = 1;
+	private static final byte CROSSING = 2;
+
+	private Layout layout = Layout.GRID;
+	private int numberOfNodes = 10000;
+	private double blockLength = 150.;
+	private int shapeNodesPerStreet = 2;
+	private int primaryStreetEvery = 4;
+	private int onewayPairEvery = 6;
+	private double signalShare = 0.3;
+	private double crossingShare = 0.1;
+	private double turnLanesShare = 0.5;
+	private double roundaboutShare = 0.05;
+	private double restrictionShare = 0.05;
+	private double centerLat = 51.76;
+	private double centerLon = 14.33;
+	private long seed = 4711;
+
+	private Random random;
+	private int nodeCount;
+	private double[] nodeX;
+	private double[] nodeY;
+	private byte[] nodeTypes;
+	private final List<Way> ways = new ArrayList<>();
+	private final List<Restriction> restrictions = new ArrayList<>();
+
+	public static void main(String[] args) {
+		if (args.length < 2) {
+			log.error("usage: SyntheticOsmCityGenerator <output file> <number of nodes> [GRID|RADIAL]");
+			return;
+		}
+		SyntheticOsmCityGenerator generator = new SyntheticOsmCityGenerator();
+		generator.setNumberOfNodes(Integer.parseInt(args[1]));
+		if (args.length > 2)
+			generator.setLayout(Layout.valueOf(args[2]));
+		generator.write(args[0]);
+	}
+
+	/**
+	 * The generated city has about this number of nodes, shape nodes included.
+	 */
+	public void setNumberOfNodes(int numberOfNodes) {
+		this.numberOfNodes = numberOfNodes;
+	}
+
+	public void setLayout(Layout layout) {
+		this.layout = layout;
+	}
+
+	/**
+	 * @param blockLength
+	 *            distance of neighboring junctions in meters
+	 */
+	public void setBlockLength(double blockLength) {
+		this.blockLength = blockLength;
+	}
+
+	public void setShapeNodesPerStreet(int shapeNodesPerStreet) {
+		this.shapeNodesPerStreet = shapeNodesPerStreet;
+	}
+
+	/**
+	 * Every n-th row, column, ring or spoke is a primary street, all others are
+	 * residential.
+	 */
+	public void setPrimaryStreetEvery(int primaryStreetEvery) {
+		this.primaryStreetEvery = primaryStreetEvery;
+	}
+
+	/**
+	 * Every n-th row of the grid is a dual carriageway, <code>0</code> for
+	 * none. Not used by the radial layout.
+	 */
+	public void setOnewayPairEvery(int onewayPairEvery) {
+		this.onewayPairEvery = onewayPairEvery;
+	}
+
+	/**
+	 * Sets the shares of junctions with traffic signals, roundabouts and turn
+	 * restrictions, of shape nodes with pedestrian crossings and of primary
+	 * streets with turn lanes.
+	 */
+	public void setShares(double signalShare, double roundaboutShare, double restrictionShare, double crossingShare,
+			double turnLanesShare) {
+		this.signalShare = signalShare;
+		this.roundaboutShare = roundaboutShare;
+		this.restrictionShare = restrictionShare;
+		this.crossingShare = crossingShare;
+		this.turnLanesShare = turnLanesShare;
+	}
+
+	/**
+	 * Sets the WGS84 coordinates of the city's center.
+	 */
+	public void setCenter(double lat, double lon) {
+		this.centerLat = lat;
+		this.centerLon = lon;
+	}
+
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public void write(String filename) {
+		long start = System.currentTimeMillis();
+		this.random = new Random(this.seed);
+		this.nodeCount = 0;
+		this.nodeX = new double[Math.max(16, this.numberOfNodes + this.numberOfNodes / 4)];
+		this.nodeY = new double[this.nodeX.length];
+		this.nodeTypes = new byte[this.nodeX.length];
+		this.ways.clear();
+		this.restrictions.clear();
+		if (this.layout == Layout.GRID) {
+			generateGrid();
+		} else {
+			generateRadial();
+		}
+		try (BufferedWriter writer = IOUtils.getBufferedWriter(filename)) {
+			writeOsm(writer);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		log.info("wrote " + this.layout + " city with " + this.nodeCount + " nodes, " + this.ways.size() + " ways and "
+				+ this.restrictions.size() + " restrictions to " + filename + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		this.nodeX = null;
+		this.nodeY = null;
+		this.nodeTypes = null;
+		this.ways.clear();
+		this.restrictions.clear();
+	}
+
+	private void generateGrid() {
+		int side = Math.max(2, (int) Math.ceil(Math.sqrt(this.numberOfNodes / (1. + 2 * this.shapeNodesPerStreet))));
+		double offset = (side - 1) * this.blockLength / 2;
+		Junction[][] junctions = new Junction[side][side];
+		for (int row = 0; row < side; row++) {
+			for (int col = 0; col < side; col++) {
+				double x = col * this.blockLength - offset;
+				double y = row * this.blockLength - offset;
+				boolean interior = row > 0 && col > 0 && row < side - 1 && col < side - 1;
+				if (isOnewayPairRow(row)) {
+					junctions[row][col] = createDualJunction(x, y, isPrimary(col));
+				} else {
+					junctions[row][col] = createJunction(x, y, 0., interior);
+				}
+			}
+		}
+		for (int row = 0; row < side; row++) {
+			for (int col = 0; col < side; col++) {
+				Junction junction = junctions[row][col];
+				if (col < side - 1) {
+					Junction east = junctions[row][col + 1];
+					if (isOnewayPairRow(row)) {
+						// right hand traffic, eastbound on the southern carriageway
+						addStreet(junction.lowerNode, east.lowerNode, "primary", true);
+						addStreet(east.upperNode, junction.upperNode, "primary", true);
+					} else {
+						connect(junction, EAST, east, WEST, isPrimary(row) ? "primary" : "residential");
+					}
+				}
+				if (row < side - 1) {
+					connect(junction, NORTH, junctions[row + 1][col], SOUTH, isPrimary(col) ? "primary" : "residential");
+				}
+			}
+		}
+		for (Junction[] row : junctions)
+			addRestrictions(Arrays.asList(row));
+	}
+
+	private void generateRadial() {
+		int rings = (int) Math.ceil(Math.sqrt(this.numberOfNodes / (1. + 2 * this.shapeNodesPerStreet)));
+		int spokes = Math.max(8, rings);
+		if (rings < 8)
+			rings = Math.max(1, (int) Math.ceil(this.numberOfNodes / (8. * (1. + 2 * this.shapeNodesPerStreet))));
+		// neighboring junctions of the first ring are one block apart
+		double firstRadius = Math.max(this.blockLength, spokes * this.blockLength / (2 * Math.PI));
+		Junction center = createJunction(0., 0., 0., false);
+		Junction[][] junctions = new Junction[rings][spokes];
+		for (int ring = 0; ring < rings; ring++) {
+			double radius = firstRadius + ring * this.blockLength;
+			for (int spoke = 0; spoke < spokes; spoke++) {
+				double angle = 2 * Math.PI * spoke / spokes;
+				junctions[ring][spoke] = createJunction(radius * Math.cos(angle), radius * Math.sin(angle), angle,
+						ring < rings - 1);
+			}
+		}
+		for (int ring = 0; ring < rings; ring++) {
+			for (int spoke = 0; spoke < spokes; spoke++) {
+				Junction junction = junctions[ring][spoke];
+				String spokeHighway = isPrimary(spoke) ? "primary" : "residential";
+				if (ring == 0) {
+					junction.ways[2] = addStreet(center.nodes[0], junction.nodes[2], spokeHighway, false);
+				} else {
+					connect(junctions[ring - 1][spoke], 0, junction, 2, spokeHighway);
+				}
+				connect(junction, 1, junctions[ring][(spoke + 1) % spokes], 3, isPrimary(ring) ? "primary" : "residential");
+			}
+			addRestrictions(Arrays.asList(junctions[ring]));
+		}
+	}
+
+	private boolean isOnewayPairRow(int row) {
+		return this.onewayPairEvery > 0 && row % this.onewayPairEvery == this.onewayPairEvery / 2;
+	}
+
+	private boolean isPrimary(int index) {
+		return this.primaryStreetEvery > 0 && index % this.primaryStreetEvery == 0;
+	}
+
+	/*
+	 * A junction with one node, or a roundabout with one node per arm. The
+	 * arms point to angle, angle + pi/2, ...
+	 */
+	private Junction createJunction(double x, double y, double angle, boolean mayBeRoundabout) {
+		Junction junction = new Junction();
+		if (mayBeRoundabout && this.random.nextDouble() < this.roundaboutShare) {
+			junction.roundabout = true;
+			for (int arm : ARMS) {
+				double armAngle = angle + arm * Math.PI / 2;
+				junction.nodes[arm] = addNode(x + ROUNDABOUT_RADIUS * Math.cos(armAngle),
+						y + ROUNDABOUT_RADIUS * Math.sin(armAngle), PLAIN);
+			}
+			// counterclockwise, as the arms
+			Way ring = new Way(new int[] { junction.nodes[0], junction.nodes[1], junction.nodes[2], junction.nodes[3],
+					junction.nodes[0] });
+			ring.addTag("highway", "tertiary");
+			ring.addTag("junction", "roundabout");
+			this.ways.add(ring);
+		} else {
+			byte type = this.random.nextDouble() < this.signalShare ? SIGNAL : PLAIN;
+			Arrays.fill(junction.nodes, addNode(x, y, type));
+		}
+		return junction;
+	}
+
+	/*
+	 * A junction of a north-south street with a dual carriageway, made of a
+	 * node on each carriageway.
+	 */
+	private Junction createDualJunction(double x, double y, boolean primaryCrossing) {
+		Junction junction = new Junction();
+		byte type = this.random.nextDouble() < this.signalShare ? SIGNAL : PLAIN;
+		junction.lowerNode = addNode(x, y - CARRIAGEWAY_DISTANCE, type);
+		junction.upperNode = addNode(x, y + CARRIAGEWAY_DISTANCE, type);
+		junction.nodes[SOUTH] = junction.lowerNode;
+		junction.nodes[NORTH] = junction.upperNode;
+		Way connector = new Way(new int[] { junction.lowerNode, junction.upperNode });
+		connector.addTag("highway", primaryCrossing ? "primary" : "residential");
+		this.ways.add(connector);
+		return junction;
+	}
+
+	private void connect(Junction from, int fromArm, Junction to, int toArm, String highway) {
+		int way = addStreet(from.nodes[fromArm], to.nodes[toArm], highway, false);
+		from.ways[fromArm] = way;
+		to.ways[toArm] = way;
+	}
+
+	/*
+	 * Adds a straight street with shape nodes and returns the index of its way.
+	 */
+	private int addStreet(int fromNode, int toNode, String highway, boolean oneway) {
+		int[] wayNodes = new int[this.shapeNodesPerStreet + 2];
+		wayNodes[0] = fromNode;
+		wayNodes[wayNodes.length - 1] = toNode;
+		for (int i = 1; i <= this.shapeNodesPerStreet; i++) {
+			double fraction = (double) i / (this.shapeNodesPerStreet + 1);
+			byte type = this.random.nextDouble() < this.crossingShare ? CROSSING : PLAIN;
+			wayNodes[i] = addNode(this.nodeX[fromNode] + fraction * (this.nodeX[toNode] - this.nodeX[fromNode]),
+					this.nodeY[fromNode] + fraction * (this.nodeY[toNode] - this.nodeY[fromNode]), type);
+		}
+		Way way = new Way(wayNodes);
+		way.addTag("highway", highway);
+		boolean primary = "primary".equals(highway);
+		way.addTag("maxspeed", primary ? "50" : "30");
+		if (oneway)
+			way.addTag("oneway", "yes");
+		if (primary && this.random.nextDouble() < this.turnLanesShare) {
+			if (oneway) {
+				way.addTag("lanes", "3");
+				way.addTag("turn:lanes", "left|through|through;right");
+			} else {
+				way.addTag("lanes", "4");
+				way.addTag("lanes:forward", "2");
+				way.addTag("lanes:backward", "2");
+				way.addTag("turn:lanes:forward", "left|through;right");
+				way.addTag("turn:lanes:backward", "left|through;right");
+			}
+		}
+		this.ways.add(way);
+		return this.ways.size() - 1;
+	}
+
+	private void addRestrictions(List<Junction> junctions) {
+		for (Junction junction : junctions) {
+			if (junction.roundabout || junction.lowerNode >= 0 || this.random.nextDouble() >= this.restrictionShare)
+				continue;
+			int fromArm = this.random.nextInt(4);
+			int toArm = (fromArm + 3) % 4;
+			if (junction.ways[fromArm] >= 0 && junction.ways[toArm] >= 0)
+				this.restrictions.add(new Restriction(junction.ways[fromArm], junction.nodes[fromArm], junction.ways[toArm]));
+		}
+	}
+
+	private int addNode(double x, double y, byte type) {
+		if (this.nodeCount == this.nodeX.length) {
+			int capacity = this.nodeX.length * 2;
+			this.nodeX = Arrays.copyOf(this.nodeX, capacity);
+			this.nodeY = Arrays.copyOf(this.nodeY, capacity);
+			this.nodeTypes = Arrays.copyOf(this.nodeTypes, capacity);
+		}
+		this.nodeX[this.nodeCount] = x;
+		this.nodeY[this.nodeCount] = y;
+		this.nodeTypes[this.nodeCount] = type;
+		return this.nodeCount++;
+	}
+
+	/*
+	 * Nodes, ways and relations get the ids 1, 2, ... in the order they were
+	 * created. Coordinates are converted around the center with a flat earth.
+	 */
+	private void writeOsm(BufferedWriter writer) throws IOException {
+		double metersPerDegreeLon = METERS_PER_DEGREE * Math.cos(Math.toRadians(this.centerLat));
+		writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writer.write("<osm version=\"0.6\" generator=\"" + getClass().getSimpleName() + "\">\n");
+		StringBuilder line = new StringBuilder(128);
+		for (int i = 0; i < this.nodeCount; i++) {
+			line.setLength(0);
+			line.append(" <node id=\"").append(i + 1).append("\" lat=\"")
+					.append(round(this.centerLat + this.nodeY[i] / METERS_PER_DEGREE)).append("\" lon=\"")
+					.append(round(this.centerLon + this.nodeX[i] / metersPerDegreeLon)).append('"');
+			if (this.nodeTypes[i] == PLAIN) {
+				line.append("/>\n");
+			} else {
+				line.append(">\n  <tag k=\"highway\" v=\"")
+						.append(this.nodeTypes[i] == SIGNAL ? "traffic_signals" : "crossing").append("\"/>\n </node>\n");
+			}
+			writer.append(line);
+		}
+		for (int i = 0; i < this.ways.size(); i++) {
+			Way way = this.ways.get(i);
+			line.setLength(0);
+			line.append(" <way id=\"").append(i + 1).append("\">\n");
+			for (int node : way.nodes)
+				line.append("  <nd ref=\"").append(node + 1).append("\"/>\n");
+			for (int t = 0; t < way.tags.size(); t += 2)
+				line.append("  <tag k=\"").append(way.tags.get(t)).append("\" v=\"").append(way.tags.get(t + 1)).append("\"/>\n");
+			line.append(" </way>\n");
+			writer.append(line);
+		}
+		for (int i = 0; i < this.restrictions.size(); i++) {
+			Restriction restriction = this.restrictions.get(i);
+			line.setLength(0);
+			line.append(" <relation id=\"").append(i + 1).append("\">\n");
+			line.append("  <member type=\"way\" ref=\"").append(restriction.fromWay + 1).append("\" role=\"from\"/>\n");
+			line.append("  <member type=\"node\" ref=\"").append(restriction.viaNode + 1).append("\" role=\"via\"/>\n");
+			line.append("  <member type=\"way\" ref=\"").append(restriction.toWay + 1).append("\" role=\"to\"/>\n");
+			line.append("  <tag k=\"type\" v=\"restriction\"/>\n");
+			line.append("  <tag k=\"restriction\" v=\"no_left_turn\"/>\n");
+			line.append(" </relation>\n");
+			writer.append(line);
+		}
+		writer.write("</osm>\n");
+	}
+
+	private static double round(double degree) {
+		return Math.round(degree * 1e7) / 1e7;
+	}
+
+	private static class Junction {
+		// the node each arm is connected to and the way of the arm
+		final int[] nodes = { -1, -1, -1, -1 };
+		final int[] ways = { -1, -1, -1, -1 };
+		boolean roundabout = false;
+		// nodes on the southern and northern carriageway of a dual junction
+		int lowerNode = -1;
+		int upperNode = -1;
+	}
+
+	private static class Way {
+		final int[] nodes;
+		// keys and values, alternating
+		final List<String> tags = new ArrayList<>(8);
+
+		Way(int[] nodes) {
+			this.nodes = nodes;
+		}
+
+		void addTag(String key, String value) {
+			this.tags.add(key);
+			this.tags.add(value);
+		}
+	}
+
+	private static class Restriction {
+		final int fromWay;
+		final int viaNode;
+		final int toWay;
+
+		Restriction(int fromWay, int viaNode, int toWay) {
+			this.fromWay = fromWay;
+			this.viaNode = viaNode;
+			this.toWay = toWay;
+		}
+	}
+
+}
@@ -0,0 +1,184 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TurnAwareLandmarksRouter.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.router.EmptyStageActivityTypes;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.StageActivityTypes;
+import org.matsim.core.router.costcalculators.TravelDisutilityFactory;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.facilities.Facility;
+
+/**
+ * Routes on a {@link TurnRoutingGraph}, so routes only use turns that the
+ * lanes allow, without the inverted network of the link to link routing.
+ * The search is A* with the lower bounds of {@link TurnRoutingLandmarks}.
+ *
+ * Like the usual network routing, a route starts at the end of the departure
+ * link and ends at the start of the arrival link, the costs of these links are
+ * not part of it. Every turn costs the time and disutility of the link it
+ * leaves towards the link it enters, see {@link TurnCosts}, so the delays of
+ * turns measured by the {@link TurnTravelTimes} are respected. Travel times
+ * and costs depend on the time a link is entered, so the search goes forward
+ * from the departure link only.
+ *
+ * A router keeps its search state between routes and must only be used by one
+ * thread; graph and landmarks are shared.
+ *
+ * @author nschirrmacher
+ */
+public final class TurnAwareLandmarksRouter implements RoutingModule {
+
+	private final String mode;
+	private final TurnRoutingGraph graph;
+	private final TurnRoutingLandmarks landmarks;
+	private final TurnCosts turnCosts;
+
+	private final double[] costs;
+	private final double[] times;
+	private final int[] predecessors;
+	// a link's entries are only valid if its stamp is the current search
+	private final int[] stamps;
+	private int search = 0;
+	private final IndexedMinHeap heap;
+
+	public TurnAwareLandmarksRouter(String mode, TurnRoutingGraph graph, TurnRoutingLandmarks landmarks,
+			TravelTime travelTime, TravelDisutilityFactory travelDisutilityFactory) {
+		this.mode = mode;
+		this.graph = graph;
+		this.landmarks = landmarks;
+		this.turnCosts = new TurnCosts(graph, travelTime, travelDisutilityFactory);
+		int n = graph.getNumberOfLinks();
+		this.costs = new double[n];
+		this.times = new double[n];
+		this.predecessors = new int[n];
+		this.stamps = new int[n];
+		this.heap = new IndexedMinHeap(n);
+	}
+
+	@Override
+	public List<? extends PlanElement> calcRoute(Facility<?> fromFacility, Facility<?> toFacility, double departureTime,
+			Person person) {
+		Id<Link> fromLinkId = fromFacility.getLinkId();
+		Id<Link> toLinkId = toFacility.getLinkId();
+		Leg leg = PopulationUtils.createLeg(this.mode);
+		leg.setDepartureTime(departureTime);
+		if (fromLinkId.equals(toLinkId)) {
+			NetworkRoute route = RouteUtils.createLinkNetworkRouteImpl(fromLinkId, toLinkId);
+			route.setTravelTime(0);
+			route.setDistance(0);
+			leg.setRoute(route);
+			leg.setTravelTime(0);
+			return Collections.singletonList(leg);
+		}
+		int from = index(fromLinkId);
+		int to = index(toLinkId);
+		if (!search(from, to, departureTime, person)) {
+			throw new RuntimeException("No route for mode " + this.mode + " from link " + fromLinkId + " to link "
+					+ toLinkId + " with the turns allowed by the lanes.");
+		}
+
+		List<Id<Link>> linkIds = new ArrayList<>();
+		double distance = this.graph.getLink(to).getLength();
+		for (int link = this.predecessors[to]; link >= 0; link = this.predecessors[link]) {
+			linkIds.add(this.graph.getLink(link).getId());
+			distance += this.graph.getLink(link).getLength();
+		}
+		Collections.reverse(linkIds);
+		double travelTime = this.times[to] - departureTime;
+		NetworkRoute route = RouteUtils.createLinkNetworkRouteImpl(fromLinkId, linkIds, toLinkId);
+		route.setTravelTime(travelTime);
+		route.setTravelCost(this.costs[to]);
+		route.setDistance(distance);
+		leg.setRoute(route);
+		leg.setTravelTime(travelTime);
+		return Collections.singletonList(leg);
+	}
+
+	/*
+	 * A* from the end of link from to the start of link to. The turns out of
+	 * the departure link cost nothing, every further turn costs the link it
+	 * leaves towards the link it enters, at the time it is entered. Links
+	 * reached directly from the departure link have no predecessor.
+	 */
+	private boolean search(int from, int to, double departureTime, Person person) {
+		if (++this.search == Integer.MAX_VALUE) {
+			Arrays.fill(this.stamps, 0);
+			this.search = 1;
+		}
+		this.heap.clear();
+		for (int turn = this.graph.getTurnStart(from); turn < this.graph.getTurnStart(from + 1); turn++) {
+			int target = this.graph.getTurnTarget(turn);
+			visit(target, 0, departureTime, -1, to);
+		}
+		while (!this.heap.isEmpty()) {
+			int link = this.heap.poll();
+			if (link == to)
+				return true;
+			double time = this.times[link];
+			for (int turn = this.graph.getTurnStart(link); turn < this.graph.getTurnStart(link + 1); turn++) {
+				int target = this.graph.getTurnTarget(turn);
+				double cost = this.costs[link] + this.turnCosts.getTravelDisutility(link, target, time, person);
+				double arrival = time + this.turnCosts.getTravelTime(link, target, time, person);
+				visit(target, cost, arrival, link, to);
+			}
+		}
+		return false;
+	}
+
+	private void visit(int link, double cost, double time, int predecessor, int to) {
+		if (this.stamps[link] == this.search) {
+			if (cost >= this.costs[link])
+				return;
+		} else {
+			this.stamps[link] = this.search;
+		}
+		this.costs[link] = cost;
+		this.times[link] = time;
+		this.predecessors[link] = predecessor;
+		this.heap.insertOrDecrease(link, cost + this.landmarks.getLowerBound(link, to));
+	}
+
+	private int index(Id<Link> linkId) {
+		int index = this.graph.getIndex(linkId);
+		if (index < 0)
+			throw new RuntimeException("Link " + linkId + " does not allow mode " + this.mode + ".");
+		return index;
+	}
+
+	@Override
+	public StageActivityTypes getStageActivityTypes() {
+		return EmptyStageActivityTypes.INSTANCE;
+	}
+
+}
@@ -0,0 +1,117 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TurnAwareRoutingModule.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.Map;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.costcalculators.TravelDisutilityFactory;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * Routes car legs with the {@link TurnAwareLandmarksRouter}, i.e. only with
+ * the turns the lanes allow. It replaces the link to link routing, which
+ * therefore should be disabled in the config. Graph and landmarks are created
+ * once, when the first router is needed.
+ *
+ * If a {@link TurnContractionHierarchy} is given, the
+ * {@link TurnContractionHierarchyRouter} is used instead, which is faster for
+ * large networks and many routes per iteration.
+ *
+ * @author nschirrmacher
+ */
+public class TurnAwareRoutingModule extends AbstractModule {
+
+	static final int NUMBER_OF_LANDMARKS = 16;
+
+	private final String contractionHierarchyFile;
+
+	public TurnAwareRoutingModule() {
+		this(null);
+	}
+
+	/**
+	 * @param contractionHierarchyFile
+	 *            the hierarchy of the network, see
+	 *            {@link TurnContractionHierarchy#FILENAME}
+	 */
+	public TurnAwareRoutingModule(String contractionHierarchyFile) {
+		this.contractionHierarchyFile = contractionHierarchyFile;
+	}
+
+	@Override
+	public void install() {
+		if (this.contractionHierarchyFile == null) {
+			addRoutingModuleBinding(TransportMode.car).toProvider(RouterProvider.class);
+		} else {
+			TurnContractionHierarchyRouterProvider provider = new TurnContractionHierarchyRouterProvider(
+					this.contractionHierarchyFile);
+			addRoutingModuleBinding(TransportMode.car).toProvider(provider);
+			// customizes the hierarchy with the travel times of the last iteration
+			addControlerListenerBinding().toInstance(provider);
+		}
+	}
+
+	@Singleton
+	/* package */ static final class RouterProvider implements Provider<RoutingModule> {
+
+		private final Scenario scenario;
+		private final Map<String, TravelTime> travelTimes;
+		private final Map<String, TravelDisutilityFactory> travelDisutilityFactories;
+
+		private TurnRoutingGraph graph = null;
+		private TurnRoutingLandmarks landmarks = null;
+
+		@Inject
+		RouterProvider(Scenario scenario, Map<String, TravelTime> travelTimes,
+				Map<String, TravelDisutilityFactory> travelDisutilityFactories) {
+			this.scenario = scenario;
+			this.travelTimes = travelTimes;
+			this.travelDisutilityFactories = travelDisutilityFactories;
+		}
+
+		@Override
+		public RoutingModule get() {
+			TravelTime travelTime = this.travelTimes.get(TransportMode.car);
+			TravelDisutilityFactory travelDisutilityFactory = this.travelDisutilityFactories.get(TransportMode.car);
+			synchronized (this) {
+				if (this.graph == null) {
+					this.graph = new TurnRoutingGraph(this.scenario.getNetwork(), this.scenario.getLanes(), TransportMode.car);
+					TurnCosts turnCosts = new TurnCosts(this.graph, travelTime, travelDisutilityFactory);
+					double[] minimumCosts = new double[this.graph.getNumberOfLinks()];
+					for (int i = 0; i < minimumCosts.length; i++) {
+						minimumCosts[i] = turnCosts.getMinimumTravelDisutility(i);
+					}
+					this.landmarks = new TurnRoutingLandmarks(this.graph, minimumCosts, NUMBER_OF_LANDMARKS);
+				}
+				return new TurnAwareLandmarksRouter(TransportMode.car, this.graph, this.landmarks, travelTime,
+						travelDisutilityFactory);
+			}
+		}
+	}
+
+}
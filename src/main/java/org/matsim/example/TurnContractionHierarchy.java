@@ -0,0 +1,540 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TurnContractionHierarchy.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.core.utils.io.UncheckedIOException;
+
+/**
+ * A contraction hierarchy of a {@link TurnRoutingGraph}, i.e. of the links
+ * and the turns the lanes allow. Every contraction connects all remaining
+ * neighbors of a link, so the shortcuts only depend on the graph and not on
+ * travel times. Such a hierarchy
+ * is created and written once per network, see {@link #FILENAME}, and gets
+ * the costs of the turns later by {@link #customize(double[])}, e.g. once per
+ * time bin and iteration.
+ *
+ * Every arc connects a link with a higher ranked one and has a cost for both
+ * directions; arcs of a link are sorted by the higher ranked link.
+ *
+ * @author nschirrmacher
+ */
+public final class TurnContractionHierarchy {
+
+	private static final Logger log = Logger.getLogger(TurnContractionHierarchy.class);
+
+	/** Name of the file next to the network, which holds the hierarchy of it. */
+	public static final String FILENAME = "turn_contraction_hierarchy.bin";
+
+	static final int MAGIC = 0x54434348; // "TCCH"
+	static final int VERSION = 1;
+
+	// lowest cost of a turn in a customization
+	private static final double MINIMUM_COST = 1e-3;
+
+	private final TurnRoutingGraph graph;
+	// links by rank, and rank by link
+	private final int[] order;
+	private final int[] ranks;
+	// arcs of link i go to the higher ranked links head[arcStart[i]] to head[arcStart[i + 1] - 1]
+	private final int[] arcStart;
+	private final int[] head;
+
+	private TurnContractionHierarchy(TurnRoutingGraph graph, int[] order, int[] arcStart, int[] head) {
+		this.graph = graph;
+		this.order = order;
+		this.ranks = new int[order.length];
+		for (int rank = 0; rank < order.length; rank++) {
+			this.ranks[order[rank]] = rank;
+		}
+		this.arcStart = arcStart;
+		this.head = head;
+	}
+
+	/**
+	 * Contracts all links of the graph in an order found by nested dissection:
+	 * the links are split at the median of their coordinates into two halves,
+	 * the links of one half that have turns from or to the other one separate
+	 * them and are contracted last, the halves are split the same way
+	 * recursively. Routes between halves then only go up to the separator, so
+	 * the searches stay small.
+	 */
+	public static TurnContractionHierarchy create(TurnRoutingGraph graph) {
+		long start = System.currentTimeMillis();
+		int n = graph.getNumberOfLinks();
+		List<Set<Integer>> neighbors = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			neighbors.add(new HashSet<Integer>());
+		}
+		for (int i = 0; i < n; i++) {
+			for (int turn = graph.getTurnStart(i); turn < graph.getTurnStart(i + 1); turn++) {
+				int target = graph.getTurnTarget(turn);
+				if (target != i) {
+					neighbors.get(i).add(target);
+					neighbors.get(target).add(i);
+				}
+			}
+		}
+		int[] order = new NestedDissection(graph, neighbors).order();
+
+		// contracting a link connects all its neighbors that are contracted later
+		int[] ranks = new int[n];
+		for (int rank = 0; rank < n; rank++) {
+			ranks[order[rank]] = rank;
+		}
+		int[] arcStart = new int[n + 1];
+		List<int[]> upward = new ArrayList<>(n);
+		for (int i = 0; i < n; i++) {
+			upward.add(null);
+		}
+		int arcs = 0;
+		for (int link : order) {
+			int[] remaining = new int[neighbors.get(link).size()];
+			int k = 0;
+			for (int neighbor : neighbors.get(link)) {
+				remaining[k++] = neighbor;
+			}
+			Arrays.sort(remaining);
+			upward.set(link, remaining);
+			arcs += remaining.length;
+			for (int a = 0; a < remaining.length; a++) {
+				Set<Integer> neighborsOfA = neighbors.get(remaining[a]);
+				neighborsOfA.remove(link);
+				for (int b = 0; b < remaining.length; b++) {
+					if (a != b)
+						neighborsOfA.add(remaining[b]);
+				}
+			}
+			neighbors.set(link, null);
+		}
+		int[] head = new int[arcs];
+		for (int i = 0; i < n; i++) {
+			int[] remaining = upward.get(i);
+			System.arraycopy(remaining, 0, head, arcStart[i], remaining.length);
+			arcStart[i + 1] = arcStart[i] + remaining.length;
+		}
+		log.info("contracted " + n + " links with " + graph.getNumberOfTurns() + " turns to " + arcs + " arcs in "
+				+ (System.currentTimeMillis() - start) + " ms");
+		return new TurnContractionHierarchy(graph, order, arcStart, head);
+	}
+
+	/**
+	 * Reads a hierarchy written by {@link #write(String)}.
+	 *
+	 * @return <code>null</code> if it was written for another graph, e.g. for
+	 *         an older version of the network or lanes
+	 */
+	public static TurnContractionHierarchy read(String filename, TurnRoutingGraph graph) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename), 1 << 16))) {
+			if (in.readInt() != MAGIC)
+				throw new RuntimeException(filename + " is not a turn contraction hierarchy.");
+			int version = in.readInt();
+			if (version != VERSION)
+				throw new RuntimeException("Contraction hierarchy " + filename + " has version " + version
+						+ ", but version " + VERSION + " is expected. Write it again.");
+			int n = in.readInt();
+			long fingerprint = in.readLong();
+			if (n != graph.getNumberOfLinks() || fingerprint != fingerprint(graph)) {
+				log.warn("Contraction hierarchy " + filename + " does not belong to this network and lanes.");
+				return null;
+			}
+			int[] order = readInts(in, n);
+			int[] arcStart = readInts(in, n + 1);
+			int[] head = readInts(in, arcStart[n]);
+			return new TurnContractionHierarchy(graph, order, arcStart, head);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	public void write(String filename) {
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(this.order.length);
+			out.writeLong(fingerprint(this.graph));
+			writeInts(out, this.order);
+			writeInts(out, this.arcStart);
+			writeInts(out, this.head);
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/*
+	 * Identifies the links and turns of a graph, so a hierarchy is not used
+	 * with another one.
+	 */
+	private static long fingerprint(TurnRoutingGraph graph) {
+		long hash = 1125899906842597L;
+		for (int i = 0; i < graph.getNumberOfLinks(); i++) {
+			hash = 31 * hash + graph.getLink(i).getId().toString().hashCode();
+			for (int turn = graph.getTurnStart(i); turn < graph.getTurnStart(i + 1); turn++) {
+				hash = 31 * hash + graph.getTurnTarget(turn);
+			}
+			hash = 31 * hash - 1;
+		}
+		return hash;
+	}
+
+	private static int[] readInts(DataInputStream in, int length) throws IOException {
+		int[] values = new int[length];
+		for (int i = 0; i < length; i++) {
+			values[i] = in.readInt();
+		}
+		return values;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		for (int value : values) {
+			out.writeInt(value);
+		}
+	}
+
+	/**
+	 * Computes the costs of all arcs. The costs of the turns are given, the
+	 * costs of shortcuts follow from the triangles below them. Afterwards, the exact lowest costs between the ends of every arc
+	 * follow from the triangles above, and all arcs that are not the only best
+	 * connection between their ends are left out of the searches.
+	 *
+	 * @param turnCosts
+	 *            cost of every turn of the graph, by turn, e.g. its travel
+	 *            disutility in some time bin
+	 */
+	public Metric customize(double[] turnCosts) {
+		int arcs = this.head.length;
+		double[] upCosts = new double[arcs];
+		double[] downCosts = new double[arcs];
+		Metric metric = new Metric(arcs);
+		Arrays.fill(upCosts, Double.POSITIVE_INFINITY);
+		Arrays.fill(downCosts, Double.POSITIVE_INFINITY);
+		Arrays.fill(metric.upVia, -1);
+		Arrays.fill(metric.downVia, -1);
+		for (int link = 0; link < this.order.length; link++) {
+			for (int turn = this.graph.getTurnStart(link); turn < this.graph.getTurnStart(link + 1); turn++) {
+				int target = this.graph.getTurnTarget(turn);
+				if (target == link)
+					continue;
+				// arcs of equal cost could otherwise replace each other
+				double cost = Math.max(turnCosts[turn], MINIMUM_COST);
+				if (this.ranks[link] < this.ranks[target]) {
+					upCosts[arc(link, target)] = cost;
+				} else {
+					downCosts[arc(target, link)] = cost;
+				}
+			}
+		}
+		// lower triangles, bottom up
+		for (int link : this.order) {
+			int first = this.arcStart[link];
+			int last = this.arcStart[link + 1];
+			for (int a = first; a < last; a++) {
+				for (int b = first; b < last; b++) {
+					if (a == b || this.ranks[this.head[a]] > this.ranks[this.head[b]])
+						continue;
+					// lower and higher ranked neighbor, they are connected by a shortcut
+					int shortcut = arc(this.head[a], this.head[b]);
+					double up = downCosts[a] + upCosts[b];
+					if (up < upCosts[shortcut]) {
+						upCosts[shortcut] = up;
+						metric.upVia[shortcut] = link;
+					}
+					double down = downCosts[b] + upCosts[a];
+					if (down < downCosts[shortcut]) {
+						downCosts[shortcut] = down;
+						metric.downVia[shortcut] = link;
+					}
+				}
+			}
+		}
+		// upper and intermediate triangles, top down. Their costs are not needed for unpacking, only to prune arcs
+		double[] exactUpCosts = Arrays.copyOf(upCosts, arcs);
+		double[] exactDownCosts = Arrays.copyOf(downCosts, arcs);
+		for (int rank = this.order.length - 1; rank >= 0; rank--) {
+			int link = this.order[rank];
+			for (int a = this.arcStart[link]; a < this.arcStart[link + 1]; a++) {
+				for (int b = this.arcStart[link]; b < this.arcStart[link + 1]; b++) {
+					if (a == b)
+						continue;
+					// from link to head a over head b, and back
+					double up = exactUpCosts[b] + cost(this.head[b], this.head[a], exactUpCosts, exactDownCosts);
+					if (up < exactUpCosts[a])
+						exactUpCosts[a] = up;
+					double down = cost(this.head[a], this.head[b], exactUpCosts, exactDownCosts) + exactDownCosts[b];
+					if (down < exactDownCosts[a])
+						exactDownCosts[a] = down;
+				}
+			}
+		}
+		boolean[] upNeeded = new boolean[arcs];
+		boolean[] downNeeded = new boolean[arcs];
+		for (int link = 0; link < this.order.length; link++) {
+			for (int a = this.arcStart[link]; a < this.arcStart[link + 1]; a++) {
+				upNeeded[a] = exactUpCosts[a] != Double.POSITIVE_INFINITY;
+				downNeeded[a] = exactDownCosts[a] != Double.POSITIVE_INFINITY;
+				for (int b = this.arcStart[link]; b < this.arcStart[link + 1] && (upNeeded[a] || downNeeded[a]); b++) {
+					if (a == b)
+						continue;
+					if (exactUpCosts[b] + cost(this.head[b], this.head[a], exactUpCosts, exactDownCosts) <= exactUpCosts[a])
+						upNeeded[a] = false;
+					if (cost(this.head[a], this.head[b], exactUpCosts, exactDownCosts) + exactDownCosts[b] <= exactDownCosts[a])
+						downNeeded[a] = false;
+				}
+			}
+		}
+		metric.forward = new SearchGraph(this.arcStart, this.head, exactUpCosts, upNeeded);
+		metric.backward = new SearchGraph(this.arcStart, this.head, exactDownCosts, downNeeded);
+		return metric;
+	}
+
+	/*
+	 * Cost from one link to another one, which are connected by an arc.
+	 */
+	private double cost(int from, int to, double[] upCosts, double[] downCosts) {
+		if (this.ranks[from] < this.ranks[to])
+			return upCosts[arc(from, to)];
+		return downCosts[arc(to, from)];
+	}
+
+	/**
+	 * @return the arc from a link to a higher ranked one
+	 */
+	/* package */ int arc(int lower, int higher) {
+		int arc = Arrays.binarySearch(this.head, this.arcStart[lower], this.arcStart[lower + 1], higher);
+		if (arc < 0)
+			throw new IllegalStateException("No arc from " + lower + " to " + higher + " in the hierarchy.");
+		return arc;
+	}
+
+	public TurnRoutingGraph getGraph() {
+		return this.graph;
+	}
+
+	public int getNumberOfArcs() {
+		return this.head.length;
+	}
+
+	/* package */ int getRank(int link) {
+		return this.ranks[link];
+	}
+
+	/*
+	 * Orders the links by recursive bisection at the median of the link
+	 * centers, the lowest ranks for the halves, the highest for separators.
+	 */
+	private static final class NestedDissection {
+
+		// halves of at most this size are not split anymore
+		private static final int LEAF_SIZE = 32;
+
+		private final List<Set<Integer>> neighbors;
+		private final double[] x;
+		private final double[] y;
+		private final int[] order;
+		private int rank = 0;
+		// side of a link in the current split, valid if its stamp is the current split
+		private final boolean[] first;
+		private final int[] stamps;
+		private int split = 0;
+
+		NestedDissection(TurnRoutingGraph graph, List<Set<Integer>> neighbors) {
+			int n = graph.getNumberOfLinks();
+			this.neighbors = neighbors;
+			this.x = new double[n];
+			this.y = new double[n];
+			for (int i = 0; i < n; i++) {
+				Link link = graph.getLink(i);
+				this.x[i] = (link.getFromNode().getCoord().getX() + link.getToNode().getCoord().getX()) / 2;
+				this.y[i] = (link.getFromNode().getCoord().getY() + link.getToNode().getCoord().getY()) / 2;
+			}
+			this.order = new int[n];
+			this.first = new boolean[n];
+			this.stamps = new int[n];
+		}
+
+		int[] order() {
+			int[] all = new int[this.order.length];
+			for (int i = 0; i < all.length; i++) {
+				all[i] = i;
+			}
+			// the recursion is done with an explicit stack, halves are ordered before their separator
+			List<int[]> stack = new ArrayList<>();
+			List<int[]> separators = new ArrayList<>();
+			stack.add(all);
+			while (!stack.isEmpty()) {
+				int[] links = stack.remove(stack.size() - 1);
+				if (links == null) {
+					// all parts below this separator are ordered
+					for (int link : separators.remove(separators.size() - 1)) {
+						this.order[this.rank++] = link;
+					}
+				} else if (links.length <= LEAF_SIZE) {
+					for (int link : links) {
+						this.order[this.rank++] = link;
+					}
+				} else {
+					int[][] parts = bisect(links);
+					separators.add(parts[2]);
+					stack.add(null);
+					stack.add(parts[1]);
+					stack.add(parts[0]);
+				}
+			}
+			return this.order;
+		}
+
+		/*
+		 * @return the first half without the separator, the second half and the
+		 *         separator
+		 */
+		private int[][] bisect(int[] links) {
+			double minX = Double.POSITIVE_INFINITY;
+			double maxX = Double.NEGATIVE_INFINITY;
+			double minY = Double.POSITIVE_INFINITY;
+			double maxY = Double.NEGATIVE_INFINITY;
+			for (int link : links) {
+				minX = Math.min(minX, this.x[link]);
+				maxX = Math.max(maxX, this.x[link]);
+				minY = Math.min(minY, this.y[link]);
+				maxY = Math.max(maxY, this.y[link]);
+			}
+			final double[] coordinate = maxX - minX >= maxY - minY ? this.x : this.y;
+			Integer[] sorted = new Integer[links.length];
+			for (int i = 0; i < links.length; i++) {
+				sorted[i] = links[i];
+			}
+			Arrays.sort(sorted, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					int result = Double.compare(coordinate[a], coordinate[b]);
+					return result != 0 ? result : Integer.compare(a, b);
+				}
+			});
+			int half = links.length / 2;
+			this.split++;
+			for (int i = 0; i < links.length; i++) {
+				this.stamps[sorted[i]] = this.split;
+				this.first[sorted[i]] = i < half;
+			}
+			int firstLinks = 0;
+			int separatorLinks = 0;
+			boolean[] separator = new boolean[links.length];
+			for (int i = 0; i < half; i++) {
+				for (int neighbor : this.neighbors.get(sorted[i])) {
+					if (this.stamps[neighbor] == this.split && !this.first[neighbor]) {
+						separator[i] = true;
+						break;
+					}
+				}
+				if (separator[i]) {
+					separatorLinks++;
+				} else {
+					firstLinks++;
+				}
+			}
+			int[][] parts = new int[][] { new int[firstLinks], new int[links.length - half], new int[separatorLinks] };
+			firstLinks = 0;
+			separatorLinks = 0;
+			for (int i = 0; i < half; i++) {
+				if (separator[i]) {
+					parts[2][separatorLinks++] = sorted[i];
+				} else {
+					parts[0][firstLinks++] = sorted[i];
+				}
+			}
+			for (int i = half; i < links.length; i++) {
+				parts[1][i - half] = sorted[i];
+			}
+			return parts;
+		}
+
+	}
+
+	/**
+	 * A customization of a hierarchy. The search graphs only have the arcs
+	 * needed for the lowest costs, upwards from the departure link (forward)
+	 * and upwards from the arrival link against the direction of the turns
+	 * (backward). The via link of an arc is the one it skips, -1 for turns; up
+	 * is from the lower to the higher ranked link, down the other way.
+	 */
+	public static final class Metric {
+
+		/* package */ final int[] upVia;
+		/* package */ final int[] downVia;
+		/* package */ SearchGraph forward;
+		/* package */ SearchGraph backward;
+
+		private Metric(int arcs) {
+			this.upVia = new int[arcs];
+			this.downVia = new int[arcs];
+		}
+
+	}
+
+	/**
+	 * The needed arcs of one direction of a metric with their costs, in
+	 * compressed sparse rows.
+	 */
+	/* package */ static final class SearchGraph {
+
+		/* package */ final int[] arcStart;
+		/* package */ final int[] head;
+		/* package */ final double[] costs;
+
+		private SearchGraph(int[] allArcStart, int[] allHead, double[] allCosts, boolean[] needed) {
+			int n = allArcStart.length - 1;
+			int arcs = 0;
+			for (boolean arcNeeded : needed) {
+				if (arcNeeded)
+					arcs++;
+			}
+			this.arcStart = new int[n + 1];
+			this.head = new int[arcs];
+			this.costs = new double[arcs];
+			int arc = 0;
+			for (int link = 0; link < n; link++) {
+				for (int all = allArcStart[link]; all < allArcStart[link + 1]; all++) {
+					if (needed[all]) {
+						this.head[arc] = allHead[all];
+						this.costs[arc++] = allCosts[all];
+					}
+				}
+				this.arcStart[link + 1] = arc;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,267 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TurnContractionHierarchyRouter.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.api.core.v01.population.PlanElement;
+import org.matsim.core.population.PopulationUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.population.routes.RouteUtils;
+import org.matsim.core.router.EmptyStageActivityTypes;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.StageActivityTypes;
+import org.matsim.core.router.costcalculators.TravelDisutilityFactory;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.facilities.Facility;
+
+/**
+ * Routes with a {@link TurnContractionHierarchy}: a search upwards from the
+ * departure link and one upwards from the arrival link, which meet at the
+ * highest ranked link of the route. The hierarchy is customized for time bins,
+ * a route uses the costs of the bin of its departure for all its turns.
+ * Travel time and cost of the route are then computed turn by turn with the
+ * actual times the links are entered, see {@link TurnCosts}.
+ *
+ * Routes start at the end of the departure link and end at the start of the
+ * arrival link, like the ones of {@link TurnAwareLandmarksRouter}. A router
+ * keeps its search state between routes and must only be used by one thread.
+ *
+ * @author nschirrmacher
+ */
+public final class TurnContractionHierarchyRouter implements RoutingModule {
+
+	/**
+	 * The customizations of a hierarchy, one per time bin. They are replaced
+	 * as a whole, so routers of all threads see consistent costs.
+	 */
+	public interface Metrics {
+		/**
+		 * @return the customization for the given time of day
+		 */
+		TurnContractionHierarchy.Metric getMetric(double time);
+	}
+
+	private final String mode;
+	private final TurnContractionHierarchy hierarchy;
+	private final TurnRoutingGraph graph;
+	private final Metrics metrics;
+	private final TurnCosts turnCosts;
+
+	private final double[] forwardCosts;
+	private final double[] backwardCosts;
+	private final int[] forwardPredecessors;
+	private final int[] backwardPredecessors;
+	private final int[] forwardStamps;
+	private final int[] backwardStamps;
+	private int search = 0;
+	private final IndexedMinHeap forwardHeap;
+	private final IndexedMinHeap backwardHeap;
+
+	public TurnContractionHierarchyRouter(String mode, TurnContractionHierarchy hierarchy, Metrics metrics,
+			TravelTime travelTime, TravelDisutilityFactory travelDisutilityFactory) {
+		this.mode = mode;
+		this.hierarchy = hierarchy;
+		this.graph = hierarchy.getGraph();
+		this.metrics = metrics;
+		this.turnCosts = new TurnCosts(this.graph, travelTime, travelDisutilityFactory);
+		int n = this.graph.getNumberOfLinks();
+		this.forwardCosts = new double[n];
+		this.backwardCosts = new double[n];
+		this.forwardPredecessors = new int[n];
+		this.backwardPredecessors = new int[n];
+		this.forwardStamps = new int[n];
+		this.backwardStamps = new int[n];
+		this.forwardHeap = new IndexedMinHeap(n);
+		this.backwardHeap = new IndexedMinHeap(n);
+	}
+
+	@Override
+	public List<? extends PlanElement> calcRoute(Facility<?> fromFacility, Facility<?> toFacility, double departureTime,
+			Person person) {
+		Id<Link> fromLinkId = fromFacility.getLinkId();
+		Id<Link> toLinkId = toFacility.getLinkId();
+		Leg leg = PopulationUtils.createLeg(this.mode);
+		leg.setDepartureTime(departureTime);
+		if (fromLinkId.equals(toLinkId)) {
+			NetworkRoute route = RouteUtils.createLinkNetworkRouteImpl(fromLinkId, toLinkId);
+			route.setTravelTime(0);
+			route.setDistance(0);
+			leg.setRoute(route);
+			leg.setTravelTime(0);
+			return Collections.singletonList(leg);
+		}
+		int from = index(fromLinkId);
+		int to = index(toLinkId);
+		TurnContractionHierarchy.Metric metric = this.metrics.getMetric(departureTime);
+		int meeting = search(from, to, metric);
+		if (meeting < 0) {
+			throw new RuntimeException("No route for mode " + this.mode + " from link " + fromLinkId + " to link "
+					+ toLinkId + " with the turns allowed by the lanes.");
+		}
+
+		// links of the hierarchy from the first turn to the arrival link, shortcuts are unpacked below
+		List<Integer> upward = new ArrayList<>();
+		for (int link = meeting; link >= 0; link = this.forwardPredecessors[link]) {
+			upward.add(link);
+		}
+		Collections.reverse(upward);
+		for (int link = this.backwardPredecessors[meeting]; link >= 0; link = this.backwardPredecessors[link]) {
+			upward.add(link);
+		}
+		List<Integer> links = new ArrayList<>();
+		links.add(from);
+		links.add(upward.get(0));
+		for (int i = 1; i < upward.size(); i++) {
+			unpack(upward.get(i - 1), upward.get(i), metric, links);
+		}
+
+		List<Id<Link>> linkIds = new ArrayList<>(links.size());
+		double time = departureTime;
+		double cost = 0;
+		double distance = this.graph.getLink(to).getLength();
+		for (int i = 1; i < links.size() - 1; i++) {
+			Link link = this.graph.getLink(links.get(i));
+			linkIds.add(link.getId());
+			cost += this.turnCosts.getTravelDisutility(links.get(i), links.get(i + 1), time, person);
+			time += this.turnCosts.getTravelTime(links.get(i), links.get(i + 1), time, person);
+			distance += link.getLength();
+		}
+		NetworkRoute route = RouteUtils.createLinkNetworkRouteImpl(fromLinkId, linkIds, toLinkId);
+		route.setTravelTime(time - departureTime);
+		route.setTravelCost(cost);
+		route.setDistance(distance);
+		leg.setRoute(route);
+		leg.setTravelTime(time - departureTime);
+		return Collections.singletonList(leg);
+	}
+
+	/*
+	 * Both searches only go to higher ranked links. The forward search starts
+	 * at all links the departure link turns to, as the turns out of the
+	 * departure link cost nothing, like in the TurnAwareLandmarksRouter.
+	 *
+	 * @return the link where the searches meet on the best route, -1 if there
+	 *         is no route
+	 */
+	private int search(int from, int to, TurnContractionHierarchy.Metric metric) {
+		if (++this.search == Integer.MAX_VALUE) {
+			Arrays.fill(this.forwardStamps, 0);
+			Arrays.fill(this.backwardStamps, 0);
+			this.search = 1;
+		}
+		this.forwardHeap.clear();
+		this.backwardHeap.clear();
+		for (int turn = this.graph.getTurnStart(from); turn < this.graph.getTurnStart(from + 1); turn++) {
+			visit(this.graph.getTurnTarget(turn), 0, -1, this.forwardCosts, this.forwardPredecessors,
+					this.forwardStamps, this.forwardHeap);
+		}
+		visit(to, 0, -1, this.backwardCosts, this.backwardPredecessors, this.backwardStamps, this.backwardHeap);
+		double best = Double.POSITIVE_INFINITY;
+		int meeting = -1;
+		while (true) {
+			boolean forward = !this.forwardHeap.isEmpty() && this.forwardHeap.peekKey() < best;
+			boolean backward = !this.backwardHeap.isEmpty() && this.backwardHeap.peekKey() < best;
+			if (!forward && !backward)
+				break;
+			if (forward && backward) {
+				forward = this.forwardHeap.peekKey() <= this.backwardHeap.peekKey();
+			}
+			int link = forward ? this.forwardHeap.poll() : this.backwardHeap.poll();
+			double[] costs = forward ? this.forwardCosts : this.backwardCosts;
+			TurnContractionHierarchy.SearchGraph searchGraph = forward ? metric.forward : metric.backward;
+			double[] otherCosts = forward ? this.backwardCosts : this.forwardCosts;
+			int[] otherStamps = forward ? this.backwardStamps : this.forwardStamps;
+			if (otherStamps[link] == this.search && costs[link] + otherCosts[link] < best) {
+				best = costs[link] + otherCosts[link];
+				meeting = link;
+			}
+			for (int arc = searchGraph.arcStart[link]; arc < searchGraph.arcStart[link + 1]; arc++) {
+				double cost = costs[link] + searchGraph.costs[arc];
+				if (forward) {
+					visit(searchGraph.head[arc], cost, link, this.forwardCosts, this.forwardPredecessors,
+							this.forwardStamps, this.forwardHeap);
+				} else {
+					visit(searchGraph.head[arc], cost, link, this.backwardCosts, this.backwardPredecessors,
+							this.backwardStamps, this.backwardHeap);
+				}
+			}
+		}
+		return meeting;
+	}
+
+	private void visit(int link, double cost, int predecessor, double[] costs, int[] predecessors, int[] stamps,
+			IndexedMinHeap heap) {
+		if (stamps[link] == this.search) {
+			if (cost >= costs[link])
+				return;
+		} else {
+			stamps[link] = this.search;
+		}
+		costs[link] = cost;
+		predecessors[link] = predecessor;
+		heap.insertOrDecrease(link, cost);
+	}
+
+	/*
+	 * Adds the links after a, up to and including b, replacing shortcuts by
+	 * the links they skip.
+	 */
+	private void unpack(int a, int b, TurnContractionHierarchy.Metric metric, List<Integer> links) {
+		List<int[]> stack = new ArrayList<>();
+		stack.add(new int[] { a, b });
+		while (!stack.isEmpty()) {
+			int[] turn = stack.remove(stack.size() - 1);
+			int via;
+			if (this.hierarchy.getRank(turn[0]) < this.hierarchy.getRank(turn[1])) {
+				via = metric.upVia[this.hierarchy.arc(turn[0], turn[1])];
+			} else {
+				via = metric.downVia[this.hierarchy.arc(turn[1], turn[0])];
+			}
+			if (via < 0) {
+				links.add(turn[1]);
+			} else {
+				// the first part has to be unpacked first
+				stack.add(new int[] { via, turn[1] });
+				stack.add(new int[] { turn[0], via });
+			}
+		}
+	}
+
+	private int index(Id<Link> linkId) {
+		int index = this.graph.getIndex(linkId);
+		if (index < 0)
+			throw new RuntimeException("Link " + linkId + " does not allow mode " + this.mode + ".");
+		return index;
+	}
+
+	@Override
+	public StageActivityTypes getStageActivityTypes() {
+		return EmptyStageActivityTypes.INSTANCE;
+	}
+
+}
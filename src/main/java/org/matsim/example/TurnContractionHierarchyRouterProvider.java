@@ -0,0 +1,164 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TurnContractionHierarchyRouterProvider.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.controler.events.IterationStartsEvent;
+import org.matsim.core.controler.listener.IterationStartsListener;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.costcalculators.TravelDisutilityFactory;
+import org.matsim.core.router.util.TravelTime;
+
+/**
+ * Creates the {@link TurnContractionHierarchyRouter}s for car. The hierarchy
+ * is read from the given file or, if it does not fit the network, created
+ * again. It is customized with the car travel disutilities of the turns of
+ * every time bin, see {@link TurnCosts}, i.e. the costs the
+ * {@link TurnAwareLandmarksRouter} minimizes, when the
+ * first router is needed, i.e. for the initial routes, and again at the start
+ * of every later iteration, before replanning.
+ *
+ * @author nschirrmacher
+ */
+/* package */ final class TurnContractionHierarchyRouterProvider implements Provider<RoutingModule>,
+		IterationStartsListener, TurnContractionHierarchyRouter.Metrics {
+
+	private static final Logger log = Logger.getLogger(TurnContractionHierarchyRouterProvider.class);
+
+	// travel times change much less within an hour than the costs of the routes
+	static final double CUSTOMIZATION_BIN_SIZE = 3600;
+
+	private final String hierarchyFile;
+
+	@Inject
+	private Scenario scenario;
+	@Inject
+	private Map<String, TravelTime> travelTimes;
+	@Inject
+	private Map<String, TravelDisutilityFactory> travelDisutilityFactories;
+
+	private TurnContractionHierarchy hierarchy = null;
+	// replaced as a whole by every customization
+	private volatile TurnContractionHierarchy.Metric[] metrics = null;
+
+	TurnContractionHierarchyRouterProvider(String hierarchyFile) {
+		this.hierarchyFile = hierarchyFile;
+	}
+
+	@Override
+	public RoutingModule get() {
+		TravelTime travelTime = this.travelTimes.get(TransportMode.car);
+		synchronized (this) {
+			if (this.hierarchy == null) {
+				TurnRoutingGraph graph = new TurnRoutingGraph(this.scenario.getNetwork(), this.scenario.getLanes(),
+						TransportMode.car);
+				if (new File(this.hierarchyFile).exists()) {
+					this.hierarchy = TurnContractionHierarchy.read(this.hierarchyFile, graph);
+				}
+				if (this.hierarchy == null) {
+					log.warn("Creating the contraction hierarchy, as " + this.hierarchyFile + " does not fit the network. "
+							+ "Write it again with the network to save this time.");
+					this.hierarchy = TurnContractionHierarchy.create(graph);
+				}
+				customize();
+			}
+			return new TurnContractionHierarchyRouter(TransportMode.car, this.hierarchy, this,
+					travelTime, this.travelDisutilityFactories.get(TransportMode.car));
+		}
+	}
+
+	@Override
+	public void notifyIterationStarts(IterationStartsEvent event) {
+		synchronized (this) {
+			// otherwise the first router will customize it
+			if (this.hierarchy != null) {
+				customize();
+			}
+		}
+	}
+
+	@Override
+	public TurnContractionHierarchy.Metric getMetric(double time) {
+		TurnContractionHierarchy.Metric[] metrics = this.metrics;
+		int bin = (int) (Math.max(0, time) / CUSTOMIZATION_BIN_SIZE);
+		return metrics[Math.min(bin, metrics.length - 1)];
+	}
+
+	/*
+	 * The time bins are customized in parallel, with the travel disutilities in
+	 * the middle of each bin.
+	 */
+	private void customize() {
+		long start = System.currentTimeMillis();
+		final TravelTime travelTime = this.travelTimes.get(TransportMode.car);
+		final TravelDisutilityFactory travelDisutilityFactory = this.travelDisutilityFactories.get(TransportMode.car);
+		final TurnRoutingGraph graph = this.hierarchy.getGraph();
+		int bins = (int) Math.ceil(this.scenario.getConfig().travelTimeCalculator().getMaxTime() / CUSTOMIZATION_BIN_SIZE);
+		bins = Math.max(1, bins);
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(bins, Runtime.getRuntime().availableProcessors()));
+		try {
+			List<Future<TurnContractionHierarchy.Metric>> futures = new ArrayList<>(bins);
+			for (int bin = 0; bin < bins; bin++) {
+				final double time = (bin + 0.5) * CUSTOMIZATION_BIN_SIZE;
+				futures.add(executor.submit(new Callable<TurnContractionHierarchy.Metric>() {
+					@Override
+					public TurnContractionHierarchy.Metric call() {
+						// one per thread, the turn costs keep the turn they are asked for
+						TurnCosts turnCosts = new TurnCosts(graph, travelTime, travelDisutilityFactory);
+						return TurnContractionHierarchyRouterProvider.this.hierarchy
+								.customize(turnCosts.getTravelDisutilities(time));
+					}
+				}));
+			}
+			TurnContractionHierarchy.Metric[] metrics = new TurnContractionHierarchy.Metric[bins];
+			for (int bin = 0; bin < bins; bin++) {
+				metrics[bin] = futures.get(bin).get();
+			}
+			this.metrics = metrics;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while customizing the contraction hierarchy.", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			executor.shutdownNow();
+		}
+		log.info("customized the contraction hierarchy for " + bins + " time bins in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+}
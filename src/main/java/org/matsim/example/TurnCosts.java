@@ -0,0 +1,112 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TurnCosts.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.costcalculators.TravelDisutilityFactory;
+import org.matsim.core.router.util.LinkToLinkTravelTime;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Travel times and costs of the turns of a {@link TurnRoutingGraph}. If the
+ * travel time is a {@link LinkToLinkTravelTime}, e.g. the
+ * {@link TurnTravelTimes}, a turn takes the time of its from-link towards its
+ * to-link, otherwise the travel time of the from-link. The travel disutility
+ * is created for these times, as for the inverted network of the link to link
+ * routing, so turns have the same marginal costs of time and distance as
+ * links.
+ *
+ * The disutility is asked for the turn that is set before, so an instance
+ * must only be used by one thread.
+ *
+ * @author nschirrmacher
+ */
+/* package */ final class TurnCosts {
+
+	private final TurnRoutingGraph graph;
+	private final TravelTime travelTime;
+	// null if the travel times are the same for all turns of a link
+	private final LinkToLinkTravelTime linkToLinkTravelTime;
+	private final TravelDisutility travelDisutility;
+
+	// the to-link of the turn the disutility is asked for
+	private Link toLink = null;
+
+	TurnCosts(TurnRoutingGraph graph, TravelTime travelTime, TravelDisutilityFactory travelDisutilityFactory) {
+		this.graph = graph;
+		this.travelTime = travelTime;
+		this.linkToLinkTravelTime = travelTime instanceof LinkToLinkTravelTime ? (LinkToLinkTravelTime) travelTime
+				: null;
+		this.travelDisutility = travelDisutilityFactory.createTravelDisutility(new TravelTime() {
+			@Override
+			public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+				return travelTime(link, TurnCosts.this.toLink, time, person);
+			}
+		});
+	}
+
+	/**
+	 * @return the time from entering link <code>from</code> to entering link
+	 *         <code>to</code>
+	 */
+	double getTravelTime(int from, int to, double time, Person person) {
+		return travelTime(this.graph.getLink(from), this.graph.getLink(to), time, person);
+	}
+
+	double getTravelDisutility(int from, int to, double time, Person person) {
+		this.toLink = this.graph.getLink(to);
+		try {
+			return this.travelDisutility.getLinkTravelDisutility(this.graph.getLink(from), time, person, null);
+		} finally {
+			this.toLink = null;
+		}
+	}
+
+	/**
+	 * @return a lower bound of the disutilities of all turns from the link
+	 */
+	double getMinimumTravelDisutility(int link) {
+		return this.travelDisutility.getLinkMinimumTravelDisutility(this.graph.getLink(link));
+	}
+
+	/**
+	 * @return the disutilities of all turns of the graph at the given time,
+	 *         by turn
+	 */
+	double[] getTravelDisutilities(double time) {
+		double[] costs = new double[this.graph.getNumberOfTurns()];
+		for (int link = 0; link < this.graph.getNumberOfLinks(); link++) {
+			for (int turn = this.graph.getTurnStart(link); turn < this.graph.getTurnStart(link + 1); turn++) {
+				costs[turn] = getTravelDisutility(link, this.graph.getTurnTarget(turn), time, null);
+			}
+		}
+		return costs;
+	}
+
+	private double travelTime(Link fromLink, Link toLink, double time, Person person) {
+		if (this.linkToLinkTravelTime != null && toLink != null)
+			return this.linkToLinkTravelTime.getLinkToLinkTravelTime(fromLink, toLink, time);
+		return this.travelTime.getLinkTravelTime(fromLink, time, person, null);
+	}
+
+}
@@ -0,0 +1,168 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TurnRoutingGraph.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.lanes.data.Lane;
+import org.matsim.lanes.data.Lanes;
+import org.matsim.lanes.data.LanesToLinkAssignment;
+
+/**
+ * The edge based graph of a network with lanes: every link is a vertex, every
+ * allowed turn from a link to one of its out-links an arc. A link with lanes
+ * only allows the turns to the to-links of its lanes, so turn restrictions
+ * and turn lanes are respected the same way the mobsim does. Links without
+ * lanes allow all turns.
+ *
+ * Turns are stored as primitive arrays in compressed sparse rows, forward and
+ * backward, and the graph does not change after construction, so it can be
+ * shared by the routers of all threads.
+ *
+ * @author nschirrmacher
+ */
+public final class TurnRoutingGraph {
+
+	private final Link[] links;
+	private final Map<Id<Link>, Integer> indices;
+
+	// turns from link i go to turnTarget[turnStart[i]] to turnTarget[turnStart[i + 1] - 1]
+	private final int[] turnStart;
+	private final int[] turnTarget;
+	// turns to link i come from turnSource[reverseTurnStart[i]] to turnSource[reverseTurnStart[i + 1] - 1]
+	private final int[] reverseTurnStart;
+	private final int[] turnSource;
+
+	/**
+	 * @param mode
+	 *            only links allowing this mode are part of the graph
+	 */
+	public TurnRoutingGraph(Network network, Lanes lanes, String mode) {
+		List<Link> modeLinks = new ArrayList<>();
+		for (Link link : network.getLinks().values()) {
+			if (link.getAllowedModes().contains(mode))
+				modeLinks.add(link);
+		}
+		this.links = modeLinks.toArray(new Link[modeLinks.size()]);
+		this.indices = new HashMap<>(2 * this.links.length);
+		for (int i = 0; i < this.links.length; i++) {
+			this.indices.put(this.links[i].getId(), i);
+		}
+
+		this.turnStart = new int[this.links.length + 1];
+		List<int[]> targets = new ArrayList<>(this.links.length);
+		int turns = 0;
+		for (int i = 0; i < this.links.length; i++) {
+			int[] linkTargets = allowedTurns(this.links[i], lanes);
+			targets.add(linkTargets);
+			turns += linkTargets.length;
+			this.turnStart[i + 1] = turns;
+		}
+		this.turnTarget = new int[turns];
+		this.reverseTurnStart = new int[this.links.length + 1];
+		for (int i = 0; i < this.links.length; i++) {
+			System.arraycopy(targets.get(i), 0, this.turnTarget, this.turnStart[i], targets.get(i).length);
+			for (int target : targets.get(i)) {
+				this.reverseTurnStart[target + 1]++;
+			}
+		}
+		for (int i = 0; i < this.links.length; i++) {
+			this.reverseTurnStart[i + 1] += this.reverseTurnStart[i];
+		}
+		this.turnSource = new int[turns];
+		int[] next = new int[this.links.length];
+		System.arraycopy(this.reverseTurnStart, 0, next, 0, next.length);
+		for (int i = 0; i < this.links.length; i++) {
+			for (int turn = this.turnStart[i]; turn < this.turnStart[i + 1]; turn++) {
+				this.turnSource[next[this.turnTarget[turn]]++] = i;
+			}
+		}
+	}
+
+	private int[] allowedTurns(Link link, Lanes lanes) {
+		Set<Id<Link>> toLinkIds = new LinkedHashSet<>();
+		LanesToLinkAssignment l2l = lanes == null ? null : lanes.getLanesToLinkAssignments().get(link.getId());
+		if (l2l != null) {
+			for (Lane lane : l2l.getLanes().values()) {
+				if (lane.getToLinkIds() != null)
+					toLinkIds.addAll(lane.getToLinkIds());
+			}
+		}
+		// without lanes or without to-links, the mobsim lets vehicles turn everywhere
+		if (toLinkIds.isEmpty()) {
+			toLinkIds.addAll(link.getToNode().getOutLinks().keySet());
+		}
+		int[] targets = new int[toLinkIds.size()];
+		int n = 0;
+		for (Id<Link> toLinkId : toLinkIds) {
+			Integer index = this.indices.get(toLinkId);
+			if (index != null)
+				targets[n++] = index;
+		}
+		int[] result = new int[n];
+		System.arraycopy(targets, 0, result, 0, n);
+		return result;
+	}
+
+	public int getNumberOfLinks() {
+		return this.links.length;
+	}
+
+	public int getNumberOfTurns() {
+		return this.turnTarget.length;
+	}
+
+	public Link getLink(int index) {
+		return this.links[index];
+	}
+
+	/**
+	 * @return the index of the link, or -1 if it is not part of the graph
+	 */
+	public int getIndex(Id<Link> linkId) {
+		Integer index = this.indices.get(linkId);
+		return index == null ? -1 : index;
+	}
+
+	/* package */ int getTurnStart(int link) {
+		return this.turnStart[link];
+	}
+
+	/* package */ int getTurnTarget(int turn) {
+		return this.turnTarget[turn];
+	}
+
+	/* package */ int getReverseTurnStart(int link) {
+		return this.reverseTurnStart[link];
+	}
+
+	/* package */ int getTurnSource(int reverseTurn) {
+		return this.turnSource[reverseTurn];
+	}
+
+}
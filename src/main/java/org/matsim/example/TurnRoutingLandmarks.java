@@ -0,0 +1,162 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TurnRoutingLandmarks.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.Arrays;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Landmarks on a {@link TurnRoutingGraph} for A* searches: the lowest costs
+ * from every landmark to every link and back, with the minimum cost of every
+ * link. By the triangle inequality they give a lower bound of the remaining
+ * cost to a target, which never overestimates as long as the costs of a
+ * search are at least the minimum costs.
+ *
+ * The landmarks are chosen one by one, always the link farthest from the ones
+ * chosen so far, so they lie at the border of the network.
+ *
+ * @author nschirrmacher
+ */
+public final class TurnRoutingLandmarks {
+
+	private static final Logger log = Logger.getLogger(TurnRoutingLandmarks.class);
+
+	private final int[] landmarks;
+	// lowest cost from landmark l to the start of link i
+	private final double[][] fromLandmark;
+	// lowest cost from the start of link i to the start of landmark l
+	private final double[][] toLandmark;
+
+	/**
+	 * @param minimumCosts
+	 *            the lowest cost of traversing each link of the graph
+	 */
+	public TurnRoutingLandmarks(TurnRoutingGraph graph, double[] minimumCosts, int numberOfLandmarks) {
+		long start = System.currentTimeMillis();
+		int n = graph.getNumberOfLinks();
+		int[] landmarks = new int[Math.min(numberOfLandmarks, n)];
+		double[][] fromLandmark = new double[landmarks.length][];
+		double[][] toLandmark = new double[landmarks.length][];
+		IndexedMinHeap heap = new IndexedMinHeap(n);
+
+		// sum of the costs to and from all landmarks chosen so far
+		double[] distance = new double[n];
+		int chosen = 0;
+		int next = n == 0 ? -1 : farthest(dijkstra(graph, minimumCosts, 0, true, heap), landmarks, 0);
+		while (chosen < landmarks.length && next >= 0) {
+			landmarks[chosen] = next;
+			fromLandmark[chosen] = dijkstra(graph, minimumCosts, next, true, heap);
+			toLandmark[chosen] = dijkstra(graph, minimumCosts, next, false, heap);
+			for (int i = 0; i < n; i++) {
+				distance[i] += finite(fromLandmark[chosen][i]) + finite(toLandmark[chosen][i]);
+			}
+			chosen++;
+			next = farthest(distance, landmarks, chosen);
+		}
+		this.landmarks = Arrays.copyOf(landmarks, chosen);
+		this.fromLandmark = Arrays.copyOf(fromLandmark, chosen);
+		this.toLandmark = Arrays.copyOf(toLandmark, chosen);
+		log.info("computed " + chosen + " landmarks for " + n + " links in "
+				+ (System.currentTimeMillis() - start) + " ms");
+	}
+
+	/**
+	 * @return a lower bound of the cost from the start of link <code>from</code>
+	 *         to the start of link <code>to</code>
+	 */
+	public double getLowerBound(int from, int to) {
+		double bound = 0;
+		for (int l = 0; l < this.landmarks.length; l++) {
+			double[] fromL = this.fromLandmark[l];
+			double[] toL = this.toLandmark[l];
+			// d(L, to) - d(L, from) and d(from, L) - d(to, L); unreachable links give no bound
+			if (fromL[to] != Double.POSITIVE_INFINITY && fromL[from] != Double.POSITIVE_INFINITY)
+				bound = Math.max(bound, fromL[to] - fromL[from]);
+			if (toL[from] != Double.POSITIVE_INFINITY && toL[to] != Double.POSITIVE_INFINITY)
+				bound = Math.max(bound, toL[from] - toL[to]);
+		}
+		return bound;
+	}
+
+	public int getNumberOfLandmarks() {
+		return this.landmarks.length;
+	}
+
+	/*
+	 * Lowest costs from (forward) or to (backward) the start of the given
+	 * link. A turn from link a costs the minimum cost of a.
+	 */
+	private static double[] dijkstra(TurnRoutingGraph graph, double[] minimumCosts, int source, boolean forward,
+			IndexedMinHeap heap) {
+		double[] costs = new double[graph.getNumberOfLinks()];
+		Arrays.fill(costs, Double.POSITIVE_INFINITY);
+		costs[source] = 0;
+		heap.clear();
+		heap.insertOrDecrease(source, 0);
+		while (!heap.isEmpty()) {
+			int link = heap.poll();
+			if (forward) {
+				double cost = costs[link] + minimumCosts[link];
+				for (int turn = graph.getTurnStart(link); turn < graph.getTurnStart(link + 1); turn++) {
+					int target = graph.getTurnTarget(turn);
+					if (cost < costs[target]) {
+						costs[target] = cost;
+						heap.insertOrDecrease(target, cost);
+					}
+				}
+			} else {
+				for (int turn = graph.getReverseTurnStart(link); turn < graph.getReverseTurnStart(link + 1); turn++) {
+					int predecessor = graph.getTurnSource(turn);
+					double cost = costs[link] + minimumCosts[predecessor];
+					if (cost < costs[predecessor]) {
+						costs[predecessor] = cost;
+						heap.insertOrDecrease(predecessor, cost);
+					}
+				}
+			}
+		}
+		return costs;
+	}
+
+	private static int farthest(double[] distance, int[] excluded, int numberOfExcluded) {
+		int farthest = -1;
+		for (int i = 0; i < distance.length; i++) {
+			if (distance[i] == Double.POSITIVE_INFINITY || contains(excluded, numberOfExcluded, i))
+				continue;
+			if (farthest < 0 || distance[i] > distance[farthest])
+				farthest = i;
+		}
+		return farthest;
+	}
+
+	private static boolean contains(int[] array, int length, int value) {
+		for (int i = 0; i < length; i++) {
+			if (array[i] == value)
+				return true;
+		}
+		return false;
+	}
+
+	private static double finite(double value) {
+		return value == Double.POSITIVE_INFINITY ? 0 : value;
+	}
+
+}
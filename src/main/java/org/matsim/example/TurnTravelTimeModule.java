@@ -0,0 +1,91 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TurnTravelTimeModule.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import javax.inject.Inject;
+import javax.inject.Provider;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.core.controler.AbstractModule;
+import org.matsim.core.router.util.LinkToLinkTravelTime;
+
+/**
+ * Uses the {@link TurnTravelTimes} as travel times of car, for the routers and
+ * the {@link TurnContractionHierarchy}, which take the times of the turns from
+ * it, and as the {@link LinkToLinkTravelTime}. The link to link travel times
+ * of the travel time calculator of MATSim must therefore be disabled. Its bin
+ * size is independent of the one of the travel time calculator, which then is
+ * only needed for the analysis and can use coarse bins.
+ *
+ * @author nschirrmacher
+ */
+public class TurnTravelTimeModule extends AbstractModule {
+
+	private final int binSize;
+
+	/**
+	 * @param binSize
+	 *            in seconds
+	 */
+	public TurnTravelTimeModule(int binSize) {
+		this.binSize = binSize;
+	}
+
+	@Override
+	public void install() {
+		bind(TurnTravelTimes.class).toProvider(new TurnTravelTimesProvider(this.binSize));
+		addEventHandlerBinding().to(TurnTravelTimes.class);
+		addTravelTimeBinding(TransportMode.car).to(TurnTravelTimes.class);
+		bind(LinkToLinkTravelTime.class).to(TurnTravelTimes.class);
+	}
+
+	/* package */ static final class TurnTravelTimesProvider implements Provider<TurnTravelTimes> {
+
+		private static final Logger log = Logger.getLogger(TurnTravelTimesProvider.class);
+
+		private final int binSize;
+
+		@Inject
+		private Scenario scenario;
+
+		private TurnTravelTimes travelTimes = null;
+
+		TurnTravelTimesProvider(int binSize) {
+			this.binSize = binSize;
+		}
+
+		@Override
+		public synchronized TurnTravelTimes get() {
+			// the same instance collects the travel times and is used by the routers
+			if (this.travelTimes == null) {
+				TurnRoutingGraph graph = new TurnRoutingGraph(this.scenario.getNetwork(), this.scenario.getLanes(),
+						TransportMode.car);
+				this.travelTimes = new TurnTravelTimes(graph, this.binSize,
+						this.scenario.getConfig().travelTimeCalculator().getMaxTime());
+				log.info("storing the travel times of " + graph.getNumberOfTurns() + " turns in bins of "
+						+ this.binSize + " s");
+			}
+			return this.travelTimes;
+		}
+	}
+
+}
@@ -0,0 +1,241 @@
+/* *********************************************************************** *
+ * project: org.matsim.*
+ * TurnTravelTimes.java
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.events.VehicleAbortsEvent;
+import org.matsim.api.core.v01.events.VehicleEntersTrafficEvent;
+import org.matsim.api.core.v01.events.VehicleLeavesTrafficEvent;
+import org.matsim.api.core.v01.events.handler.LinkEnterEventHandler;
+import org.matsim.api.core.v01.events.handler.LinkLeaveEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleAbortsEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleEntersTrafficEventHandler;
+import org.matsim.api.core.v01.events.handler.VehicleLeavesTrafficEventHandler;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.router.util.LinkToLinkTravelTime;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Travel times of the turns of a {@link TurnRoutingGraph}, measured from the
+ * events of an iteration. The time of a turn from link a to link b is the time
+ * between entering and leaving a of the vehicles that go on to b, per time bin
+ * of entering a. The travel time of a link is the mean over all its turns.
+ *
+ * The sums and numbers of travel times are stored in float arrays per turn and
+ * block of {@link #BLOCK_SIZE} bins, which are only allocated when a vehicle
+ * makes the turn in one of these bins. With bins of 60 s, a turn used for 24
+ * hours needs about 12 kB, turns without traffic nothing but the empty
+ * references. Allocated blocks are kept and zeroed when the event handlers
+ * are reset, as the same turns are used again in the next iteration.
+ *
+ * As the travel time calculator of MATSim, the travel times are the ones of
+ * the last iteration while routing. Afterwards they must only be read.
+ *
+ * @author nschirrmacher
+ */
+public final class TurnTravelTimes implements TravelTime, LinkToLinkTravelTime, LinkEnterEventHandler,
+		LinkLeaveEventHandler, VehicleEntersTrafficEventHandler, VehicleLeavesTrafficEventHandler,
+		VehicleAbortsEventHandler {
+
+	private static final Logger log = Logger.getLogger(TurnTravelTimes.class);
+
+	// bins per block, about an hour with bins of 60 s
+	static final int BLOCK_SIZE = 64;
+
+	private final TurnRoutingGraph graph;
+	private final int binSize;
+	private final int numberOfBins;
+	private final int blocksPerTurn;
+	/*
+	 * block b of turn t is blocks[t * blocksPerTurn + b], with the sum of the
+	 * travel times of its bin i at 2 * i and their number at 2 * i + 1. null
+	 * while no vehicle made the turn in the bins of the block.
+	 */
+	private final float[][] blocks;
+
+	private final Map<Id<Vehicle>, VehicleOnLink> vehicles = new HashMap<>();
+
+	/**
+	 * @param binSize
+	 *            in seconds
+	 * @param maxTime
+	 *            the end of the last time bin in seconds, later times belong
+	 *            to the last bin
+	 */
+	public TurnTravelTimes(TurnRoutingGraph graph, int binSize, int maxTime) {
+		this.graph = graph;
+		this.binSize = binSize;
+		this.numberOfBins = maxTime / binSize + 1;
+		this.blocksPerTurn = (this.numberOfBins + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		this.blocks = new float[graph.getNumberOfTurns() * this.blocksPerTurn][];
+	}
+
+	/**
+	 * @return the mean time of the vehicles on the link in the time bin of
+	 *         <code>time</code>, but at least the free speed travel time
+	 */
+	@Override
+	public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+		double freeSpeedTravelTime = link.getLength() / link.getFreespeed(time);
+		int index = this.graph.getIndex(link.getId());
+		if (index < 0)
+			return freeSpeedTravelTime;
+		int bin = bin(time);
+		double sum = 0;
+		double count = 0;
+		for (int turn = this.graph.getTurnStart(index); turn < this.graph.getTurnStart(index + 1); turn++) {
+			float[] block = this.blocks[turn * this.blocksPerTurn + bin / BLOCK_SIZE];
+			if (block != null) {
+				sum += block[2 * (bin % BLOCK_SIZE)];
+				count += block[2 * (bin % BLOCK_SIZE) + 1];
+			}
+		}
+		return count == 0 ? freeSpeedTravelTime : Math.max(freeSpeedTravelTime, sum / count);
+	}
+
+	/**
+	 * @return the mean time of the vehicles on <code>fromLink</code> going to
+	 *         <code>toLink</code>, or the link travel time if there were none
+	 *         in the time bin of <code>time</code>
+	 */
+	@Override
+	public double getLinkToLinkTravelTime(Link fromLink, Link toLink, double time) {
+		int turn = turn(this.graph.getIndex(fromLink.getId()), this.graph.getIndex(toLink.getId()));
+		if (turn >= 0) {
+			int bin = bin(time);
+			float[] block = this.blocks[turn * this.blocksPerTurn + bin / BLOCK_SIZE];
+			if (block != null && block[2 * (bin % BLOCK_SIZE) + 1] > 0) {
+				double freeSpeedTravelTime = fromLink.getLength() / fromLink.getFreespeed(time);
+				return Math.max(freeSpeedTravelTime,
+						block[2 * (bin % BLOCK_SIZE)] / block[2 * (bin % BLOCK_SIZE) + 1]);
+			}
+		}
+		return getLinkTravelTime(fromLink, time, null, null);
+	}
+
+	@Override
+	public void handleEvent(LinkEnterEvent event) {
+		int link = this.graph.getIndex(event.getLinkId());
+		VehicleOnLink vehicle = this.vehicles.get(event.getVehicleId());
+		if (vehicle == null) {
+			vehicle = new VehicleOnLink();
+			this.vehicles.put(event.getVehicleId(), vehicle);
+		} else if (vehicle.link >= 0 && link >= 0 && vehicle.leaveTime >= 0) {
+			add(turn(vehicle.link, link), vehicle.enterTime, vehicle.leaveTime - vehicle.enterTime);
+		}
+		vehicle.link = link;
+		vehicle.enterTime = event.getTime();
+		vehicle.leaveTime = -1;
+	}
+
+	@Override
+	public void handleEvent(LinkLeaveEvent event) {
+		VehicleOnLink vehicle = this.vehicles.get(event.getVehicleId());
+		if (vehicle != null) {
+			vehicle.leaveTime = event.getTime();
+		}
+	}
+
+	@Override
+	public void handleEvent(VehicleEntersTrafficEvent event) {
+		// the departure link was not entered, so its time is not measured
+		VehicleOnLink vehicle = this.vehicles.get(event.getVehicleId());
+		if (vehicle == null) {
+			vehicle = new VehicleOnLink();
+			this.vehicles.put(event.getVehicleId(), vehicle);
+		}
+		vehicle.link = -1;
+	}
+
+	@Override
+	public void handleEvent(VehicleLeavesTrafficEvent event) {
+		stop(event.getVehicleId());
+	}
+
+	@Override
+	public void handleEvent(VehicleAbortsEvent event) {
+		stop(event.getVehicleId());
+	}
+
+	@Override
+	public void reset(int iteration) {
+		this.vehicles.clear();
+		int allocated = 0;
+		for (float[] block : this.blocks) {
+			if (block != null) {
+				Arrays.fill(block, 0);
+				allocated++;
+			}
+		}
+		log.info(allocated + " of " + this.blocks.length + " blocks of turn travel times are allocated");
+	}
+
+	private void stop(Id<Vehicle> vehicleId) {
+		VehicleOnLink vehicle = this.vehicles.get(vehicleId);
+		if (vehicle != null) {
+			vehicle.link = -1;
+		}
+	}
+
+	private void add(int turn, double enterTime, double travelTime) {
+		// turns the lanes do not allow, e.g. of vehicles of other modes
+		if (turn < 0)
+			return;
+		int bin = bin(enterTime);
+		int index = turn * this.blocksPerTurn + bin / BLOCK_SIZE;
+		if (this.blocks[index] == null) {
+			this.blocks[index] = new float[2 * BLOCK_SIZE];
+		}
+		this.blocks[index][2 * (bin % BLOCK_SIZE)] += travelTime;
+		this.blocks[index][2 * (bin % BLOCK_SIZE) + 1]++;
+	}
+
+	private int bin(double time) {
+		return Math.min(this.numberOfBins - 1, (int) (Math.max(0, time) / this.binSize));
+	}
+
+	private int turn(int from, int to) {
+		if (from < 0 || to < 0)
+			return -1;
+		for (int turn = this.graph.getTurnStart(from); turn < this.graph.getTurnStart(from + 1); turn++) {
+			if (this.graph.getTurnTarget(turn) == to)
+				return turn;
+		}
+		return -1;
+	}
+
+	private static final class VehicleOnLink {
+		// -1 if the vehicle is not on a link it has entered
+		int link = -1;
+		double enterTime;
+		// -1 while the vehicle is on the link
+		double leaveTime = -1;
+	}
+
+}
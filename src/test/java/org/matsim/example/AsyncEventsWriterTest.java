@@ -0,0 +1,120 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.events.ActivityStartEvent;
+import org.matsim.api.core.v01.events.Event;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.core.controler.events.BeforeMobsimEvent;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.events.algorithms.EventWriterXML;
+
+/**
+ * @author nschirrmacher
+ *
+ */
+public class AsyncEventsWriterTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/*
+	 * More events than the buffer holds, so the handler has to wait for the
+	 * writer thread to free slots.
+	 */
+	@Test(timeout = 60000)
+	public final void testSameAsEventWriterXML() throws IOException {
+		AsyncEventsWriter writer = createWriter();
+		String reference = new File(this.folder.getRoot(), "reference.xml").getPath();
+		EventWriterXML referenceWriter = new EventWriterXML(reference);
+		writer.notifyBeforeMobsim(new BeforeMobsimEvent(null, 0));
+		for (int i = 0; i < 3 * AsyncEventsWriter.BUFFER_SIZE + 17; i++) {
+			Event event = createEvent(i);
+			writer.handleEvent(event);
+			referenceWriter.handleEvent(event);
+		}
+		writer.notifyIterationEnds(new IterationEndsEvent(null, 0));
+		referenceWriter.closeFile();
+
+		byte[] expected = Files.readAllBytes(Paths.get(reference));
+		byte[] actual = Files.readAllBytes(Paths.get(writer.controlerIO.getIterationFilename(0, "events.xml")));
+		Assert.assertArrayEquals(expected, actual);
+	}
+
+	/*
+	 * The writer thread stops at the failure, so the handler would wait
+	 * forever once the buffer is full.
+	 */
+	@Test(timeout = 60000)
+	public final void testFailureOnWriterThread() {
+		AsyncEventsWriter writer = createWriter();
+		writer.notifyBeforeMobsim(new BeforeMobsimEvent(null, 0));
+		final RuntimeException failure = new RuntimeException("broken event");
+		writer.handleEvent(new Event(0) {
+			@Override
+			public String getEventType() {
+				return "broken";
+			}
+
+			@Override
+			public Map<String, String> getAttributes() {
+				throw failure;
+			}
+		});
+		try {
+			for (int i = 0; i <= AsyncEventsWriter.BUFFER_SIZE; i++) {
+				writer.handleEvent(createEvent(i));
+			}
+			writer.notifyIterationEnds(new IterationEndsEvent(null, 0));
+			Assert.fail("failure of the writer thread was not thrown");
+		} catch (RuntimeException e) {
+			Assert.assertSame(failure, e.getCause());
+		}
+	}
+
+	private AsyncEventsWriter createWriter() {
+		AsyncEventsWriter writer = new AsyncEventsWriter(1, AsyncEventsWriter.Compression.NONE);
+		writer.controlerIO = new OutputDirectoryHierarchy(new File(this.folder.getRoot(), "output").getPath(),
+				OverwriteFileSetting.deleteDirectoryIfExists);
+		new File(writer.controlerIO.getIterationPath(0)).mkdirs();
+		return writer;
+	}
+
+	// the activity types need to be encoded
+	private static Event createEvent(int i) {
+		if (i % 3 == 0) {
+			return new ActivityStartEvent(i, Id.createPersonId("p" + i), Id.createLinkId("l" + i % 50), null, "work & \"more\" <" + i + ">");
+		}
+		return new LinkEnterEvent(i, Id.createVehicleId("v" + i % 100), Id.createLinkId("l" + i % 50));
+	}
+
+}
@@ -0,0 +1,168 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupSettingsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalPlanData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalSystemControllerData;
+import org.matsim.contrib.signals.data.signalsystems.v20.SignalSystemData;
+import org.matsim.lanes.data.Lane;
+import org.matsim.lanes.data.Lanes;
+import org.matsim.lanes.data.LanesToLinkAssignment;
+import org.matsim.utils.objectattributes.attributable.Attributes;
+
+/**
+ * Writes network, lanes and signals as sorted lines of text, one per element,
+ * which do not depend on the order of the containers. The lines contain all
+ * attributes of nodes, links and lanes. Two conversions are
+ * equivalent if their lines are equal, otherwise {@link #diff} shows the
+ * lines only one of them has.
+ *
+ * @author nschirrmacher
+ */
+final class CanonicalScenarioDiff {
+
+	private CanonicalScenarioDiff() {
+	}
+
+	static List<String> canonicalize(Network network, Lanes lanes, SignalsData signalsData) {
+		List<String> lines = new ArrayList<>();
+		for (Node node : network.getNodes().values()) {
+			lines.add("node " + node.getId() + " " + node.getCoord().getX() + " " + node.getCoord().getY() + " "
+					+ attributes(node.getAttributes()));
+		}
+		for (Link link : network.getLinks().values()) {
+			lines.add("link " + link.getId() + " " + link.getFromNode().getId() + " " + link.getToNode().getId() + " "
+					+ link.getLength() + " " + link.getFreespeed() + " " + link.getCapacity() + " "
+					+ link.getNumberOfLanes() + " " + sorted(link.getAllowedModes()) + " " + attributes(link.getAttributes()));
+		}
+		for (LanesToLinkAssignment l2l : lanes.getLanesToLinkAssignments().values()) {
+			for (Lane lane : l2l.getLanes().values()) {
+				lines.add("lane " + l2l.getLinkId() + " " + lane.getId() + " " + lane.getNumberOfRepresentedLanes() + " "
+						+ lane.getStartsAtMeterFromLinkEnd() + " " + lane.getCapacityVehiclesPerHour() + " "
+						+ lane.getAlignment() + " to links " + sorted(lane.getToLinkIds()) + " to lanes "
+						+ sorted(lane.getToLaneIds()) + " " + attributes(lane.getAttributes()));
+			}
+		}
+		for (SignalSystemData system : signalsData.getSignalSystemsData().getSignalSystemData().values()) {
+			lines.add("system " + system.getId());
+			for (SignalData signal : system.getSignalData().values()) {
+				lines.add("signal " + system.getId() + " " + signal.getId() + " " + signal.getLinkId() + " "
+						+ sorted(signal.getLaneIds()) + " " + sorted(signal.getTurningMoveRestrictions()));
+			}
+		}
+		for (Map<?, SignalGroupData> groups : signalsData.getSignalGroupsData().getSignalGroupDataBySignalSystemId().values()) {
+			for (SignalGroupData group : groups.values()) {
+				lines.add("group " + group.getSignalSystemId() + " " + group.getId() + " " + sorted(group.getSignalIds()));
+			}
+		}
+		for (SignalSystemControllerData controller : signalsData.getSignalControlData().getSignalSystemControllerDataBySystemId().values()) {
+			lines.add("controller " + controller.getSignalSystemId() + " " + controller.getControllerIdentifier());
+			for (SignalPlanData plan : controller.getSignalPlanData().values()) {
+				String planKey = controller.getSignalSystemId() + " " + plan.getId();
+				lines.add("plan " + planKey + " " + plan.getCycleTime() + " " + plan.getOffset() + " "
+						+ plan.getStartTime() + " " + plan.getEndTime());
+				for (SignalGroupSettingsData settings : plan.getSignalGroupSettingsDataByGroupId().values()) {
+					lines.add("settings " + planKey + " " + settings.getSignalGroupId() + " " + settings.getOnset() + " "
+							+ settings.getDropping());
+				}
+			}
+		}
+		Collections.sort(lines);
+		return lines;
+	}
+
+	/**
+	 * @return <code>null</code> if both are equal, otherwise the number of
+	 *         differing lines and the first <code>maxLines</code> of them,
+	 *         prefixed by - for expected and + for actual lines
+	 */
+	static String diff(List<String> expected, List<String> actual, int maxLines) {
+		TreeSet<String> onlyExpected = new TreeSet<>(expected);
+		onlyExpected.removeAll(actual);
+		TreeSet<String> onlyActual = new TreeSet<>(actual);
+		onlyActual.removeAll(expected);
+		if (onlyExpected.isEmpty() && onlyActual.isEmpty()) {
+			if (expected.size() == actual.size())
+				return null;
+			return "same lines, but " + expected.size() + " expected and " + actual.size() + " actual lines";
+		}
+		StringBuilder sb = new StringBuilder();
+		sb.append(onlyExpected.size()).append(" lines missing, ").append(onlyActual.size()).append(" lines added");
+		int lines = 0;
+		for (String line : onlyExpected) {
+			if (lines++ == maxLines)
+				break;
+			sb.append("\n- ").append(line);
+		}
+		lines = 0;
+		for (String line : onlyActual) {
+			if (lines++ == maxLines)
+				break;
+			sb.append("\n+ ").append(line);
+		}
+		return sb.toString();
+	}
+
+	/*
+	 * All attributes sorted by key, maps (like toLinksAngles) sorted by their
+	 * keys as well.
+	 */
+	private static String attributes(Attributes attributes) {
+		List<String> entries = new ArrayList<>();
+		for (Map.Entry<String, Object> entry : attributes.getAsMap().entrySet())
+			entries.add(entry.getKey() + "=" + value(entry.getValue()));
+		Collections.sort(entries);
+		return entries.toString();
+	}
+
+	private static String value(Object value) {
+		if (!(value instanceof Map))
+			return String.valueOf(value);
+		List<String> entries = new ArrayList<>();
+		for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet())
+			entries.add(entry.getKey() + "=" + value(entry.getValue()));
+		Collections.sort(entries);
+		return "{" + entries + "}";
+	}
+
+	private static String sorted(Collection<?> elements) {
+		if (elements == null)
+			return "[]";
+		List<String> strings = new ArrayList<>(elements.size());
+		for (Object element : elements)
+			strings.add(element.toString());
+		Collections.sort(strings);
+		return strings.toString();
+	}
+
+}
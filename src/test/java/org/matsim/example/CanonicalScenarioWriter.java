@@ -0,0 +1,105 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.contrib.signals.SignalSystemsConfigGroup;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.contrib.signals.data.SignalsDataLoader;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.core.utils.geometry.transformations.TransformationFactory;
+import org.matsim.core.utils.io.IOUtils;
+import org.matsim.core.utils.io.UncheckedIOException;
+
+/**
+ * Writes the canonical lines of {@link CanonicalScenarioDiff} of a converted
+ * osm file, which the equivalence test uses as golden file. The conversion
+ * only uses the constructor, setAssumptions and parse of
+ * {@link OsmNetworkWithLanesAndSignalsReader}, so this class and
+ * {@link CanonicalScenarioDiff} also compile against the baseline converter.
+ * To create the golden file, check out the baseline commit, copy both
+ * classes into its test sources and run
+ * <code>CanonicalScenarioWriter ./input/map_erp.osm ./input/map_erp_canonical.txt</code>.
+ *
+ * @author nschirrmacher
+ */
+final class CanonicalScenarioWriter {
+
+	private static final Logger log = Logger.getLogger(CanonicalScenarioWriter.class);
+
+	private CanonicalScenarioWriter() {
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			log.error("usage: CanonicalScenarioWriter <osm file> <output file>");
+			return;
+		}
+		write(convert(args[0]), args[1]);
+	}
+
+	static List<String> convert(String osmFilename) {
+		Config config = ConfigUtils.createConfig();
+		ConfigUtils.addOrGetModule(config, SignalSystemsConfigGroup.GROUPNAME, SignalSystemsConfigGroup.class).setUseSignalSystems(true);
+		config.qsim().setUseLanes(true);
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		SignalsData signalsData = new SignalsDataLoader(config).loadSignalsData();
+		scenario.addScenarioElement(SignalsData.ELEMENT_NAME, signalsData);
+		OsmNetworkWithLanesAndSignalsReader reader = new OsmNetworkWithLanesAndSignalsReader(scenario.getNetwork(),
+				TransformationFactory.getCoordinateTransformation(TransformationFactory.WGS84, TransformationFactory.WGS84_UTM33N),
+				signalsData, scenario.getLanes());
+		reader.setAssumptions(false, false, false, true, true, false, "realistic_very_restricted");
+		reader.parse(osmFilename);
+		return CanonicalScenarioDiff.canonicalize(scenario.getNetwork(), scenario.getLanes(), signalsData);
+	}
+
+	static void write(List<String> lines, String filename) {
+		try (BufferedWriter writer = IOUtils.getBufferedWriter(filename)) {
+			for (String line : lines) {
+				writer.write(line);
+				writer.newLine();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		log.info("wrote " + lines.size() + " lines to " + filename);
+	}
+
+	static List<String> read(String filename) {
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = IOUtils.getBufferedReader(filename)) {
+			for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+				lines.add(line);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		return lines;
+	}
+
+}
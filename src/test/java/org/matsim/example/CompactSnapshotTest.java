@@ -0,0 +1,130 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.vis.snapshotwriters.AgentSnapshotInfo;
+
+/**
+ * @author nschirrmacher
+ *
+ */
+public class CompactSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public final void testRoundTripAndTimeRange() throws IOException {
+		String filename = this.folder.newFile(CompactSnapshotWriter.FILENAME).getPath();
+		Random random = new Random(4711);
+		// more snapshots than one chunk, agents come and go
+		List<String> written = new ArrayList<>();
+		List<double[]> writtenPositions = new ArrayList<>();
+		CompactSnapshotWriter writer = new CompactSnapshotWriter(filename);
+		double[] xs = new double[50];
+		double[] ys = new double[50];
+		for (int a = 0; a < xs.length; a++) {
+			xs[a] = 450000 + random.nextDouble() * 10000;
+			ys[a] = 5730000 + random.nextDouble() * 10000;
+		}
+		for (int s = 0; s < 3 * CompactSnapshotWriter.CHUNK_SNAPSHOTS + 7; s++) {
+			double time = 3600 + s * 10;
+			writer.beginSnapshot(time);
+			for (int a = (s / 20) % 5; a < xs.length; a += 1 + (s % 3)) {
+				xs[a] += random.nextDouble() * 100;
+				ys[a] -= random.nextDouble() * 100;
+				AgentSnapshotInfo.AgentState state = a % 4 == 0 ? null : AgentSnapshotInfo.AgentState.values()[a % 3];
+				writer.addAgent(Id.createPersonId("p" + a), xs[a], ys[a], state, (a % 10) / 9.);
+				written.add(line(time, Id.createPersonId("p" + a), state, (a % 10) / 9.));
+				writtenPositions.add(new double[] { time, xs[a], ys[a] });
+			}
+			writer.endSnapshot();
+		}
+		writer.finish();
+
+		CompactSnapshotReader reader = new CompactSnapshotReader(filename);
+		Assert.assertEquals(3 * CompactSnapshotWriter.CHUNK_SNAPSHOTS + 7, reader.getNumberOfSnapshots());
+		Assert.assertEquals(3600, reader.getFirstTime(), 0);
+		List<double[]> positions = new ArrayList<>();
+		Assert.assertEquals(written, read(reader, 0, Double.POSITIVE_INFINITY, positions));
+		assertPositions(writtenPositions, positions);
+
+		// from the middle of a chunk
+		List<String> expected = new ArrayList<>();
+		List<double[]> expectedPositions = new ArrayList<>();
+		for (int i = 0; i < written.size(); i++) {
+			double time = writtenPositions.get(i)[0];
+			if (time >= 4500 && time <= 5000) {
+				expected.add(written.get(i));
+				expectedPositions.add(writtenPositions.get(i));
+			}
+		}
+		positions.clear();
+		Assert.assertEquals(expected, read(reader, 4500, 5000, positions));
+		assertPositions(expectedPositions, positions);
+	}
+
+	// positions are quantized to the resolution of the file
+	private static void assertPositions(List<double[]> expected, List<double[]> actual) {
+		Assert.assertEquals(expected.size(), actual.size());
+		double delta = CompactSnapshotWriter.RESOLUTION / 2 + 1e-6;
+		for (int i = 0; i < expected.size(); i++) {
+			Assert.assertEquals(expected.get(i)[1], actual.get(i)[1], delta);
+			Assert.assertEquals(expected.get(i)[2], actual.get(i)[2], delta);
+		}
+	}
+
+	private static List<String> read(CompactSnapshotReader reader, double fromTime, double toTime,
+			final List<double[]> positions) {
+		final List<String> lines = new ArrayList<>();
+		reader.read(fromTime, toTime, new CompactSnapshotReader.SnapshotHandler() {
+			private double time;
+
+			@Override
+			public void beginSnapshot(double time) {
+				this.time = time;
+			}
+
+			@Override
+			public void addAgent(Id<Person> agentId, double easting, double northing,
+					AgentSnapshotInfo.AgentState state, double colorValue) {
+				lines.add(line(this.time, agentId, state, colorValue));
+				positions.add(new double[] { this.time, easting, northing });
+			}
+		});
+		return lines;
+	}
+
+	private static String line(double time, Id<Person> agentId, AgentSnapshotInfo.AgentState state,
+			double colorValue) {
+		return time + ";" + agentId + ";" + state + ";" + Math.round(colorValue * 255);
+	}
+
+}
@@ -0,0 +1,77 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.lanes.data.Lane;
+
+/**
+ * @author nschirrmacher
+ *
+ */
+public class LaneConflictMatrixTest {
+
+	@Test
+	public final void testSerializationRoundTrip() {
+		List<Id<Lane>> laneIds = new ArrayList<>();
+		for (int i = 1; i <= 12; i++) {
+			laneIds.add(Id.create("Lane" + i + ".1", Lane.class));
+		}
+		LaneConflictMatrix matrix = new LaneConflictMatrix(laneIds);
+		matrix.setCritical(laneIds.get(0), laneIds.get(11));
+		matrix.setNonCritical(laneIds.get(0), laneIds.get(1));
+		matrix.setCritical(laneIds.get(11), laneIds.get(0));
+		matrix.setNonCritical(laneIds.get(7), laneIds.get(3));
+
+		LaneConflictMatrix read = LaneConflictMatrix.parse(matrix.serialize());
+		Assert.assertEquals(12, read.size());
+		for (int i = 0; i < laneIds.size(); i++) {
+			Assert.assertEquals(laneIds.get(i), read.getLaneId(i));
+			for (int j = 0; j < laneIds.size(); j++) {
+				Assert.assertEquals(matrix.isCritical(i, j), read.isCritical(i, j));
+				Assert.assertEquals(matrix.isNonCritical(i, j), read.isNonCritical(i, j));
+			}
+		}
+		Assert.assertTrue(read.isCritical(laneIds.get(0), laneIds.get(11)));
+		Assert.assertFalse(read.isCritical(laneIds.get(1), laneIds.get(0)));
+	}
+
+	@Test
+	public final void testClearRow() {
+		List<Id<Lane>> laneIds = new ArrayList<>();
+		laneIds.add(Id.create("Lane1.1", Lane.class));
+		laneIds.add(Id.create("Lane1.2", Lane.class));
+		laneIds.add(Id.create("Lane2.1", Lane.class));
+		LaneConflictMatrix matrix = new LaneConflictMatrix(laneIds);
+		matrix.setCritical(laneIds.get(0), laneIds.get(2));
+		matrix.setNonCritical(laneIds.get(0), laneIds.get(1));
+		matrix.setNonCritical(laneIds.get(1), laneIds.get(0));
+
+		matrix.clearRow(laneIds.get(0));
+		Assert.assertFalse(matrix.hasRelations(laneIds.get(0)));
+		Assert.assertTrue(matrix.hasRelations(laneIds.get(1)));
+		Assert.assertFalse(matrix.isCritical(Id.create("unknown", Lane.class), laneIds.get(0)));
+	}
+
+}
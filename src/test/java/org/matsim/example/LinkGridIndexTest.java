@@ -0,0 +1,76 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+
+/**
+ * @author nschirrmacher
+ *
+ */
+public class LinkGridIndexTest {
+
+	@Test
+	public final void testNearestLinkAsBruteForce() {
+		Random random = new Random(4711);
+		Network network = NetworkUtils.createNetwork();
+		for (int i = 0; i < 500; i++) {
+			double x = random.nextDouble() * 10000;
+			double y = random.nextDouble() * 5000;
+			// some long links that span many cells
+			double length = i % 20 == 0 ? 3000 : 200;
+			Node from = network.getFactory().createNode(Id.createNodeId("f" + i), new Coord(x, y));
+			Node to = network.getFactory().createNode(Id.createNodeId("t" + i),
+					new Coord(x + (random.nextDouble() - 0.5) * length, y + (random.nextDouble() - 0.5) * length));
+			network.addNode(from);
+			network.addNode(to);
+			network.addLink(network.getFactory().createLink(Id.createLinkId(i), from, to));
+		}
+		LinkGridIndex index = new LinkGridIndex(network.getLinks().values());
+		for (int q = 0; q < 1000; q++) {
+			// also outside of the network's bounding box
+			Coord coord = new Coord(random.nextDouble() * 16000 - 3000, random.nextDouble() * 10000 - 2500);
+			double nearest = Double.POSITIVE_INFINITY;
+			for (Link link : network.getLinks().values()) {
+				nearest = Math.min(nearest, distance(link, coord));
+			}
+			Assert.assertEquals(nearest, distance(index.getNearestLink(coord), coord), 1e-9);
+		}
+	}
+
+	private static double distance(Link link, Coord coord) {
+		Coord from = link.getFromNode().getCoord();
+		Coord to = link.getToNode().getCoord();
+		double dx = to.getX() - from.getX();
+		double dy = to.getY() - from.getY();
+		double t = ((coord.getX() - from.getX()) * dx + (coord.getY() - from.getY()) * dy) / (dx * dx + dy * dy);
+		t = Math.max(0, Math.min(1, t));
+		return Math.hypot(from.getX() + t * dx - coord.getX(), from.getY() + t * dy - coord.getY());
+	}
+
+}
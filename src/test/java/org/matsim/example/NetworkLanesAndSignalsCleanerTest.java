@@ -0,0 +1,197 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.signals.SignalSystemsConfigGroup;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.contrib.signals.data.SignalsDataLoader;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupSettingsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalPlanData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalSystemControllerData;
+import org.matsim.contrib.signals.data.signalsystems.v20.SignalSystemData;
+import org.matsim.contrib.signals.model.DefaultPlanbasedSignalSystemController;
+import org.matsim.contrib.signals.model.Signal;
+import org.matsim.contrib.signals.model.SignalGroup;
+import org.matsim.contrib.signals.model.SignalPlan;
+import org.matsim.contrib.signals.model.SignalSystem;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.lanes.data.Lane;
+import org.matsim.lanes.data.Lanes;
+import org.matsim.lanes.data.LanesToLinkAssignment;
+
+/**
+ * @author nschirrmacher
+ *
+ */
+public class NetworkLanesAndSignalsCleanerTest {
+
+	@Test
+	public final void testBiggestStronglyConnectedComponent() {
+		// cycle 0-1-2-3, dead end 3->4, one way 5->0 and a separate cycle 6-7
+		int[][] successors = new int[][] {
+			{1}, {2}, {3, 0}, {0, 4}, {}, {0}, {7}, {6}
+		};
+		boolean[] inBiggest = NetworkLanesAndSignalsCleaner.findBiggestStronglyConnectedComponent(successors);
+		boolean[] expected = new boolean[] {true, true, true, true, false, false, false, false};
+		Assert.assertArrayEquals(expected, inBiggest);
+	}
+
+	@Test
+	public final void testEmptyNetwork() {
+		Assert.assertEquals(0, NetworkLanesAndSignalsCleaner.findBiggestStronglyConnectedComponent(new int[0][]).length);
+	}
+
+	/*
+	 * Link 23 is the only way to node 4, so the dead end 34 is removed. The
+	 * lane of link 23 leading there goes with it, then the signal on that
+	 * lane, its group and the group's plan settings. Link 01 and its signal
+	 * stay untouched.
+	 */
+	@Test
+	public final void testCascadingRemoval() {
+		Scenario scenario = createScenario();
+		Network network = scenario.getNetwork();
+		Node[] nodes = new Node[5];
+		for (int i = 0; i < nodes.length; i++) {
+			nodes[i] = network.getFactory().createNode(Id.create(i, Node.class), new Coord(100 * i, 100 * (i % 2)));
+			network.addNode(nodes[i]);
+		}
+		Link l01 = createLink(network, nodes[0], nodes[1]);
+		Link l12 = createLink(network, nodes[1], nodes[2]);
+		Link l23 = createLink(network, nodes[2], nodes[3]);
+		createLink(network, nodes[3], nodes[0]);
+		Link l34 = createLink(network, nodes[3], nodes[4]);
+
+		Lane lane01 = createLane(scenario.getLanes(), l01, l12);
+		Lane lane23 = createLane(scenario.getLanes(), l23, l34);
+
+		SignalsData signalsData = (SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME);
+		SignalSystemData system = signalsData.getSignalSystemsData().getFactory().createSignalSystemData(Id.create("1", SignalSystem.class));
+		signalsData.getSignalSystemsData().addSignalSystemData(system);
+		SignalSystemControllerData controller = signalsData.getSignalControlData().getFactory().createSignalSystemControllerData(system.getId());
+		controller.setControllerIdentifier(DefaultPlanbasedSignalSystemController.IDENTIFIER);
+		SignalPlanData plan = signalsData.getSignalControlData().getFactory().createSignalPlanData(Id.create("1", SignalPlan.class));
+		plan.setCycleTime(60);
+		controller.addSignalPlanData(plan);
+		signalsData.getSignalControlData().addSignalSystemControllerData(controller);
+		SignalGroupData kept = createSignalWithGroup(signalsData, system, plan, l01, lane01);
+		SignalGroupData pruned = createSignalWithGroup(signalsData, system, plan, l23, lane23);
+
+		NetworkLanesAndSignalsCleaner cleaner = new NetworkLanesAndSignalsCleaner(scenario);
+		cleaner.setNumberOfThreads(1);
+		cleaner.run();
+
+		Assert.assertEquals(4, network.getNodes().size());
+		Assert.assertFalse(network.getLinks().containsKey(l34.getId()));
+		Assert.assertFalse(scenario.getLanes().getLanesToLinkAssignments().containsKey(l23.getId()));
+		Assert.assertTrue(scenario.getLanes().getLanesToLinkAssignments().containsKey(l01.getId()));
+		Assert.assertEquals(1, system.getSignalData().size());
+		Assert.assertTrue(system.getSignalData().containsKey(Id.create("Signal" + l01.getId(), Signal.class)));
+		Assert.assertTrue(signalsData.getSignalGroupsData().getSignalGroupDataBySystemId(system.getId()).containsKey(kept.getId()));
+		Assert.assertFalse(signalsData.getSignalGroupsData().getSignalGroupDataBySystemId(system.getId()).containsKey(pruned.getId()));
+		Assert.assertFalse(plan.getSignalGroupSettingsDataByGroupId().containsKey(pruned.getId()));
+		assertNoDanglingReferences(scenario, signalsData);
+	}
+
+	private static void assertNoDanglingReferences(Scenario scenario, SignalsData signalsData) {
+		Network network = scenario.getNetwork();
+		for (LanesToLinkAssignment l2l : scenario.getLanes().getLanesToLinkAssignments().values()) {
+			Assert.assertTrue(network.getLinks().containsKey(l2l.getLinkId()));
+			for (Lane lane : l2l.getLanes().values()) {
+				if (lane.getToLinkIds() != null) {
+					for (Id<Link> toLinkId : lane.getToLinkIds())
+						Assert.assertTrue("lane " + lane.getId() + " leads to " + toLinkId, network.getLinks().containsKey(toLinkId));
+				}
+			}
+		}
+		for (SignalSystemData system : signalsData.getSignalSystemsData().getSignalSystemData().values()) {
+			for (SignalData signal : system.getSignalData().values()) {
+				Assert.assertTrue(network.getLinks().containsKey(signal.getLinkId()));
+				if (signal.getLaneIds() != null && !signal.getLaneIds().isEmpty()) {
+					LanesToLinkAssignment l2l = scenario.getLanes().getLanesToLinkAssignments().get(signal.getLinkId());
+					Assert.assertNotNull("no lanes on link of signal " + signal.getId(), l2l);
+					for (Id<Lane> laneId : signal.getLaneIds())
+						Assert.assertTrue(l2l.getLanes().containsKey(laneId));
+				}
+			}
+			for (SignalGroupData group : signalsData.getSignalGroupsData().getSignalGroupDataBySystemId(system.getId()).values()) {
+				for (Id<Signal> signalId : group.getSignalIds())
+					Assert.assertTrue("group " + group.getId() + " holds " + signalId, system.getSignalData().containsKey(signalId));
+			}
+			SignalSystemControllerData controller = signalsData.getSignalControlData().getSignalSystemControllerDataBySystemId().get(system.getId());
+			for (SignalPlanData plan : controller.getSignalPlanData().values()) {
+				for (Id<SignalGroup> groupId : plan.getSignalGroupSettingsDataByGroupId().keySet())
+					Assert.assertTrue(signalsData.getSignalGroupsData().getSignalGroupDataBySystemId(system.getId()).containsKey(groupId));
+			}
+		}
+	}
+
+	private static Link createLink(Network network, Node from, Node to) {
+		Link link = network.getFactory().createLink(Id.create(from.getId() + "" + to.getId(), Link.class), from, to);
+		link.setLength(100);
+		network.addLink(link);
+		return link;
+	}
+
+	private static Lane createLane(Lanes lanes, Link link, Link toLink) {
+		LanesToLinkAssignment l2l = lanes.getFactory().createLanesToLinkAssignment(link.getId());
+		Lane lane = lanes.getFactory().createLane(Id.create("Lane" + link.getId() + ".1", Lane.class));
+		lane.setStartsAtMeterFromLinkEnd(link.getLength());
+		lane.addToLinkId(toLink.getId());
+		l2l.addLane(lane);
+		lanes.addLanesToLinkAssignment(l2l);
+		return lane;
+	}
+
+	private static SignalGroupData createSignalWithGroup(SignalsData signalsData, SignalSystemData system, SignalPlanData plan, Link link, Lane lane) {
+		SignalData signal = signalsData.getSignalSystemsData().getFactory().createSignalData(Id.create("Signal" + link.getId(), Signal.class));
+		signal.setLinkId(link.getId());
+		signal.addLaneId(lane.getId());
+		system.addSignalData(signal);
+		SignalGroupData group = signalsData.getSignalGroupsData().getFactory().createSignalGroupData(system.getId(), Id.create("SignalGroup" + link.getId(), SignalGroup.class));
+		group.addSignalId(signal.getId());
+		signalsData.getSignalGroupsData().addSignalGroupData(group);
+		SignalGroupSettingsData settings = signalsData.getSignalControlData().getFactory().createSignalGroupSettingsData(group.getId());
+		settings.setOnset(0);
+		settings.setDropping(25);
+		plan.addSignalGroupSettings(settings);
+		return group;
+	}
+
+	private static Scenario createScenario() {
+		Config config = ConfigUtils.createConfig();
+		ConfigUtils.addOrGetModule(config, SignalSystemsConfigGroup.GROUPNAME, SignalSystemsConfigGroup.class).setUseSignalSystems(true);
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		scenario.addScenarioElement(SignalsData.ELEMENT_NAME, new SignalsDataLoader(config).loadSignalsData());
+		return scenario;
+	}
+
+}
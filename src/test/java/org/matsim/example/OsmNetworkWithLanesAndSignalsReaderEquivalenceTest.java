@@ -0,0 +1,169 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.core.utils.geometry.CoordinateTransformation;
+import org.matsim.core.utils.geometry.transformations.TransformationFactory;
+
+/**
+ * Compares the conversion of map_erp.osm with a golden file of the baseline
+ * converter. Converts the same osm files in the reference way (parsing the
+ * xml, creating the signal plans in one thread) and in the faster ways of
+ * {@link OsmNetworkWithLanesAndSignalsReader}, and checks that network, lanes
+ * and signals are the same. Shared junction templates are checked against a
+ * signal plan layout computed for every junction.
+ *
+ * @author nschirrmacher
+ */
+public class OsmNetworkWithLanesAndSignalsReaderEquivalenceTest {
+
+	private static final String OSM = "./input/map_erp.osm";
+	// canonical lines of OSM as converted by the baseline converter, see CanonicalScenarioWriter
+	private static final String GOLDEN = "./input/map_erp_canonical.txt";
+	private static final int MAX_DIFF_LINES = 20;
+
+	private static final CoordinateTransformation CT =
+			TransformationFactory.getCoordinateTransformation(TransformationFactory.WGS84, TransformationFactory.WGS84_UTM33N);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/*
+	 * The single-threaded conversion with junction templates has to give the
+	 * result of the converter before any of the faster ways existed.
+	 */
+	@Test
+	public final void testBaseline() {
+		Assert.assertTrue("golden file " + GOLDEN + " is missing, see CanonicalScenarioWriter", new File(GOLDEN).exists());
+		List<String> expected = CanonicalScenarioWriter.read(GOLDEN);
+		Scenario actual = convert(OSM, 1);
+		String diff = CanonicalScenarioDiff.diff(expected, CanonicalScenarioDiff.canonicalize(actual.getNetwork(),
+				actual.getLanes(), (SignalsData) actual.getScenarioElement(SignalsData.ELEMENT_NAME)), MAX_DIFF_LINES);
+		if (diff != null)
+			Assert.fail("conversion differs from the baseline: " + diff);
+		Assert.assertFalse("nothing converted", expected.isEmpty());
+	}
+
+	@Test
+	public final void testParallelSignalPlans() {
+		assertEquivalent(convert(OSM, 1), convert(OSM, 4));
+	}
+
+	@Test
+	public final void testJunctionTemplates() throws IOException {
+		assertEquivalent(convert(OSM, 1, false), convert(OSM, 1));
+		for (SyntheticOsmCityGenerator.Layout layout : SyntheticOsmCityGenerator.Layout.values()) {
+			String osm = this.folder.newFile(layout + ".osm").getPath();
+			SyntheticOsmCityGenerator generator = new SyntheticOsmCityGenerator();
+			generator.setLayout(layout);
+			generator.setNumberOfNodes(5000);
+			generator.write(osm);
+			assertEquivalent(convert(osm, 1, false), convert(osm, 1));
+		}
+	}
+
+	@Test
+	public final void testIntermediate() throws IOException {
+		String intermediate = this.folder.newFile("parsed_osm.bin").getPath();
+		Scenario reference = createScenario();
+		OsmNetworkWithLanesAndSignalsReader reader = createReader(reference, 1);
+		reader.setIntermediateFile(intermediate);
+		reader.parse(OSM);
+
+		Scenario fromIntermediate = createScenario();
+		createReader(fromIntermediate, 1).parseIntermediate(intermediate);
+		assertEquivalent(reference, fromIntermediate);
+	}
+
+	@Test
+	public final void testCache() throws IOException {
+		String cacheDirectory = this.folder.newFolder("cache").getPath();
+		Scenario reference = createScenario();
+		OsmNetworkWithLanesAndSignalsReader reader = createReader(reference, 1);
+		reader.setCacheDirectory(cacheDirectory);
+		reader.parse(OSM);
+		Assert.assertFalse("empty cache was hit", reader.readFromCache);
+		Assert.assertEquals("conversion result was not cached", 1, new File(cacheDirectory).list().length);
+
+		Scenario fromCache = createScenario();
+		reader = createReader(fromCache, 1);
+		reader.setCacheDirectory(cacheDirectory);
+		reader.parse(OSM);
+		Assert.assertTrue("cache was not hit", reader.readFromCache);
+		assertEquivalent(reference, fromCache);
+	}
+
+	@Test
+	public final void testSyntheticCities() throws IOException {
+		for (SyntheticOsmCityGenerator.Layout layout : SyntheticOsmCityGenerator.Layout.values()) {
+			String osm = this.folder.newFile(layout + ".osm").getPath();
+			SyntheticOsmCityGenerator generator = new SyntheticOsmCityGenerator();
+			generator.setLayout(layout);
+			generator.setNumberOfNodes(5000);
+			generator.write(osm);
+			assertEquivalent(convert(osm, 1), convert(osm, 4));
+		}
+	}
+
+	private static Scenario convert(String osm, int numberOfThreads) {
+		return convert(osm, numberOfThreads, true);
+	}
+
+	private static Scenario convert(String osm, int numberOfThreads, boolean useJunctionTemplates) {
+		Scenario scenario = createScenario();
+		OsmNetworkWithLanesAndSignalsReader reader = createReader(scenario, numberOfThreads);
+		reader.setUseJunctionTemplates(useJunctionTemplates);
+		reader.parse(osm);
+		return scenario;
+	}
+
+	private static void assertEquivalent(Scenario expected, Scenario actual) {
+		List<String> expectedLines = CanonicalScenarioDiff.canonicalize(expected.getNetwork(), expected.getLanes(),
+				(SignalsData) expected.getScenarioElement(SignalsData.ELEMENT_NAME));
+		List<String> actualLines = CanonicalScenarioDiff.canonicalize(actual.getNetwork(), actual.getLanes(),
+				(SignalsData) actual.getScenarioElement(SignalsData.ELEMENT_NAME));
+		String diff = CanonicalScenarioDiff.diff(expectedLines, actualLines, MAX_DIFF_LINES);
+		if (diff != null)
+			Assert.fail("conversions differ: " + diff);
+		Assert.assertFalse("nothing converted", expectedLines.isEmpty());
+	}
+
+	private static Scenario createScenario() {
+		return RunPNetworkGenerator.createScenario(RunPNetworkGenerator.createConfig());
+	}
+
+	private static OsmNetworkWithLanesAndSignalsReader createReader(Scenario scenario, int numberOfThreads) {
+		OsmNetworkWithLanesAndSignalsReader reader = new OsmNetworkWithLanesAndSignalsReader(scenario.getNetwork(), CT,
+				(SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME), scenario.getLanes());
+		reader.setAssumptions(false, false, false, true, true, false, "realistic_very_restricted");
+		reader.setNumberOfThreads(numberOfThreads);
+		return reader;
+	}
+
+}
@@ -0,0 +1,229 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.contrib.signals.SignalSystemsConfigGroup;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.contrib.signals.data.SignalsDataImpl;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalControlDataFactory;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupSettingsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalPlanData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalSystemControllerData;
+import org.matsim.contrib.signals.model.DatabasedSignalPlan;
+import org.matsim.contrib.signals.model.DefaultPlanbasedSignalSystemController;
+import org.matsim.contrib.signals.model.SignalGroup;
+import org.matsim.contrib.signals.model.SignalGroupImpl;
+import org.matsim.contrib.signals.model.SignalPlan;
+import org.matsim.contrib.signals.model.SignalSystem;
+import org.matsim.contrib.signals.model.SignalSystemImpl;
+import org.matsim.core.utils.geometry.transformations.TransformationFactory;
+
+/**
+ * @author nschirrmacher
+ *
+ */
+public class PrecompiledFixedTimeSignalControllerTest {
+
+	private static final Id<SignalGroup> A = Id.create("a", SignalGroup.class);
+	private static final Id<SignalGroup> B = Id.create("b", SignalGroup.class);
+
+	/*
+	 * Every plan of the converter is valid the whole day, so every system gets
+	 * the precompiled controller, which switches the groups in the same
+	 * seconds as the plan.
+	 */
+	@Test
+	public final void testConvertedPlans() {
+		Scenario scenario = RunPNetworkGenerator.createScenario(RunPNetworkGenerator.createConfig());
+		SignalsData signalsData = (SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME);
+		OsmNetworkWithLanesAndSignalsReader reader = new OsmNetworkWithLanesAndSignalsReader(scenario.getNetwork(),
+				TransformationFactory.getCoordinateTransformation(TransformationFactory.WGS84, TransformationFactory.WGS84_UTM33N),
+				signalsData, scenario.getLanes());
+		reader.setAssumptions(false, false, false, true, true, false, "realistic_very_restricted");
+		reader.parse("./input/map_erp.osm");
+
+		int systems = signalsData.getSignalControlData().getSignalSystemControllerDataBySystemId().size();
+		Assert.assertTrue("nothing converted", systems > 0);
+		Assert.assertEquals(systems, PrecompiledFixedTimeSignalController.useForFixedTimePlans(signalsData));
+		for (SignalSystemControllerData controllerData : signalsData.getSignalControlData()
+				.getSignalSystemControllerDataBySystemId().values()) {
+			Assert.assertEquals(PrecompiledFixedTimeSignalController.IDENTIFIER, controllerData.getControllerIdentifier());
+			RecordingSignalSystem system = new RecordingSignalSystem(controllerData.getSignalSystemId());
+			for (Id<SignalGroup> groupId : signalsData.getSignalGroupsData()
+					.getSignalGroupDataBySystemId(controllerData.getSignalSystemId()).keySet()) {
+				system.addSignalGroup(new SignalGroupImpl(groupId));
+			}
+			SignalPlanData planData = controllerData.getSignalPlanData().values().iterator().next();
+			assertSameChanges(system, new DatabasedSignalPlan(planData), planData.getCycleTime());
+		}
+	}
+
+	@Test
+	public final void testChanges() {
+		SignalPlanData planData = createPlan();
+		RecordingSignalSystem system = createSystem();
+		assertSameChanges(system, new DatabasedSignalPlan(planData), planData.getCycleTime());
+	}
+
+	/*
+	 * b is green from 35 to 5 of the next cycle, a from 0 to 30. At the start,
+	 * the groups green in the second before are switched on.
+	 */
+	@Test
+	public final void testInitialOnsets() {
+		RecordingSignalSystem system = createSystem();
+		PrecompiledFixedTimeSignalController controller = createController(system, new DatabasedSignalPlan(createPlan()));
+		controller.simulationInitialized(0);
+		Assert.assertEquals(list("0.0 onset b"), system.changes);
+		system.changes.clear();
+		controller.updateState(0);
+		Assert.assertEquals(list("0.0 onset a"), system.changes);
+
+		system = createSystem();
+		controller = createController(system, new DatabasedSignalPlan(createPlan()));
+		controller.simulationInitialized(10);
+		Assert.assertEquals(list("10.0 onset a"), system.changes);
+
+		system = createSystem();
+		controller = createController(system, new DatabasedSignalPlan(createPlan()));
+		controller.simulationInitialized(32);
+		Assert.assertTrue(system.changes.isEmpty());
+	}
+
+	@Test
+	public final void testOnlyWholeDayPlans() {
+		SignalsData signalsData = new SignalsDataImpl(new SignalSystemsConfigGroup());
+		SignalControlDataFactory factory = signalsData.getSignalControlData().getFactory();
+		String[] systems = { "same", "unset", "morning" };
+		for (String id : systems) {
+			SignalSystemControllerData controller = factory.createSignalSystemControllerData(Id.create(id, SignalSystem.class));
+			controller.setControllerIdentifier(DefaultPlanbasedSignalSystemController.IDENTIFIER);
+			SignalPlanData plan = factory.createSignalPlanData(Id.create(id, SignalPlan.class));
+			plan.setCycleTime(60);
+			if (id.equals("same")) {
+				// different instances of the same value
+				plan.setStartTime(new Double(0));
+				plan.setEndTime(new Double(0));
+			} else if (id.equals("morning")) {
+				plan.setStartTime(6 * 3600.);
+				plan.setEndTime(9 * 3600.);
+			}
+			controller.addSignalPlanData(plan);
+			signalsData.getSignalControlData().addSignalSystemControllerData(controller);
+		}
+		Assert.assertEquals(2, PrecompiledFixedTimeSignalController.useForFixedTimePlans(signalsData));
+		Assert.assertEquals(PrecompiledFixedTimeSignalController.IDENTIFIER, signalsData.getSignalControlData()
+				.getSignalSystemControllerDataBySystemId().get(Id.create("unset", SignalSystem.class)).getControllerIdentifier());
+		Assert.assertEquals(DefaultPlanbasedSignalSystemController.IDENTIFIER, signalsData.getSignalControlData()
+				.getSignalSystemControllerDataBySystemId().get(Id.create("morning", SignalSystem.class)).getControllerIdentifier());
+	}
+
+	/*
+	 * Over two cycles, the controller has to schedule the droppings and onsets
+	 * of the plan in every second, in the order of the plan.
+	 */
+	private static void assertSameChanges(RecordingSignalSystem system, SignalPlan plan, int cycle) {
+		PrecompiledFixedTimeSignalController controller = createController(system, plan);
+		controller.simulationInitialized(0);
+		for (int second = 0; second < 2 * cycle; second++) {
+			system.changes.clear();
+			controller.updateState(second);
+			List<String> expected = new ArrayList<>();
+			addChanges(expected, second, "dropping", plan.getDroppings(second));
+			addChanges(expected, second, "onset", plan.getOnsets(second));
+			Assert.assertEquals("system " + system.getId() + ", second " + second, expected, system.changes);
+		}
+	}
+
+	private static void addChanges(List<String> changes, double time, String type, List<Id<SignalGroup>> groupIds) {
+		if (groupIds == null)
+			return;
+		for (Id<SignalGroup> groupId : groupIds)
+			changes.add(time + " " + type + " " + groupId);
+	}
+
+	private static PrecompiledFixedTimeSignalController createController(SignalSystem system, SignalPlan plan) {
+		PrecompiledFixedTimeSignalController controller = new PrecompiledFixedTimeSignalController();
+		controller.setSignalSystem(system);
+		controller.addPlan(plan);
+		return controller;
+	}
+
+	private static RecordingSignalSystem createSystem() {
+		RecordingSignalSystem system = new RecordingSignalSystem(Id.create("1", SignalSystem.class));
+		system.addSignalGroup(new SignalGroupImpl(A));
+		system.addSignalGroup(new SignalGroupImpl(B));
+		return system;
+	}
+
+	private static SignalPlanData createPlan() {
+		SignalControlDataFactory factory = new SignalsDataImpl(new SignalSystemsConfigGroup()).getSignalControlData().getFactory();
+		SignalPlanData plan = factory.createSignalPlanData(Id.create("1", SignalPlan.class));
+		plan.setStartTime(0.0);
+		plan.setEndTime(0.0);
+		plan.setCycleTime(60);
+		plan.setOffset(0);
+		plan.addSignalGroupSettings(createSettings(factory, A, 0, 30));
+		plan.addSignalGroupSettings(createSettings(factory, B, 35, 5));
+		return plan;
+	}
+
+	private static SignalGroupSettingsData createSettings(SignalControlDataFactory factory, Id<SignalGroup> groupId, int onset, int dropping) {
+		SignalGroupSettingsData settings = factory.createSignalGroupSettingsData(groupId);
+		settings.setOnset(onset);
+		settings.setDropping(dropping);
+		return settings;
+	}
+
+	private static List<String> list(String... changes) {
+		List<String> list = new ArrayList<>();
+		for (String change : changes)
+			list.add(change);
+		return list;
+	}
+
+	/*
+	 * Records the changes instead of switching the groups.
+	 */
+	private static final class RecordingSignalSystem extends SignalSystemImpl {
+		private final List<String> changes = new ArrayList<>();
+
+		RecordingSignalSystem(Id<SignalSystem> id) {
+			super(id);
+		}
+
+		@Override
+		public void scheduleOnset(double timeSeconds, Id<SignalGroup> groupId) {
+			this.changes.add(timeSeconds + " onset " + groupId);
+		}
+
+		@Override
+		public void scheduleDropping(double timeSeconds, Id<SignalGroup> groupId) {
+			this.changes.add(timeSeconds + " dropping " + groupId);
+		}
+	}
+
+}
@@ -0,0 +1,163 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.signals.SignalSystemsConfigGroup;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.contrib.signals.data.SignalsDataLoader;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupSettingsData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalPlanData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalSystemControllerData;
+import org.matsim.contrib.signals.data.signalsystems.v20.SignalSystemData;
+import org.matsim.contrib.signals.model.DefaultPlanbasedSignalSystemController;
+import org.matsim.contrib.signals.model.Signal;
+import org.matsim.contrib.signals.model.SignalGroup;
+import org.matsim.contrib.signals.model.SignalPlan;
+import org.matsim.contrib.signals.model.SignalSystem;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.lanes.data.Lane;
+import org.matsim.lanes.data.Lanes;
+import org.matsim.lanes.data.LanesToLinkAssignment;
+
+/**
+ * @author nschirrmacher
+ *
+ */
+public class ScenarioSnapshotTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public final void testRoundTrip() throws IOException {
+		Scenario scenario = createScenario();
+		Network network = scenario.getNetwork();
+		Node a = network.getFactory().createNode(Id.create("a", Node.class), new Coord(0, 0));
+		Node b = network.getFactory().createNode(Id.create("b", Node.class), new Coord(100, 50));
+		network.addNode(a);
+		network.addNode(b);
+		a.getAttributes().putAttribute("lane_conflicts", "Lanea.1;1;");
+		Link ab = network.getFactory().createLink(Id.create("ab", Link.class), a, b);
+		ab.setLength(111.8);
+		ab.setFreespeed(13.9);
+		ab.setCapacity(1800);
+		ab.setNumberOfLanes(2);
+		ab.getAttributes().putAttribute("type", "primary");
+		Link ba = network.getFactory().createLink(Id.create("ba", Link.class), b, a);
+		network.addLink(ab);
+		network.addLink(ba);
+		Map<Id<Link>, Double> toLinksAngles = new HashMap<>();
+		toLinksAngles.put(ba.getId(), Math.PI);
+		ab.getAttributes().putAttribute("toLinksAngles", toLinksAngles);
+		ba.getAttributes().putAttribute("osm:way:lanes", 3L);
+
+		Lanes lanes = scenario.getLanes();
+		LanesToLinkAssignment l2l = lanes.getFactory().createLanesToLinkAssignment(ab.getId());
+		Lane lane = lanes.getFactory().createLane(Id.create("Laneab.1", Lane.class));
+		lane.setNumberOfRepresentedLanes(2);
+		lane.setStartsAtMeterFromLinkEnd(50);
+		lane.setCapacityVehiclesPerHour(3600);
+		lane.setAlignment(2);
+		lane.addToLinkId(ba.getId());
+		lane.getAttributes().putAttribute("isOrigLane", false);
+		l2l.addLane(lane);
+		lanes.addLanesToLinkAssignment(l2l);
+
+		SignalsData signalsData = (SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME);
+		SignalSystemData system = signalsData.getSignalSystemsData().getFactory().createSignalSystemData(Id.create("b", SignalSystem.class));
+		SignalData signal = signalsData.getSignalSystemsData().getFactory().createSignalData(Id.create("Signalab.1", Signal.class));
+		signal.setLinkId(ab.getId());
+		signal.addLaneId(lane.getId());
+		system.addSignalData(signal);
+		signalsData.getSignalSystemsData().addSignalSystemData(system);
+		SignalGroupData group = signalsData.getSignalGroupsData().getFactory().createSignalGroupData(system.getId(), Id.create("SignalGroupb.1", SignalGroup.class));
+		group.addSignalId(signal.getId());
+		signalsData.getSignalGroupsData().addSignalGroupData(group);
+		SignalSystemControllerData controller = signalsData.getSignalControlData().getFactory().createSignalSystemControllerData(system.getId());
+		controller.setControllerIdentifier(DefaultPlanbasedSignalSystemController.IDENTIFIER);
+		SignalPlanData plan = signalsData.getSignalControlData().getFactory().createSignalPlanData(Id.create("b", SignalPlan.class));
+		plan.setCycleTime(90);
+		SignalGroupSettingsData settings = signalsData.getSignalControlData().getFactory().createSignalGroupSettingsData(group.getId());
+		settings.setOnset(0);
+		settings.setDropping(40);
+		plan.addSignalGroupSettings(settings);
+		controller.addSignalPlanData(plan);
+		signalsData.getSignalControlData().addSignalSystemControllerData(controller);
+
+		File file = this.folder.newFile("snapshot.bin");
+		new ScenarioSnapshotWriter(scenario).write(file.getPath());
+		Scenario read = createScenario();
+		new ScenarioSnapshotReader(read).read(file.getPath());
+
+		Assert.assertEquals(2, read.getNetwork().getNodes().size());
+		Assert.assertEquals(100., read.getNetwork().getNodes().get(b.getId()).getCoord().getX(), 0.);
+		Assert.assertEquals("Lanea.1;1;", read.getNetwork().getNodes().get(a.getId()).getAttributes().getAttribute("lane_conflicts"));
+		Link readAb = read.getNetwork().getLinks().get(ab.getId());
+		Assert.assertEquals(b.getId(), readAb.getToNode().getId());
+		Assert.assertEquals(111.8, readAb.getLength(), 0.);
+		Assert.assertEquals(2., readAb.getNumberOfLanes(), 0.);
+		Assert.assertEquals(ab.getAllowedModes(), readAb.getAllowedModes());
+		Assert.assertEquals("primary", readAb.getAttributes().getAttribute("type"));
+		Assert.assertEquals(toLinksAngles, readAb.getAttributes().getAttribute("toLinksAngles"));
+		Assert.assertEquals(3L, read.getNetwork().getLinks().get(ba.getId()).getAttributes().getAttribute("osm:way:lanes"));
+
+		Lane readLane = read.getLanes().getLanesToLinkAssignments().get(ab.getId()).getLanes().get(lane.getId());
+		Assert.assertEquals(2, readLane.getAlignment());
+		Assert.assertEquals(lane.getToLinkIds(), readLane.getToLinkIds());
+		Assert.assertEquals(false, readLane.getAttributes().getAttribute("isOrigLane"));
+
+		SignalsData readSignals = (SignalsData) read.getScenarioElement(SignalsData.ELEMENT_NAME);
+		SignalData readSignal = readSignals.getSignalSystemsData().getSignalSystemData().get(system.getId()).getSignalData().get(signal.getId());
+		Assert.assertEquals(signal.getLaneIds(), readSignal.getLaneIds());
+		Assert.assertTrue(readSignals.getSignalGroupsData().getSignalGroupDataBySignalSystemId().get(system.getId())
+				.get(group.getId()).getSignalIds().contains(signal.getId()));
+		SignalPlanData readPlan = readSignals.getSignalControlData().getSignalSystemControllerDataBySystemId()
+				.get(system.getId()).getSignalPlanData().get(plan.getId());
+		Assert.assertEquals(Integer.valueOf(90), readPlan.getCycleTime());
+		Assert.assertEquals(40, readPlan.getSignalGroupSettingsDataByGroupId().get(group.getId()).getDropping());
+	}
+
+	private static Scenario createScenario() {
+		Config config = ConfigUtils.createConfig();
+		ConfigUtils.addOrGetModule(config, SignalSystemsConfigGroup.GROUPNAME, SignalSystemsConfigGroup.class).setUseSignalSystems(true);
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		scenario.addScenarioElement(SignalsData.ELEMENT_NAME, new SignalsDataLoader(config).loadSignalsData());
+		return scenario;
+	}
+
+}
@@ -0,0 +1,207 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.contrib.signals.SignalSystemsConfigGroup;
+import org.matsim.contrib.signals.data.SignalsData;
+import org.matsim.contrib.signals.data.SignalsDataLoader;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalData;
+import org.matsim.contrib.signals.data.signalgroups.v20.SignalGroupData;
+import org.matsim.contrib.signals.data.signalsystems.v20.SignalSystemData;
+import org.matsim.contrib.signals.events.SignalGroupStateChangedEvent;
+import org.matsim.contrib.signals.model.Signal;
+import org.matsim.contrib.signals.model.SignalGroup;
+import org.matsim.contrib.signals.model.SignalGroupState;
+import org.matsim.contrib.signals.model.SignalSystem;
+import org.matsim.core.api.experimental.events.LaneEnterEvent;
+import org.matsim.core.api.experimental.events.LaneLeaveEvent;
+import org.matsim.core.config.Config;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.controler.OutputDirectoryHierarchy;
+import org.matsim.core.controler.OutputDirectoryHierarchy.OverwriteFileSetting;
+import org.matsim.core.controler.events.IterationEndsEvent;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.lanes.data.Lane;
+import org.matsim.lanes.data.Lanes;
+import org.matsim.lanes.data.LanesToLinkAssignment;
+
+/**
+ * Two links into the same node, both with an original lane of the same id
+ * leading to a turn lane of the same id, which a signal group each controls.
+ *
+ * @author nschirrmacher
+ */
+public class SignalPerformanceAnalyzerTest {
+
+	private static final Id<SignalSystem> SYSTEM = Id.create("s", SignalSystem.class);
+	private static final Id<SignalGroup> G1 = Id.create("g1", SignalGroup.class);
+	private static final Id<SignalGroup> G2 = Id.create("g2", SignalGroup.class);
+	private static final Id<Link> IN1 = Id.createLinkId("in1");
+	private static final Id<Link> IN2 = Id.createLinkId("in2");
+	private static final Id<Lane> ORIGINAL = Id.create("ol", Lane.class);
+	private static final Id<Lane> TURN = Id.create("turn", Lane.class);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public final void testCsvValues() throws IOException {
+		OutputDirectoryHierarchy controlerIO = new OutputDirectoryHierarchy(
+				new File(this.folder.getRoot(), "output").getPath(), OverwriteFileSetting.deleteDirectoryIfExists);
+		new File(controlerIO.getIterationPath(0)).mkdirs();
+		SignalPerformanceAnalyzer analyzer = new SignalPerformanceAnalyzer(createScenario(), controlerIO);
+
+		analyzer.handleEvent(new SignalGroupStateChangedEvent(0, SYSTEM, G1, SignalGroupState.RED));
+		analyzer.handleEvent(new SignalGroupStateChangedEvent(0, SYSTEM, G2, SignalGroupState.RED));
+		analyzer.handleEvent(new LaneEnterEvent(0, Id.createVehicleId("d"), IN1, ORIGINAL));
+		analyzer.handleEvent(new LaneEnterEvent(1, Id.createVehicleId("a"), IN1, TURN));
+		analyzer.handleEvent(new LaneEnterEvent(2, Id.createVehicleId("b"), IN1, TURN));
+		analyzer.handleEvent(new LaneEnterEvent(3, Id.createVehicleId("c"), IN2, TURN));
+		// two vehicles wait for g1, the one on the turn lane of the other link does not
+		analyzer.handleEvent(new SignalGroupStateChangedEvent(10, SYSTEM, G1, SignalGroupState.GREEN));
+		// both pass in the same second
+		analyzer.handleEvent(new LaneLeaveEvent(12.5, Id.createVehicleId("a"), IN1, TURN));
+		analyzer.handleEvent(new LaneLeaveEvent(12.75, Id.createVehicleId("b"), IN1, TURN));
+		analyzer.handleEvent(new LaneLeaveEvent(20, Id.createVehicleId("d"), IN1, ORIGINAL));
+		analyzer.handleEvent(new SignalGroupStateChangedEvent(20, SYSTEM, G1, SignalGroupState.RED));
+		analyzer.handleEvent(new SignalGroupStateChangedEvent(30, SYSTEM, G2, SignalGroupState.GREEN));
+		analyzer.handleEvent(new LaneLeaveEvent(35, Id.createVehicleId("c"), IN2, TURN));
+		analyzer.handleEvent(new SignalGroupStateChangedEvent(40, SYSTEM, G1, SignalGroupState.GREEN));
+		// g2 is still green at the end
+		analyzer.notifyIterationEnds(new IterationEndsEvent(null, 0));
+
+		Map<String, String[]> groups = read(controlerIO.getIterationFilename(0, SignalPerformanceAnalyzer.GROUP_FILE));
+		Assert.assertEquals(2, groups.size());
+		// green_s, green_share, used_green_s, green_utilization, red_phases, mean and max queue at end of red
+		assertValues(groups.get("s,g1"), 10, 0.25, 1, 0.1, 2, 1, 2);
+		assertValues(groups.get("s,g2"), 10, 0.25, 1, 0.1, 1, 1, 1);
+
+		Map<String, String[]> lanes = read(controlerIO.getIterationFilename(0, SignalPerformanceAnalyzer.LANE_FILE));
+		Assert.assertEquals(4, lanes.size());
+		// vehicles, mean travel time and mean delay; the free speed is 10 m/s
+		// the original lane of in1 is 200 - 50 m long
+		assertValues(lanes.get("in1,ol"), 1, 20, 5);
+		// the turn lane of in1 is 50 m long
+		assertValues(lanes.get("in1,turn"), 2, 11.125, 6.125);
+		assertValues(lanes.get("in2,ol"), 0, 0, 0);
+		// the turn lane of in2 is 30 m long
+		assertValues(lanes.get("in2,turn"), 1, 32, 29);
+	}
+
+	private static void assertValues(String[] row, double... expected) {
+		Assert.assertNotNull(row);
+		Assert.assertEquals(expected.length + 2, row.length);
+		for (int i = 0; i < expected.length; i++) {
+			Assert.assertEquals("column " + (i + 2), expected[i], Double.parseDouble(row[i + 2]), 1e-9);
+		}
+	}
+
+	// rows by their first two columns, without the header
+	private static Map<String, String[]> read(String filename) throws IOException {
+		List<String> lines = Files.readAllLines(Paths.get(filename), StandardCharsets.UTF_8);
+		Map<String, String[]> rows = new HashMap<>();
+		for (String line : lines.subList(1, lines.size())) {
+			String[] row = line.split(",");
+			rows.put(row[0] + "," + row[1], row);
+		}
+		return rows;
+	}
+
+	private static Scenario createScenario() {
+		Config config = ConfigUtils.createConfig();
+		ConfigUtils.addOrGetModule(config, SignalSystemsConfigGroup.GROUPNAME, SignalSystemsConfigGroup.class).setUseSignalSystems(true);
+		Scenario scenario = ScenarioUtils.createScenario(config);
+		scenario.addScenarioElement(SignalsData.ELEMENT_NAME, new SignalsDataLoader(config).loadSignalsData());
+
+		Network network = scenario.getNetwork();
+		Node junction = network.getFactory().createNode(Id.createNodeId("junction"), new Coord(0, 0));
+		Node from1 = network.getFactory().createNode(Id.createNodeId("from1"), new Coord(-200, 0));
+		Node from2 = network.getFactory().createNode(Id.createNodeId("from2"), new Coord(0, -100));
+		Node to = network.getFactory().createNode(Id.createNodeId("to"), new Coord(100, 0));
+		network.addNode(junction);
+		network.addNode(from1);
+		network.addNode(from2);
+		network.addNode(to);
+		Link out = network.getFactory().createLink(Id.createLinkId("out"), junction, to);
+		network.addLink(out);
+		network.addLink(createLink(network, IN1, from1, junction, 200));
+		network.addLink(createLink(network, IN2, from2, junction, 100));
+
+		Lanes lanes = scenario.getLanes();
+		addLanes(lanes, IN1, 200, 50, out.getId());
+		addLanes(lanes, IN2, 100, 30, out.getId());
+
+		SignalsData signalsData = (SignalsData) scenario.getScenarioElement(SignalsData.ELEMENT_NAME);
+		SignalSystemData system = signalsData.getSignalSystemsData().getFactory().createSignalSystemData(SYSTEM);
+		signalsData.getSignalSystemsData().addSignalSystemData(system);
+		addSignal(signalsData, system, G1, IN1);
+		addSignal(signalsData, system, G2, IN2);
+		return scenario;
+	}
+
+	private static Link createLink(Network network, Id<Link> id, Node from, Node to, double length) {
+		Link link = network.getFactory().createLink(id, from, to);
+		link.setLength(length);
+		link.setFreespeed(10);
+		return link;
+	}
+
+	private static void addLanes(Lanes lanes, Id<Link> linkId, double length, double turnLength, Id<Link> toLinkId) {
+		LanesToLinkAssignment l2l = lanes.getFactory().createLanesToLinkAssignment(linkId);
+		Lane original = lanes.getFactory().createLane(ORIGINAL);
+		original.setStartsAtMeterFromLinkEnd(length);
+		original.addToLaneId(TURN);
+		l2l.addLane(original);
+		Lane turn = lanes.getFactory().createLane(TURN);
+		turn.setStartsAtMeterFromLinkEnd(turnLength);
+		turn.addToLinkId(toLinkId);
+		l2l.addLane(turn);
+		lanes.addLanesToLinkAssignment(l2l);
+	}
+
+	private static void addSignal(SignalsData signalsData, SignalSystemData system, Id<SignalGroup> groupId, Id<Link> linkId) {
+		SignalData signal = signalsData.getSignalSystemsData().getFactory().createSignalData(Id.create(linkId, Signal.class));
+		signal.setLinkId(linkId);
+		signal.addLaneId(TURN);
+		system.addSignalData(signal);
+		SignalGroupData group = signalsData.getSignalGroupsData().getFactory().createSignalGroupData(SYSTEM, groupId);
+		group.addSignalId(signal.getId());
+		signalsData.getSignalGroupsData().addSignalGroupData(group);
+	}
+
+}
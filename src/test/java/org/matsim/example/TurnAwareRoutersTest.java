@@ -0,0 +1,311 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.Scenario;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.api.core.v01.population.Leg;
+import org.matsim.api.core.v01.population.Person;
+import org.matsim.core.config.ConfigUtils;
+import org.matsim.core.population.routes.NetworkRoute;
+import org.matsim.core.router.LinkWrapperFacility;
+import org.matsim.core.router.RoutingModule;
+import org.matsim.core.router.costcalculators.TravelDisutilityFactory;
+import org.matsim.core.router.util.LinkToLinkTravelTime;
+import org.matsim.core.router.util.TravelDisutility;
+import org.matsim.core.router.util.TravelTime;
+import org.matsim.core.scenario.ScenarioUtils;
+import org.matsim.lanes.data.Lane;
+import org.matsim.lanes.data.Lanes;
+import org.matsim.lanes.data.LanesToLinkAssignment;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * Compares the routes of the {@link TurnAwareLandmarksRouter} and the
+ * {@link TurnContractionHierarchyRouter} with the ones of a plain Dijkstra on
+ * the {@link TurnRoutingGraph}, on a grid whose lanes forbid some turns.
+ *
+ * @author nschirrmacher
+ */
+public class TurnAwareRoutersTest {
+
+	private static final int GRID_SIZE = 7;
+	private static final double MARGINAL_COST_OF_DISTANCE = 0.01;
+
+	@Test
+	public final void testSameRoutesAsDijkstra() {
+		Random random = new Random(4711);
+		Scenario scenario = createScenario();
+		List<Id<Link>[]> forbiddenTurns = createGrid(scenario, random);
+		TurnRoutingGraph graph = new TurnRoutingGraph(scenario.getNetwork(), scenario.getLanes(), TransportMode.car);
+		TurnTimes travelTime = new TurnTimes(graph, random);
+		TravelDisutilityFactory travelDisutilityFactory = new TimeAndDistanceDisutilityFactory();
+
+		// the lanes only allow the turns to their to-links
+		for (Id<Link>[] turn : forbiddenTurns) {
+			Assert.assertFalse(isTurn(graph, graph.getIndex(turn[0]), graph.getIndex(turn[1])));
+		}
+
+		TurnCosts turnCosts = new TurnCosts(graph, travelTime, travelDisutilityFactory);
+		double[] minimumCosts = new double[graph.getNumberOfLinks()];
+		for (int i = 0; i < minimumCosts.length; i++) {
+			minimumCosts[i] = turnCosts.getMinimumTravelDisutility(i);
+		}
+		TurnRoutingLandmarks landmarks = new TurnRoutingLandmarks(graph, minimumCosts, 4);
+		RoutingModule landmarksRouter = new TurnAwareLandmarksRouter(TransportMode.car, graph, landmarks, travelTime,
+				travelDisutilityFactory);
+		final TurnContractionHierarchy hierarchy = TurnContractionHierarchy.create(graph);
+		final TurnContractionHierarchy.Metric[] metric = new TurnContractionHierarchy.Metric[] {
+				hierarchy.customize(turnCosts.getTravelDisutilities(0)) };
+		RoutingModule hierarchyRouter = new TurnContractionHierarchyRouter(TransportMode.car, hierarchy,
+				new TurnContractionHierarchyRouter.Metrics() {
+					@Override
+					public TurnContractionHierarchy.Metric getMetric(double time) {
+						return metric[0];
+					}
+				}, travelTime, travelDisutilityFactory);
+
+		compareRoutes(graph, turnCosts, landmarksRouter, hierarchyRouter, forbiddenTurns, random);
+
+		// other travel times, the landmarks stay valid as they are never below the free speed travel times
+		travelTime.change(random);
+		metric[0] = hierarchy.customize(turnCosts.getTravelDisutilities(0));
+		compareRoutes(graph, turnCosts, landmarksRouter, hierarchyRouter, forbiddenTurns, random);
+	}
+
+	private static void compareRoutes(TurnRoutingGraph graph, TurnCosts turnCosts, RoutingModule landmarksRouter,
+			RoutingModule hierarchyRouter, List<Id<Link>[]> forbiddenTurns, Random random) {
+		List<int[]> pairs = new ArrayList<>();
+		// the forbidden turns themselves, which need a detour
+		for (Id<Link>[] turn : forbiddenTurns) {
+			pairs.add(new int[] { graph.getIndex(turn[0]), graph.getIndex(turn[1]) });
+		}
+		for (int i = 0; i < 200; i++) {
+			pairs.add(new int[] { random.nextInt(graph.getNumberOfLinks()), random.nextInt(graph.getNumberOfLinks()) });
+		}
+		for (int[] pair : pairs) {
+			if (pair[0] == pair[1])
+				continue;
+			double[] cost = new double[1];
+			List<Id<Link>> expected = dijkstra(graph, turnCosts, pair[0], pair[1], cost);
+			NetworkRoute landmarksRoute = route(landmarksRouter, graph, pair[0], pair[1]);
+			NetworkRoute hierarchyRoute = route(hierarchyRouter, graph, pair[0], pair[1]);
+			Assert.assertEquals(expected, landmarksRoute.getLinkIds());
+			Assert.assertEquals(expected, hierarchyRoute.getLinkIds());
+			Assert.assertEquals(cost[0], landmarksRoute.getTravelCost(), 1e-6);
+			Assert.assertEquals(cost[0], hierarchyRoute.getTravelCost(), 1e-6);
+
+			List<Id<Link>> links = new ArrayList<>();
+			links.add(graph.getLink(pair[0]).getId());
+			links.addAll(expected);
+			links.add(graph.getLink(pair[1]).getId());
+			for (int i = 1; i < links.size(); i++) {
+				Assert.assertTrue(isTurn(graph, graph.getIndex(links.get(i - 1)), graph.getIndex(links.get(i))));
+			}
+		}
+	}
+
+	private static NetworkRoute route(RoutingModule router, TurnRoutingGraph graph, int from, int to) {
+		Leg leg = (Leg) router.calcRoute(new LinkWrapperFacility(graph.getLink(from)),
+				new LinkWrapperFacility(graph.getLink(to)), 8 * 3600, null).get(0);
+		return (NetworkRoute) leg.getRoute();
+	}
+
+	/*
+	 * Lowest cost over the turns from the end of link from to the start of link
+	 * to, the turns out of link from cost nothing.
+	 */
+	private static List<Id<Link>> dijkstra(TurnRoutingGraph graph, TurnCosts turnCosts, int from, int to,
+			double[] cost) {
+		int n = graph.getNumberOfLinks();
+		double[] costs = new double[n];
+		int[] predecessors = new int[n];
+		boolean[] settled = new boolean[n];
+		Arrays.fill(costs, Double.POSITIVE_INFINITY);
+		IndexedMinHeap heap = new IndexedMinHeap(n);
+		for (int turn = graph.getTurnStart(from); turn < graph.getTurnStart(from + 1); turn++) {
+			int target = graph.getTurnTarget(turn);
+			costs[target] = 0;
+			predecessors[target] = -1;
+			heap.insertOrDecrease(target, 0);
+		}
+		while (!heap.isEmpty()) {
+			int link = heap.poll();
+			settled[link] = true;
+			for (int turn = graph.getTurnStart(link); turn < graph.getTurnStart(link + 1); turn++) {
+				int target = graph.getTurnTarget(turn);
+				double targetCost = costs[link] + turnCosts.getTravelDisutility(link, target, 0, null);
+				if (!settled[target] && targetCost < costs[target]) {
+					costs[target] = targetCost;
+					predecessors[target] = link;
+					heap.insertOrDecrease(target, targetCost);
+				}
+			}
+		}
+		Assert.assertTrue(settled[to]);
+		cost[0] = costs[to];
+		List<Id<Link>> linkIds = new ArrayList<>();
+		for (int link = predecessors[to]; link >= 0; link = predecessors[link]) {
+			linkIds.add(0, graph.getLink(link).getId());
+		}
+		return linkIds;
+	}
+
+	private static boolean isTurn(TurnRoutingGraph graph, int from, int to) {
+		for (int turn = graph.getTurnStart(from); turn < graph.getTurnStart(from + 1); turn++) {
+			if (graph.getTurnTarget(turn) == to)
+				return true;
+		}
+		return false;
+	}
+
+	/*
+	 * Links in both directions between neighbors of a grid. The lanes of every
+	 * third link forbid one of its turns, but never all of them.
+	 *
+	 * @return the forbidden turns
+	 */
+	@SuppressWarnings("unchecked")
+	private static List<Id<Link>[]> createGrid(Scenario scenario, Random random) {
+		Network network = scenario.getNetwork();
+		Node[][] nodes = new Node[GRID_SIZE][GRID_SIZE];
+		for (int x = 0; x < GRID_SIZE; x++) {
+			for (int y = 0; y < GRID_SIZE; y++) {
+				nodes[x][y] = network.getFactory().createNode(Id.createNodeId(x + "_" + y), new Coord(100 * x, 100 * y));
+				network.addNode(nodes[x][y]);
+			}
+		}
+		for (int x = 0; x < GRID_SIZE; x++) {
+			for (int y = 0; y < GRID_SIZE; y++) {
+				if (x + 1 < GRID_SIZE) {
+					createLink(network, nodes[x][y], nodes[x + 1][y], random);
+					createLink(network, nodes[x + 1][y], nodes[x][y], random);
+				}
+				if (y + 1 < GRID_SIZE) {
+					createLink(network, nodes[x][y], nodes[x][y + 1], random);
+					createLink(network, nodes[x][y + 1], nodes[x][y], random);
+				}
+			}
+		}
+
+		Lanes lanes = scenario.getLanes();
+		List<Id<Link>[]> forbiddenTurns = new ArrayList<>();
+		int i = 0;
+		for (Link link : network.getLinks().values()) {
+			List<Id<Link>> toLinkIds = new ArrayList<>(link.getToNode().getOutLinks().keySet());
+			if (i++ % 3 != 0 || toLinkIds.size() < 2)
+				continue;
+			Id<Link> forbidden = toLinkIds.remove(random.nextInt(toLinkIds.size()));
+			forbiddenTurns.add(new Id[] { link.getId(), forbidden });
+			LanesToLinkAssignment l2l = lanes.getFactory().createLanesToLinkAssignment(link.getId());
+			Lane lane = lanes.getFactory().createLane(Id.create("Lane" + link.getId() + ".1", Lane.class));
+			lane.setStartsAtMeterFromLinkEnd(link.getLength());
+			lane.setNumberOfRepresentedLanes(1);
+			for (Id<Link> toLinkId : toLinkIds) {
+				lane.addToLinkId(toLinkId);
+			}
+			l2l.addLane(lane);
+			lanes.addLanesToLinkAssignment(l2l);
+		}
+		return forbiddenTurns;
+	}
+
+	private static void createLink(Network network, Node from, Node to, Random random) {
+		Link link = network.getFactory().createLink(Id.createLinkId(from.getId() + "-" + to.getId()), from, to);
+		link.setLength(100 + random.nextInt(50));
+		link.setFreespeed(5 + 10 * random.nextDouble());
+		link.setCapacity(1800);
+		link.setNumberOfLanes(1);
+		network.addLink(link);
+	}
+
+	private static Scenario createScenario() {
+		return ScenarioUtils.createScenario(ConfigUtils.createConfig());
+	}
+
+	/*
+	 * A time per turn, at least the free speed travel time of its from-link and
+	 * the same all day.
+	 */
+	private static final class TurnTimes implements TravelTime, LinkToLinkTravelTime {
+
+		private final TurnRoutingGraph graph;
+		private final Map<Link, Map<Link, Double>> times = new HashMap<>();
+
+		TurnTimes(TurnRoutingGraph graph, Random random) {
+			this.graph = graph;
+			change(random);
+		}
+
+		void change(Random random) {
+			for (int link = 0; link < this.graph.getNumberOfLinks(); link++) {
+				Link fromLink = this.graph.getLink(link);
+				Map<Link, Double> turnTimes = new HashMap<>();
+				for (int turn = this.graph.getTurnStart(link); turn < this.graph.getTurnStart(link + 1); turn++) {
+					turnTimes.put(this.graph.getLink(this.graph.getTurnTarget(turn)),
+							fromLink.getLength() / fromLink.getFreespeed() * (1 + 2 * random.nextDouble()));
+				}
+				this.times.put(fromLink, turnTimes);
+			}
+		}
+
+		@Override
+		public double getLinkToLinkTravelTime(Link fromLink, Link toLink, double time) {
+			return this.times.get(fromLink).get(toLink);
+		}
+
+		@Override
+		public double getLinkTravelTime(Link link, double time, Person person, Vehicle vehicle) {
+			return link.getLength() / link.getFreespeed();
+		}
+	}
+
+	private static final class TimeAndDistanceDisutilityFactory implements TravelDisutilityFactory {
+		@Override
+		public TravelDisutility createTravelDisutility(final TravelTime travelTime) {
+			return new TravelDisutility() {
+				@Override
+				public double getLinkTravelDisutility(Link link, double time, Person person, Vehicle vehicle) {
+					return travelTime.getLinkTravelTime(link, time, person, vehicle)
+							+ MARGINAL_COST_OF_DISTANCE * link.getLength();
+				}
+
+				@Override
+				public double getLinkMinimumTravelDisutility(Link link) {
+					return link.getLength() / link.getFreespeed() + MARGINAL_COST_OF_DISTANCE * link.getLength();
+				}
+			};
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+/* *********************************************************************** *
+ * project: org.matsim.*												   *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ * copyright       : (C) 2017 by the members listed in the COPYING,        *
+ *                   LICENSE and WARRANTY file.                            *
+ * email           : info at matsim dot org                                *
+ *                                                                         *
+ * *********************************************************************** *
+ *                                                                         *
+ *   This program is free software; you can redistribute it and/or modify  *
+ *   it under the terms of the GNU General Public License as published by  *
+ *   the Free Software Foundation; either version 2 of the License, or     *
+ *   (at your option) any later version.                                   *
+ *   See also COPYING, LICENSE and WARRANTY file                           *
+ *                                                                         *
+ * *********************************************************************** */
+package org.matsim.example;
+
+import org.junit.Assert;
+import org.junit.Test;
+import org.matsim.api.core.v01.Coord;
+import org.matsim.api.core.v01.Id;
+import org.matsim.api.core.v01.TransportMode;
+import org.matsim.api.core.v01.events.LinkEnterEvent;
+import org.matsim.api.core.v01.events.LinkLeaveEvent;
+import org.matsim.api.core.v01.network.Link;
+import org.matsim.api.core.v01.network.Network;
+import org.matsim.api.core.v01.network.Node;
+import org.matsim.core.network.NetworkUtils;
+import org.matsim.vehicles.Vehicle;
+
+/**
+ * @author nschirrmacher
+ *
+ */
+public class TurnTravelTimesTest {
+
+	@Test
+	public final void testTravelTimesPerTurnAndBin() {
+		Network network = NetworkUtils.createNetwork();
+		Node n0 = createNode(network, "0", 0, 0);
+		Node n1 = createNode(network, "1", 100, 0);
+		Node n2 = createNode(network, "2", 200, 0);
+		Node n3 = createNode(network, "3", 100, 100);
+		Link a = createLink(network, "a", n0, n1);
+		Link b = createLink(network, "b", n1, n2);
+		Link c = createLink(network, "c", n1, n3);
+		TurnTravelTimes travelTimes = new TurnTravelTimes(new TurnRoutingGraph(network, null, TransportMode.car), 60,
+				3600);
+
+		drive(travelTimes, "1", a, 0, 30, b);
+		drive(travelTimes, "2", a, 20, 100, c);
+		// still on b, its time is not known yet
+		travelTimes.handleEvent(new LinkLeaveEvent(40, Id.create("1", Vehicle.class), b.getId()));
+
+		Assert.assertEquals(30, travelTimes.getLinkToLinkTravelTime(a, b, 10), 1e-6);
+		Assert.assertEquals(80, travelTimes.getLinkToLinkTravelTime(a, c, 59), 1e-6);
+		Assert.assertEquals(55, travelTimes.getLinkTravelTime(a, 10, null, null), 1e-6);
+		// free speed travel time without vehicles in the bin
+		Assert.assertEquals(10, travelTimes.getLinkTravelTime(a, 60, null, null), 1e-6);
+		Assert.assertEquals(10, travelTimes.getLinkToLinkTravelTime(a, b, 60), 1e-6);
+		Assert.assertEquals(10, travelTimes.getLinkTravelTime(b, 10, null, null), 1e-6);
+		// later times belong to the last bin
+		drive(travelTimes, "3", a, 5000, 5040, b);
+		Assert.assertEquals(40, travelTimes.getLinkTravelTime(a, 3600, null, null), 1e-6);
+
+		travelTimes.reset(1);
+		Assert.assertEquals(10, travelTimes.getLinkTravelTime(a, 10, null, null), 1e-6);
+	}
+
+	private static void drive(TurnTravelTimes travelTimes, String vehicle, Link from, double enterTime,
+			double leaveTime, Link to) {
+		Id<Vehicle> vehicleId = Id.create(vehicle, Vehicle.class);
+		travelTimes.handleEvent(new LinkEnterEvent(enterTime, vehicleId, from.getId()));
+		travelTimes.handleEvent(new LinkLeaveEvent(leaveTime, vehicleId, from.getId()));
+		travelTimes.handleEvent(new LinkEnterEvent(leaveTime, vehicleId, to.getId()));
+	}
+
+	private static Node createNode(Network network, String id, double x, double y) {
+		Node node = network.getFactory().createNode(Id.createNodeId(id), new Coord(x, y));
+		network.addNode(node);
+		return node;
+	}
+
+	private static Link createLink(Network network, String id, Node from, Node to) {
+		Link link = network.getFactory().createLink(Id.createLinkId(id), from, to);
+		link.setLength(100);
+		link.setFreespeed(10);
+		network.addLink(link);
+		return link;
+	}
+
+}